@@ -18,6 +18,8 @@ import org.apache.manifoldcf.core.interfaces.IThreadContext;
 import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
 import org.apache.manifoldcf.crawler.connectors.confluence.ConfluenceConfiguration;
 import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluenceClient;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluenceClientRegistry;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ThrottleSchedule;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceUser;
 import org.apache.manifoldcf.crawler.system.Logging;
 import org.slf4j.Logger;
@@ -43,6 +45,7 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 
 	/* Configuration tabs */
 	private static final String CONF_SERVER_TAB_PROPERTY = "ConfluenceAuthorityConnector.Server";
+	private static final String CONF_PERFORMANCE_TAB_PROPERTY = "ConfluenceAuthorityConnector.Performance";
 
 	// pages & js
 	// Template names for Confluence configuration
@@ -54,12 +57,26 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 	 * Server tab template
 	 */
 	private static final String EDIT_CONFIG_FORWARD_SERVER = "editConfiguration_conf_server.html";
+	/**
+	 * Performance tab template
+	 */
+	private static final String EDIT_CONFIG_FORWARD_PERFORMANCE = "editConfiguration_conf_performance.html";
 
 	/**
 	 * Forward to the HTML template to view the configuration parameters
 	 */
 	private static final String VIEW_CONFIG_FORWARD = "viewConfiguration_conf.html";
 
+	/* Connection parameters, with their default values */
+	private static final String[][] PERFORMANCE_PARAMETERS = {
+			{ ConfluenceConfiguration.Performance.MAX_CONNECTIONS,
+					ConfluenceConfiguration.Performance.MAX_CONNECTIONS_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.CONNECT_TIMEOUT,
+					ConfluenceConfiguration.Performance.CONNECT_TIMEOUT_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.POOL_TIMEOUT,
+					ConfluenceConfiguration.Performance.POOL_TIMEOUT_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.METADATA_TIMEOUT,
+					ConfluenceConfiguration.Performance.METADATA_TIMEOUT_DEFAULT_VALUE } };
 
 	private Logger logger = LoggerFactory
 			.getLogger(ConfluenceAuthorityConnector.class);
@@ -72,8 +89,17 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 	protected String username = null;
 	protected String password = null;
 
+	/* Connection parameters */
+	protected String maxConnections = null;
+	protected String connectTimeout = null;
+	protected String poolTimeout = null;
+	protected String metadataTimeout = null;
+
 	protected ConfluenceClient confluenceClient = null;
 
+	/* Time after which an idle pooled connection is released */
+	private static final long IDLE_CONNECTION_TIME = 300000L;
+
 	/**
 	 * <p>
 	 * Default constructor
@@ -100,6 +126,7 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 	@Override
 	public void disconnect() throws ManifoldCFException {
 		if (confluenceClient != null) {
+			ConfluenceClientRegistry.release(confluenceClient);
 			confluenceClient = null;
 		}
 
@@ -110,6 +137,10 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 		username = null;
 		password = null;
 
+		maxConnections = null;
+		connectTimeout = null;
+		poolTimeout = null;
+		metadataTimeout = null;
 	}
 
 	/**
@@ -129,6 +160,15 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 		password = params
 				.getObfuscatedParameter(ConfluenceConfiguration.Server.PASSWORD);
 
+		maxConnections = params
+				.getParameter(ConfluenceConfiguration.Performance.MAX_CONNECTIONS);
+		connectTimeout = params
+				.getParameter(ConfluenceConfiguration.Performance.CONNECT_TIMEOUT);
+		poolTimeout = params
+				.getParameter(ConfluenceConfiguration.Performance.POOL_TIMEOUT);
+		metadataTimeout = params
+				.getParameter(ConfluenceConfiguration.Performance.METADATA_TIMEOUT);
+
 		try {
 			initConfluenceClient();
 		} catch (ManifoldCFException e) {
@@ -232,13 +272,58 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 					portInt = 443;
 			}
 
-			/* Generating a client to perform Confluence requests */
-			confluenceClient = new ConfluenceClient(protocol, host, portInt,
-					path, username, password);
+			final int maxConnectionsInt = parseIntParameter(maxConnections, ConfluenceConfiguration.Performance.MAX_CONNECTIONS_DEFAULT_VALUE);
+			final int connectTimeoutInt = parseIntParameter(connectTimeout, ConfluenceConfiguration.Performance.CONNECT_TIMEOUT_DEFAULT_VALUE) * 1000;
+			final int poolTimeoutInt = parseIntParameter(poolTimeout, ConfluenceConfiguration.Performance.POOL_TIMEOUT_DEFAULT_VALUE) * 1000;
+			final int metadataTimeoutInt = parseIntParameter(metadataTimeout, ConfluenceConfiguration.Performance.METADATA_TIMEOUT_DEFAULT_VALUE) * 1000;
+
+			/* Clients are shared by the connections with the same settings, which are applied once */
+			String settings = String.format(Locale.ROOT, "%d|%d/%d/%d",
+					maxConnectionsInt, connectTimeoutInt, poolTimeoutInt,
+					metadataTimeoutInt);
+
+			/* Getting the shared client to perform Confluence requests */
+			confluenceClient = ConfluenceClientRegistry.acquire(protocol,
+					host, portInt, path, username, password, settings,
+					new ConfluenceClientRegistry.Configurer() {
+						@Override
+						public void configure(ConfluenceClient client)
+								throws ManifoldCFException {
+							/* Authority checks are not throttled, only bounded by the connections */
+							client.setThrottleSchedule(ThrottleSchedule.parse(null,
+									new ThrottleSchedule.Profile(maxConnectionsInt, 0)));
+							client.setTimeouts(connectTimeoutInt, poolTimeoutInt,
+									metadataTimeoutInt,
+									ConfluenceClient.DEFAULT_CONTENT_TIMEOUT);
+						}
+					});
 		}
 
 	}
 
+	/**
+	 * <p>
+	 * Parses an integer configuration parameter
+	 * </p>
+	 * 
+	 * @param value
+	 *            the configured value
+	 * @param defaultValue
+	 *            the value used if there is no configured value
+	 * @return the parsed value
+	 * @throws ManifoldCFException
+	 *             if the value is not a valid integer
+	 */
+	private static int parseIntParameter(String value, String defaultValue)
+			throws ManifoldCFException {
+		try {
+			return Integer.parseInt(StringUtils.defaultIfEmpty(value,
+					defaultValue));
+		} catch (NumberFormatException e) {
+			throw new ManifoldCFException("Bad number: " + e.getMessage(), e);
+		}
+	}
+
 	/**
 	 * This method is called to assess whether to count this connector instance
 	 * should actually be counted as being connected.
@@ -250,6 +335,19 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 		return confluenceClient != null;
 	}
 
+	/**
+	 * <p>
+	 * Evicts the pooled connections that have expired or have been idle for
+	 * too long, keeping the client and its warm connections
+	 * </p>
+	 */
+	@Override
+	public void poll() throws ManifoldCFException {
+		if (confluenceClient != null) {
+			confluenceClient.closeIdleConnections(IDLE_CONNECTION_TIME);
+		}
+	}
+
 
 	private void fillInServerConfigurationMap(Map<String, String> serverMap,
 			IPasswordMapperActivity mapper, ConfigParams parameters) {
@@ -296,6 +394,16 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 				+ ConfluenceConfiguration.Server.PASSWORD, confluencePassword);
 	}
 
+	private static void fillInPerformanceConfigurationMap(
+			Map<String, String> performanceMap, ConfigParams parameters) {
+		for (String[] parameter : PERFORMANCE_PARAMETERS) {
+			String value = parameters.getParameter(parameter[0]);
+			if (value == null)
+				value = parameter[1];
+			performanceMap.put(PARAMETER_PREFIX + parameter[0], value);
+		}
+	}
+
 	@Override
 	public void viewConfiguration(IThreadContext threadContext,
 			IHTTPOutput out, Locale locale, ConfigParams parameters)
@@ -304,6 +412,7 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 
 		/* Fill server configuration parameters */
 		fillInServerConfigurationMap(paramMap, out, parameters);
+		fillInPerformanceConfigurationMap(paramMap, parameters);
 
 		Messages.outputResourceWithVelocity(out, locale, VIEW_CONFIG_FORWARD,
 				paramMap, true);
@@ -315,11 +424,14 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 			List<String> tabsArray) throws ManifoldCFException, IOException {
 		// Add the Server tab
 		tabsArray.add(Messages.getString(locale, CONF_SERVER_TAB_PROPERTY));
+		// Add the Performance tab
+		tabsArray.add(Messages.getString(locale, CONF_PERFORMANCE_TAB_PROPERTY));
 		// Map the parameters
 		Map<String, String> paramMap = new HashMap<String, String>();
 
 		/* Fill server configuration parameters */
 		fillInServerConfigurationMap(paramMap, out, parameters);
+		fillInPerformanceConfigurationMap(paramMap, parameters);
 
 		// Output the Javascript - only one Velocity template for all tabs
 		Messages.outputResourceWithVelocity(out, locale,
@@ -338,10 +450,14 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 
 		// Fill in the parameters
 		fillInServerConfigurationMap(paramMap, out, parameters);
+		fillInPerformanceConfigurationMap(paramMap, parameters);
 
 		// Server tab
 		Messages.outputResourceWithVelocity(out, locale,
 				EDIT_CONFIG_FORWARD_SERVER, paramMap, true);
+		// Performance tab
+		Messages.outputResourceWithVelocity(out, locale,
+				EDIT_CONFIG_FORWARD_PERFORMANCE, paramMap, true);
 
 	}
 
@@ -400,6 +516,21 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 					ConfluenceConfiguration.Server.PASSWORD,
 					variableContext.mapKeyToPassword(confluencePassword));
 
+		for (String[] parameter : PERFORMANCE_PARAMETERS) {
+			String value = variableContext.getParameter(PARAMETER_PREFIX
+					+ parameter[0]);
+			if (value != null)
+				parameters.setParameter(parameter[0], value);
+		}
+
+		for (String[] parameter : PERFORMANCE_PARAMETERS) {
+			try {
+				parseIntParameter(parameters.getParameter(parameter[0]), "0");
+			} catch (ManifoldCFException e) {
+				return "Invalid value for " + parameter[0] + ": " + e.getMessage();
+			}
+		}
+
 		/* null means process configuration has been successful */
 		return null;
 	}
@@ -421,6 +552,9 @@ public class ConfluenceAuthorityConnector extends BaseAuthorityConnector {
 	  public AuthorizationResponse getAuthorizationResponse(String userName)
 	      throws ManifoldCFException {
 	    try {
+	      if (!isConnected()) {
+	        initConfluenceClient();
+	      }
 	      ConfluenceUser confluenceUser = confluenceClient.getUserAuthorities(userName);
 	      if (confluenceUser.getUsername() == null
 	          || confluenceUser.getUsername().isEmpty()
@@ -29,12 +29,95 @@ public class ConfluenceConfiguration {
 		public static final String PASSWORD_DEFAULT_VALUE = "";
 	}
 
+	public static interface Performance {
+		public static final String MAX_CONNECTIONS = "maxconnections";
+		public static final String REQUESTS_PER_SECOND = "requestspersecond";
+		public static final String THROTTLE_SCHEDULE = "throttleschedule";
+		public static final String CONNECT_TIMEOUT = "connecttimeout";
+		public static final String POOL_TIMEOUT = "pooltimeout";
+		public static final String METADATA_TIMEOUT = "metadatatimeout";
+		public static final String CONTENT_TIMEOUT = "contenttimeout";
+		public static final String FAILURE_RATE_THRESHOLD = "failureratethreshold";
+		public static final String MINIMUM_REQUESTS = "minimumrequests";
+		public static final String OPEN_TIME = "opentime";
+		public static final String PREFETCH_DOCUMENTS = "prefetchdocuments";
+		public static final String PREFETCH_MEMORY = "prefetchmemory";
+
+		public static final String MAX_CONNECTIONS_DEFAULT_VALUE = "1";
+		public static final String REQUESTS_PER_SECOND_DEFAULT_VALUE = "0";
+		public static final String THROTTLE_SCHEDULE_DEFAULT_VALUE = "";
+		/* Timeouts are expressed in seconds */
+		public static final String CONNECT_TIMEOUT_DEFAULT_VALUE = "60";
+		/* The pool is shared by the connections with the same settings, so the wait may be long */
+		public static final String POOL_TIMEOUT_DEFAULT_VALUE = "300";
+		public static final String METADATA_TIMEOUT_DEFAULT_VALUE = "120";
+		public static final String CONTENT_TIMEOUT_DEFAULT_VALUE = "900";
+		public static final String FAILURE_RATE_THRESHOLD_DEFAULT_VALUE = "50";
+		public static final String MINIMUM_REQUESTS_DEFAULT_VALUE = "20";
+		public static final String OPEN_TIME_DEFAULT_VALUE = "60";
+		public static final String PREFETCH_DOCUMENTS_DEFAULT_VALUE = "2";
+		/* Memory in megabytes */
+		public static final String PREFETCH_MEMORY_DEFAULT_VALUE = "32";
+	}
+
+	public static interface Storage {
+		public static final String CACHE_DIRECTORY = "cachedirectory";
+		public static final String CACHE_SIZE = "cachesize";
+		public static final String CONTENT_DIRECTORY = "contentdirectory";
+		public static final String CONTENT_SIZE = "contentsize";
+		public static final String SNAPSHOT_MODE = "snapshotmode";
+		public static final String SNAPSHOT_DIRECTORY = "snapshotdirectory";
+		public static final String STATE_DIRECTORY = "statedirectory";
+
+		public static final String CACHE_DIRECTORY_DEFAULT_VALUE = "";
+		/* Size in megabytes */
+		public static final String CACHE_SIZE_DEFAULT_VALUE = "512";
+		public static final String CONTENT_DIRECTORY_DEFAULT_VALUE = "";
+		/* Size in megabytes */
+		public static final String CONTENT_SIZE_DEFAULT_VALUE = "2048";
+		public static final String SNAPSHOT_MODE_NONE = "none";
+		public static final String SNAPSHOT_MODE_RECORD = "record";
+		public static final String SNAPSHOT_MODE_REPLAY = "replay";
+		public static final String SNAPSHOT_MODE_DEFAULT_VALUE = SNAPSHOT_MODE_NONE;
+		public static final String SNAPSHOT_DIRECTORY_DEFAULT_VALUE = "";
+		public static final String STATE_DIRECTORY_DEFAULT_VALUE = "";
+	}
+
+	public static interface Notification {
+		public static final String WEBHOOK_PORT = "webhookport";
+		public static final String WEBHOOK_ADDRESS = "webhookaddress";
+		public static final String WEBHOOK_SECRET = "webhooksecret";
+		public static final String QUEUE_DIRECTORY = "queuedirectory";
+		public static final String RECONCILE_INTERVAL = "reconcileinterval";
+
+		/* Empty to disable the webhook receiver */
+		public static final String WEBHOOK_PORT_DEFAULT_VALUE = "";
+		/* Empty to listen on every interface */
+		public static final String WEBHOOK_ADDRESS_DEFAULT_VALUE = "";
+		public static final String WEBHOOK_SECRET_DEFAULT_VALUE = "";
+		public static final String QUEUE_DIRECTORY_DEFAULT_VALUE = "";
+		/* Interval in minutes */
+		public static final String RECONCILE_INTERVAL_DEFAULT_VALUE = "1440";
+	}
+
 	public static interface Specification {
 		public static final String SPACES = "spaces";
 		public static final String SPACE = "space";
 		public static final String SPACE_KEY_ATTRIBUTE = "key";
 		public static final String PAGES = "pages";
 		public static final String PROCESS_ATTACHMENTS_ATTRIBUTE_KEY = "process_attachments";
+		public static final String BOOTSTRAP_ARCHIVE_ATTRIBUTE_KEY = "bootstrap_archive";
+		/* Comma separated names of the indexed metadata groups, all of them when missing */
+		public static final String METADATA_ATTRIBUTE_KEY = "metadata";
+		/* Representation the body of the pages is requested in, view when missing */
+		public static final String BODY_REPRESENTATION_ATTRIBUTE_KEY = "body_representation";
+		public static final String EXTRACT_TEXT_ATTRIBUTE_KEY = "extract_text";
+		/* Whether the hashes of the body and the fields decide if a document is ingested again */
+		public static final String COMPARE_CONTENT_ATTRIBUTE_KEY = "compare_content";
+		/* Whether identical attachments of a space are sent once, needs a state directory */
+		public static final String DEDUPLICATE_ATTACHMENTS_ATTRIBUTE_KEY = "deduplicate_attachments";
+		/* Key of the job, generated when it is first saved, naming the directory of its crawl state */
+		public static final String JOB_KEY_ATTRIBUTE_KEY = "job_key";
 		
 	}
 	
@@ -1,15 +1,27 @@
 package org.apache.manifoldcf.crawler.connectors.confluence;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.text.DateFormat;
 import java.text.MessageFormat;
+import java.util.Collection;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.manifoldcf.agents.interfaces.RepositoryDocument;
@@ -23,11 +35,38 @@ import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
 import org.apache.manifoldcf.core.interfaces.Specification;
 import org.apache.manifoldcf.core.interfaces.SpecificationNode;
 import org.apache.manifoldcf.crawler.connectors.BaseRepositoryConnector;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.AsyncConfluenceClient;
 import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluenceClient;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluenceClientRegistry;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluenceExecutor;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluencePaginator;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ContentStore;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.DocumentPrefetcher;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ResponseCache;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ThrottleSchedule;
+import org.apache.manifoldcf.crawler.connectors.confluence.exception.ConfluenceException;
+import org.apache.manifoldcf.crawler.connectors.confluence.exception.ConfluenceUnavailableException;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.Attachment;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.BodyRepresentation;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceResponse;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.MetadataGroup;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.Page;
+import org.apache.manifoldcf.crawler.connectors.confluence.snapshot.RecordType;
+import org.apache.manifoldcf.crawler.connectors.confluence.snapshot.SnapshotReader;
+import org.apache.manifoldcf.crawler.connectors.confluence.snapshot.SnapshotReplayClient;
+import org.apache.manifoldcf.crawler.connectors.confluence.snapshot.SnapshotWriter;
+import org.apache.manifoldcf.crawler.connectors.confluence.snapshot.SpaceExportImporter;
+import org.apache.manifoldcf.crawler.connectors.confluence.state.CrawlStateStore;
+import org.apache.manifoldcf.crawler.connectors.confluence.state.FingerprintIndex;
+import org.apache.manifoldcf.crawler.connectors.confluence.state.SpaceState;
 import org.apache.manifoldcf.crawler.connectors.confluence.util.ConfluenceUtil;
+import org.apache.manifoldcf.crawler.connectors.confluence.util.DocumentVersion;
+import org.apache.manifoldcf.crawler.connectors.confluence.util.HtmlTextExtractor;
+import org.apache.manifoldcf.crawler.connectors.confluence.util.RevisitSchedule;
+import org.apache.manifoldcf.crawler.connectors.confluence.util.SeedState;
+import org.apache.manifoldcf.crawler.connectors.confluence.webhook.ChangeEvent;
+import org.apache.manifoldcf.crawler.connectors.confluence.webhook.ChangeQueue;
+import org.apache.manifoldcf.crawler.connectors.confluence.webhook.WebhookReceiver;
 import org.apache.manifoldcf.crawler.interfaces.IExistingVersions;
 import org.apache.manifoldcf.crawler.interfaces.IProcessActivity;
 import org.apache.manifoldcf.crawler.interfaces.ISeedingActivity;
@@ -38,6 +77,9 @@ import org.slf4j.LoggerFactory;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 /**
  * <p>
@@ -62,8 +104,17 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 	 */
 	private static final String PARAMETER_PREFIX = "confluence_";
 
+	/*
+	 * Prefix of the directories keeping the state of every job, in the state
+	 * directory
+	 */
+	private static final String JOB_STATE_DIRECTORY_PREFIX = "job-";
+
 	/* Configuration tabs */
 	private static final String CONF_SERVER_TAB_PROPERTY = "ConfluenceRepositoryConnector.Server";
+	private static final String CONF_PERFORMANCE_TAB_PROPERTY = "ConfluenceRepositoryConnector.Performance";
+	private static final String CONF_STORAGE_TAB_PROPERTY = "ConfluenceRepositoryConnector.Storage";
+	private static final String CONF_NOTIFICATIONS_TAB_PROPERTY = "ConfluenceRepositoryConnector.Notifications";
 
 	/* Specification tabs */
 	private static final String CONF_SPACES_TAB_PROPERTY = "ConfluenceRepositoryConnector.Spaces";
@@ -80,6 +131,83 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 	 */
 	private static final String EDIT_CONFIG_FORWARD_SERVER = "editConfiguration_conf_server.html";
 
+	/**
+	 * Performance tab template
+	 */
+	private static final String EDIT_CONFIG_FORWARD_PERFORMANCE = "editConfiguration_conf_performance.html";
+
+	/**
+	 * Local storage tab template
+	 */
+	private static final String EDIT_CONFIG_FORWARD_STORAGE = "editConfiguration_conf_storage.html";
+
+	/**
+	 * Change notifications tab template
+	 */
+	private static final String EDIT_CONFIG_FORWARD_NOTIFICATIONS = "editConfiguration_conf_notifications.html";
+
+	/**
+	 * Performance configuration parameters along with their default values
+	 */
+	private static final String[][] PERFORMANCE_PARAMETERS = new String[][] {
+			{ ConfluenceConfiguration.Performance.MAX_CONNECTIONS,
+					ConfluenceConfiguration.Performance.MAX_CONNECTIONS_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.REQUESTS_PER_SECOND,
+					ConfluenceConfiguration.Performance.REQUESTS_PER_SECOND_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.THROTTLE_SCHEDULE,
+					ConfluenceConfiguration.Performance.THROTTLE_SCHEDULE_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.CONNECT_TIMEOUT,
+					ConfluenceConfiguration.Performance.CONNECT_TIMEOUT_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.POOL_TIMEOUT,
+					ConfluenceConfiguration.Performance.POOL_TIMEOUT_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.METADATA_TIMEOUT,
+					ConfluenceConfiguration.Performance.METADATA_TIMEOUT_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.CONTENT_TIMEOUT,
+					ConfluenceConfiguration.Performance.CONTENT_TIMEOUT_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.FAILURE_RATE_THRESHOLD,
+					ConfluenceConfiguration.Performance.FAILURE_RATE_THRESHOLD_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.MINIMUM_REQUESTS,
+					ConfluenceConfiguration.Performance.MINIMUM_REQUESTS_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.OPEN_TIME,
+					ConfluenceConfiguration.Performance.OPEN_TIME_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.PREFETCH_DOCUMENTS,
+					ConfluenceConfiguration.Performance.PREFETCH_DOCUMENTS_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Performance.PREFETCH_MEMORY,
+					ConfluenceConfiguration.Performance.PREFETCH_MEMORY_DEFAULT_VALUE } };
+
+	/**
+	 * Local storage configuration parameters along with their default values
+	 */
+	private static final String[][] STORAGE_PARAMETERS = new String[][] {
+			{ ConfluenceConfiguration.Storage.CACHE_DIRECTORY,
+					ConfluenceConfiguration.Storage.CACHE_DIRECTORY_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Storage.CACHE_SIZE,
+					ConfluenceConfiguration.Storage.CACHE_SIZE_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Storage.CONTENT_DIRECTORY,
+					ConfluenceConfiguration.Storage.CONTENT_DIRECTORY_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Storage.CONTENT_SIZE,
+					ConfluenceConfiguration.Storage.CONTENT_SIZE_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Storage.SNAPSHOT_MODE,
+					ConfluenceConfiguration.Storage.SNAPSHOT_MODE_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Storage.SNAPSHOT_DIRECTORY,
+					ConfluenceConfiguration.Storage.SNAPSHOT_DIRECTORY_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Storage.STATE_DIRECTORY,
+					ConfluenceConfiguration.Storage.STATE_DIRECTORY_DEFAULT_VALUE } };
+
+	/**
+	 * Change notifications configuration parameters along with their default
+	 * values. The webhook secret is kept apart, obfuscated like the password
+	 */
+	private static final String[][] NOTIFICATION_PARAMETERS = new String[][] {
+			{ ConfluenceConfiguration.Notification.WEBHOOK_PORT,
+					ConfluenceConfiguration.Notification.WEBHOOK_PORT_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Notification.WEBHOOK_ADDRESS,
+					ConfluenceConfiguration.Notification.WEBHOOK_ADDRESS_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Notification.QUEUE_DIRECTORY,
+					ConfluenceConfiguration.Notification.QUEUE_DIRECTORY_DEFAULT_VALUE },
+			{ ConfluenceConfiguration.Notification.RECONCILE_INTERVAL,
+					ConfluenceConfiguration.Notification.RECONCILE_INTERVAL_DEFAULT_VALUE } };
+
 	/**
 	 * Forward to the HTML template to view the configuration parameters
 	 */
@@ -111,6 +239,34 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 
 	protected final static long interruptionRetryTime = 5L * 60L * 1000L;
 
+	/*
+	 * Searches for modified content look back further than the last seeding,
+	 * as Confluence indexes the changes for searching asynchronously
+	 */
+	private static final long MODIFIED_SEARCH_OVERLAP = 15L * 60L * 1000L;
+	private static final int SEARCH_PAGE_SIZE = 50;
+	private static final int ATTACHMENT_PAGE_SIZE = 50;
+
+	/* Pages are sent as plain text when the job extracts their text */
+	private static final String HTML_MEDIA_TYPE = "text/html";
+	private static final String TEXT_MEDIA_TYPE = "text/plain";
+	private static final String EXTRACTED_TITLE_FIELD = "extractedTitle";
+	private static final String HEADINGS_FIELD = "headings";
+
+	/* Keys of what is hashed along the fields when comparing content hashes, no field starts with # */
+	private static final String MEDIA_TYPE_HASH_KEY = "#mimeType";
+	private static final String URI_HASH_KEY = "#uri";
+	private static final String ACL_HASH_KEY = "#acl";
+
+	/* Field and version suffix of the attachments indexed as references to an identical one */
+	private static final String DUPLICATE_OF_FIELD = "duplicateOf";
+	private static final String DUPLICATE_OF_VERSION = "|duplicateOf=";
+
+	/* Version suffixes of the job options changing what is sent, left out when they have their default value */
+	private static final String METADATA_VERSION = "|metadata=";
+	private static final String BODY_VERSION = "|body=";
+	private static final String EXTRACT_TEXT_VERSION = "|text";
+
 	private Logger logger = LoggerFactory
 			.getLogger(ConfluenceRepositoryConnector.class);
 
@@ -122,6 +278,40 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 	protected String username = null;
 	protected String password = null;
 
+	/* Crawl profiles */
+	protected String maxConnections = null;
+	protected String requestsPerSecond = null;
+	protected String throttleSchedule = null;
+
+	/* Timeouts and circuit breaker */
+	protected String connectTimeout = null;
+	protected String poolTimeout = null;
+	protected String metadataTimeout = null;
+	protected String contentTimeout = null;
+	protected String failureRateThreshold = null;
+	protected String minimumRequests = null;
+	protected String openTime = null;
+
+	/* Documents fetched ahead while ingesting */
+	protected String prefetchDocuments = null;
+	protected String prefetchMemory = null;
+
+	/* Local storage */
+	protected String cacheDirectory = null;
+	protected String cacheSize = null;
+	protected String contentDirectory = null;
+	protected String contentSize = null;
+	protected String snapshotMode = null;
+	protected String snapshotDirectory = null;
+	protected String stateDirectory = null;
+
+	/* Change notifications parameters */
+	protected String webhookPort = null;
+	protected String webhookAddress = null;
+	protected String webhookSecret = null;
+	protected String queueDirectory = null;
+	protected String reconcileInterval = null;
+
 	protected ConfluenceClient confluenceClient = null;
 
 	/**
@@ -147,6 +337,14 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 		return new String[] { ACTIVITY_READ };
 	}
 
+	/**
+	 * <p>
+	 * Documents are binned by host. The same bin name is used by the
+	 * {@code ConfluenceClient} to share the request rate of the active crawl
+	 * profile, so the throttling done by ManifoldCF and by the client are
+	 * applied to the same set of requests
+	 * </p>
+	 */
 	@Override
 	public String[] getBinNames(String documentIdentifier) {
 		return new String[] { host };
@@ -158,8 +356,10 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 	@Override
 	public void disconnect() throws ManifoldCFException {
 		if (confluenceClient != null) {
+			ConfluenceClientRegistry.release(confluenceClient);
 			confluenceClient = null;
 		}
+		lastSessionFetch = -1L;
 
 		protocol = null;
 		host = null;
@@ -168,6 +368,33 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 		username = null;
 		password = null;
 
+		maxConnections = null;
+		requestsPerSecond = null;
+		throttleSchedule = null;
+
+		connectTimeout = null;
+		poolTimeout = null;
+		metadataTimeout = null;
+		contentTimeout = null;
+		failureRateThreshold = null;
+		minimumRequests = null;
+		openTime = null;
+		prefetchDocuments = null;
+		prefetchMemory = null;
+
+		cacheDirectory = null;
+		cacheSize = null;
+		contentDirectory = null;
+		contentSize = null;
+		snapshotMode = null;
+		snapshotDirectory = null;
+		stateDirectory = null;
+
+		webhookPort = null;
+		webhookAddress = null;
+		webhookSecret = null;
+		queueDirectory = null;
+		reconcileInterval = null;
 	}
 
 	/**
@@ -186,6 +413,54 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 		username = params.getParameter(ConfluenceConfiguration.Server.USERNAME);
 		password = params
 				.getObfuscatedParameter(ConfluenceConfiguration.Server.PASSWORD);
+		maxConnections = params
+				.getParameter(ConfluenceConfiguration.Performance.MAX_CONNECTIONS);
+		requestsPerSecond = params
+				.getParameter(ConfluenceConfiguration.Performance.REQUESTS_PER_SECOND);
+		throttleSchedule = params
+				.getParameter(ConfluenceConfiguration.Performance.THROTTLE_SCHEDULE);
+		connectTimeout = params
+				.getParameter(ConfluenceConfiguration.Performance.CONNECT_TIMEOUT);
+		poolTimeout = params
+				.getParameter(ConfluenceConfiguration.Performance.POOL_TIMEOUT);
+		metadataTimeout = params
+				.getParameter(ConfluenceConfiguration.Performance.METADATA_TIMEOUT);
+		contentTimeout = params
+				.getParameter(ConfluenceConfiguration.Performance.CONTENT_TIMEOUT);
+		failureRateThreshold = params
+				.getParameter(ConfluenceConfiguration.Performance.FAILURE_RATE_THRESHOLD);
+		minimumRequests = params
+				.getParameter(ConfluenceConfiguration.Performance.MINIMUM_REQUESTS);
+		openTime = params
+				.getParameter(ConfluenceConfiguration.Performance.OPEN_TIME);
+		prefetchDocuments = params
+				.getParameter(ConfluenceConfiguration.Performance.PREFETCH_DOCUMENTS);
+		prefetchMemory = params
+				.getParameter(ConfluenceConfiguration.Performance.PREFETCH_MEMORY);
+		cacheDirectory = params
+				.getParameter(ConfluenceConfiguration.Storage.CACHE_DIRECTORY);
+		cacheSize = params
+				.getParameter(ConfluenceConfiguration.Storage.CACHE_SIZE);
+		contentDirectory = params
+				.getParameter(ConfluenceConfiguration.Storage.CONTENT_DIRECTORY);
+		contentSize = params
+				.getParameter(ConfluenceConfiguration.Storage.CONTENT_SIZE);
+		snapshotMode = params
+				.getParameter(ConfluenceConfiguration.Storage.SNAPSHOT_MODE);
+		snapshotDirectory = params
+				.getParameter(ConfluenceConfiguration.Storage.SNAPSHOT_DIRECTORY);
+		stateDirectory = params
+				.getParameter(ConfluenceConfiguration.Storage.STATE_DIRECTORY);
+		webhookPort = params
+				.getParameter(ConfluenceConfiguration.Notification.WEBHOOK_PORT);
+		webhookAddress = params
+				.getParameter(ConfluenceConfiguration.Notification.WEBHOOK_ADDRESS);
+		webhookSecret = params
+				.getObfuscatedParameter(ConfluenceConfiguration.Notification.WEBHOOK_SECRET);
+		queueDirectory = params
+				.getParameter(ConfluenceConfiguration.Notification.QUEUE_DIRECTORY);
+		reconcileInterval = params
+				.getParameter(ConfluenceConfiguration.Notification.RECONCILE_INTERVAL);
 
 		try {
 			initConfluenceClient();
@@ -195,6 +470,13 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 					e.getMessage());
 			e.printStackTrace();
 		}
+
+		try {
+			initWebhookReceiver();
+		} catch (ManifoldCFException e) {
+			logger.error("Not possible to start the webhook receiver. Reason: {}",
+					e.getMessage());
+		}
 	}
 
 	/**
@@ -206,6 +488,8 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 			if (!isConnected()) {
 				initConfluenceClient();
 			}
+			/* Reports a webhook port already used by another connection */
+			initWebhookReceiver();
 			Boolean result = confluenceClient.check();
 			if (result)
 				return super.check();
@@ -291,14 +575,255 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 					portInt = 443;
 			}
 
-			/* Generating a client to perform Confluence requests */
-			confluenceClient = new ConfluenceClient(protocol, host, portInt,
-					path, username, password);
+			ThrottleSchedule schedule = buildThrottleSchedule(maxConnections,
+					requestsPerSecond, throttleSchedule);
+
+			int connectTimeoutInt = parseIntParameter(connectTimeout, ConfluenceConfiguration.Performance.CONNECT_TIMEOUT_DEFAULT_VALUE) * 1000;
+			int poolTimeoutInt = parseIntParameter(poolTimeout, ConfluenceConfiguration.Performance.POOL_TIMEOUT_DEFAULT_VALUE) * 1000;
+			int metadataTimeoutInt = parseIntParameter(metadataTimeout, ConfluenceConfiguration.Performance.METADATA_TIMEOUT_DEFAULT_VALUE) * 1000;
+			int contentTimeoutInt = parseIntParameter(contentTimeout, ConfluenceConfiguration.Performance.CONTENT_TIMEOUT_DEFAULT_VALUE) * 1000;
+			int failureRateThresholdInt = parseIntParameter(failureRateThreshold, ConfluenceConfiguration.Performance.FAILURE_RATE_THRESHOLD_DEFAULT_VALUE);
+			int minimumRequestsInt = parseIntParameter(minimumRequests, ConfluenceConfiguration.Performance.MINIMUM_REQUESTS_DEFAULT_VALUE);
+			long openTimeLong = parseIntParameter(openTime, ConfluenceConfiguration.Performance.OPEN_TIME_DEFAULT_VALUE) * 1000L;
+
+			ResponseCache responseCache = null;
+			if (!StringUtils.isEmpty(cacheDirectory)) {
+				long cacheSizeLong = parseIntParameter(cacheSize, ConfluenceConfiguration.Storage.CACHE_SIZE_DEFAULT_VALUE) * 1024L * 1024L;
+				responseCache = ResponseCache.forDirectory(new File(cacheDirectory), cacheSizeLong);
+			}
+
+			ContentStore contentStore = null;
+			if (!StringUtils.isEmpty(contentDirectory)) {
+				long contentSizeLong = parseIntParameter(contentSize, ConfluenceConfiguration.Storage.CONTENT_SIZE_DEFAULT_VALUE) * 1024L * 1024L;
+				contentStore = ContentStore.forDirectory(new File(contentDirectory), contentSizeLong);
+			}
+
+			if (ConfluenceConfiguration.Storage.SNAPSHOT_MODE_REPLAY.equals(snapshotMode)) {
+				/* Documents are served from the snapshot, Confluence is not contacted at all */
+				confluenceClient = new SnapshotReplayClient(
+						SnapshotReader.forDirectory(snapshotDirectoryFile()));
+				lastSessionFetch = System.currentTimeMillis();
+				return;
+			}
+
+			SnapshotWriter snapshotWriter = null;
+			File snapshotDirectory = null;
+			if (ConfluenceConfiguration.Storage.SNAPSHOT_MODE_RECORD.equals(snapshotMode)) {
+				snapshotDirectory = snapshotDirectoryFile();
+				snapshotWriter = SnapshotWriter.forDirectory(snapshotDirectory);
+			}
+
+			/* Clients are shared by the connections with the same settings, which are applied once */
+			String settings = String.format(Locale.ROOT,
+					"%s|%d/%d/%d/%d|%d/%d/%d|%s/%s|%s/%s|%s", schedule,
+					connectTimeoutInt, poolTimeoutInt, metadataTimeoutInt,
+					contentTimeoutInt,
+					failureRateThresholdInt, minimumRequestsInt, openTimeLong,
+					responseCache != null ? cacheDirectory : "",
+					responseCache != null ? cacheSize : "",
+					contentStore != null ? contentDirectory : "",
+					contentStore != null ? contentSize : "",
+					snapshotDirectory != null ? snapshotDirectory : "");
+			final ThrottleSchedule clientSchedule = schedule;
+			final int clientConnectTimeout = connectTimeoutInt;
+			final int clientPoolTimeout = poolTimeoutInt;
+			final int clientMetadataTimeout = metadataTimeoutInt;
+			final int clientContentTimeout = contentTimeoutInt;
+			final int clientFailureRateThreshold = failureRateThresholdInt;
+			final int clientMinimumRequests = minimumRequestsInt;
+			final long clientOpenTime = openTimeLong;
+			final ResponseCache clientResponseCache = responseCache;
+			final ContentStore clientContentStore = contentStore;
+			final SnapshotWriter clientSnapshotWriter = snapshotWriter;
+
+			/* Getting the shared client to perform Confluence requests */
+			confluenceClient = ConfluenceClientRegistry.acquire(protocol,
+					host, portInt, path, username, password, settings,
+					new ConfluenceClientRegistry.Configurer() {
+						@Override
+						public void configure(ConfluenceClient client) {
+							client.setThrottleSchedule(clientSchedule);
+							client.setTimeouts(clientConnectTimeout,
+									clientPoolTimeout, clientMetadataTimeout,
+									clientContentTimeout);
+							client.setCircuitBreaker(clientFailureRateThreshold,
+									clientMinimumRequests, clientOpenTime);
+							client.setResponseCache(clientResponseCache);
+							client.setContentStore(clientContentStore);
+							client.setSnapshotWriter(clientSnapshotWriter);
+						}
+					});
 			lastSessionFetch = System.currentTimeMillis();
 		}
 
 	}
 
+	/**
+	 * <p>
+	 * Starts the receiver of Confluence webhook events if a webhook port is
+	 * configured. The receiver keeps running once started, so changes are
+	 * queued even while this connector is not connected
+	 * </p>
+	 * 
+	 * @throws ManifoldCFException
+	 *             if the receiver can not be started
+	 */
+	protected void initWebhookReceiver() throws ManifoldCFException {
+		ChangeQueue changeQueue = getChangeQueue();
+		if (changeQueue != null) {
+			WebhookReceiver.start(webhookAddress,
+					parseIntParameter(webhookPort,
+							ConfluenceConfiguration.Notification.WEBHOOK_PORT_DEFAULT_VALUE),
+					webhookSecret, changeQueue);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Gets the queue of the changes notified by webhooks
+	 * </p>
+	 * 
+	 * @return the {@code ChangeQueue} or null if webhooks are not configured
+	 * @throws ManifoldCFException
+	 *             if the queue directory is not set or can not be used
+	 */
+	private ChangeQueue getChangeQueue() throws ManifoldCFException {
+		if (StringUtils.isEmpty(webhookPort)) {
+			return null;
+		}
+		if (StringUtils.isEmpty(queueDirectory)) {
+			throw new ManifoldCFException("Parameter "
+					+ ConfluenceConfiguration.Notification.QUEUE_DIRECTORY
+					+ " required to receive webhook events");
+		}
+		return ChangeQueue.forDirectory(new File(queueDirectory));
+	}
+
+	/**
+	 * <p>
+	 * Gets the store keeping the content of the spaces crawled by a job
+	 * between seedings
+	 * </p>
+	 * 
+	 * @return the {@code CrawlStateStore} or null if no state directory is
+	 *         configured
+	 * @throws ManifoldCFException
+	 *             if the directory can not be used
+	 */
+	private CrawlStateStore getCrawlStateStore(
+			ConfluenceSpecification confluenceSpec) throws ManifoldCFException {
+		if (StringUtils.isEmpty(stateDirectory)) {
+			return null;
+		}
+		return CrawlStateStore.forDirectory(jobStateDirectory(confluenceSpec));
+	}
+
+	/**
+	 * <p>
+	 * Gets the directory of the state of a job, in the state directory
+	 * </p>
+	 */
+	private File jobStateDirectory(ConfluenceSpecification confluenceSpec) {
+		return new File(stateDirectory, JOB_STATE_DIRECTORY_PREFIX
+				+ confluenceSpec.getJobKey());
+	}
+
+	/**
+	 * <p>
+	 * Gets the index of the fingerprints of the attachments indexed by a job,
+	 * kept in the directory of its state. Every job sends its documents to its
+	 * own output, so the canonical copies of a job can not stand for another
+	 * </p>
+	 * 
+	 * @return the {@code FingerprintIndex} or null if no state directory is
+	 *         configured
+	 * @throws ManifoldCFException
+	 *             if the directory can not be used
+	 */
+	private FingerprintIndex getFingerprintIndex(
+			ConfluenceSpecification confluenceSpec) throws ManifoldCFException {
+		if (StringUtils.isEmpty(stateDirectory)) {
+			return null;
+		}
+		return FingerprintIndex.forDirectory(jobStateDirectory(confluenceSpec));
+	}
+
+	/**
+	 * <p>
+	 * Gets the configured snapshot directory, required to record or replay a
+	 * snapshot
+	 * </p>
+	 * 
+	 * @throws ManifoldCFException
+	 *             if the directory is not set
+	 */
+	private File snapshotDirectoryFile() throws ManifoldCFException {
+		if (StringUtils.isEmpty(snapshotDirectory)) {
+			throw new ManifoldCFException("Parameter "
+					+ ConfluenceConfiguration.Storage.SNAPSHOT_DIRECTORY
+					+ " required for snapshot mode " + snapshotMode);
+		}
+		return new File(snapshotDirectory);
+	}
+
+	/**
+	 * <p>
+	 * Builds the crawl profiles schedule from the configuration parameters
+	 * </p>
+	 * 
+	 * @param maxConnections
+	 *            the default maximum number of connections
+	 * @param requestsPerSecond
+	 *            the default number of requests per second, 0 for unlimited
+	 * @param schedule
+	 *            the schedule rules
+	 * @return the {@code ThrottleSchedule} to apply
+	 * @throws ManifoldCFException
+	 *             if any of the values is not valid
+	 */
+	private static ThrottleSchedule buildThrottleSchedule(
+			String maxConnections, String requestsPerSecond, String schedule)
+			throws ManifoldCFException {
+		int defaultMaxConnections;
+		double defaultRequestsPerSecond;
+		try {
+			defaultMaxConnections = Integer.parseInt(StringUtils.defaultIfEmpty(
+					maxConnections,
+					ConfluenceConfiguration.Performance.MAX_CONNECTIONS_DEFAULT_VALUE));
+			defaultRequestsPerSecond = Double.parseDouble(StringUtils.defaultIfEmpty(
+					requestsPerSecond,
+					ConfluenceConfiguration.Performance.REQUESTS_PER_SECOND_DEFAULT_VALUE));
+		} catch (NumberFormatException e) {
+			throw new ManifoldCFException("Bad number: " + e.getMessage(), e);
+		}
+
+		return ThrottleSchedule.parse(schedule, new ThrottleSchedule.Profile(
+				defaultMaxConnections, defaultRequestsPerSecond));
+	}
+
+	/**
+	 * <p>
+	 * Parses an integer configuration parameter
+	 * </p>
+	 * 
+	 * @param value
+	 *            the configured value
+	 * @param defaultValue
+	 *            the value used if there is no configured value
+	 * @return the parsed value
+	 * @throws ManifoldCFException
+	 *             if the value is not a valid integer
+	 */
+	private static int parseIntParameter(String value, String defaultValue)
+			throws ManifoldCFException {
+		try {
+			return Integer.parseInt(StringUtils.defaultIfEmpty(value,
+					defaultValue));
+		} catch (NumberFormatException e) {
+			throw new ManifoldCFException("Bad number: " + e.getMessage(), e);
+		}
+	}
+
 	/**
 	 * This method is called to assess whether to count this connector instance
 	 * should actually be counted as being connected.
@@ -310,20 +835,45 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 		return confluenceClient != null;
 	}
 
+	/**
+	 * <p>
+	 * Keeps the connection pool healthy. Connections whose keep-alive has
+	 * expired or that have been idle for a while are evicted, and the shared
+	 * client is released once this connector has not been used for a while.
+	 * The pool of a busy connector is never torn down
+	 * </p>
+	 */
 	@Override
 	public void poll() throws ManifoldCFException {
-		if (lastSessionFetch == -1L) {
+		if (confluenceClient == null) {
 			return;
 		}
 
+		confluenceClient.closeIdleConnections(timeToRelease);
+
 		long currentTime = System.currentTimeMillis();
-		if (currentTime >= lastSessionFetch + timeToRelease) {
-			confluenceClient.close();
+		if (lastSessionFetch != -1L
+				&& currentTime >= lastSessionFetch + timeToRelease) {
+			ConfluenceClientRegistry.release(confluenceClient);
 			confluenceClient = null;
 			lastSessionFetch = -1L;
 		}
 	}
 
+	/**
+	 * <p>
+	 * Ensures the Confluence client is initialized and records its use
+	 * </p>
+	 * 
+	 * @throws ManifoldCFException
+	 */
+	private void touchConfluenceClient() throws ManifoldCFException {
+		if (!isConnected()) {
+			initConfluenceClient();
+		}
+		lastSessionFetch = System.currentTimeMillis();
+	}
+
 	@Override
 	public int getMaxDocumentRequest() {
 		return super.getMaxDocumentRequest();
@@ -384,6 +934,63 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 				+ ConfluenceConfiguration.Server.PASSWORD, confluencePassword);
 	}
 
+	/**
+	 * <p>
+	 * Fill the performance configuration parameters into the map
+	 * </p>
+	 * 
+	 * @param performanceMap
+	 * @param parameters
+	 */
+	private void fillInPerformanceConfigurationMap(
+			Map<String, String> performanceMap, ConfigParams parameters) {
+		for (String[] parameter : PERFORMANCE_PARAMETERS) {
+			String value = parameters.getParameter(parameter[0]);
+			if (value == null)
+				value = parameter[1];
+			performanceMap.put(PARAMETER_PREFIX + parameter[0], value);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Fill the local storage configuration parameters into the map
+	 * </p>
+	 * 
+	 * @param storageMap
+	 * @param parameters
+	 */
+	private void fillInStorageConfigurationMap(
+			Map<String, String> storageMap, ConfigParams parameters) {
+		for (String[] parameter : STORAGE_PARAMETERS) {
+			String value = parameters.getParameter(parameter[0]);
+			if (value == null)
+				value = parameter[1];
+			storageMap.put(PARAMETER_PREFIX + parameter[0], value);
+		}
+	}
+
+	private void fillInNotificationConfigurationMap(
+			Map<String, String> notificationMap,
+			IPasswordMapperActivity mapper, ConfigParams parameters) {
+		for (String[] parameter : NOTIFICATION_PARAMETERS) {
+			String value = parameters.getParameter(parameter[0]);
+			if (value == null)
+				value = parameter[1];
+			notificationMap.put(PARAMETER_PREFIX + parameter[0], value);
+		}
+
+		String webhookSecret = parameters
+				.getObfuscatedParameter(ConfluenceConfiguration.Notification.WEBHOOK_SECRET);
+		if (webhookSecret == null)
+			webhookSecret = ConfluenceConfiguration.Notification.WEBHOOK_SECRET_DEFAULT_VALUE;
+		else
+			webhookSecret = mapper.mapPasswordToKey(webhookSecret);
+		notificationMap.put(PARAMETER_PREFIX
+				+ ConfluenceConfiguration.Notification.WEBHOOK_SECRET,
+				webhookSecret);
+	}
+
 	@Override
 	public void viewConfiguration(IThreadContext threadContext,
 			IHTTPOutput out, Locale locale, ConfigParams parameters)
@@ -392,6 +999,9 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 
 		/* Fill server configuration parameters */
 		fillInServerConfigurationMap(paramMap, out, parameters);
+		fillInPerformanceConfigurationMap(paramMap, parameters);
+		fillInStorageConfigurationMap(paramMap, parameters);
+		fillInNotificationConfigurationMap(paramMap, out, parameters);
 
 		Messages.outputResourceWithVelocity(out, locale, VIEW_CONFIG_FORWARD,
 				paramMap, true);
@@ -403,11 +1013,20 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 			List<String> tabsArray) throws ManifoldCFException, IOException {
 		// Add the Server tab
 		tabsArray.add(Messages.getString(locale, CONF_SERVER_TAB_PROPERTY));
+		// Add the Performance tab
+		tabsArray.add(Messages.getString(locale, CONF_PERFORMANCE_TAB_PROPERTY));
+		// Add the Local storage tab
+		tabsArray.add(Messages.getString(locale, CONF_STORAGE_TAB_PROPERTY));
+		// Add the Change notifications tab
+		tabsArray.add(Messages.getString(locale, CONF_NOTIFICATIONS_TAB_PROPERTY));
 		// Map the parameters
 		Map<String, String> paramMap = new HashMap<String, String>();
 
 		/* Fill server configuration parameters */
 		fillInServerConfigurationMap(paramMap, out, parameters);
+		fillInPerformanceConfigurationMap(paramMap, parameters);
+		fillInStorageConfigurationMap(paramMap, parameters);
+		fillInNotificationConfigurationMap(paramMap, out, parameters);
 
 		// Output the Javascript - only one Velocity template for all tabs
 		Messages.outputResourceWithVelocity(out, locale,
@@ -426,11 +1045,26 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 
 		// Fill in the parameters
 		fillInServerConfigurationMap(paramMap, out, parameters);
+		fillInPerformanceConfigurationMap(paramMap, parameters);
+		fillInStorageConfigurationMap(paramMap, parameters);
+		fillInNotificationConfigurationMap(paramMap, out, parameters);
 
 		// Server tab
 		Messages.outputResourceWithVelocity(out, locale,
 				EDIT_CONFIG_FORWARD_SERVER, paramMap, true);
 
+		// Performance tab
+		Messages.outputResourceWithVelocity(out, locale,
+				EDIT_CONFIG_FORWARD_PERFORMANCE, paramMap, true);
+
+		// Local storage tab
+		Messages.outputResourceWithVelocity(out, locale,
+				EDIT_CONFIG_FORWARD_STORAGE, paramMap, true);
+
+		// Change notifications tab
+		Messages.outputResourceWithVelocity(out, locale,
+				EDIT_CONFIG_FORWARD_NOTIFICATIONS, paramMap, true);
+
 	}
 
 	/*
@@ -488,6 +1122,87 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 					ConfluenceConfiguration.Server.PASSWORD,
 					variableContext.mapKeyToPassword(confluencePassword));
 
+		for (String[] parameter : PERFORMANCE_PARAMETERS) {
+			String value = variableContext.getParameter(PARAMETER_PREFIX
+					+ parameter[0]);
+			if (value != null)
+				parameters.setParameter(parameter[0], value);
+		}
+
+		for (String[] parameter : STORAGE_PARAMETERS) {
+			String value = variableContext.getParameter(PARAMETER_PREFIX
+					+ parameter[0]);
+			if (value != null)
+				parameters.setParameter(parameter[0], value);
+		}
+
+		for (String[] parameter : NOTIFICATION_PARAMETERS) {
+			String value = variableContext.getParameter(PARAMETER_PREFIX
+					+ parameter[0]);
+			if (value != null)
+				parameters.setParameter(parameter[0], value);
+		}
+
+		String webhookSecret = variableContext.getParameter(PARAMETER_PREFIX
+				+ ConfluenceConfiguration.Notification.WEBHOOK_SECRET);
+		if (webhookSecret != null)
+			parameters.setObfuscatedParameter(
+					ConfluenceConfiguration.Notification.WEBHOOK_SECRET,
+					variableContext.mapKeyToPassword(webhookSecret));
+
+		try {
+			buildThrottleSchedule(
+					parameters.getParameter(ConfluenceConfiguration.Performance.MAX_CONNECTIONS),
+					parameters.getParameter(ConfluenceConfiguration.Performance.REQUESTS_PER_SECOND),
+					parameters.getParameter(ConfluenceConfiguration.Performance.THROTTLE_SCHEDULE));
+		} catch (ManifoldCFException e) {
+			return "Invalid crawl profiles: " + e.getMessage();
+		}
+
+		for (String parameter : new String[] {
+				ConfluenceConfiguration.Performance.CONNECT_TIMEOUT,
+				ConfluenceConfiguration.Performance.POOL_TIMEOUT,
+				ConfluenceConfiguration.Performance.METADATA_TIMEOUT,
+				ConfluenceConfiguration.Performance.CONTENT_TIMEOUT,
+				ConfluenceConfiguration.Performance.FAILURE_RATE_THRESHOLD,
+				ConfluenceConfiguration.Performance.MINIMUM_REQUESTS,
+				ConfluenceConfiguration.Performance.OPEN_TIME,
+				ConfluenceConfiguration.Performance.PREFETCH_DOCUMENTS,
+				ConfluenceConfiguration.Performance.PREFETCH_MEMORY,
+				ConfluenceConfiguration.Storage.CACHE_SIZE,
+				ConfluenceConfiguration.Storage.CONTENT_SIZE,
+				ConfluenceConfiguration.Notification.WEBHOOK_PORT,
+				ConfluenceConfiguration.Notification.RECONCILE_INTERVAL }) {
+			try {
+				parseIntParameter(parameters.getParameter(parameter), "0");
+			} catch (ManifoldCFException e) {
+				return "Invalid value for " + parameter + ": " + e.getMessage();
+			}
+		}
+
+		String snapshotModeValue = parameters
+				.getParameter(ConfluenceConfiguration.Storage.SNAPSHOT_MODE);
+		if (!StringUtils.isEmpty(snapshotModeValue)
+				&& !ConfluenceConfiguration.Storage.SNAPSHOT_MODE_NONE.equals(snapshotModeValue)
+				&& StringUtils.isEmpty(parameters
+						.getParameter(ConfluenceConfiguration.Storage.SNAPSHOT_DIRECTORY))) {
+			return "A snapshot directory is required for snapshot mode " + snapshotModeValue;
+		}
+
+		if (!StringUtils.isEmpty(parameters
+				.getParameter(ConfluenceConfiguration.Notification.WEBHOOK_PORT))
+				&& StringUtils.isEmpty(parameters
+						.getParameter(ConfluenceConfiguration.Notification.QUEUE_DIRECTORY))) {
+			return "A queue directory is required to receive webhook events";
+		}
+
+		if (!StringUtils.isEmpty(parameters
+				.getParameter(ConfluenceConfiguration.Notification.WEBHOOK_PORT))
+				&& StringUtils.isEmpty(parameters
+						.getObfuscatedParameter(ConfluenceConfiguration.Notification.WEBHOOK_SECRET))) {
+			return "A webhook secret is required to receive webhook events";
+		}
+
 		/* null means process configuration has been successful */
 		return null;
 	}
@@ -521,6 +1236,28 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 		newMap.put(
 				ConfluenceConfiguration.Specification.PROCESS_ATTACHMENTS_ATTRIBUTE_KEY
 						.toUpperCase(), cs.isProcessAttachments());
+		newMap.put(
+				ConfluenceConfiguration.Specification.BOOTSTRAP_ARCHIVE_ATTRIBUTE_KEY
+						.toUpperCase(), cs.getBootstrapArchive());
+		List<String> metadata = Lists.newArrayList();
+		for (MetadataGroup group : cs.getMetadataGroups()) {
+			metadata.add(group.getName());
+		}
+		newMap.put(
+				ConfluenceConfiguration.Specification.METADATA_ATTRIBUTE_KEY
+						.toUpperCase(), metadata);
+		newMap.put(
+				ConfluenceConfiguration.Specification.BODY_REPRESENTATION_ATTRIBUTE_KEY
+						.toUpperCase(), cs.getBodyRepresentation().getName());
+		newMap.put(
+				ConfluenceConfiguration.Specification.EXTRACT_TEXT_ATTRIBUTE_KEY
+						.toUpperCase(), cs.isExtractText());
+		newMap.put(
+				ConfluenceConfiguration.Specification.COMPARE_CONTENT_ATTRIBUTE_KEY
+						.toUpperCase(), cs.isCompareContent());
+		newMap.put(
+				ConfluenceConfiguration.Specification.DEDUPLICATE_ATTACHMENTS_ATTRIBUTE_KEY
+						.toUpperCase(), cs.isDeduplicateAttachments());
 		return;
 
 	}
@@ -610,20 +1347,27 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 			}
 		}
 
-		/* Delete pages configuration */
+		/* Delete pages configuration, keeping the key of the job */
+		String jobKey = null;
 		int i = 0;
 		while (i < ds.getChildCount()) {
 			SpecificationNode sn = ds.getChild(i);
 			if (sn.getType()
-					.equals(ConfluenceConfiguration.Specification.PAGES))
+					.equals(ConfluenceConfiguration.Specification.PAGES)) {
+				jobKey = sn
+						.getAttributeValue(ConfluenceConfiguration.Specification.JOB_KEY_ATTRIBUTE_KEY);
 				ds.removeChild(i);
-			else
+			} else
 				i++;
 		}
 
 		SpecificationNode pages = new SpecificationNode(
 				ConfluenceConfiguration.Specification.PAGES);
 		ds.addChild(ds.getChildCount(), pages);
+		pages.setAttribute(
+				ConfluenceConfiguration.Specification.JOB_KEY_ATTRIBUTE_KEY,
+				StringUtils.isEmpty(jobKey) ? UUID.randomUUID().toString()
+						: jobKey);
 
 		String procAttachments = variableContext
 				.getParameter(seqPrefix
@@ -634,6 +1378,69 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 					String.valueOf(procAttachments));
 		}
 
+		String bootstrapArchive = variableContext
+				.getParameter(seqPrefix
+						+ ConfluenceConfiguration.Specification.BOOTSTRAP_ARCHIVE_ATTRIBUTE_KEY);
+		if (bootstrapArchive != null && !bootstrapArchive.trim().isEmpty()) {
+			pages.setAttribute(
+					ConfluenceConfiguration.Specification.BOOTSTRAP_ARCHIVE_ATTRIBUTE_KEY,
+					bootstrapArchive.trim());
+		}
+
+		/* No value posted means no metadata group is indexed */
+		String[] metadata = variableContext
+				.getParameterValues(seqPrefix
+						+ ConfluenceConfiguration.Specification.METADATA_ATTRIBUTE_KEY);
+		Set<MetadataGroup> metadataGroups = EnumSet
+				.noneOf(MetadataGroup.class);
+		if (metadata != null) {
+			for (String name : metadata) {
+				MetadataGroup group = MetadataGroup.fromName(name);
+				if (group != null) {
+					metadataGroups.add(group);
+				}
+			}
+		}
+		pages.setAttribute(
+				ConfluenceConfiguration.Specification.METADATA_ATTRIBUTE_KEY,
+				MetadataGroup.toNames(metadataGroups));
+
+		String bodyRepresentation = variableContext
+				.getParameter(seqPrefix
+						+ ConfluenceConfiguration.Specification.BODY_REPRESENTATION_ATTRIBUTE_KEY);
+		if (bodyRepresentation != null && !bodyRepresentation.isEmpty()) {
+			pages.setAttribute(
+					ConfluenceConfiguration.Specification.BODY_REPRESENTATION_ATTRIBUTE_KEY,
+					BodyRepresentation.fromName(bodyRepresentation).getName());
+		}
+
+		String extractText = variableContext
+				.getParameter(seqPrefix
+						+ ConfluenceConfiguration.Specification.EXTRACT_TEXT_ATTRIBUTE_KEY);
+		if (extractText != null && !extractText.isEmpty()) {
+			pages.setAttribute(
+					ConfluenceConfiguration.Specification.EXTRACT_TEXT_ATTRIBUTE_KEY,
+					String.valueOf(extractText));
+		}
+
+		String compareContent = variableContext
+				.getParameter(seqPrefix
+						+ ConfluenceConfiguration.Specification.COMPARE_CONTENT_ATTRIBUTE_KEY);
+		if (compareContent != null && !compareContent.isEmpty()) {
+			pages.setAttribute(
+					ConfluenceConfiguration.Specification.COMPARE_CONTENT_ATTRIBUTE_KEY,
+					String.valueOf(compareContent));
+		}
+
+		String deduplicateAttachments = variableContext
+				.getParameter(seqPrefix
+						+ ConfluenceConfiguration.Specification.DEDUPLICATE_ATTACHMENTS_ATTRIBUTE_KEY);
+		if (deduplicateAttachments != null && !deduplicateAttachments.isEmpty()) {
+			pages.setAttribute(
+					ConfluenceConfiguration.Specification.DEDUPLICATE_ATTACHMENTS_ATTRIBUTE_KEY,
+					String.valueOf(deduplicateAttachments));
+		}
+
 		return null;
 	}
 
@@ -706,45 +1513,91 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 			Specification spec, String lastSeedVersion, long seedTime,
 			int jobMode) throws ManifoldCFException, ServiceInterruption {
 
-		if (!isConnected()) {
-			initConfluenceClient();
-		}
+		touchConfluenceClient();
 
 		try {
 
 			/*
-			 * Not uses delta seeding because Confluence can't be queried using
-			 * dates or in a ordered way, only start and limit which can cause
-			 * problems if an already indexed document is deleted, because we
-			 * will miss some to-be indexed docs due to the last start parameter
-			 * stored in the last execution
+			 * Delta seeding does not resume the listing from the last start
+			 * parameter, which misses documents when an already indexed one is
+			 * deleted. Between full seedings, the documents notified by webhooks
+			 * or found by CQL searches on their modification date are seeded
 			 */
-			// if(lastSeedVersion != null && !lastSeedVersion.isEmpty()) {
-			// StringTokenizer tokenizer = new
-			// StringTokenizer(lastSeedVersion,"|");
-			//
-			// lastStart = new Long(lastSeedVersion);
-			// }
 
 			ConfluenceSpecification confluenceSpecification = ConfluenceSpecification
 					.from(spec);
 			List<String> spaceKeys = confluenceSpecification.getSpaces();
+			SeedState seedState = SeedState.parse(lastSeedVersion);
+
+			ChangeQueue changeQueue = getChangeQueue();
+			ChangeQueue.Batch changes = changeQueue != null ? changeQueue
+					.drain(confluenceSpecification.getJobKey()) : null;
+			long reconcileIntervalLong = parseIntParameter(reconcileInterval,
+					ConfluenceConfiguration.Notification.RECONCILE_INTERVAL_DEFAULT_VALUE) * 60000L;
+			long lastSeedTime = seedState.getLong(SeedState.SEEDED,
+					seedState.getLong(SeedState.RECONCILED, 0L));
+			boolean reconcile = StringUtils.isEmpty(lastSeedVersion)
+					|| seedTime >= seedState.getLong(SeedState.RECONCILED, 0L)
+							+ reconcileIntervalLong;
+			seedState.putLong(SeedState.SEEDED, seedTime);
+
+			if (!reconcile && changes != null) {
+				/* Only the documents notified by webhooks since the last seeding */
+				List<String> seeded = addSeedDocumentsFromChanges(changes,
+						activities, confluenceSpecification);
+				CrawlStateStore crawlStateStore = getCrawlStateStore(
+						confluenceSpecification);
+				if (crawlStateStore != null) {
+					/* Fetched when processed even if the last listing saw them unchanged */
+					crawlStateStore.markChanged(spaceKeys, seeded);
+				}
+				changes.commit();
+				return seedState.toString();
+			}
+
+			if (!reconcile && changeQueue == null && lastSeedTime > 0L
+					&& addSeedDocumentsModifiedSince(activities,
+							confluenceSpecification, lastSeedTime, seedTime)) {
+				/* Only the documents modified or trashed since the last seeding */
+				return seedState.toString();
+			}
+
+			/*
+			 * Every document is seeded, the changes queued so far are covered
+			 * by this seeding
+			 */
+			seedState.putLong(SeedState.RECONCILED, seedTime);
+
+			if (StringUtils.isEmpty(lastSeedVersion)
+					&& !confluenceSpecification.getBootstrapArchive().isEmpty()) {
+				/* First crawl, pages and attachments are seeded from the space export */
+				addSeedDocumentsFromArchive(activities, confluenceSpecification);
+				if (changes != null) {
+					changes.commit();
+				}
+				return seedState.toString();
+			}
 
 			if (spaceKeys.isEmpty()) {
 				logger.info("No spaces configured. Processing all spaces");
 				addSeedDocumentsForSpace(Optional.<String> absent(),
-						activities, confluenceSpecification, lastSeedVersion,
+						activities, confluenceSpecification, seedState,
 						seedTime, jobMode);
 			} else {
 				for (String space : spaceKeys) {
 					logger.info("Processing configured space {}", space);
 					addSeedDocumentsForSpace(Optional.<String> of(space),
-							activities, confluenceSpecification,
-							lastSeedVersion, seedTime, jobMode);
+							activities, confluenceSpecification, seedState,
+							seedTime, jobMode);
 				}
 			}
 
-			return "";
+			if (changes != null) {
+				changes.commit();
+			}
+			return seedState.toString();
+		} catch (ManifoldCFException e) {
+			throw e;
 		} catch (Exception e) {
 			handleConfluenceDownException(e, "seeding");
 			return null;
@@ -753,125 +1606,428 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 
 	/**
 	 * <p>
-	 * Add seed documents for a given optional space
+	 * Add the pages and attachments notified by webhooks as seed documents.
+	 * Changes of spaces not crawled by the job, including the ones not telling
+	 * their space when the job crawls some spaces only, or of attachments when
+	 * they are not processed, are skipped
 	 * </p>
 	 * 
-	 * @throws ServiceInterruption
-	 * @throws ManifoldCFException
+	 * @return the identifiers of the seeded documents
 	 */
-	private void addSeedDocumentsForSpace(Optional<String> space,
-			ISeedingActivity activities,
-			ConfluenceSpecification confluenceSpec, String lastSeedVersion,
-			long seedTime, int jobMode) throws ManifoldCFException,
-			ServiceInterruption {
-
-		long lastStart = 0;
-		long defaultSize = 50;
+	private List<String> addSeedDocumentsFromChanges(ChangeQueue.Batch changes,
+			ISeedingActivity activities, ConfluenceSpecification confluenceSpec)
+			throws ManifoldCFException {
+		List<String> seeded = Lists.newArrayList();
+		for (ChangeEvent change : changes.getChanges()) {
+			if (change.isAttachment() && !confluenceSpec.isProcessAttachments()) {
+				continue;
+			}
+			/* Changes of an unknown space can not be told apart from the ones of other spaces */
+			if (!confluenceSpec.getSpaces().isEmpty()
+					&& !confluenceSpec.getSpaces().contains(change.getSpaceKey())) {
+				continue;
+			}
+			activities.addSeedDocument(change.getDocumentIdentifier());
+			seeded.add(change.getDocumentIdentifier());
+		}
 
-		if (Logging.connectors != null && Logging.connectors.isDebugEnabled()) {
-			String spaceDesc = space.isPresent() ? "space with key "
-					+ space.get() : "all the spaces";
+		if (Logging.connectors != null && Logging.connectors.isDebugEnabled())
 			Logging.connectors.debug(MessageFormat.format(
-					"Starting from {0} and size {1} for {2}", new Object[] {
-							lastStart, defaultSize, spaceDesc }));
-		}
+					"Added {0} seed documents from {1} notified changes",
+					new Object[] { seeded.size(), changes.getChanges().size() }));
+		return seeded;
+	}
 
-		try {
-			Boolean isLast = true;
-			do {
-				final ConfluenceResponse<Page> response = confluenceClient.getPages(
-						(int) lastStart, (int) defaultSize, space);
+	/**
+	 * <p>
+	 * Add the pages and attachments modified since the last seeding as seed
+	 * documents, found with CQL searches, along with the pages moved to the
+	 * trash of the crawled spaces. Trashed pages are marked as gone in the
+	 * crawl state, so they and their attachments are deleted without fetching
+	 * them. Pages purged from the trash are only noticed by the next full
+	 * seeding
+	 * </p>
+	 * 
+	 * @return false if Confluence can not be searched, so every document has
+	 *         to be seeded
+	 * @throws ManifoldCFException
+	 *             if the crawl state can not be stored
+	 */
+	private boolean addSeedDocumentsModifiedSince(ISeedingActivity activities,
+			ConfluenceSpecification confluenceSpec, long lastSeedTime,
+			long seedTime) throws ManifoldCFException {
+		long minutes = (seedTime - lastSeedTime + MODIFIED_SEARCH_OVERLAP) / 60000L + 1L;
+		List<String> spaceKeys = confluenceSpec.getSpaces();
+		List<String> modified = Lists.newArrayList();
+		List<String> trashed = Lists.newArrayList();
 
-				int count = 0;
-				for (Page page : response.getResults()) {
+		try {
+			ConfluencePaginator<Page> modifiedPages = confluenceClient
+					.paginateModifiedPages(spaceKeys, minutes, SEARCH_PAGE_SIZE);
+			try {
+				while (modifiedPages.hasNext()) {
+					modified.add(modifiedPages.next().getId());
+				}
+			} finally {
+				modifiedPages.close();
+			}
 
-					activities.addSeedDocument(page.getId());
-					if (confluenceSpec.isProcessAttachments()) {
-						processSeedAttachments(page, activities);
+			if (confluenceSpec.isProcessAttachments()) {
+				ConfluencePaginator<Attachment> modifiedAttachments = confluenceClient
+						.paginateModifiedAttachments(spaceKeys, minutes,
+								SEARCH_PAGE_SIZE);
+				try {
+					while (modifiedAttachments.hasNext()) {
+						Attachment attachment = modifiedAttachments.next();
+						if (!attachment.getContainerId().isEmpty()) {
+							modified.add(ConfluenceUtil
+									.generateRepositoryDocumentIdentifier(
+											attachment.getId(),
+											attachment.getContainerId()));
+						}
 					}
-					count++;
+				} finally {
+					modifiedAttachments.close();
 				}
-				if (Logging.connectors != null
-						&& Logging.connectors.isDebugEnabled())
-					Logging.connectors.debug(MessageFormat.format(
-							"Fetched and added {0} seed documents",
-							new Object[] { new Integer(count) }));
-
-				lastStart += count;
-				isLast = response.isLast();
-				if (Logging.connectors != null
-						&& Logging.connectors.isDebugEnabled())
-					Logging.connectors.debug(MessageFormat.format(
-							"New start {0} and size {1}", new Object[] {
-									lastStart, defaultSize }));
-			} while (!isLast);
+			}
 
+			/* The trash can only be listed space by space */
+			for (String space : spaceKeys.isEmpty() ? confluenceClient
+					.getSpaceKeys() : spaceKeys) {
+				ConfluencePaginator<Page> trashedPages = confluenceClient
+						.paginateTrashedPages(space, SEARCH_PAGE_SIZE);
+				try {
+					while (trashedPages.hasNext()) {
+						trashed.add(trashedPages.next().getId());
+					}
+				} finally {
+					trashedPages.close();
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new ManifoldCFException("Interrupted: " + e.getMessage(), e,
+					ManifoldCFException.INTERRUPTED);
 		} catch (Exception e) {
-			handleConfluenceDownException(e, "seeding");
+			Logging.connectors.warn("Confluence: changes can not be searched, seeding every document: "
+					+ e.getMessage());
+			return false;
+		}
+
+		Collection<String> removed = trashed;
+		CrawlStateStore crawlStateStore = getCrawlStateStore(confluenceSpec);
+		if (crawlStateStore != null) {
+			/* Fetched when processed even if the last listing saw them unchanged */
+			crawlStateStore.markChanged(spaceKeys, modified);
+			/* Pages already known to be gone are not seeded again */
+			removed = crawlStateStore.markRemoved(spaceKeys, trashed);
 		}
 
+		for (String documentIdentifier : modified) {
+			activities.addSeedDocument(documentIdentifier);
+		}
+		for (String pageId : removed) {
+			activities.addSeedDocument(pageId);
+		}
+
+		if (Logging.connectors != null && Logging.connectors.isDebugEnabled())
+			Logging.connectors.debug(MessageFormat.format(
+					"Added {0} modified and {1} trashed seed documents from the last {2} minutes",
+					new Object[] { modified.size(), removed.size(), minutes }));
+		return true;
 	}
 
 	/**
 	 * <p>
-	 * Process seed attachments for the given page
+	 * Add the pages and attachments of the configured space export archive as
+	 * seed documents, importing the archive if it has not been imported yet.
+	 * Later crawls seed from Confluence and only fetch what has changed since
+	 * the export
 	 * </p>
 	 * 
-	 * @param page
-	 * @param activities
+	 * @throws ManifoldCFException
+	 *             if the archive can not be imported
 	 */
-	private void processSeedAttachments(Page page, ISeedingActivity activities)
-			throws ManifoldCFException, ServiceInterruption {
+	private void addSeedDocumentsFromArchive(ISeedingActivity activities,
+			ConfluenceSpecification confluenceSpec) throws ManifoldCFException {
+		SnapshotReader reader = SpaceExportImporter.bootstrap(new File(
+				confluenceSpec.getBootstrapArchive()), getBaseUrl());
+
+		List<String> pageIds = Lists.newArrayList();
+		if (confluenceSpec.getSpaces().isEmpty()) {
+			pageIds.addAll(reader.getPageIds(Optional.<String> absent()));
+		} else {
+			for (String space : confluenceSpec.getSpaces()) {
+				pageIds.addAll(reader.getPageIds(Optional.of(space)));
+			}
+		}
+
+		for (String pageId : pageIds) {
+			activities.addSeedDocument(pageId);
+			if (confluenceSpec.isProcessAttachments()) {
+				for (String attachmentId : reader.getAttachmentIds(pageId)) {
+					activities.addSeedDocument(ConfluenceUtil
+							.generateRepositoryDocumentIdentifier(attachmentId,
+									pageId));
+				}
+			}
+		}
+
+		if (Logging.connectors != null && Logging.connectors.isDebugEnabled())
+			Logging.connectors.debug(MessageFormat.format(
+					"Added {0} seed pages from space export {1}", new Object[] {
+							pageIds.size(), confluenceSpec.getBootstrapArchive() }));
+	}
+
+	/**
+	 * <p>
+	 * Gets the base url of the Confluence instance
+	 * </p>
+	 */
+	private String getBaseUrl() {
+		StringBuilder baseUrl = new StringBuilder(protocol).append("://")
+				.append(host);
+		if (!StringUtils.isEmpty(port)) {
+			baseUrl.append(":").append(port);
+		}
+		if (!StringUtils.isEmpty(StringUtils.strip(path, "/"))) {
+			baseUrl.append("/").append(StringUtils.strip(path, "/"));
+		}
+		return baseUrl.toString();
+	}
+
+	/**
+	 * <p>
+	 * Add seed documents for a given optional space
+	 * </p>
+	 * <p>
+	 * The space is not listed if its last change is the same one found when
+	 * it was listed last time. Its documents were seeded then, and are
+	 * processed again by ManifoldCF without being seeded
+	 * </p>
+	 * 
+	 * @param seedState
+	 *            the state of the seeding, keeping the last change of the
+	 *            listed spaces
+	 * @throws ServiceInterruption
+	 * @throws ManifoldCFException
+	 */
+	private void addSeedDocumentsForSpace(Optional<String> space,
+			ISeedingActivity activities,
+			ConfluenceSpecification confluenceSpec, SeedState seedState,
+			long seedTime, int jobMode) throws ManifoldCFException,
+			ServiceInterruption {
+
+		CrawlStateStore crawlStateStore = getCrawlStateStore(confluenceSpec);
+		SpaceState previousState = crawlStateStore != null ? crawlStateStore
+				.load(space) : null;
+
+		String lastChange = getLastChange(space);
+		if (lastChange != null
+				&& lastChange.equals(seedState.get(SeedState.lastChange(space)))
+				&& (crawlStateStore == null || previousState != null)) {
+			if (Logging.connectors != null && Logging.connectors.isDebugEnabled())
+				Logging.connectors.debug(MessageFormat.format(
+						"Nothing changed in {0} since it was listed, skipping it",
+						new Object[] { space.or("any space") }));
+			if (crawlStateStore != null) {
+				crawlStateStore.save(space, previousState.unchanged(seedTime));
+			}
+			return;
+		}
+
 		long lastStart = 0;
 		long defaultSize = 50;
 
 		if (Logging.connectors != null && Logging.connectors.isDebugEnabled()) {
-			Logging.connectors
-					.debug(MessageFormat
-							.format("Processing page {} attachments starting from {} and size {}",
-									new Object[] { page.getId(), lastStart,
-											defaultSize }));
+			String spaceDesc = space.isPresent() ? "space with key "
+					+ space.get() : "all the spaces";
+			Logging.connectors.debug(MessageFormat.format(
+					"Starting from {0} and size {1} for {2}", new Object[] {
+							lastStart, defaultSize, spaceDesc }));
 		}
 
+		SpaceState.Builder spaceState = crawlStateStore != null ? new SpaceState.Builder(
+				previousState, seedTime) : null;
+
+		/* The next pages are listed while the current ones are seeded */
+		ConfluencePaginator<Page> pages = confluenceClient.paginatePages(space,
+				(int) defaultSize, true);
 		try {
-			Boolean isLast = true;
-			do {
-				final ConfluenceResponse<Attachment> response = confluenceClient
-						.getPageAttachments(page.getId(), (int) lastStart,
-								(int) defaultSize);
+			List<Page> results = pages.nextResults();
+			while (!results.isEmpty()) {
+				/* Attachments of the listed pages are listed concurrently, up to the pool size */
+				List<List<Attachment>> attachments = confluenceSpec
+						.isProcessAttachments() ? listSeedAttachments(results)
+						: null;
 
 				int count = 0;
-				for (Page resultPage : response.getResults()) {
-					activities.addSeedDocument(ConfluenceUtil
-							.generateRepositoryDocumentIdentifier(
-									resultPage.getId(), page.getId()));
+				for (Page page : results) {
+
+					activities.addSeedDocument(page.getId());
+					if (spaceState != null) {
+						spaceState.addPage(page.getId(),
+								page.getLastModifiedDate(), page.getVersion());
+					}
+					if (attachments != null) {
+						processSeedAttachments(page, attachments.get(count),
+								activities, spaceState);
+					}
 					count++;
 				}
-
 				if (Logging.connectors != null
 						&& Logging.connectors.isDebugEnabled())
-					Logging.connectors
-							.debug(MessageFormat
-									.format("Fetched and added {} seed document attachments for page {}",
-											new Object[] { new Integer(count),
-													page.getId() }));
+					Logging.connectors.debug(MessageFormat.format(
+							"Fetched and added {0} seed documents",
+							new Object[] { new Integer(count) }));
 
 				lastStart += count;
-				isLast = response.isLast();
 				if (Logging.connectors != null
 						&& Logging.connectors.isDebugEnabled())
 					Logging.connectors.debug(MessageFormat.format(
 							"New start {0} and size {1}", new Object[] {
 									lastStart, defaultSize }));
-			} while (!isLast);
+				results = pages.nextResults();
+			}
 
+		} catch (InterruptedException e) {
+			throw new ManifoldCFException("Interrupted: " + e.getMessage(), e,
+					ManifoldCFException.INTERRUPTED);
 		} catch (Exception e) {
 			handleConfluenceDownException(e, "seeding");
+		} finally {
+			if (pages != null) {
+				pages.close();
+			}
+		}
+
+		/*
+		 * A listing ending on a response which is not well formed, or short of
+		 * its total, tells nothing about the pages it did not reach
+		 */
+		boolean complete = pages.isComplete();
+		if (spaceState != null) {
+			/* Pages gone since the last seeding are deleted without fetching them */
+			SpaceState state = spaceState.build(complete);
+			for (long removedPage : state.getRemovedPages()) {
+				activities.addSeedDocument(String.valueOf(removedPage));
+			}
+			crawlStateStore.save(space, state);
+		}
+		if (!complete) {
+			/* Documents not seeded would be removed from the output at the end of the job */
+			handleConfluenceDownException(new ConfluenceException("Listing of "
+					+ space.or("all the spaces") + " stopped after "
+					+ lastStart + " pages"), "seeding");
+		}
+		seedState.put(SeedState.lastChange(space), lastChange);
+	}
+
+	/**
+	 * <p>
+	 * Gets the last change of a space: the last modified page or attachment,
+	 * its version and the number of pages and attachments of the space
+	 * </p>
+	 * 
+	 * @return the last change, or null if it can not be found out
+	 */
+	private String getLastChange(Optional<String> space) {
+		try {
+			ConfluenceResponse<Page> response = confluenceClient
+					.getLastModifiedContent(space);
+			if (response.getResults().isEmpty()
+					|| response.getResults().get(0).getLastModifiedDate() == null) {
+				return null;
+			}
+			Page lastModified = response.getResults().get(0);
+			return lastModified.getLastModifiedDate().getTime() + ":"
+					+ lastModified.getId() + ":" + lastModified.getVersion()
+					+ ":" + response.getTotalSize();
+		} catch (Exception e) {
+			logger.debug("Last change of {} can not be found: {}",
+					space.or("all the spaces"), e.getMessage());
+			return null;
 		}
 	}
 
+	/**
+	 * <p>
+	 * Lists the attachments of the given pages, as many listings being in
+	 * flight at the same time as the client has connections
+	 * </p>
+	 * 
+	 * @param pages
+	 * @return the attachments of every page, in the same order
+	 */
+	private List<List<Attachment>> listSeedAttachments(List<Page> pages)
+			throws Exception {
+		AsyncConfluenceClient asyncClient = new AsyncConfluenceClient(
+				confluenceClient);
+		List<List<Attachment>> attachments = Lists
+				.newArrayListWithCapacity(pages.size());
+		/* More listings would only wait for a pooled connection, and could time out doing so */
+		for (List<Page> batch : Lists.partition(pages,
+				Math.max(1, confluenceClient.getMaxConnections()))) {
+			List<ListenableFuture<List<Attachment>>> listings = Lists
+					.newArrayList();
+			for (Page page : batch) {
+				if (Logging.connectors != null
+						&& Logging.connectors.isDebugEnabled())
+					Logging.connectors.debug(MessageFormat.format(
+							"Listing page {0} attachments by {1}", new Object[] {
+									page.getId(), ATTACHMENT_PAGE_SIZE }));
+				listings.add(asyncClient.getAllPageAttachments(page.getId(),
+						ATTACHMENT_PAGE_SIZE));
+			}
+			ListenableFuture<List<List<Attachment>>> batchAttachments = Futures
+					.allAsList(listings);
+			try {
+				attachments.addAll(AsyncConfluenceClient.await(batchAttachments));
+			} finally {
+				/* Listings still running after a failure are not needed */
+				batchAttachments.cancel(true);
+			}
+		}
+		return attachments;
+	}
+
+	/**
+	 * <p>
+	 * Process seed attachments for the given page
+	 * </p>
+	 * 
+	 * @param page
+	 * @param attachments
+	 *            the attachments of the page
+	 * @param activities
+	 * @param spaceState
+	 *            the state of the space being seeded, null if it is not kept
+	 */
+	private void processSeedAttachments(Page page,
+			List<Attachment> attachments, ISeedingActivity activities,
+			SpaceState.Builder spaceState) throws ManifoldCFException,
+			ServiceInterruption {
+		for (Page resultPage : attachments) {
+			activities.addSeedDocument(ConfluenceUtil
+					.generateRepositoryDocumentIdentifier(resultPage.getId(),
+							page.getId()));
+			if (spaceState != null) {
+				spaceState.addAttachment(resultPage.getId(),
+						resultPage.getLastModifiedDate());
+			}
+		}
+
+		if (Logging.connectors != null && Logging.connectors.isDebugEnabled())
+			Logging.connectors.debug(MessageFormat.format(
+					"Fetched and added {0} seed document attachments for page {1}",
+					new Object[] { new Integer(attachments.size()),
+							page.getId() }));
+	}
+
 	protected static void handleConfluenceDownException(Exception e,
 			String context) throws ManifoldCFException, ServiceInterruption {
+		if (e instanceof ConfluenceUnavailableException) {
+			handleConfluenceUnavailableException((ConfluenceUnavailableException) e);
+		}
 		long currentTime = System.currentTimeMillis();
 
 		// Server doesn't appear to by up. Try for a brief time then give up.
@@ -902,6 +2058,78 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 			Logging.connectors
 				.debug("Process Confluence documents: Inside processDocuments");
 
+		/* Documents never indexed are taken from the space export, if they are in it */
+		SnapshotReader bootstrapReader = null;
+		ConfluenceClient bootstrapClient = null;
+		ConfluenceSpecification confluenceSpec = ConfluenceSpecification
+				.from(spec);
+		String bootstrapArchive = confluenceSpec.getBootstrapArchive();
+		if (!bootstrapArchive.isEmpty()) {
+			bootstrapReader = SpaceExportImporter.imported(new File(
+					bootstrapArchive));
+			if (bootstrapReader != null) {
+				bootstrapClient = new SnapshotReplayClient(bootstrapReader);
+			}
+		}
+
+		/* Documents whose space listing shows them unchanged or gone are not fetched */
+		CrawlStateStore crawlStateStore = getCrawlStateStore(confluenceSpec);
+		CrawlStateStore.View crawlState = crawlStateStore != null ? crawlStateStore
+				.view(confluenceSpec.getSpaces()) : null;
+
+		/* The next documents are fetched while the current one is ingested */
+		DocumentPrefetcher prefetcher = new DocumentPrefetcher(
+				ConfluenceExecutor.get(), parseIntParameter(prefetchDocuments,
+						ConfluenceConfiguration.Performance.PREFETCH_DOCUMENTS_DEFAULT_VALUE),
+				parseIntParameter(prefetchMemory,
+						ConfluenceConfiguration.Performance.PREFETCH_MEMORY_DEFAULT_VALUE) * 1024L * 1024L);
+		List<String> processed = Lists.newArrayList();
+		try {
+			for (String documentIdentifier : documentIdentifiers) {
+				String version = statuses
+						.getIndexedVersionString(documentIdentifier);
+				if (crawlState == null
+						|| decideFromCrawlState(crawlState, documentIdentifier,
+								version, jobMode) == CrawlStateStore.View.Decision.FETCH) {
+					/* Ensure Confluence client is connected */
+					touchConfluenceClient();
+					prefetcher.add(documentIdentifier, fetchTask(
+							documentIdentifier, version, crawlState,
+							confluenceSpec, bootstrapReader, bootstrapClient));
+				}
+			}
+			processDocuments(documentIdentifiers, statuses, activities,
+					jobMode, confluenceSpec, crawlState, prefetcher,
+					bootstrapReader, bootstrapClient, processed);
+		} finally {
+			prefetcher.close();
+			/* Changed documents are fetched until they are ingested or retained */
+			if (crawlState != null && !processed.isEmpty()) {
+				crawlStateStore.markProcessed(crawlState, processed);
+			}
+		}
+
+		/* The fingerprints recorded by the batch are kept for the next ones */
+		FingerprintIndex fingerprintIndex = getFingerprintIndex(confluenceSpec);
+		if (fingerprintIndex != null && confluenceSpec.isDeduplicateAttachments()) {
+			fingerprintIndex.flush();
+		}
+	}
+
+	/**
+	 * <p>
+	 * Processes the documents of a batch in order, taking the fetched ones
+	 * from the prefetcher. The documents fetched and ingested or retained are
+	 * added to the processed list
+	 * </p>
+	 */
+	private void processDocuments(String[] documentIdentifiers,
+			IExistingVersions statuses, IProcessActivity activities,
+			int jobMode, ConfluenceSpecification confluenceSpec,
+			CrawlStateStore.View crawlState,
+			DocumentPrefetcher prefetcher, SnapshotReader bootstrapReader,
+			ConfluenceClient bootstrapClient, List<String> processed)
+			throws ManifoldCFException, ServiceInterruption {
 		for (int i = 0; i < documentIdentifiers.length; i++) {
 			String pageId = documentIdentifiers[i];
 			String version = statuses.getIndexedVersionString(pageId);
@@ -919,27 +2147,49 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 									+ pageId + "'");
 				}
 
-				/* Ensure Confluence client is connected */
-				if (!isConnected()) {
-					initConfluenceClient();
+				if (crawlState != null) {
+					pResult = processFromCrawlState(crawlState, pageId,
+							version, activities, confluenceSpec, jobMode);
+					if (pResult != null) {
+						continue;
+					}
 				}
 
+				/* Ensure Confluence client is connected */
+				touchConfluenceClient();
+
+				Page page = prefetcher.take(pageId, fetchTask(pageId, version,
+						crawlState, confluenceSpec, bootstrapReader,
+						bootstrapClient));
 				if (ConfluenceUtil.isAttachment(pageId)) {
-					pResult = processPageAsAttachment(pageId, version,
-							activities, doLog);
+					pResult = processPageAsAttachment((Attachment) page,
+							pageId, version, activities, doLog, confluenceSpec,
+							jobMode);
 				}
 				else {
-					pResult = processPage(pageId, version, activities, doLog,
-							Maps.<String, String> newHashMap());
+					pResult = processPage(page, pageId, version, activities,
+							doLog, Maps.<String, String> newHashMap(),
+							confluenceSpec, jobMode);
+				}
+				/* Pages which could not be fetched are still changed */
+				if (page.hasContent()) {
+					processed.add(pageId);
 				}
+			} catch (ConfluenceUnavailableException e) {
+				handleConfluenceUnavailableException(e);
+			} catch (ConfluenceException e) {
+				handleConfluenceException(e);
 			} catch (IOException ioe) {
 				handleIOException(ioe);
+			} catch (InterruptedException e) {
+				throw new ManifoldCFException("Interrupted: " + e.getMessage(),
+						e, ManifoldCFException.INTERRUPTED);
 			} catch (Exception e) {
 				handleException(e);
 			}
 
 			finally {
-				if (doLog){
+				if (doLog && pResult != null){
 					if(pResult.errorCode != null && !pResult.errorCode.isEmpty()){
 						activities.recordActivity(new Long(startTime),
 								ACTIVITY_READ, pResult.fileSize, pageId, pResult.errorCode,
@@ -955,11 +2205,119 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 		}
 	}
 
+	/**
+	 * <p>
+	 * Processes a document without fetching it when the last seeding found it
+	 * gone, or unchanged since it was indexed. Unchanged documents are only
+	 * trusted in non continuous jobs, where every run starts with a seeding
+	 * </p>
+	 * 
+	 * @return the {@code ProcessResult} or null if the document has to be
+	 *         fetched
+	 * @throws ManifoldCFException
+	 */
+	private ProcessResult processFromCrawlState(CrawlStateStore.View crawlState,
+			String documentIdentifier, String version,
+			IProcessActivity activities,
+			ConfluenceSpecification confluenceSpec, int jobMode)
+			throws ManifoldCFException {
+		CrawlStateStore.View.Decision decision = decideFromCrawlState(
+				crawlState, documentIdentifier, version, jobMode);
+		if (decision == CrawlStateStore.View.Decision.REMOVED) {
+			activities.deleteDocument(documentIdentifier);
+			forgetFingerprint(documentIdentifier, confluenceSpec);
+			return new ProcessResult(0L, "DELETED", "");
+		}
+		if (decision == CrawlStateStore.View.Decision.UNCHANGED) {
+			activities.noteUnchangedDocument(documentIdentifier);
+			return new ProcessResult(0L, "RETAINED", "");
+		}
+		return null;
+	}
+
+	/**
+	 * <p>
+	 * Decides what to do with a document according to the crawl state,
+	 * fetching the unchanged ones which can not be retained without it
+	 * </p>
+	 */
+	private static CrawlStateStore.View.Decision decideFromCrawlState(
+			CrawlStateStore.View crawlState, String documentIdentifier,
+			String version, int jobMode) {
+		CrawlStateStore.View.Decision decision = crawlState
+				.decide(documentIdentifier);
+		if (decision == CrawlStateStore.View.Decision.UNCHANGED
+				&& (jobMode == JOBMODE_CONTINUOUS || StringUtils.isEmpty(version))) {
+			return CrawlStateStore.View.Decision.FETCH;
+		}
+		return decision;
+	}
+
+	/**
+	 * <p>
+	 * Creates the task fetching a document, from the space export if it was
+	 * never indexed and it is in the export. Only the metadata groups indexed
+	 * by the job are expanded, and pages are requested in the body
+	 * representation of the job. The version of a changed page is taken from
+	 * the listing of its space, if known
+	 * </p>
+	 */
+	private Callable<Page> fetchTask(final String documentIdentifier,
+			String version, CrawlStateStore.View crawlState,
+			ConfluenceSpecification confluenceSpec,
+			SnapshotReader bootstrapReader, ConfluenceClient bootstrapClient) {
+		final Set<MetadataGroup> metadata = confluenceSpec.getMetadataGroups();
+		final BodyRepresentation representation = confluenceSpec
+				.getBodyRepresentation();
+		final ConfluenceClient client = bootstrapClient != null
+				&& StringUtils.isEmpty(version)
+				&& isBootstrapped(bootstrapReader, documentIdentifier) ? bootstrapClient
+				: confluenceClient;
+		final int listedVersion = crawlState != null ? crawlState
+				.getListedVersion(documentIdentifier) : 0;
+		return new Callable<Page>() {
+			@Override
+			public Page call() throws Exception {
+				/* Getting all the metadata groups of the viewed body is the plain request */
+				boolean all = metadata.equals(MetadataGroup.ALL);
+				if (ConfluenceUtil.isAttachment(documentIdentifier)) {
+					String attachmentId = ConfluenceUtil
+							.getAttachmentAndPageId(documentIdentifier)[0];
+					return all ? client.getAttachment(attachmentId) : client
+							.getAttachment(attachmentId, metadata);
+				}
+				if (listedVersion > 0) {
+					return client.getPage(documentIdentifier, metadata,
+							representation, listedVersion);
+				}
+				return all && representation == BodyRepresentation.VIEW ? client
+						.getPage(documentIdentifier) : client.getPage(
+						documentIdentifier, metadata, representation);
+			}
+		};
+	}
+
+	/**
+	 * <p>
+	 * Checks whether the given document was imported from the space export
+	 * </p>
+	 */
+	private static boolean isBootstrapped(SnapshotReader reader,
+			String documentIdentifier) {
+		if (ConfluenceUtil.isAttachment(documentIdentifier)) {
+			return reader.contains(RecordType.ATTACHMENT_CONTENT, ConfluenceUtil
+					.getAttachmentAndPageId(documentIdentifier)[0]);
+		}
+		return reader.contains(RecordType.PAGE, documentIdentifier);
+	}
+
 	/**
 	 * <p>
 	 * Process the specific page
 	 * </p>
 	 * 
+	 * @param page
+	 *            The fetched page
 	 * @param pageId
 	 *            The pageId being an attachment
 	 * @param version
@@ -970,13 +2328,13 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 	 * @throws IOException
 	 * @throws ServiceInterruption
 	 */
-	private ProcessResult processPage(String pageId, String version,
-			IProcessActivity activities, boolean doLog,
-			Map<String, String> extraProperties) throws ManifoldCFException,
-			ServiceInterruption, IOException {
-		Page page = confluenceClient.getPage(pageId);
+	private ProcessResult processPage(Page page, String pageId,
+			String version, IProcessActivity activities, boolean doLog,
+			Map<String, String> extraProperties,
+			ConfluenceSpecification confluenceSpec, int jobMode)
+			throws ManifoldCFException, ServiceInterruption, IOException {
 		return processPageInternal(page, pageId, version, activities, doLog,
-				extraProperties);
+				extraProperties, confluenceSpec, jobMode);
 	}
 
 	/**
@@ -984,6 +2342,8 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 	 * Process the specific attachment
 	 * </p>
 	 * 
+	 * @param attachment
+	 *            The fetched attachment
 	 * @param pageId
 	 *            The pageId being an attachment
 	 * @param version
@@ -993,16 +2353,16 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 	 * @throws IOException
 	 * @throws ServiceInterruption
 	 */
-	private ProcessResult processPageAsAttachment(String pageId, String version,
-			IProcessActivity activities, boolean doLog)
+	private ProcessResult processPageAsAttachment(Attachment attachment,
+			String pageId, String version, IProcessActivity activities,
+			boolean doLog, ConfluenceSpecification confluenceSpec, int jobMode)
 			throws ManifoldCFException, ServiceInterruption, IOException {
 
 		String[] ids = ConfluenceUtil.getAttachmentAndPageId(pageId);
-		Attachment attachment = confluenceClient.getAttachment(ids[0]);
 		Map<String, String> extraProperties = Maps.newHashMap();
 		extraProperties.put("attachedBy", ids[1]);
 		return processPageInternal(attachment, pageId, version, activities, doLog,
-				extraProperties);
+				extraProperties, confluenceSpec, jobMode);
 	}
 
 	/**
@@ -1024,8 +2384,9 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 	private ProcessResult processPageInternal(Page page,
 			String manifoldDocumentIdentifier, String version,
 			IProcessActivity activities, boolean doLog,
-			Map<String, String> extraProperties) throws ManifoldCFException,
-			ServiceInterruption, IOException {
+			Map<String, String> extraProperties,
+			ConfluenceSpecification confluenceSpec, int jobMode)
+			throws ManifoldCFException, ServiceInterruption, IOException {
 
 				
 		/* Remove page if it has no content */
@@ -1035,6 +2396,7 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 		 */
 		if (!page.hasContent()) {
 			activities.deleteDocument(manifoldDocumentIdentifier);
+			forgetFingerprint(manifoldDocumentIdentifier, confluenceSpec);
 			return new ProcessResult(page.getLength(), "DELETED", "");
 		}
 		if (Logging.connectors != null && Logging.connectors.isDebugEnabled()) {
@@ -1042,6 +2404,10 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 					+ page.getId());
 		}
 
+		if (jobMode == JOBMODE_CONTINUOUS) {
+			scheduleRevisit(page, manifoldDocumentIdentifier, activities);
+		}
+
 		RepositoryDocument rd = new RepositoryDocument();
 		Date createdDate = page.getCreatedDate();
 		Date lastModified = page.getLastModifiedDate();
@@ -1053,83 +2419,347 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 		 * default if a document is not retained nor ingested, it will be
 		 * deleted by the framework
 		 */
-		String lastVersion = df.format(lastModified);
+		String lastVersion = df.format(lastModified)
+				+ getOptionsVersion(confluenceSpec, page instanceof Attachment);
+		boolean compareContent = confluenceSpec.isCompareContent();
+		FingerprintIndex fingerprintIndex = confluenceSpec
+				.isDeduplicateAttachments() && page instanceof Attachment ? getFingerprintIndex(confluenceSpec)
+				: null;
 		
-		if (!activities.checkDocumentNeedsReindexing(manifoldDocumentIdentifier, lastVersion)) {
+		if (!compareContent && fingerprintIndex == null
+				&& !activities.checkDocumentNeedsReindexing(manifoldDocumentIdentifier, lastVersion)) {
 			return new ProcessResult(page.getLength(), "RETAINED", "");
 		}
+
+		/* The checks and the output see the extracted text, if the job extracts it */
+		String mediaType = page.getMediaType();
+		long length = page.getLength();
+		byte[] content = null;
+		HtmlTextExtractor extractor = null;
+		if (confluenceSpec.isExtractText() && !(page instanceof Attachment)
+				&& HTML_MEDIA_TYPE.equals(mediaType)) {
+			extractor = new HtmlTextExtractor();
+			content = extractText(page, extractor);
+			mediaType = TEXT_MEDIA_TYPE;
+			length = content.length;
+		}
+
+		String documentURI = page.getWebUrl();
+		Map<String, Object> fields = getDocumentFields(page, extraProperties,
+				extractor, confluenceSpec.getMetadataGroups());
+
+		/*
+		 * The body is hashed while it is read, to find identical attachments
+		 * and to compare content hashes: then the document is retained when
+		 * the body and the fields sent are the same as the indexed ones, even
+		 * if Confluence bumped its version
+		 */
+		String fingerprint = null;
+		String canonical = manifoldDocumentIdentifier;
+		if (compareContent || fingerprintIndex != null) {
+			String contentHash;
+			if (content != null) {
+				contentHash = DocumentVersion.hash(content);
+			} else {
+				MessageDigest digest = DocumentVersion.newDigest();
+				content = DocumentVersion.read(page.getContentStream(), digest);
+				contentHash = DocumentVersion.hash(digest);
+				length = content.length;
+			}
+
+			/*
+			 * Identical attachments of a space, so with the same ACL, are
+			 * sent once: the next copies reference the first one
+			 */
+			if (fingerprintIndex != null) {
+				fingerprint = page.getSpace() + ":" + contentHash;
+				String indexed = fingerprintIndex.getCanonical(fingerprint);
+				if (indexed != null) {
+					canonical = indexed;
+				}
+				if (!canonical.equals(manifoldDocumentIdentifier)) {
+					fields.put(DUPLICATE_OF_FIELD, canonical);
+				}
+			}
+
+			String checkedVersion;
+			if (compareContent) {
+				DocumentVersion current = new DocumentVersion(contentHash,
+						getFieldsHash(fields, mediaType, documentURI,
+								page.getSpace()), lastVersion);
+				checkedVersion = lastVersion.equals(version)
+						|| current.isSameDocument(DocumentVersion.parse(version)) ? version
+						: current.toString();
+				lastVersion = current.toString();
+			} else {
+				if (!canonical.equals(manifoldDocumentIdentifier)) {
+					lastVersion = lastVersion + DUPLICATE_OF_VERSION + canonical;
+				}
+				checkedVersion = lastVersion;
+			}
+			if (!activities.checkDocumentNeedsReindexing(manifoldDocumentIdentifier, checkedVersion)) {
+				return new ProcessResult(page.getLength(), "RETAINED", "");
+			}
+		}
 		
-		if (!activities.checkLengthIndexable(page.getLength())){
+		if (!activities.checkLengthIndexable(length)){
 			activities.noDocument(page.getId(), lastVersion);
+			forgetFingerprint(manifoldDocumentIdentifier, confluenceSpec);
 			String errorCode = IProcessActivity.EXCLUDED_LENGTH;
-			String errorDesc = "Excluding document because of length ("+page.getLength()+")";
+			String errorDesc = "Excluding document because of length ("+length+")";
 			return new ProcessResult(page.getLength(), errorCode, errorDesc);
 		}
 
-		if (!activities.checkMimeTypeIndexable(page.getMediaType())) {
+		if (!activities.checkMimeTypeIndexable(mediaType)) {
 			activities.noDocument(page.getId(), lastVersion);
+			forgetFingerprint(manifoldDocumentIdentifier, confluenceSpec);
 			String errorCode = IProcessActivity.EXCLUDED_MIMETYPE;
-			String errorDesc = "Excluding document because of mime type ("+page.getMediaType()+")";
+			String errorDesc = "Excluding document because of mime type ("+mediaType+")";
 			return new ProcessResult(page.getLength(), errorCode, errorDesc);
 		}
 
 		if (!activities.checkDateIndexable(lastModified)) {
 			activities.noDocument(page.getId(), lastVersion);
+			forgetFingerprint(manifoldDocumentIdentifier, confluenceSpec);
 			String errorCode = IProcessActivity.EXCLUDED_DATE;
 			String errorDesc = "Excluding document because of date ("+lastModified+")";
 			return new ProcessResult(page.getLength(), errorCode, errorDesc);
 		}
 
-		if (!activities.checkURLIndexable(page.getWebUrl())) {
+		if (!activities.checkURLIndexable(documentURI)) {
 			activities.noDocument(page.getId(), lastVersion);
+			forgetFingerprint(manifoldDocumentIdentifier, confluenceSpec);
 			String errorCode = IProcessActivity.EXCLUDED_URL;
-			String errorDesc = "Excluding document because of URL ('"+page.getWebUrl()+"')";
+			String errorDesc = "Excluding document because of URL ('"+documentURI+"')";
 			return new ProcessResult(page.getLength(), errorCode, errorDesc);
 		}
 
 		/* Add repository document information */
-		rd.setMimeType(page.getMediaType());
+		rd.setMimeType(mediaType);
 		if (createdDate != null)
 			rd.setCreatedDate(createdDate);
 		if (lastModified != null)
 			rd.setModifiedDate(lastModified);
 		rd.setIndexingDate(new Date());
 
-		/* Adding Page Metadata */
-		Map<String, Object> pageMetadata = page.getMetadataAsMap();
-		for (Entry<String, Object> entry : pageMetadata.entrySet()) {
-			if(entry.getValue() instanceof List) {
-				List<?> list = (List<?>)entry.getValue();
-				rd.addField(entry.getKey(), list.toArray(new String[list.size()]));
+		/* Adding the page metadata and the extra properties */
+		for (Entry<String, Object> field : fields.entrySet()) {
+			if (field.getValue() instanceof String[]) {
+				rd.addField(field.getKey(), (String[]) field.getValue());
 			}
 			else {
-				rd.addField(entry.getKey(), entry.getValue().toString());
+				rd.addField(field.getKey(), (String) field.getValue());
 			}
 		}
 
-		/* Adding extra properties */
-		for (Entry<String, String> entry : extraProperties.entrySet()) {
-			rd.addField(entry.getKey(), entry.getValue());
-		}
-
-		String documentURI = page.getWebUrl();
-
 		/* Set repository document ACLs */
 		rd.setSecurityACL(RepositoryDocument.SECURITY_TYPE_DOCUMENT,
 				new String[] { page.getSpace() });
 		rd.setSecurityDenyACL(RepositoryDocument.SECURITY_TYPE_DOCUMENT,
 				new String[] { defaultAuthorityDenyToken });
 
-		rd.setBinary(page.getContentStream(), page.getLength());
-		rd.addField("size", String.valueOf(page.getLength()));
+		if (!canonical.equals(manifoldDocumentIdentifier)) {
+			/* References are sent without body, the canonical copy has it */
+			rd.setBinary(new ByteArrayInputStream(new byte[0]), 0L);
+		}
+		else {
+			rd.setBinary(content != null ? new ByteArrayInputStream(content)
+					: page.getContentStream(), length);
+		}
+		rd.addField("size", String.valueOf(length));
 
 		/* Ingest document */
 		activities.ingestDocumentWithException(manifoldDocumentIdentifier,
 				lastVersion, documentURI, rd);
+
+		if (fingerprint != null) {
+			releaseReferences(fingerprintIndex.record(
+					manifoldDocumentIdentifier, fingerprint, canonical),
+					confluenceSpec);
+		}
 		
 		return new ProcessResult(page.getLength(), null, null);
 	}
 
+	/**
+	 * <p>
+	 * Removes an attachment which is no longer indexed from the fingerprint
+	 * index, releasing the attachments referencing it
+	 * </p>
+	 * 
+	 * @throws ManifoldCFException
+	 */
+	private void forgetFingerprint(String documentIdentifier,
+			ConfluenceSpecification confluenceSpec) throws ManifoldCFException {
+		if (!confluenceSpec.isDeduplicateAttachments()
+				|| !ConfluenceUtil.isAttachment(documentIdentifier)) {
+			return;
+		}
+		FingerprintIndex fingerprintIndex = getFingerprintIndex(confluenceSpec);
+		if (fingerprintIndex != null) {
+			releaseReferences(fingerprintIndex.remove(documentIdentifier),
+					confluenceSpec);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Marks the attachments whose canonical copy changed or is gone as changed
+	 * in the crawl state, so they are fetched and indexed again, with their
+	 * body or referencing a new canonical copy
+	 * </p>
+	 * 
+	 * @throws ManifoldCFException
+	 */
+	private void releaseReferences(Set<String> released,
+			ConfluenceSpecification confluenceSpec) throws ManifoldCFException {
+		if (released.isEmpty()) {
+			return;
+		}
+		CrawlStateStore crawlStateStore = getCrawlStateStore(confluenceSpec);
+		if (crawlStateStore != null) {
+			crawlStateStore.markChanged(confluenceSpec.getSpaces(), released);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Extracts the plain text of a page, encoded in UTF-8
+	 * </p>
+	 * 
+	 * @param page
+	 *            The page
+	 * @param extractor
+	 *            The {@code HtmlTextExtractor} collecting the title and the
+	 *            headings of the page
+	 * @throws IOException
+	 */
+	private static byte[] extractText(Page page, HtmlTextExtractor extractor)
+			throws IOException {
+		ByteArrayOutputStream text = new ByteArrayOutputStream(
+				(int) Math.min(page.getLength(), Integer.MAX_VALUE));
+		extractor.extract(new InputStreamReader(page.getContentStream(),
+				StandardCharsets.UTF_8), new OutputStreamWriter(text,
+				StandardCharsets.UTF_8));
+		return text.toByteArray();
+	}
+
+	/**
+	 * <p>
+	 * Gets the fields sent along the body of a page: its metadata of the
+	 * groups indexed by the job, the extra properties and the title and the
+	 * headings found extracting its text. Values are strings or arrays of
+	 * strings
+	 * </p>
+	 */
+	private static Map<String, Object> getDocumentFields(Page page,
+			Map<String, String> extraProperties, HtmlTextExtractor extractor,
+			Set<MetadataGroup> metadata) {
+		Map<String, Object> fields = Maps.newLinkedHashMap();
+
+		/* Adding Page Metadata, only the groups indexed by the job */
+		Map<String, Object> pageMetadata = page.getMetadataAsMap();
+		MetadataGroup.retain(pageMetadata, metadata);
+		for (Entry<String, Object> entry : pageMetadata.entrySet()) {
+			if (entry.getValue() == null) {
+				continue;
+			}
+			if(entry.getValue() instanceof List) {
+				List<?> list = (List<?>)entry.getValue();
+				fields.put(entry.getKey(), list.toArray(new String[list.size()]));
+			}
+			else {
+				fields.put(entry.getKey(), entry.getValue().toString());
+			}
+		}
+
+		/* Adding extra properties */
+		fields.putAll(extraProperties);
+
+		/* Adding the title and the headings found extracting the text */
+		if (extractor != null) {
+			if (extractor.getTitle() != null) {
+				fields.put(EXTRACTED_TITLE_FIELD, extractor.getTitle());
+			}
+			if (!extractor.getHeadings().isEmpty()) {
+				fields.put(HEADINGS_FIELD, extractor.getHeadings().toArray(
+						new String[extractor.getHeadings().size()]));
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * <p>
+	 * Gets the part of the version string of a document set by the job
+	 * options which change what is sent to the output: the metadata groups
+	 * and, for pages, the body representation and the text extraction. It is
+	 * empty with the default options, so the documents indexed before they
+	 * could be chosen keep their version
+	 * </p>
+	 */
+	private static String getOptionsVersion(
+			ConfluenceSpecification confluenceSpec, boolean attachment) {
+		StringBuilder sb = new StringBuilder();
+		Set<MetadataGroup> metadata = confluenceSpec.getMetadataGroups();
+		if (!metadata.equals(MetadataGroup.ALL)) {
+			sb.append(METADATA_VERSION).append(MetadataGroup.toNames(metadata));
+		}
+		if (!attachment) {
+			if (confluenceSpec.getBodyRepresentation() != BodyRepresentation.VIEW) {
+				sb.append(BODY_VERSION).append(
+						confluenceSpec.getBodyRepresentation().getName());
+			}
+			if (confluenceSpec.isExtractText()) {
+				sb.append(EXTRACT_TEXT_VERSION);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * <p>
+	 * Gets the fingerprint of what is sent along the body of a page. The
+	 * fields of the version group change with every version of the page, so
+	 * they are left out: a page whose body did not change keeps the version
+	 * fields it was indexed with
+	 * </p>
+	 */
+	private static String getFieldsHash(Map<String, Object> fields,
+			String mediaType, String documentURI, String space) {
+		Map<String, Object> hashed = Maps.newHashMap(fields);
+		hashed.keySet().removeAll(MetadataGroup.VERSION.getFields());
+		hashed.put(MEDIA_TYPE_HASH_KEY, StringUtils.defaultString(mediaType));
+		hashed.put(URI_HASH_KEY, StringUtils.defaultString(documentURI));
+		hashed.put(ACL_HASH_KEY, StringUtils.defaultString(space));
+		return DocumentVersion.fingerprint(hashed);
+	}
+
+	/**
+	 * <p>
+	 * Tells ManifoldCF when to check the page again in a continuous crawl,
+	 * according to how often the page is edited
+	 * (see {@code RevisitSchedule})
+	 * </p>
+	 * 
+	 * @throws ManifoldCFException
+	 */
+	private static void scheduleRevisit(Page page,
+			String manifoldDocumentIdentifier, IProcessActivity activities)
+			throws ManifoldCFException {
+		long currentTime = System.currentTimeMillis();
+		long interval = RevisitSchedule.revisitInterval(page.getVersion(),
+				page.getCreatedDate(), page.getLastModifiedDate(), currentTime);
+		if (Logging.connectors != null && Logging.connectors.isDebugEnabled()) {
+			Logging.connectors.debug("Confluence: Revisiting '"
+					+ manifoldDocumentIdentifier + "' in " + interval / 60000L
+					+ " minutes");
+		}
+		Long revisitTime = new Long(currentTime + interval);
+		activities.setDocumentScheduleBounds(manifoldDocumentIdentifier,
+				revisitTime, revisitTime, null, null);
+	}
+
 	/**
 	 * <p>
 	 * Handles IO Exception to manage whether the exception is an interruption
@@ -1154,6 +2784,44 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 				currentTime + 300000L, currentTime + 3 * 60 * 60000L, -1, false);
 	}
 
+	/**
+	 * <p>
+	 * Handles the rejection of a request because Confluence has been failing
+	 * repeatedly, so the documents are retried once the circuit breaker lets
+	 * requests through again
+	 * </p>
+	 * 
+	 * @param e
+	 *            The Exception
+	 * @throws ServiceInterruption
+	 */
+	private static void handleConfluenceUnavailableException(
+			ConfluenceUnavailableException e) throws ServiceInterruption {
+		Logging.connectors.warn("Confluence unavailable: " + e.getMessage());
+		long currentTime = System.currentTimeMillis();
+		throw new ServiceInterruption("Confluence unavailable: "
+				+ e.getMessage(), e, Math.max(e.getRetryTime(), currentTime
+				+ 1000L), currentTime + 3 * 60 * 60000L, -1, false);
+	}
+
+	/**
+	 * <p>
+	 * Handles the failure to get a document which is not known to be gone, so
+	 * that it is retried later on instead of being removed from the index
+	 * </p>
+	 * 
+	 * @param e
+	 *            The Exception
+	 * @throws ServiceInterruption
+	 */
+	private static void handleConfluenceException(ConfluenceException e)
+			throws ServiceInterruption {
+		Logging.connectors.warn("Confluence error: " + e.getMessage(), e);
+		long currentTime = System.currentTimeMillis();
+		throw new ServiceInterruption("Confluence error: " + e.getMessage(), e,
+				currentTime + 300000L, currentTime + 3 * 60 * 60000L, -1, false);
+	}
+
 	/**
 	 * <p>
 	 * Handles general exceptions
@@ -1194,6 +2862,13 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 	private static class ConfluenceSpecification {
 		private List<String> spaces;
 		private Boolean processAttachments = false;
+		private String bootstrapArchive = "";
+		private Set<MetadataGroup> metadataGroups = MetadataGroup.ALL;
+		private BodyRepresentation bodyRepresentation = BodyRepresentation.VIEW;
+		private Boolean extractText = false;
+		private Boolean compareContent = false;
+		private Boolean deduplicateAttachments = false;
+		private String jobKey;
 
 		/**
 		 * <p>
@@ -1219,6 +2894,93 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 			return this.spaces;
 		}
 
+		/**
+		 * <p>
+		 * Returns the path of the space export archive used to bootstrap the
+		 * initial crawl, empty if there is none
+		 * </p>
+		 * 
+		 * @return the configured archive path
+		 */
+		public String getBootstrapArchive() {
+			return this.bootstrapArchive;
+		}
+
+		/**
+		 * <p>
+		 * Returns the metadata groups to index, all of them if the job was
+		 * saved before they could be chosen
+		 * </p>
+		 * 
+		 * @return the configured metadata groups
+		 */
+		public Set<MetadataGroup> getMetadataGroups() {
+			return this.metadataGroups;
+		}
+
+		/**
+		 * <p>
+		 * Returns the representation the body of the pages is requested in
+		 * </p>
+		 * 
+		 * @return the configured body representation
+		 */
+		public BodyRepresentation getBodyRepresentation() {
+			return this.bodyRepresentation;
+		}
+
+		/**
+		 * <p>
+		 * Returns if the plain text of the pages should be extracted and sent
+		 * instead of their HTML
+		 * </p>
+		 * 
+		 * @return a {@code Boolean} indicating if the text should be extracted
+		 *         or not
+		 */
+		public Boolean isExtractText() {
+			return this.extractText;
+		}
+
+		/**
+		 * <p>
+		 * Returns if the hashes of the body and the fields of the documents
+		 * should be compared to the indexed ones to decide whether they are
+		 * ingested again
+		 * </p>
+		 * 
+		 * @return a {@code Boolean} indicating if the content hashes should be
+		 *         compared or not
+		 */
+		public Boolean isCompareContent() {
+			return this.compareContent;
+		}
+
+		/**
+		 * <p>
+		 * Returns if identical attachments of a space should be sent once,
+		 * the next copies being indexed as references to the first one
+		 * </p>
+		 * 
+		 * @return a {@code Boolean} indicating if the attachments should be
+		 *         deduplicated or not
+		 */
+		public Boolean isDeduplicateAttachments() {
+			return this.deduplicateAttachments;
+		}
+
+		/**
+		 * <p>
+		 * Returns the key of the job. Jobs saved before it was generated get
+		 * one derived from their specification
+		 * </p>
+		 * 
+		 * @return the job key
+		 */
+		public String getJobKey() {
+			return this.jobKey;
+		}
+
 		public static ConfluenceSpecification from(Specification spec) {
 			ConfluenceSpecification cs = new ConfluenceSpecification();
 			cs.spaces = Lists.newArrayList();
@@ -1242,9 +3004,34 @@ public class ConfluenceRepositoryConnector extends BaseRepositoryConnector {
 					String s = sn
 							.getAttributeValue(ConfluenceConfiguration.Specification.PROCESS_ATTACHMENTS_ATTRIBUTE_KEY);
 					cs.processAttachments = Boolean.valueOf(s);
+					cs.bootstrapArchive = StringUtils.defaultString(sn
+							.getAttributeValue(ConfluenceConfiguration.Specification.BOOTSTRAP_ARCHIVE_ATTRIBUTE_KEY));
+					cs.metadataGroups = MetadataGroup.fromNames(sn
+							.getAttributeValue(ConfluenceConfiguration.Specification.METADATA_ATTRIBUTE_KEY));
+					cs.bodyRepresentation = BodyRepresentation.fromName(sn
+							.getAttributeValue(ConfluenceConfiguration.Specification.BODY_REPRESENTATION_ATTRIBUTE_KEY));
+					cs.extractText = Boolean.valueOf(sn
+							.getAttributeValue(ConfluenceConfiguration.Specification.EXTRACT_TEXT_ATTRIBUTE_KEY));
+					cs.compareContent = Boolean.valueOf(sn
+							.getAttributeValue(ConfluenceConfiguration.Specification.COMPARE_CONTENT_ATTRIBUTE_KEY));
+					cs.deduplicateAttachments = Boolean.valueOf(sn
+							.getAttributeValue(ConfluenceConfiguration.Specification.DEDUPLICATE_ATTACHMENTS_ATTRIBUTE_KEY));
+					cs.jobKey = sn
+							.getAttributeValue(ConfluenceConfiguration.Specification.JOB_KEY_ATTRIBUTE_KEY);
 				}
 			}
 
+			if (StringUtils.isEmpty(cs.jobKey)) {
+				cs.jobKey = Hashing
+						.sha256()
+						.hashString(
+								StringUtils.join(cs.spaces, ",") + "|"
+										+ cs.processAttachments + "|"
+										+ cs.bootstrapArchive,
+								StandardCharsets.UTF_8).toString()
+						.substring(0, 32);
+			}
+
 			return cs;
 
 		}
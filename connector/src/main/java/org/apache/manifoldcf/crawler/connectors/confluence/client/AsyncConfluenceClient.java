@@ -0,0 +1,185 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.client;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.exception.ConfluenceException;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Attachment;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceResponse;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceUser;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Label;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Page;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * <p>
+ * AsyncConfluenceClient class
+ * </p>
+ * <p>
+ * Asynchronous view of a {@code ConfluenceClient}: every request returns a
+ * {@code ListenableFuture} which can be composed with {@code Futures} and
+ * cancelled, so a single thread can have many requests in flight
+ * </p>
+ * <p>
+ * Requests run on the {@code ConfluenceExecutor}, going through the same
+ * connection pool, throttle, circuit breaker and caches as the blocking calls.
+ * Cancelling a request not started yet drops it, cancelling a running one
+ * interrupts its thread
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class AsyncConfluenceClient {
+
+	private final ConfluenceClient client;
+	private final ListeningExecutorService executor;
+
+	/**
+	 * <p>Creates a new asynchronous client running on the {@code ConfluenceExecutor}</p>
+	 * @param client the client sending the requests
+	 */
+	public AsyncConfluenceClient(ConfluenceClient client) {
+		this(client, ConfluenceExecutor.get());
+	}
+
+	/**
+	 * <p>Creates a new asynchronous client running on the given executor</p>
+	 * @param client the client sending the requests
+	 * @param executor the executor running the requests
+	 */
+	public AsyncConfluenceClient(ConfluenceClient client,
+			ExecutorService executor) {
+		this.client = client;
+		this.executor = MoreExecutors.listeningDecorator(executor);
+	}
+
+	public ListenableFuture<ConfluenceResponse<Page>> getPages(final int start,
+			final int limit, final Optional<String> space) {
+		return executor.submit(new Callable<ConfluenceResponse<Page>>() {
+			@Override
+			public ConfluenceResponse<Page> call() throws Exception {
+				return client.getPages(start, limit, space);
+			}
+		});
+	}
+
+	public ListenableFuture<Page> getPage(final String pageId) {
+		return executor.submit(new Callable<Page>() {
+			@Override
+			public Page call() throws Exception {
+				return client.getPage(pageId);
+			}
+		});
+	}
+
+	public ListenableFuture<List<Label>> getLabels(final String pageId) {
+		return executor.submit(new Callable<List<Label>>() {
+			@Override
+			public List<Label> call() throws Exception {
+				return client.getLabels(pageId);
+			}
+		});
+	}
+
+	public ListenableFuture<ConfluenceResponse<Attachment>> getPageAttachments(
+			final String pageId, final int start, final int limit) {
+		return executor.submit(new Callable<ConfluenceResponse<Attachment>>() {
+			@Override
+			public ConfluenceResponse<Attachment> call() throws Exception {
+				return client.getPageAttachments(pageId, start, limit);
+			}
+		});
+	}
+
+	/**
+	 * <p>Gets all the attachments of a page, requesting the next results when each
+	 * response arrives</p>
+	 * @param pageId the page id
+	 * @param limit the number of attachments requested at a time
+	 * @return the future attachments
+	 */
+	public ListenableFuture<List<Attachment>> getAllPageAttachments(
+			String pageId, int limit) {
+		return collectPageAttachments(pageId, 0, limit,
+				Lists.<Attachment> newArrayList());
+	}
+
+	private ListenableFuture<List<Attachment>> collectPageAttachments(
+			final String pageId, final int start, final int limit,
+			final List<Attachment> attachments) {
+		return Futures.transform(getPageAttachments(pageId, start, limit),
+				new AsyncFunction<ConfluenceResponse<Attachment>, List<Attachment>>() {
+					@Override
+					public ListenableFuture<List<Attachment>> apply(
+							ConfluenceResponse<Attachment> response) {
+						attachments.addAll(response.getResults());
+						if (response.isLast()) {
+							return Futures.immediateFuture(attachments);
+						}
+						/* Listing no attachment without being the last response, it is not well formed */
+						if (response.getResults().isEmpty()) {
+							return Futures.immediateFailedFuture(new ConfluenceException(
+									"Attachments listing of page " + pageId
+											+ " is not well formed"));
+						}
+						return collectPageAttachments(pageId, start
+								+ response.getResults().size(), limit,
+								attachments);
+					}
+				});
+	}
+
+	public ListenableFuture<Attachment> getAttachment(final String attachmentId) {
+		return executor.submit(new Callable<Attachment>() {
+			@Override
+			public Attachment call() throws Exception {
+				return client.getAttachment(attachmentId);
+			}
+		});
+	}
+
+	public ListenableFuture<ConfluenceUser> getUserAuthorities(
+			final String username) {
+		return executor.submit(new Callable<ConfluenceUser>() {
+			@Override
+			public ConfluenceUser call() throws Exception {
+				return client.getUserAuthorities(username);
+			}
+		});
+	}
+
+	/**
+	 * <p>Waits for a future, throwing the exception of the failed request</p>
+	 * <p>The future is cancelled if the thread is interrupted</p>
+	 * @param future the future to wait for
+	 * @return the result of the future
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 * @throws Exception the exception thrown by the request
+	 */
+	public static <T> T await(ListenableFuture<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+}
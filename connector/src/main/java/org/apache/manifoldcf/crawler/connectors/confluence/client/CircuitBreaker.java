@@ -0,0 +1,246 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.client;
+
+import java.util.Map;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.exception.ConfluenceUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * CircuitBreaker class
+ * </p>
+ * <p>
+ * Keeps track of the outcome of the last requests sent to a Confluence server
+ * and stops sending requests once the failure rate crosses the configured
+ * threshold. While the circuit is open every request fails immediately with a
+ * {@code ConfluenceUnavailableException}, so the crawler threads are released
+ * instead of waiting for the socket timeouts
+ * </p>
+ * <p>
+ * Once the open time has elapsed the circuit becomes half-open and a single
+ * trial request is let through. The circuit is closed again if it succeeds and
+ * opened again otherwise. Only the outcome of the trial request is taken into
+ * account while the circuit is not closed: requests sent before the circuit
+ * opened may still report back, and they say nothing about the server
+ * recovery. The circuit stays open at least {@code MINIMUM_OPEN_TIME}
+ * </p>
+ * <p>
+ * As with {@code RequestThrottle}, there is one instance per throttling bin
+ * and configuration, so connections configuring the same server differently
+ * do not overwrite each other's settings
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class CircuitBreaker {
+
+	public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+	public static final int DEFAULT_MINIMUM_REQUESTS = 20;
+	public static final long DEFAULT_OPEN_TIME = 60000L;
+	public static final long MINIMUM_OPEN_TIME = 1000L;
+
+	/* Permit of the requests sent while the circuit is closed */
+	public static final long NO_TRIAL = 0L;
+
+	private static final Map<String, CircuitBreaker> breakers = Maps
+			.newHashMap();
+
+	private static Logger logger = LoggerFactory
+			.getLogger(CircuitBreaker.class);
+
+	public static enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String binName;
+
+	private int failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+	private long openTime = DEFAULT_OPEN_TIME;
+
+	/* Ring buffer with the outcome of the last requests, true meaning failure */
+	private boolean[] outcomes = new boolean[DEFAULT_MINIMUM_REQUESTS];
+	private int outcomeIndex = 0;
+	private int outcomeCount = 0;
+	private int failureCount = 0;
+
+	private State state = State.CLOSED;
+	private long openUntil = 0L;
+	private long trialDeadline = 0L;
+	/* Permit of the last trial request, never reused so late outcomes of older trials are ignored */
+	private long trial = NO_TRIAL;
+
+	CircuitBreaker(String binName) {
+		this.binName = binName;
+	}
+
+	/**
+	 * <p>Returns the circuit breaker shared by all the clients in the given bin using the given configuration</p>
+	 * @param binName the throttling bin name
+	 * @param failureRateThreshold the failure percentage (1-100) opening the circuit. 0 disables the circuit breaker
+	 * @param minimumRequests the number of requests taken into account to compute the failure rate
+	 * @param openTime the time in milliseconds the circuit stays open before a trial request is allowed, at least {@code MINIMUM_OPEN_TIME}
+	 * @return the {@code CircuitBreaker} for the bin and configuration
+	 */
+	public static CircuitBreaker forBin(String binName,
+			int failureRateThreshold, int minimumRequests, long openTime) {
+		CircuitBreaker configured = new CircuitBreaker(binName);
+		configured.configure(failureRateThreshold, minimumRequests, openTime);
+		String key = binName + "#" + configured.failureRateThreshold + "/"
+				+ configured.outcomes.length + "/" + configured.openTime;
+		synchronized (breakers) {
+			CircuitBreaker breaker = breakers.get(key);
+			if (breaker == null) {
+				breaker = configured;
+				breakers.put(key, breaker);
+			}
+			return breaker;
+		}
+	}
+
+	private void configure(int failureRateThreshold, int minimumRequests,
+			long openTime) {
+		this.failureRateThreshold = Math.min(100, Math.max(0,
+				failureRateThreshold));
+		this.openTime = Math.max(MINIMUM_OPEN_TIME, openTime);
+		this.outcomes = new boolean[Math.max(1, minimumRequests)];
+	}
+
+	/**
+	 * <p>Checks whether a request can be sent</p>
+	 * @return the permit to report the outcome of the request with, {@code NO_TRIAL} unless it is the trial
+	 *         request of a half-open circuit
+	 * @throws ConfluenceUnavailableException if the circuit is open
+	 */
+	public synchronized long acquirePermission()
+			throws ConfluenceUnavailableException {
+		if (failureRateThreshold == 0) {
+			return NO_TRIAL;
+		}
+		long now = System.currentTimeMillis();
+		switch (state) {
+		case CLOSED:
+			return NO_TRIAL;
+		case OPEN:
+			if (now < openUntil) {
+				throw unavailable(openUntil);
+			}
+			logger.info("Circuit for {} is half-open, sending a trial request",
+					binName);
+			state = State.HALF_OPEN;
+			return startTrial(now);
+		case HALF_OPEN:
+		default:
+			/* Only one trial request at a time. If it never reports back, allow another one */
+			if (now < trialDeadline) {
+				throw unavailable(trialDeadline);
+			}
+			return startTrial(now);
+		}
+	}
+
+	/**
+	 * <p>Records a successful request</p>
+	 * @param permit the permit returned by {@code acquirePermission} for the request
+	 */
+	public synchronized void recordSuccess(long permit) {
+		if (state != State.CLOSED) {
+			if (isTrial(permit)) {
+				logger.info("Trial request to {} succeeded, closing circuit",
+						binName);
+				state = State.CLOSED;
+				resetWindow();
+			}
+			return;
+		}
+		record(false);
+	}
+
+	/**
+	 * <p>Records a failed request (IO error, server error or too many requests)</p>
+	 * @param permit the permit returned by {@code acquirePermission} for the request
+	 */
+	public synchronized void recordFailure(long permit) {
+		if (state != State.CLOSED) {
+			if (isTrial(permit)) {
+				open("trial request failed");
+			}
+			return;
+		}
+		record(true);
+		if (failureRateThreshold > 0 && state == State.CLOSED
+				&& outcomeCount == outcomes.length
+				&& failureCount * 100 >= failureRateThreshold * outcomeCount) {
+			open(failureCount + " of the last " + outcomeCount
+					+ " requests failed");
+		}
+	}
+
+	/**
+	 * <p>Releases the permit of a request which was not sent, its outcome says nothing about the server.
+	 * If it was the trial request, another one is allowed</p>
+	 * @param permit the permit returned by {@code acquirePermission} for the request
+	 */
+	public synchronized void release(long permit) {
+		if (isTrial(permit)) {
+			trialDeadline = 0L;
+		}
+	}
+
+	/**
+	 * @return the current state of the circuit
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	private long startTrial(long now) {
+		trialDeadline = now + openTime;
+		return ++trial;
+	}
+
+	private boolean isTrial(long permit) {
+		return state == State.HALF_OPEN && permit != NO_TRIAL
+				&& permit == trial;
+	}
+
+	private void record(boolean failure) {
+		if (outcomeCount == outcomes.length) {
+			if (outcomes[outcomeIndex]) {
+				failureCount--;
+			}
+		} else {
+			outcomeCount++;
+		}
+		outcomes[outcomeIndex] = failure;
+		if (failure) {
+			failureCount++;
+		}
+		outcomeIndex = (outcomeIndex + 1) % outcomes.length;
+	}
+
+	private void open(String reason) {
+		logger.warn("Opening circuit for {} during {} ms: {}", binName,
+				openTime, reason);
+		state = State.OPEN;
+		openUntil = System.currentTimeMillis() + openTime;
+		resetWindow();
+	}
+
+	private void resetWindow() {
+		outcomeIndex = 0;
+		outcomeCount = 0;
+		failureCount = 0;
+		for (int i = 0; i < outcomes.length; i++) {
+			outcomes[i] = false;
+		}
+	}
+
+	private ConfluenceUnavailableException unavailable(long retryTime) {
+		return new ConfluenceUnavailableException("Circuit for " + binName
+				+ " is open after repeated failures", retryTime);
+	}
+}
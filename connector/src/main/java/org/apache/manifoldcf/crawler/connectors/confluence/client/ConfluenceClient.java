@@ -2,16 +2,29 @@ package org.apache.manifoldcf.crawler.connectors.confluence.client;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
 import java.nio.charset.Charset;
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.config.RegistryBuilder;
@@ -20,28 +33,39 @@ import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.entity.BasicHttpEntity;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpRequestExecutor;
 import org.apache.http.util.EntityUtils;
 import org.apache.manifoldcf.connectorcommon.common.InterruptibleSocketFactory;
 import org.apache.manifoldcf.connectorcommon.interfaces.KeystoreManagerFactory;
 import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
 import org.apache.manifoldcf.crawler.connectors.confluence.exception.ConfluenceException;
+import org.apache.manifoldcf.crawler.connectors.confluence.exception.ConfluenceUnavailableException;
+import org.apache.manifoldcf.crawler.connectors.confluence.exception.PageNotFoundException;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.Attachment;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.BodyRepresentation;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceResource;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceResponse;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceUser;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.Label;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.MetadataGroup;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.MutableAttachment;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.MutablePage;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.Page;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.PageType;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.Space;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.Spaces;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.builder.ConfluenceResourceBuilder;
+import org.apache.manifoldcf.crawler.connectors.confluence.snapshot.SnapshotWriter;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -49,6 +73,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 
 /**
@@ -73,10 +98,47 @@ public class ConfluenceClient {
 	
 	private static final String CONTENT_PATH = "/rest/api/content";
 	private static final String AUTHORITY_PATH = "/rpc/json-rpc/confluenceservice-v2/";
-	private static final String EXPANDABLE_PARAMETERS = "expand=body.view,metadata.labels,space,history,version";
+	/*
+	 * What every content needs: the space for its ACL and the version for its
+	 * version string. Labels are requested apart, metadata.labels is never
+	 * expanded. Pages add the body in the representation chosen by the job
+	 */
+	private static final String PAGE_EXPANDABLE_PARAMETERS = "expand=space,version";
+	/* Attachment bodies are downloaded apart. The container identifies the page an attachment belongs to in crawl snapshots */
+	private static final String ATTACHMENT_EXPANDABLE_PARAMETERS = "expand=space,version,container";
+	private static final String HISTORY_EXPANDABLE_PARAMETER = "history";
+	/* Listings carry the version of every content, to find out what changed without fetching it */
+	private static final String LISTING_EXPANDABLE_PARAMETERS = "expand=version";
+	private static final String SEARCH_PATH = "/search";
+	/* Only what seeding needs, the version to tell changes and the page of the attachments */
+	private static final String SEARCH_EXPANDABLE_PARAMETERS = "expand=version,container";
+	private static final String PAGE_TYPE = "page";
+	private static final String ATTACHMENT_TYPE = "attachment";
 	private static final String CHILD_ATTACHMENTS_PATH = "/child/attachment/";
 	private static final String LABEL_PATH = "/label";
 
+	public static final int DEFAULT_CONNECT_TIMEOUT = 60000;
+	public static final int DEFAULT_POOL_TIMEOUT = 300000;
+	public static final int DEFAULT_METADATA_TIMEOUT = 120000;
+	public static final int DEFAULT_CONTENT_TIMEOUT = 900000;
+	/* Cookies identifying an authenticated Confluence session */
+	private static final Set<String> SESSION_COOKIES = ImmutableSet.of(
+			"JSESSIONID", "seraph.confluence", "cloud.session.token");
+	private static final String USERNAME_HEADER = "X-AUSERNAME";
+	private static final String ANONYMOUS_USERNAME = "anonymous";
+	/* Time to wait before retrying a request rejected by an overloaded server without Retry-After */
+	private static final long UNAVAILABLE_RETRY_TIME = 60000L;
+
+	/* Time a connection is kept alive when the server does not send a Keep-Alive timeout */
+	public static final long DEFAULT_KEEP_ALIVE = 120000L;
+
+	/*
+	 * TLS sessions are cached by the SSL context of the socket factory, so
+	 * sharing it lets new connections and new clients resume them instead of
+	 * doing full handshakes
+	 */
+	private static javax.net.ssl.SSLSocketFactory httpsSocketFactory;
+
 	private Logger logger = LoggerFactory.getLogger(ConfluenceClient.class);
 
 	private String protocol;
@@ -87,7 +149,21 @@ public class ConfluenceClient {
 	private String password;
 
 	private CloseableHttpClient httpClient;
-	private HttpClientContext httpContext;
+	private final CookieStore cookieStore = new BasicCookieStore();
+	private PoolingHttpClientConnectionManager connectionManager;
+	private volatile RequestThrottle throttle;
+	private volatile CircuitBreaker circuitBreaker;
+	private int maxConnections = 1;
+	private final TransferStatistics transferStatistics = new TransferStatistics();
+	private final RequestStatistics requestStatistics = new RequestStatistics();
+	private volatile ResponseCache responseCache;
+	private volatile ContentStore contentStore;
+	private volatile SnapshotWriter snapshotWriter;
+
+	private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	private volatile int poolTimeout = DEFAULT_POOL_TIMEOUT;
+	private volatile RequestConfig metadataRequestConfig;
+	private volatile RequestConfig contentRequestConfig;
 
 	/**
 	 * <p>Creates a new client instance using the given parameters</p>
@@ -107,28 +183,133 @@ public class ConfluenceClient {
 		this.path = path;
 		this.username = username;
 		this.password = password;
+		this.throttle = RequestThrottle.forBin(host, null);
+		this.circuitBreaker = CircuitBreaker.forBin(host,
+				CircuitBreaker.DEFAULT_FAILURE_RATE_THRESHOLD,
+				CircuitBreaker.DEFAULT_MINIMUM_REQUESTS,
+				CircuitBreaker.DEFAULT_OPEN_TIME);
+		setTimeouts(DEFAULT_CONNECT_TIMEOUT, DEFAULT_METADATA_TIMEOUT,
+				DEFAULT_CONTENT_TIMEOUT);
 
 		connect();
 	}
 
+	/**
+	 * <p>Creates a client not connected to any Confluence instance, used by clients serving the
+	 * contents from somewhere else (see {@code SnapshotReplayClient})</p>
+	 */
+	protected ConfluenceClient() {
+	}
+
+	/**
+	 * <p>Sets the timeouts used for the requests, waiting for a connection from the pool the default time</p>
+	 * @param connectTimeout the time in milliseconds to establish a connection
+	 * @param metadataTimeout the socket timeout in milliseconds for metadata requests
+	 * @param contentTimeout the socket timeout in milliseconds for attachment downloads
+	 */
+	public void setTimeouts(int connectTimeout, int metadataTimeout,
+			int contentTimeout) {
+		setTimeouts(connectTimeout, DEFAULT_POOL_TIMEOUT, metadataTimeout,
+				contentTimeout);
+	}
+
+	/**
+	 * <p>Sets the timeouts used for the requests</p>
+	 * <p>Metadata requests (pages, attachments and labels information, permissions) usually answer quickly, so
+	 * a short timeout can be used for them, while attachment downloads may need much longer. The pool is shared
+	 * by the connections using this client, so getting a connection from it may take as long as their requests</p>
+	 * @param connectTimeout the time in milliseconds to establish a connection
+	 * @param poolTimeout the time in milliseconds to get a connection from the pool
+	 * @param metadataTimeout the socket timeout in milliseconds for metadata requests
+	 * @param contentTimeout the socket timeout in milliseconds for attachment downloads
+	 */
+	public void setTimeouts(int connectTimeout, int poolTimeout,
+			int metadataTimeout, int contentTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.poolTimeout = poolTimeout;
+		this.metadataRequestConfig = createRequestConfig(metadataTimeout);
+		this.contentRequestConfig = createRequestConfig(contentTimeout);
+	}
+
+	/**
+	 * <p>Sets the cache used to send conditional requests, null to disable it</p>
+	 * <p>GET responses carrying an <code>ETag</code> or a <code>Last-Modified</code> header are stored, and
+	 * they are revalidated the next time they are requested, using the local copy if they have not changed</p>
+	 * @param responseCache the {@code ResponseCache} to use
+	 */
+	public void setResponseCache(ResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
+
+	/**
+	 * <p>Sets the store keeping a local copy of every page and attachment version fetched, null to disable it</p>
+	 * <p>A version of a content never changes, so when the version to process is already stored it is read
+	 * from the store instead of being fetched from Confluence again</p>
+	 * @param contentStore the {@code ContentStore} to use
+	 */
+	public void setContentStore(ContentStore contentStore) {
+		this.contentStore = contentStore;
+	}
+
+	/**
+	 * <p>Sets the writer recording every page, label and attachment fetched into a crawl snapshot, null to disable it</p>
+	 * @param snapshotWriter the {@code SnapshotWriter} to use
+	 */
+	public void setSnapshotWriter(SnapshotWriter snapshotWriter) {
+		this.snapshotWriter = snapshotWriter;
+	}
+
+	/**
+	 * <p>Configures the circuit breaker, shared by the clients of this Confluence server using the same configuration</p>
+	 * @param failureRateThreshold the failure percentage opening the circuit, 0 to disable it
+	 * @param minimumRequests the number of requests used to compute the failure rate
+	 * @param openTime the time in milliseconds the circuit stays open before a trial request
+	 */
+	public void setCircuitBreaker(int failureRateThreshold,
+			int minimumRequests, long openTime) {
+		this.circuitBreaker = CircuitBreaker.forBin(host, failureRateThreshold,
+				minimumRequests, openTime);
+	}
+
+	private RequestConfig createRequestConfig(int socketTimeout) {
+		return RequestConfig.custom()
+				.setCircularRedirectsAllowed(true)
+				.setSocketTimeout(socketTimeout)
+				.setExpectContinueEnabled(true)
+				.setConnectTimeout(connectTimeout)
+				.setConnectionRequestTimeout(poolTimeout).build();
+	}
+
+	/**
+	 * <p>Sets the schedule of crawl profiles used to limit the concurrency and request rate</p>
+	 * <p>The connection pool is sized and the request rate is limited according to the active profile. The
+	 * request rate budget is shared by the clients of this Confluence server using the same schedule</p>
+	 * @param schedule the {@code ThrottleSchedule} to apply
+	 */
+	public void setThrottleSchedule(ThrottleSchedule schedule) {
+		RequestThrottle throttle = RequestThrottle.forBin(host, schedule);
+		this.throttle = throttle;
+		applyThrottleProfile(throttle.currentProfile());
+	}
+
 	/**
 	 * <p>Connect methods used to initialize the underlying client</p>
 	 * @throws ManifoldCFException 
 	 */
 	private void connect() throws ManifoldCFException {
 
-		int socketTimeout = 900000;
-	    int connectionTimeout = 60000;
+		int socketTimeout = metadataRequestConfig.getSocketTimeout();
+	    int connectionTimeout = connectTimeout;
 
-	    javax.net.ssl.SSLSocketFactory httpsSocketFactory = KeystoreManagerFactory.getTrustingSecureSocketFactory();
-	    SSLConnectionSocketFactory myFactory = new SSLConnectionSocketFactory(new InterruptibleSocketFactory(httpsSocketFactory,connectionTimeout),
+	    SSLConnectionSocketFactory myFactory = new SSLConnectionSocketFactory(new InterruptibleSocketFactory(getHttpsSocketFactory(),connectionTimeout),
 	      NoopHostnameVerifier.INSTANCE);
 
 	    PoolingHttpClientConnectionManager poolingConnectionManager = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
 	        .register("http", PlainConnectionSocketFactory.getSocketFactory())
 	        .register("https", myFactory)
 	        .build());
-	    poolingConnectionManager.setDefaultMaxPerRoute(1);
+	    poolingConnectionManager.setDefaultMaxPerRoute(maxConnections);
+	    poolingConnectionManager.setMaxTotal(Math.max(maxConnections, 20));
 	    poolingConnectionManager.setValidateAfterInactivity(60000);
 	    poolingConnectionManager.setDefaultSocketConfig(SocketConfig.custom()
 	      .setTcpNoDelay(true)
@@ -136,29 +317,228 @@ public class ConfluenceClient {
 	      .build());
 
 
-	    RequestConfig.Builder requestBuilder = RequestConfig.custom()
-	      .setCircularRedirectsAllowed(true)
-	      .setSocketTimeout(socketTimeout)
-	      .setExpectContinueEnabled(true)
-	      .setConnectTimeout(connectionTimeout)
-	      .setConnectionRequestTimeout(socketTimeout);
-
-
 	    httpClient = HttpClients.custom()
 	      .setConnectionManager(poolingConnectionManager)
 	      .disableAutomaticRetries()
-	      .setDefaultRequestConfig(requestBuilder.build())
+	      .setDefaultCookieStore(cookieStore)
+	      /* Compression is negotiated and decoded in execute to keep track of the transferred bytes */
+	      .disableContentCompression()
+	      .setDefaultRequestConfig(metadataRequestConfig)
+	      .setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+	        @Override
+	        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+	          long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+	          return duration > 0 ? Math.min(duration, DEFAULT_KEEP_ALIVE) : DEFAULT_KEEP_ALIVE;
+	        }
+	      })
 	      .setRequestExecutor(new HttpRequestExecutor(socketTimeout))
 	      .setRedirectStrategy(new DefaultRedirectStrategy())
 	      .build();
+	    connectionManager = poolingConnectionManager;
 	    
 	   }
 
+	private static synchronized javax.net.ssl.SSLSocketFactory getHttpsSocketFactory() throws ManifoldCFException {
+		if (httpsSocketFactory == null) {
+			httpsSocketFactory = KeystoreManagerFactory.getTrustingSecureSocketFactory();
+		}
+		return httpsSocketFactory;
+	}
+
+	/**
+	 * <p>Resizes the connection pool to the concurrency allowed by the given profile</p>
+	 * @param profile the active {@code Profile}, null meaning no schedule is configured
+	 */
+	private synchronized void applyThrottleProfile(ThrottleSchedule.Profile profile) {
+		if (profile == null || profile.getMaxConnections() == maxConnections) {
+			return;
+		}
+		maxConnections = profile.getMaxConnections();
+		if (connectionManager != null) {
+			connectionManager.setMaxTotal(Math.max(maxConnections, 20));
+			connectionManager.setDefaultMaxPerRoute(maxConnections);
+		}
+	}
+
+	/**
+	 * <p>Gets the number of connections allowed to Confluence by the active crawl profile</p>
+	 * @return the maximum number of pooled connections
+	 */
+	public synchronized int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * <p>Sends the given request once the active crawl profile allows it</p>
+	 * <p>Credentials are only sent until Confluence has established a session, the session cookie
+	 * is used afterwards. If the session is rejected (expired or invalidated), the request is sent again
+	 * once authenticating with the credentials</p>
+	 * <p>gzip and deflate compression is requested, and compressed responses are decoded while they are read</p>
+	 * @param request the {@code HttpUriRequest} to be sent
+	 * @return the {@code HttpResponse} returned from the server
+	 * @throws IOException
+	 * @throws ConfluenceUnavailableException if the circuit breaker is open
+	 */
+	private HttpResponse execute(HttpUriRequest request) throws IOException,
+			ConfluenceUnavailableException {
+		boolean basicAuthentication = useBasicAuthentication() && !hasSession();
+		HttpResponse response = send(request, basicAuthentication);
+		if (useBasicAuthentication() && !basicAuthentication
+				&& isSessionRejected(response)) {
+			logger.debug("Confluence session rejected for {}, authenticating again",
+					username);
+			EntityUtils.consumeQuietly(response.getEntity());
+			requestStatistics.sessionRejected();
+			cookieStore.clear();
+			response = send(request, true);
+		}
+		response.setEntity(DecompressingEntity.wrap(response.getEntity(),
+				transferStatistics));
+		return response;
+	}
+
+	/**
+	 * <p>Sends the request, reporting the outcome to the circuit breaker. IO errors, server errors and
+	 * 429 responses are failures, running out of time waiting for a pooled connection is not.
+	 * Requests without a specific configuration use the metadata timeouts</p>
+	 * @param request the {@code HttpUriRequest} to be sent
+	 * @param basicAuthentication whether the credentials must be sent
+	 * @return the {@code HttpResponse} returned from the server
+	 * @throws IOException
+	 * @throws ConfluenceUnavailableException if the circuit breaker is open
+	 */
+	private HttpResponse send(HttpUriRequest request,
+			boolean basicAuthentication) throws IOException,
+			ConfluenceUnavailableException {
+		/* The settings may be replaced meanwhile, the outcome goes to the breaker which allowed the request */
+		CircuitBreaker circuitBreaker = this.circuitBreaker;
+		long permit = circuitBreaker.acquirePermission();
+		applyThrottleProfile(throttle.acquire());
+		if (request instanceof HttpRequestBase
+				&& ((HttpRequestBase) request).getConfig() == null) {
+			((HttpRequestBase) request).setConfig(metadataRequestConfig);
+		}
+		if (!request.containsHeader("Accept-Encoding")) {
+			request.addHeader("Accept-Encoding", "gzip, deflate");
+		}
+		request.removeHeaders("Authorization");
+		if (basicAuthentication) {
+			addBasicAuthentication(request);
+		}
+
+		/* Each request has its own context, the cookies are shared through the client cookie store */
+		HttpClientContext context = HttpClientContext.create();
+		context.setCookieStore(cookieStore);
+
+		HttpResponse response;
+		long start = System.nanoTime();
+		try {
+			response = httpClient.execute(request, context);
+		} catch (ConnectionPoolTimeoutException e) {
+			/* Never sent, the pool is busy with the requests of the connections sharing this client */
+			circuitBreaker.release(permit);
+			throw e;
+		} catch (IOException e) {
+			circuitBreaker.recordFailure(permit);
+			throw e;
+		}
+		requestStatistics.requestCompleted(basicAuthentication,
+				System.nanoTime() - start);
+		int statusCode = response.getStatusLine().getStatusCode();
+		if (statusCode >= 500 || statusCode == 429) {
+			circuitBreaker.recordFailure(permit);
+		} else {
+			circuitBreaker.recordSuccess(permit);
+		}
+		return response;
+	}
+
+	/**
+	 * <p>Adds the basic authentication header. GET requests also get the <code>os_authType=basic</code>
+	 * parameter so Confluence authenticates them with the header</p>
+	 * @param request the request to authenticate
+	 */
+	private void addBasicAuthentication(HttpUriRequest request) {
+		request.addHeader(
+				"Authorization",
+				"Basic "
+						+ Base64.encodeBase64String(String.format("%s:%s",
+								this.username, this.password).getBytes(
+								Charset.forName("UTF-8"))));
+		if (request instanceof HttpGet) {
+			URI uri = request.getURI();
+			String query = uri.getRawQuery();
+			if (query == null || !query.contains("os_authType=")) {
+				((HttpGet) request).setURI(URI.create(uri.toString()
+						+ (query == null ? "?" : "&") + "os_authType=basic"));
+			}
+		}
+	}
+
+	/**
+	 * <p>Checks whether Confluence has established an authenticated session for this client</p>
+	 * @return {@code Boolean} indicating whether there is a valid session cookie
+	 */
+	private boolean hasSession() {
+		Date now = new Date();
+		for (Cookie cookie : cookieStore.getCookies()) {
+			if (SESSION_COOKIES.contains(cookie.getName())
+					&& !cookie.isExpired(now)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * <p>Checks whether a request sent with the session cookie was not authenticated, either
+	 * rejected or served as anonymous user</p>
+	 * @param response the response to check
+	 * @return {@code Boolean} indicating whether the session has been rejected
+	 */
+	private boolean isSessionRejected(HttpResponse response) {
+		if (response.getStatusLine().getStatusCode() == 401) {
+			return true;
+		}
+		Header user = response.getFirstHeader(USERNAME_HEADER);
+		return user != null && ANONYMOUS_USERNAME.equals(user.getValue());
+	}
+
+	/**
+	 * <p>Returns the counters of the requests sent by this client</p>
+	 * @return the {@code RequestStatistics} of this client
+	 */
+	public RequestStatistics getRequestStatistics() {
+		return requestStatistics;
+	}
+
+	/**
+	 * <p>Returns the counters of the bytes received by this client</p>
+	 * @return the {@code TransferStatistics} of this client
+	 */
+	public TransferStatistics getTransferStatistics() {
+		return transferStatistics;
+	}
+
+	/**
+	 * <p>Evicts the pooled connections whose keep-alive has expired or that have been idle for longer than the given time</p>
+	 * <p>The client remains usable, new connections are opened on demand</p>
+	 * @param idleTime the idle time in milliseconds
+	 */
+	public void closeIdleConnections(long idleTime) {
+		if (connectionManager != null) {
+			connectionManager.closeExpiredConnections();
+			connectionManager.closeIdleConnections(idleTime, TimeUnit.MILLISECONDS);
+		}
+	}
+
 	/**
 	 * <p>Close the client. No further requests can be done</p>
 	 */
 	public void close() {
 		if (httpClient != null) {
+			logger.info("Closing Confluence client for {}. Transfer statistics: {}. Request statistics: {}",
+					host, transferStatistics, requestStatistics);
 			try {
 				httpClient.close();
 			} catch (IOException e) {
@@ -166,6 +546,8 @@ public class ConfluenceClient {
 						e.getMessage());
 				e.printStackTrace();
 			}
+			httpClient = null;
+			connectionManager = null;
 		}
 	}
 
@@ -189,7 +571,7 @@ public class ConfluenceClient {
 					"[Processing] Hitting url: {} for confluence status check fetching : ",
 					"Confluence URL", sanitizeUrl(url));
 			HttpGet httpGet = createGetRequest(url);
-			response = httpClient.execute(httpGet);
+			response = execute(httpGet);
 			int statusCode = response.getStatusLine().getStatusCode();
 			if (statusCode != 200)
 				throw new Exception(
@@ -230,24 +612,18 @@ public class ConfluenceClient {
 	 * <p>
 	 * Create a get request for the given url
 	 * </p>
+	 * <p>
+	 * Authentication is added when the request is sent
+	 * </p>
 	 * 
 	 * @param url
 	 *            the url
 	 * @return the created {@code HttpGet} instance
 	 */
 	private HttpGet createGetRequest(String url) {
-		String finalUrl = useBasicAuthentication() ? url + "&os_authType=basic": url;
-		String sanitizedUrl = sanitizeUrl(finalUrl);
+		String sanitizedUrl = sanitizeUrl(url);
 		HttpGet httpGet = new HttpGet(sanitizedUrl);
 		httpGet.addHeader("Accept", "application/json");
-		if (useBasicAuthentication()) {
-			httpGet.addHeader(
-					"Authorization",
-					"Basic "
-							+ Base64.encodeBase64String(String.format("%s:%s",
-									this.username, this.password).getBytes(
-									Charset.forName("UTF-8"))));
-		}
 		return httpGet;
 	}
 
@@ -278,8 +654,8 @@ public class ConfluenceClient {
 	@SuppressWarnings("unchecked")
 	public ConfluenceResponse<Page> getPages(int start, int limit,
 			Optional<String> space) throws Exception {
-		String url = String.format("%s://%s:%s/%s/%s?limit=%s&start=%s", protocol,
-				host, port, path, CONTENT_PATH, limit, start);
+		String url = String.format("%s://%s:%s/%s/%s?limit=%s&start=%s&%s", protocol,
+				host, port, path, CONTENT_PATH, limit, start, LISTING_EXPANDABLE_PARAMETERS);
 		if (space.isPresent()) {
 			url = String.format("%s&spaceKey=%s", url, space.get());
 		}
@@ -357,14 +733,137 @@ public class ConfluenceClient {
 	 */
 	public ConfluenceResponse<Attachment> getPageAttachments(String pageId, int start,
 			int limit) throws Exception {
-		String url = String.format("%s://%s:%s/%s/%s/%s%s?limit=%s&start=%s",
+		String url = String.format("%s://%s:%s/%s/%s/%s%s?limit=%s&start=%s&%s",
 				protocol, host, port, path, CONTENT_PATH, pageId, CHILD_ATTACHMENTS_PATH,
-				limit, start);
+				limit, start, LISTING_EXPANDABLE_PARAMETERS);
 		@SuppressWarnings("unchecked")
 		ConfluenceResponse<Attachment> confluenceResources = (ConfluenceResponse<Attachment>) getConfluenceResources(url, Attachment.builder());
 		return confluenceResources;
 	}
-	
+
+	/**
+	 * <p>Get the pages modified in the last minutes using a CQL search</p>
+	 * <p>The time is relative to the clock of Confluence, so the clocks of Confluence
+	 * and ManifoldCF do not need to agree</p>
+	 * @param start The start value to get pages from
+	 * @param limit The number of pages to get from start
+	 * @param spaces The keys of the spaces to search in, empty for all the spaces
+	 * @param minutes The number of minutes to look back
+	 * @return a {@code ConfluenceResponse} containing the result pages and
+	 *         some pagination values
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public ConfluenceResponse<Page> getModifiedPages(int start, int limit,
+			List<String> spaces, long minutes) throws Exception {
+		return (ConfluenceResponse<Page>) getConfluenceResources(
+				modifiedContentUrl(PAGE_TYPE, start, limit, spaces, minutes),
+				Page.builder());
+	}
+
+	/**
+	 * <p>Get the attachments modified in the last minutes using a CQL search</p>
+	 * <p>Their container is expanded, so the page they belong to is known</p>
+	 * @param start The start value to get attachments from
+	 * @param limit The number of attachments to get from start
+	 * @param spaces The keys of the spaces to search in, empty for all the spaces
+	 * @param minutes The number of minutes to look back
+	 * @return a {@code ConfluenceResponse} containing the result attachments and
+	 *         some pagination values
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public ConfluenceResponse<Attachment> getModifiedAttachments(int start,
+			int limit, List<String> spaces, long minutes) throws Exception {
+		return (ConfluenceResponse<Attachment>) getConfluenceResources(
+				modifiedContentUrl(ATTACHMENT_TYPE, start, limit, spaces,
+						minutes), Attachment.builder());
+	}
+
+	private String modifiedContentUrl(String type, int start, int limit,
+			List<String> spaces, long minutes) throws UnsupportedEncodingException {
+		StringBuilder cql = new StringBuilder("type=").append(type)
+				.append(" and lastmodified >= now(\"-").append(minutes)
+				.append("m\")");
+		if (!spaces.isEmpty()) {
+			cql.append(" and space in (");
+			for (int i = 0; i < spaces.size(); i++) {
+				cql.append(i > 0 ? "," : "").append(cqlString(spaces.get(i)));
+			}
+			cql.append(')');
+		}
+		return searchUrl(cql.toString(), start, limit);
+	}
+
+	/**
+	 * <p>Get the last modified page or attachment of a space using a CQL search</p>
+	 * <p>The response also carries the number of pages and attachments of the
+	 * space, if the Confluence version gives it, so the space can be told
+	 * unchanged without listing it</p>
+	 * @param space The space key, absent for all the spaces
+	 * @return a {@code ConfluenceResponse} with the last modified content, if any
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public ConfluenceResponse<Page> getLastModifiedContent(Optional<String> space)
+			throws Exception {
+		StringBuilder cql = new StringBuilder("type in (").append(PAGE_TYPE)
+				.append(',').append(ATTACHMENT_TYPE).append(')');
+		if (space.isPresent()) {
+			cql.append(" and space = ").append(cqlString(space.get()));
+		}
+		cql.append(" order by lastmodified desc");
+		return (ConfluenceResponse<Page>) getConfluenceResources(
+				searchUrl(cql.toString(), 0, 1), Page.builder());
+	}
+
+	private String searchUrl(String cql, int start, int limit)
+			throws UnsupportedEncodingException {
+		return String.format("%s://%s:%s/%s/%s%s?cql=%s&limit=%s&start=%s&%s",
+				protocol, host, port, path, CONTENT_PATH, SEARCH_PATH,
+				URLEncoder.encode(cql, "UTF-8"), limit, start,
+				SEARCH_EXPANDABLE_PARAMETERS);
+	}
+
+	private static String cqlString(String value) {
+		return '"' + value.replace("\"", "\\\"") + '"';
+	}
+
+	/**
+	 * <p>Get the pages in the trash of a space using pagination</p>
+	 * <p>Pages purged from the trash are not returned anymore</p>
+	 * @param start The start value to get pages from
+	 * @param limit The number of pages to get from start
+	 * @param space The space key
+	 * @return a {@code ConfluenceResponse} containing the result pages and
+	 *         some pagination values
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public ConfluenceResponse<Page> getTrashedPages(int start, int limit,
+			String space) throws Exception {
+		String url = String.format(
+				"%s://%s:%s/%s/%s?type=%s&status=trashed&spaceKey=%s&limit=%s&start=%s",
+				protocol, host, port, path, CONTENT_PATH, PAGE_TYPE,
+				URLEncoder.encode(space, "UTF-8"), limit, start);
+		return (ConfluenceResponse<Page>) getConfluenceResources(url, Page.builder());
+	}
+
+	/**
+	 * <p>Get the keys of the spaces the configured user can see</p>
+	 * @return the space keys
+	 * @throws Exception
+	 */
+	public List<String> getSpaceKeys() throws Exception {
+		List<String> spaceKeys = Lists.newArrayList();
+		for (Space space : getSpaces()) {
+			if (!space.getKey().isEmpty()) {
+				spaceKeys.add(space.getKey());
+			}
+		}
+		return spaceKeys;
+	}
+
 	/**
 	 * <p>
 	 * Gets a specific attachment contained in the specific page
@@ -373,11 +872,35 @@ public class ConfluenceClient {
 	 * @param attachmentId
 	 * @param pageId
 	 * @return the {@code Attachment} instance
+	 * @throws ConfluenceUnavailableException if Confluence is not accepting requests or is failing
+	 * @throws ConfluenceException if the attachment could not be got
+	 * @throws IOException if the attachment could not be requested
+	 */
+	public Attachment getAttachment(String attachmentId)
+			throws ConfluenceException, IOException {
+		return getAttachment(attachmentId, MetadataGroup.ALL);
+	}
+
+	/**
+	 * <p>
+	 * Gets a specific attachment, expanding only what the given metadata
+	 * groups need
+	 * </p>
+	 * 
+	 * @param attachmentId the attachment id
+	 * @param metadata the metadata groups to get
+	 * @return the {@code Attachment} instance
+	 * @throws ConfluenceUnavailableException if Confluence is not accepting requests or is failing
+	 * @throws ConfluenceException if the attachment could not be got
+	 * @throws IOException if the attachment could not be requested
 	 */
-	public Attachment getAttachment(String attachmentId) {
+	public Attachment getAttachment(String attachmentId,
+			Set<MetadataGroup> metadata) throws ConfluenceException,
+			IOException {
 		String url = String
 				.format("%s://%s:%s/%s/%s/%s?%s",
-						protocol, host, port, path, CONTENT_PATH, attachmentId, EXPANDABLE_PARAMETERS);
+						protocol, host, port, path, CONTENT_PATH, attachmentId,
+						expandParameters(PageType.ATTACHMENT, metadata));
 		logger.debug(
 				"[Processing] Hitting url for getting document content : {}",
 				sanitizeUrl(url));
@@ -385,13 +908,24 @@ public class ConfluenceClient {
 			HttpGet httpGet = createGetRequest(url);
 			HttpResponse response = executeRequest(httpGet);
 			HttpEntity entity = response.getEntity();
-			MutableAttachment attachment = attachmentFromHttpEntity(entity);
-			EntityUtils.consume(entity);
+			String stringEntity = EntityUtils.toString(entity);
+			MutableAttachment attachment = attachmentFromString(stringEntity);
+			if (snapshotWriter != null) {
+				snapshotWriter.recordAttachment(attachmentId, stringEntity);
+			}
 			retrieveAndSetAttachmentContent(attachment);
 			return attachment;
+		} catch (PageNotFoundException e) {
+			logger.debug("[Processing] Attachment {} not found", attachmentId);
+		} catch (ConfluenceException e) {
+			throw e;
+		} catch (IOException e) {
+			throw e;
 		} catch (Exception e) {
 			logger.error("[Processing] Failed to get attachment {}. Error: {}",
 					url, e.getMessage());
+			throw new ConfluenceException("Failed to get attachment "
+					+ attachmentId + ": " + e.getMessage(), e);
 		}
 
 		return new Attachment();
@@ -418,12 +952,41 @@ public class ConfluenceClient {
 				"[Processing] Hitting url for getting attachment content : {}",
 				url);
 		try {
-			HttpGet httpGet = createGetRequest(url);
-			HttpResponse response = executeRequest(httpGet);
-			attachment.setLength(response.getEntity().getContentLength());
-			byte[] byteContent = IOUtils.toByteArray(response.getEntity()
-					.getContent());
-			EntityUtils.consumeQuietly(response.getEntity());
+			byte[] byteContent = null;
+			if (contentStore != null && attachment.getVersion() > 0) {
+				InputStream stored = contentStore.open(ContentStore.ATTACHMENT,
+						attachment.getId(), attachment.getVersion());
+				if (stored != null) {
+					logger.debug("[Processing] Using stored content of attachment {} version {}",
+							attachment.getId(), attachment.getVersion());
+					try {
+						byteContent = IOUtils.toByteArray(stored);
+					} finally {
+						IOUtils.closeQuietly(stored);
+					}
+				}
+			}
+			if (byteContent == null) {
+				HttpGet httpGet = createGetRequest(url);
+				httpGet.setConfig(contentRequestConfig);
+				HttpResponse response = executeRequest(httpGet);
+				InputStream content = response.getEntity().getContent();
+				if (contentStore != null && attachment.getVersion() > 0) {
+					content = contentStore.store(ContentStore.ATTACHMENT,
+							attachment.getId(), attachment.getVersion(), content);
+				}
+				try {
+					byteContent = IOUtils.toByteArray(content);
+				} finally {
+					IOUtils.closeQuietly(content);
+					EntityUtils.consumeQuietly(response.getEntity());
+				}
+			}
+			if (snapshotWriter != null) {
+				snapshotWriter.recordAttachmentContent(attachment.getId(), byteContent);
+			}
+			/* The length comes from the decoded bytes, the entity length is unknown for compressed responses */
+			attachment.setLength(byteContent.length);
 			attachment.setContentStream(new ByteArrayInputStream(byteContent));
 		} catch (Exception e) {
 
@@ -440,65 +1003,380 @@ public class ConfluenceClient {
 	 * <p>Get a Confluence page identified by its id</p>
 	 * @param pageId the page id
 	 * @return the Confluence page
+	 * @throws ConfluenceUnavailableException if Confluence is not accepting requests or is failing
+	 * @throws ConfluenceException if the page could not be got
+	 * @throws IOException if the page could not be requested
 	 */
-	public Page getPage(String pageId) {
+	public Page getPage(String pageId) throws ConfluenceException,
+			IOException {
+		return getPage(pageId, MetadataGroup.ALL);
+	}
+
+	/**
+	 * <p>Get a Confluence page identified by its id, expanding only what the
+	 * given metadata groups need</p>
+	 * @param pageId the page id
+	 * @param metadata the metadata groups to get
+	 * @return the Confluence page
+	 * @throws ConfluenceUnavailableException if Confluence is not accepting requests or is failing
+	 * @throws ConfluenceException if the page could not be got
+	 * @throws IOException if the page could not be requested
+	 */
+	public Page getPage(String pageId, Set<MetadataGroup> metadata)
+			throws ConfluenceException, IOException {
+		return getPage(pageId, metadata, BodyRepresentation.VIEW);
+	}
+
+	/**
+	 * <p>Get a Confluence page identified by its id, with its body in the given
+	 * representation and expanding only what the given metadata groups need</p>
+	 * @param pageId the page id
+	 * @param metadata the metadata groups to get
+	 * @param representation the representation of the body
+	 * @return the Confluence page
+	 * @throws ConfluenceUnavailableException if Confluence is not accepting requests or is failing
+	 * @throws ConfluenceException if the page could not be got
+	 * @throws IOException if the page could not be requested
+	 */
+	public Page getPage(String pageId, Set<MetadataGroup> metadata,
+			BodyRepresentation representation)
+			throws ConfluenceException, IOException {
+		return getPage(pageId, metadata, representation, 0);
+	}
+
+	/**
+	 * <p>Get a Confluence page identified by its id, with its body in the given
+	 * representation and expanding only what the given metadata groups need.
+	 * The stored version of the page is looked up with the version known by the
+	 * caller, Confluence is only asked for it when it is unknown</p>
+	 * @param pageId the page id
+	 * @param metadata the metadata groups to get
+	 * @param representation the representation of the body
+	 * @param knownVersion the version of the page known from its listing, 0 if it is unknown
+	 * @return the Confluence page
+	 * @throws ConfluenceUnavailableException if Confluence is not accepting requests or is failing
+	 * @throws ConfluenceException if the page could not be got
+	 * @throws IOException if the page could not be requested
+	 */
+	public Page getPage(String pageId, Set<MetadataGroup> metadata,
+			BodyRepresentation representation, int knownVersion)
+			throws ConfluenceException, IOException {
 		String url = String
 				.format("%s://%s:%s/%s/%s/%s?%s",
-						protocol, host, port, path, CONTENT_PATH, pageId, EXPANDABLE_PARAMETERS);
+						protocol, host, port, path, CONTENT_PATH, pageId,
+						expandParameters(PageType.PAGE, metadata, representation));
 		url = sanitizeUrl(url);
 		logger.debug(
 				"[Processing] Hitting url for getting document content : {}",
 				url);
 		try {
-			HttpGet httpGet = createGetRequest(url);
-			HttpResponse response = executeRequest(httpGet);
-			HttpEntity entity = response.getEntity();
-			MutablePage page = pageFromHttpEntity(entity);
-			EntityUtils.consume(entity);
-			List<Label> labels = getLabels(pageId);
-			page.setLabels(labels);
+			String stringEntity = null;
+			if (contentStore != null) {
+				stringEntity = getStoredPage(pageId,
+						knownVersion > 0 ? knownVersion : getPageVersion(pageId));
+				/* Pages stored by jobs with another projection may lack the history or the body wanted */
+				if (stringEntity != null
+						&& !isStoredPageUsable(new JSONObject(stringEntity),
+								metadata, representation)) {
+					stringEntity = null;
+				}
+			}
+			boolean stored = stringEntity != null;
+			if (!stored) {
+				HttpGet httpGet = createGetRequest(url);
+				HttpResponse response = executeRequest(httpGet);
+				stringEntity = EntityUtils.toString(response.getEntity());
+			}
+			MutablePage page = pageFromString(stringEntity);
+			if (!stored && contentStore != null && page.getVersion() > 0) {
+				contentStore.put(ContentStore.PAGE, pageId, page.getVersion(),
+						stringEntity.getBytes(Charset.forName("UTF-8")));
+			}
+			/* Labels can be changed without creating a new page version, so they are always fetched when indexed */
+			List<Label> labels = null;
+			if (metadata.contains(MetadataGroup.LABELS)) {
+				labels = getLabels(pageId);
+				page.setLabels(labels);
+			}
+			if (snapshotWriter != null) {
+				snapshotWriter.recordPage(pageId, stringEntity);
+				if (labels != null) {
+					snapshotWriter.recordLabels(pageId, labels);
+				}
+			}
 			return page;
+		} catch (PageNotFoundException e) {
+			logger.debug("[Processing] Page {} not found", pageId);
+		} catch (ConfluenceException e) {
+			throw e;
+		} catch (IOException e) {
+			throw e;
 		} catch (Exception e) {
-			logger.error("[Processing] Failed to get page {0}. Error: {1}",
+			logger.error("[Processing] Failed to get page {}. Error: {}",
 					url, e.getMessage());
+			throw new ConfluenceException("Failed to get page " + pageId
+					+ ": " + e.getMessage(), e);
 		}
 
 		return new Page();
 	}
 
+	/**
+	 * <p>Builds the expand parameter of a content request, with only the
+	 * expansions the type of content and the metadata groups need</p>
+	 * @param type the type of the content
+	 * @param metadata the metadata groups to get
+	 * @return the expand parameter
+	 */
+	public static String expandParameters(PageType type,
+			Set<MetadataGroup> metadata) {
+		return expandParameters(type, metadata, BodyRepresentation.VIEW);
+	}
+
+	/**
+	 * <p>Builds the expand parameter of a content request, with only the
+	 * expansions the type of content, the metadata groups and the
+	 * representation of the body need</p>
+	 * @param type the type of the content
+	 * @param metadata the metadata groups to get
+	 * @param representation the representation of the body of pages
+	 * @return the expand parameter
+	 */
+	public static String expandParameters(PageType type,
+			Set<MetadataGroup> metadata, BodyRepresentation representation) {
+		StringBuilder sb = new StringBuilder();
+		if (type == PageType.ATTACHMENT) {
+			sb.append(ATTACHMENT_EXPANDABLE_PARAMETERS);
+		} else {
+			sb.append(PAGE_EXPANDABLE_PARAMETERS).append(',')
+					.append(representation.getExpand());
+		}
+		if (metadata.contains(MetadataGroup.HISTORY)) {
+			sb.append(',').append(HISTORY_EXPANDABLE_PARAMETER);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * <p>Checks whether a stored page has what a request needs</p>
+	 */
+	private static boolean isStoredPageUsable(JSONObject storedPage,
+			Set<MetadataGroup> metadata, BodyRepresentation representation) {
+		if (metadata.contains(MetadataGroup.HISTORY)
+				&& !storedPage.has(HISTORY_EXPANDABLE_PARAMETER)) {
+			return false;
+		}
+		JSONObject body = storedPage.optJSONObject("body");
+		return body != null
+				&& body.optJSONObject(representation.getName()) != null;
+	}
+
+	/**
+	 * <p>Gets the current version number of a page, asking only for the version information</p>
+	 * @param pageId the page id
+	 * @return the version number, 0 if it is unknown
+	 * @throws Exception
+	 */
+	private int getPageVersion(String pageId) throws Exception {
+		String url = sanitizeUrl(String.format("%s://%s:%s/%s/%s/%s?expand=version",
+				protocol, host, port, path, CONTENT_PATH, pageId));
+		HttpGet httpGet = createGetRequest(url);
+		HttpResponse response = executeRequest(httpGet);
+		HttpEntity entity = response.getEntity();
+		try {
+			JSONObject version = new JSONObject(EntityUtils.toString(entity))
+					.optJSONObject("version");
+			return version != null ? version.optInt("number", 0) : 0;
+		} catch (JSONException e) {
+			logger.debug("Error parsing JSON page version data");
+			return 0;
+		} finally {
+			EntityUtils.consumeQuietly(entity);
+		}
+	}
+
+	/**
+	 * <p>Gets the given page version from the content store</p>
+	 * @param pageId the page id
+	 * @param version the version number
+	 * @return the stored page JSON data or null if the version is not stored
+	 */
+	private String getStoredPage(String pageId, int version) {
+		if (version <= 0) {
+			return null;
+		}
+		InputStream stored = contentStore.open(ContentStore.PAGE, pageId, version);
+		if (stored == null) {
+			return null;
+		}
+		try {
+			String stringEntity = IOUtils.toString(stored, "UTF-8");
+			logger.debug("[Processing] Using stored page {} version {}", pageId, version);
+			return stringEntity;
+		} catch (IOException e) {
+			logger.debug("Stored page {} version {} not usable: {}", new Object[] {
+					pageId, version, e.getMessage() });
+			return null;
+		} finally {
+			IOUtils.closeQuietly(stored);
+		}
+	}
+
 	/**
 	 * <p>Get the labels of a specific page</p> 
 	 * @param pageId The pageId to get the labels
 	 * @return a {@code List<Label>} of labels
+	 * @throws ConfluenceUnavailableException if Confluence is not accepting requests or is failing
+	 * @throws ConfluenceException if the labels could not be got
+	 * @throws IOException if the labels could not be requested
 	 */
-	public List<Label> getLabels(String pageId) {
+	public List<Label> getLabels(String pageId) throws ConfluenceException,
+			IOException {
 				
 		List<Label> labels = Lists.newArrayList();
-		int lastStart = 0;
-		int limit = 50;
-		boolean isLast = false;
-		do {
-			String url = String
-					.format("%s://%s:%s/%s/%s/%s/%s?start=%s&limit=%s",
-							protocol, host, port, path, CONTENT_PATH, pageId, LABEL_PATH, lastStart, limit);
-			url = sanitizeUrl(url);
-			logger.debug(
-					"[Processing] Hitting url for getting page labels : {}",
-					url);
-			try {
-				@SuppressWarnings("unchecked")
-				ConfluenceResponse<Label> response = (ConfluenceResponse<Label>) getConfluenceResources(url, Label.builder());
-				labels.addAll(response.getResults());
-				lastStart += response.getResults().size();
-				isLast = response.isLast();
-			} catch (Exception e) {
-				logger.debug("Error getting labels for page {}. Reason: {}", pageId, e.getMessage());
+		/* Pages rarely have more than one page of labels, the next one is not requested ahead */
+		ConfluencePaginator<Label> paginator = paginateLabels(pageId, 50, false);
+		try {
+			while(paginator.hasNext()) {
+				labels.add(paginator.next());
 			}
+		} catch (ConfluenceException e) {
+			throw e;
+		} catch (IOException e) {
+			throw e;
+		} catch (Exception e) {
+			logger.debug("Error getting labels for page {}. Reason: {}", pageId, e.getMessage());
+			throw new ConfluenceException("Failed to get the labels of page "
+					+ pageId + ": " + e.getMessage(), e);
+		} finally {
+			paginator.close();
 		}
-		while(!isLast);
 		
 		return labels;
 	}
+
+	/**
+	 * <p>Get the labels of a specific page using pagination</p>
+	 * @param pageId The pageId to get the labels
+	 * @param start The start value to get labels from
+	 * @param limit The number of labels to get from start
+	 * @return a {@code ConfluenceResponse} containing the labels and some pagination values
+	 * @throws Exception
+	 */
+	public ConfluenceResponse<Label> getLabels(String pageId, int start,
+			int limit) throws Exception {
+		String url = String
+				.format("%s://%s:%s/%s/%s/%s/%s?start=%s&limit=%s",
+						protocol, host, port, path, CONTENT_PATH, pageId, LABEL_PATH, start, limit);
+		url = sanitizeUrl(url);
+		logger.debug(
+				"[Processing] Hitting url for getting page labels : {}",
+				url);
+		@SuppressWarnings("unchecked")
+		ConfluenceResponse<Label> response = (ConfluenceResponse<Label>) getConfluenceResources(url, Label.builder());
+		return response;
+	}
+
+	/**
+	 * <p>Walks the pages of a space, or of all the spaces</p>
+	 * @param space the space key, absent for all the spaces
+	 * @param limit The number of pages requested at a time
+	 * @param prefetch whether the next pages are requested ahead
+	 * @return a {@code ConfluencePaginator} of the pages
+	 */
+	public ConfluencePaginator<Page> paginatePages(final Optional<String> space,
+			int limit, boolean prefetch) {
+		return new ConfluencePaginator<Page>(new ConfluencePaginator.Request<Page>() {
+			@Override
+			public ConfluenceResponse<Page> get(int start, int limit) throws Exception {
+				return getPages(start, limit, space);
+			}
+		}, limit, prefetch);
+	}
+
+	/**
+	 * <p>Walks the attachments of a page</p>
+	 * @param pageId the page id
+	 * @param limit The number of attachments requested at a time
+	 * @param prefetch whether the next attachments are requested ahead
+	 * @return a {@code ConfluencePaginator} of the attachments
+	 */
+	public ConfluencePaginator<Attachment> paginatePageAttachments(
+			final String pageId, int limit, boolean prefetch) {
+		return new ConfluencePaginator<Attachment>(new ConfluencePaginator.Request<Attachment>() {
+			@Override
+			public ConfluenceResponse<Attachment> get(int start, int limit) throws Exception {
+				return getPageAttachments(pageId, start, limit);
+			}
+		}, limit, prefetch);
+	}
+
+	/**
+	 * <p>Walks the labels of a page</p>
+	 * @param pageId the page id
+	 * @param limit The number of labels requested at a time
+	 * @param prefetch whether the next labels are requested ahead
+	 * @return a {@code ConfluencePaginator} of the labels
+	 */
+	public ConfluencePaginator<Label> paginateLabels(final String pageId,
+			int limit, boolean prefetch) {
+		return new ConfluencePaginator<Label>(new ConfluencePaginator.Request<Label>() {
+			@Override
+			public ConfluenceResponse<Label> get(int start, int limit) throws Exception {
+				return getLabels(pageId, start, limit);
+			}
+		}, limit, prefetch);
+	}
+
+	/**
+	 * <p>Walks the pages modified in the last minutes</p>
+	 * @param spaces The keys of the spaces to search in, empty for all the spaces
+	 * @param minutes The number of minutes to look back
+	 * @param limit The number of pages requested at a time
+	 * @return a {@code ConfluencePaginator} of the pages, requesting the next ones ahead
+	 */
+	public ConfluencePaginator<Page> paginateModifiedPages(
+			final List<String> spaces, final long minutes, int limit) {
+		return new ConfluencePaginator<Page>(new ConfluencePaginator.Request<Page>() {
+			@Override
+			public ConfluenceResponse<Page> get(int start, int limit) throws Exception {
+				return getModifiedPages(start, limit, spaces, minutes);
+			}
+		}, limit, true);
+	}
+
+	/**
+	 * <p>Walks the attachments modified in the last minutes</p>
+	 * @param spaces The keys of the spaces to search in, empty for all the spaces
+	 * @param minutes The number of minutes to look back
+	 * @param limit The number of attachments requested at a time
+	 * @return a {@code ConfluencePaginator} of the attachments, requesting the next ones ahead
+	 */
+	public ConfluencePaginator<Attachment> paginateModifiedAttachments(
+			final List<String> spaces, final long minutes, int limit) {
+		return new ConfluencePaginator<Attachment>(new ConfluencePaginator.Request<Attachment>() {
+			@Override
+			public ConfluenceResponse<Attachment> get(int start, int limit) throws Exception {
+				return getModifiedAttachments(start, limit, spaces, minutes);
+			}
+		}, limit, true);
+	}
+
+	/**
+	 * <p>Walks the pages in the trash of a space</p>
+	 * @param space The space key
+	 * @param limit The number of pages requested at a time
+	 * @return a {@code ConfluencePaginator} of the pages, requesting the next ones ahead
+	 */
+	public ConfluencePaginator<Page> paginateTrashedPages(final String space,
+			int limit) {
+		return new ConfluencePaginator<Page>(new ConfluencePaginator.Request<Page>() {
+			@Override
+			public ConfluenceResponse<Page> get(int start, int limit) throws Exception {
+				return getTrashedPages(start, limit, space);
+			}
+		}, limit, true);
+	}
 	
 	/**
 	 * 
@@ -506,13 +1384,28 @@ public class ConfluenceClient {
 	 * @return
 	 * @throws Exception
 	 */
-	public ConfluenceUser getUserAuthorities(String username) throws Exception {
+	public ConfluenceUser getUserAuthorities(final String username) throws Exception {
 		List<String> authorities = Lists.<String>newArrayList();
 		Spaces spaces = getSpaces();
-		for(Space space: spaces) {
-			List<String> permissions = getSpacePermissionsForUser(space, username);
-			if(permissions.contains(VIEW_PERMISSION)) {
-				authorities.add(space.getKey());
+		/* The permissions in every space are checked concurrently */
+		List<Callable<List<String>>> checks = Lists.newArrayList();
+		for(final Space space: spaces) {
+			checks.add(new Callable<List<String>>() {
+				@Override
+				public List<String> call() throws Exception {
+					return getSpacePermissionsForUser(space, username);
+				}
+			});
+		}
+		/* No more checks in flight than pooled connections, the rest would wait for one */
+		List<List<String>> permissions = Lists.newArrayListWithCapacity(checks.size());
+		for(List<Callable<List<String>>> batch : Lists.partition(checks,
+				Math.max(1, getMaxConnections()))) {
+			permissions.addAll(ConfluenceExecutor.invokeAll(batch));
+		}
+		for(int i = 0; i < spaces.size(); i++) {
+			if(permissions.get(i).contains(VIEW_PERMISSION)) {
+				authorities.add(spaces.get(i).getKey());
 			}
 		}
 		
@@ -524,14 +1417,6 @@ public class ConfluenceClient {
 		HttpPost httpPost = new HttpPost(url);
 		httpPost.addHeader("Accept", "application/json");
 		httpPost.addHeader("Content-Type", "application/json");
-		if (useBasicAuthentication()) {
-			httpPost.addHeader(
-					"Authorization",
-					"Basic "
-							+ Base64.encodeBase64String(String.format("%s:%s",
-									this.username, this.password).getBytes(
-									Charset.forName("UTF-8"))));
-		}
 		return httpPost;
 	}
 	
@@ -539,6 +1424,9 @@ public class ConfluenceClient {
 	 * <p>Execute the given {@code HttpUriRequest} using the configured client</p> 
 	 * @param request the {@code HttpUriRequest} to be executed
 	 * @return the {@code HttpResponse} object returned from the server
+	 * @throws PageNotFoundException if the requested content does not exist
+	 * @throws ConfluenceUnavailableException if Confluence is not accepting requests or is failing
+	 * @throws ConfluenceException if Confluence rejects the request
 	 * @throws Exception
 	 */
 	private HttpResponse executeRequest(HttpUriRequest request)
@@ -549,11 +1437,23 @@ public class ConfluenceClient {
 				url);
 
 		try {
-			HttpResponse response = httpClient.execute(request, httpContext);
-			if (response.getStatusLine().getStatusCode() != 200) {
-				throw new Exception("Confluence error. "
-						+ response.getStatusLine().getStatusCode() + " "
-						+ response.getStatusLine().getReasonPhrase());
+			HttpResponse response = responseCache != null
+					&& request instanceof HttpGet ? executeConditionally(
+					(HttpGet) request, url) : execute(request);
+			int statusCode = response.getStatusLine().getStatusCode();
+			if (statusCode != 200) {
+				/* Release the connection, otherwise the pool runs out of connections */
+				EntityUtils.consumeQuietly(response.getEntity());
+				String message = "Confluence error. " + statusCode + " "
+						+ response.getStatusLine().getReasonPhrase();
+				if (statusCode == 404) {
+					throw new PageNotFoundException(message);
+				}
+				if (statusCode >= 500 || statusCode == 429) {
+					throw new ConfluenceUnavailableException(message,
+							getRetryTime(response));
+				}
+				throw new ConfluenceException(message);
 			}
 			return response;
 		} catch (Exception e) {
@@ -564,14 +1464,97 @@ public class ConfluenceClient {
 	}
 
 	/**
-	 * <p>Creates a Confluence page object from the given entity returned by the server</p>
-	 * @param entity the {@code HttpEntity} to create the {@code MutablePage} from
-	 * @return the Confluence page instance
+	 * <p>Gets the time from which a request rejected by an overloaded or failing server can
+	 * be retried, from the <code>Retry-After</code> header when it gives a number of seconds</p>
+	 * @param response the response rejecting the request
+	 * @return the time in milliseconds
+	 */
+	private static long getRetryTime(HttpResponse response) {
+		long retryTime = System.currentTimeMillis() + UNAVAILABLE_RETRY_TIME;
+		Header retryAfter = response.getFirstHeader("Retry-After");
+		if (retryAfter != null) {
+			try {
+				retryTime = System.currentTimeMillis()
+						+ Long.parseLong(retryAfter.getValue().trim()) * 1000L;
+			} catch (NumberFormatException e) {
+				/* An HTTP date, the default is used */
+			}
+		}
+		return retryTime;
+	}
+
+	/**
+	 * <p>Executes the given request revalidating the cached response, if any</p>
+	 * <p>A 304 response is replaced by the cached one, and the body of cacheable 200 responses is
+	 * stored in the cache while it is read</p>
+	 * @param request the {@code HttpGet} to be executed
+	 * @param url the requested url, used as cache key along with the username
+	 * @return the {@code HttpResponse} to use
 	 * @throws Exception
 	 */
-	private MutablePage pageFromHttpEntity(HttpEntity entity) throws Exception {
-		String stringEntity = EntityUtils.toString(entity);
+	private HttpResponse executeConditionally(HttpGet request, String url)
+			throws Exception {
+		String key = ResponseCache.key(username, url);
+		ResponseCache.CachedResponse cached = responseCache.lookup(key);
+		if (cached != null) {
+			if (cached.getEtag() != null) {
+				request.setHeader("If-None-Match", cached.getEtag());
+			}
+			if (cached.getLastModified() != null) {
+				request.setHeader("If-Modified-Since", cached.getLastModified());
+			}
+		}
 
+		HttpResponse response = execute(request);
+		int statusCode = response.getStatusLine().getStatusCode();
+		if (statusCode == 304 && cached != null) {
+			EntityUtils.consumeQuietly(response.getEntity());
+			try {
+				InputStream content = responseCache.open(cached);
+				BasicHttpEntity entity = new BasicHttpEntity();
+				entity.setContent(content);
+				entity.setContentLength(cached.getLength());
+				entity.setContentType(cached.getContentType());
+				response.setStatusCode(200);
+				response.setEntity(entity);
+				transferStatistics.responseRevalidated();
+				return response;
+			} catch (IOException e) {
+				/* The cached body is gone, get the whole response again */
+				logger.debug("Cached response for {} not available: {}", url,
+						e.getMessage());
+				responseCache.remove(key);
+				request.removeHeaders("If-None-Match");
+				request.removeHeaders("If-Modified-Since");
+				return execute(request);
+			}
+		}
+
+		Header etag = response.getFirstHeader("ETag");
+		Header lastModified = response.getFirstHeader("Last-Modified");
+		HttpEntity entity = response.getEntity();
+		if (statusCode == 200 && entity != null
+				&& (etag != null || lastModified != null)) {
+			BasicHttpEntity cachingEntity = new BasicHttpEntity();
+			cachingEntity.setContent(responseCache.store(key,
+					etag != null ? etag.getValue() : null,
+					lastModified != null ? lastModified.getValue() : null,
+					entity.getContentType() != null ? entity.getContentType()
+							.getValue() : null, entity.getContent()));
+			cachingEntity.setContentLength(entity.getContentLength());
+			cachingEntity.setContentType(entity.getContentType());
+			response.setEntity(cachingEntity);
+		}
+		return response;
+	}
+
+	/**
+	 * <p>Creates a Confluence page object from the given JSON page data</p>
+	 * @param stringEntity the JSON page data
+	 * @return the Confluence page instance
+	 * @throws Exception
+	 */
+	private MutablePage pageFromString(String stringEntity) throws Exception {
 		JSONObject responseObject;
 		try {
 			responseObject = new JSONObject(stringEntity);
@@ -585,14 +1568,13 @@ public class ConfluenceClient {
 	}
 
 	/**
-	 * <p>Creates a {@code MutableAttachment} object from the given entity returned by the server</p>
-	 * @param entity the {@code HttpEntity} to create the {@code MutableAttachment} from
+	 * <p>Creates a {@code MutableAttachment} object from the given JSON attachment data</p>
+	 * @param stringEntity the JSON attachment data
 	 * @return the Confluence MutableAttachment instance
 	 * @throws Exception
 	 */
-	private MutableAttachment attachmentFromHttpEntity(HttpEntity entity)
+	private MutableAttachment attachmentFromString(String stringEntity)
 			throws Exception {
-		String stringEntity = EntityUtils.toString(entity);
 		JSONObject responseObject;
 		try {
 			responseObject = new JSONObject(stringEntity);
@@ -642,8 +1624,9 @@ public class ConfluenceClient {
 
 		HttpPost httpPost = createPostRequest(url);
 		httpPost.setEntity(new StringEntity("[]"));
-		HttpResponse response = httpClient.execute(httpPost);
+		HttpResponse response = execute(httpPost);
 		if (response.getStatusLine().getStatusCode() != 200) {
+			EntityUtils.consumeQuietly(response.getEntity());
 			throw new ConfluenceException("Confluence error. "
 					+ response.getStatusLine().getStatusCode() + " "
 					+ response.getStatusLine().getReasonPhrase());
@@ -668,8 +1651,9 @@ public class ConfluenceClient {
 		jsonArray.put(username);
 		StringEntity stringEntity = new StringEntity(jsonArray.toString());
 		httpPost.setEntity(stringEntity);
-		HttpResponse response = httpClient.execute(httpPost);
+		HttpResponse response = execute(httpPost);
 		if (response.getStatusLine().getStatusCode() != 200) {
+			EntityUtils.consumeQuietly(response.getEntity());
 			throw new ConfluenceException("Confluence error. "
 					+ response.getStatusLine().getStatusCode() + " "
 					+ response.getStatusLine().getReasonPhrase());
@@ -0,0 +1,161 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.client;
+
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+/**
+ * <p>
+ * ConfluenceClientRegistry class
+ * </p>
+ * <p>
+ * JVM wide registry of {@code ConfluenceClient} instances. ManifoldCF pools
+ * many connector instances, so instead of each of them building its own client
+ * (SSL factory, connection pool, caches), clients are shared by all the
+ * connectors pointing to the same Confluence instance with the same
+ * credentials and settings
+ * </p>
+ * <p>
+ * Clients are reference counted: every {@code acquire} must be paired with a
+ * {@code release}, and the client is closed when the last reference is
+ * released. The settings (timeouts, crawl profiles, caches) are part of the
+ * key and applied once, when the client is created, so connections configured
+ * differently never overwrite each other's settings
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class ConfluenceClientRegistry {
+
+	private static final Map<String, SharedClient> clients = Maps.newHashMap();
+
+	private static Logger logger = LoggerFactory
+			.getLogger(ConfluenceClientRegistry.class);
+
+	private ConfluenceClientRegistry() {
+	}
+
+	/**
+	 * <p>Applies the settings to a client created by the registry</p>
+	 */
+	public static interface Configurer {
+		void configure(ConfluenceClient client) throws ManifoldCFException;
+	}
+
+	/**
+	 * <p>Gets the shared client for the given parameters, creating it if needed</p>
+	 * @param protocol the protocol
+	 * @param host the host
+	 * @param port the port
+	 * @param path the path to Confluence instance
+	 * @param username the username used to make the requests. Null or empty to use anonymous user
+	 * @param password the password
+	 * @return the shared {@code ConfluenceClient}
+	 * @throws ManifoldCFException
+	 */
+	public static ConfluenceClient acquire(String protocol, String host,
+			Integer port, String path, String username, String password)
+			throws ManifoldCFException {
+		return acquire(protocol, host, port, path, username, password, "",
+				null);
+	}
+
+	/**
+	 * <p>Gets the shared client for the given parameters and settings, creating and configuring it if needed</p>
+	 * @param protocol the protocol
+	 * @param host the host
+	 * @param port the port
+	 * @param path the path to Confluence instance
+	 * @param username the username used to make the requests. Null or empty to use anonymous user
+	 * @param password the password
+	 * @param settings a description of the settings applied by the configurer, equal for equal settings
+	 * @param configurer the {@code Configurer} applying the settings to a new client, may be null
+	 * @return the shared {@code ConfluenceClient}
+	 * @throws ManifoldCFException
+	 */
+	public static ConfluenceClient acquire(String protocol, String host,
+			Integer port, String path, String username, String password,
+			String settings, Configurer configurer) throws ManifoldCFException {
+		String key = key(protocol, host, port, path, username, password)
+				+ "|" + Strings.nullToEmpty(settings);
+		synchronized (clients) {
+			SharedClient sharedClient = clients.get(key);
+			if (sharedClient == null) {
+				logger.debug("Creating shared Confluence client for {}://{}:{}{}",
+						protocol, host, port, Strings.nullToEmpty(path));
+				ConfluenceClient client = new ConfluenceClient(protocol, host,
+						port, path, username, password);
+				if (configurer != null) {
+					try {
+						configurer.configure(client);
+					} catch (ManifoldCFException e) {
+						client.close();
+						throw e;
+					}
+				}
+				sharedClient = new SharedClient(client);
+				clients.put(key, sharedClient);
+			}
+			sharedClient.references++;
+			return sharedClient.client;
+		}
+	}
+
+	/**
+	 * <p>Releases a client obtained through {@code acquire}, closing it when it is no longer referenced</p>
+	 * <p>Clients not created by the registry are ignored</p>
+	 * @param client the client to release
+	 */
+	public static void release(ConfluenceClient client) {
+		if (client == null) {
+			return;
+		}
+		SharedClient released = null;
+		synchronized (clients) {
+			Iterator<SharedClient> iterator = clients.values().iterator();
+			while (iterator.hasNext()) {
+				SharedClient sharedClient = iterator.next();
+				if (sharedClient.client == client) {
+					if (--sharedClient.references <= 0) {
+						iterator.remove();
+						released = sharedClient;
+					}
+					break;
+				}
+			}
+		}
+		if (released != null) {
+			logger.debug("Closing shared Confluence client, no more references");
+			released.client.close();
+		}
+	}
+
+	private static String key(String protocol, String host, Integer port,
+			String path, String username, String password) {
+		/* The password is part of the key so changing it creates a new client, but it is not kept in clear */
+		String passwordHash = Hashing.sha256()
+				.hashString(Strings.nullToEmpty(password), Charset.forName("UTF-8"))
+				.toString();
+		return String.format("%s://%s@%s:%s/%s#%s", protocol,
+				Strings.nullToEmpty(username), host, port,
+				Strings.nullToEmpty(path), passwordHash);
+	}
+
+	private static class SharedClient {
+		private final ConfluenceClient client;
+		private int references = 0;
+
+		private SharedClient(ConfluenceClient client) {
+			this.client = client;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.client;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * ConfluenceExecutor class
+ * </p>
+ * <p>
+ * JVM wide executor running the requests the connectors fan out: permission
+ * checks, attachment listings and documents fetched ahead. These tasks spend
+ * their time blocked on HTTP, so they run on virtual threads when the JVM
+ * supports them. Otherwise they run on a bounded pool of daemon threads
+ * </p>
+ * <p>
+ * The concurrency against Confluence is still limited by the connection pool
+ * and the throttle of the {@code ConfluenceClient}, the executor only keeps
+ * the waiting requests cheap
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class ConfluenceExecutor {
+
+	private static final int FALLBACK_THREADS = 32;
+	private static final long FALLBACK_KEEP_ALIVE = 60L;
+
+	private static Logger logger = LoggerFactory
+			.getLogger(ConfluenceExecutor.class);
+
+	/* Set in the threads of the fallback pool, which run fanned out tasks inline */
+	private static final ThreadLocal<Boolean> poolThread = new ThreadLocal<Boolean>();
+
+	private static ExecutorService executor;
+	private static boolean virtual;
+
+	private ConfluenceExecutor() {
+	}
+
+	/**
+	 * <p>Gets the executor, creating it if needed</p>
+	 * @return the JVM wide {@code ExecutorService}
+	 */
+	public static synchronized ExecutorService get() {
+		if (executor == null) {
+			executor = newVirtualThreadExecutor();
+			virtual = executor != null;
+			if (executor == null) {
+				executor = newPlatformThreadExecutor();
+			}
+			logger.debug("Confluence requests are fanned out on {} threads",
+					virtual ? "virtual" : "platform");
+		}
+		return executor;
+	}
+
+	/**
+	 * <p>Tells whether the tasks run on virtual threads</p>
+	 */
+	public static synchronized boolean isVirtual() {
+		get();
+		return virtual;
+	}
+
+	/**
+	 * <p>Tells whether the calling thread can wait for tasks of the executor</p>
+	 * <p>Threads of the fallback pool can not, as the tasks could be queued
+	 * behind the ones waiting for them</p>
+	 */
+	public static boolean canFanOut() {
+		return !Boolean.TRUE.equals(poolThread.get());
+	}
+
+	/**
+	 * <p>Runs the given tasks concurrently and waits for all of them</p>
+	 * <p>Tasks run inline when there is only one or when called from a thread of
+	 * the fallback pool, so nested fan outs can not exhaust it</p>
+	 * @param tasks the tasks to run
+	 * @return the results of the tasks, in the same order
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 * @throws Exception the first exception thrown by a task, the other tasks
+	 *         are cancelled
+	 */
+	public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks)
+			throws Exception {
+		List<T> results = Lists.newArrayListWithCapacity(tasks.size());
+		if (tasks.size() <= 1 || !canFanOut()) {
+			for (Callable<T> task : tasks) {
+				results.add(task.call());
+			}
+			return results;
+		}
+
+		List<Future<T>> futures = Lists.newArrayListWithCapacity(tasks.size());
+		try {
+			for (Callable<T> task : tasks) {
+				futures.add(get().submit(task));
+			}
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		} finally {
+			if (results.size() < futures.size()) {
+				for (Future<T> future : futures) {
+					future.cancel(true);
+				}
+			}
+		}
+	}
+
+	/* Executors.newVirtualThreadPerTaskExecutor() is looked up, it is not in older JVMs */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method method = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			logger.debug("Virtual threads are not available: {}",
+					e.getMessage());
+			return null;
+		}
+	}
+
+	private static ExecutorService newPlatformThreadExecutor() {
+		final AtomicInteger threadNumber = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(FALLBACK_THREADS,
+				FALLBACK_THREADS, FALLBACK_KEEP_ALIVE, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread thread = new Thread(new Runnable() {
+							@Override
+							public void run() {
+								poolThread.set(Boolean.TRUE);
+								runnable.run();
+							}
+						}, "confluence-worker-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		/* Idle threads are released */
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+}
@@ -0,0 +1,157 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.client;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceResource;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceResponse;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * <p>
+ * ConfluencePaginator class
+ * </p>
+ * <p>
+ * Lazily walks a paginated Confluence listing. A page of results is only
+ * requested when the caller asks for more results than it has, and only the
+ * results of the current page are held. When prefetching, the next page is
+ * requested on the {@code ConfluenceExecutor} as soon as the current one
+ * arrives, so it is usually there when the caller is done with the current
+ * one
+ * </p>
+ * <p>
+ * A listing also ends on a response which is not well formed, as it has no
+ * results and is not the last one. Callers which must tell a full listing
+ * from a truncated one check {@code isComplete} once they are done
+ * </p>
+ * <p>
+ * Results can be consumed one at a time or a page at a time. This class is
+ * not thread safe, it is used by the thread walking the listing, which must
+ * {@code close} it if it stops before the end
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class ConfluencePaginator<T extends ConfluenceResource> {
+
+	/**
+	 * <p>Requests a page of a listing</p>
+	 */
+	public static interface Request<T extends ConfluenceResource> {
+		ConfluenceResponse<T> get(int start, int limit) throws Exception;
+	}
+
+	private final Request<T> request;
+	private final int limit;
+	private final boolean prefetch;
+
+	private int start = 0;
+	private boolean last = false;
+	private boolean complete = false;
+	private ListenableFuture<ConfluenceResponse<T>> nextResponse;
+	private Iterator<T> results = Collections.<T> emptyList().iterator();
+
+	/**
+	 * <p>Creates a new paginator</p>
+	 * @param request the request of the pages
+	 * @param limit the number of results requested at a time
+	 * @param prefetch whether the next page is requested while the current one is consumed
+	 */
+	public ConfluencePaginator(Request<T> request, int limit, boolean prefetch) {
+		this.request = request;
+		this.limit = limit;
+		/* Prefetching from a pool thread would wait for the pool itself */
+		this.prefetch = prefetch && ConfluenceExecutor.canFanOut();
+	}
+
+	/**
+	 * <p>Tells whether there are more results, requesting the next page if needed</p>
+	 * @throws Exception the exception thrown by the request of the page
+	 */
+	public boolean hasNext() throws Exception {
+		while (!results.hasNext() && !last) {
+			results = nextPage().iterator();
+		}
+		return results.hasNext();
+	}
+
+	/**
+	 * <p>Gets the next result</p>
+	 * @throws java.util.NoSuchElementException if there are no more results
+	 * @throws Exception the exception thrown by the request of the page
+	 */
+	public T next() throws Exception {
+		hasNext();
+		return results.next();
+	}
+
+	/**
+	 * <p>Gets the results not consumed yet of the current page, or the results of the next page</p>
+	 * @return the results, empty if there are no more results
+	 * @throws Exception the exception thrown by the request of the page
+	 */
+	public List<T> nextResults() throws Exception {
+		if (!hasNext()) {
+			return ImmutableList.of();
+		}
+		List<T> pageResults = Lists.newArrayList(results);
+		results = Collections.<T> emptyList().iterator();
+		return pageResults;
+	}
+
+	/**
+	 * <p>Tells whether the listing was walked to its end: its last response was marked as the last one and,
+	 * when the total number of results is known, as many results as the total were listed</p>
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * <p>Cancels the request of the next page, if any</p>
+	 */
+	public void close() {
+		if (nextResponse != null) {
+			nextResponse.cancel(true);
+			nextResponse = null;
+		}
+		last = true;
+		results = Collections.<T> emptyList().iterator();
+	}
+
+	private List<T> nextPage() throws Exception {
+		ConfluenceResponse<T> response;
+		if (nextResponse != null) {
+			ListenableFuture<ConfluenceResponse<T>> future = nextResponse;
+			nextResponse = null;
+			response = AsyncConfluenceClient.await(future);
+		} else {
+			response = request.get(start, limit);
+		}
+
+		start += response.getResults().size();
+		last = response.isLast() || response.getResults().isEmpty();
+		complete = response.isLast()
+				&& (response.getTotalSize() < 0 || start == response
+						.getTotalSize());
+		if (!last && prefetch) {
+			final int nextStart = start;
+			nextResponse = MoreExecutors.listeningDecorator(
+					ConfluenceExecutor.get()).submit(
+					new Callable<ConfluenceResponse<T>>() {
+						@Override
+						public ConfluenceResponse<T> call() throws Exception {
+							return request.get(nextStart, limit);
+						}
+					});
+		}
+		return response.getResults();
+	}
+}
@@ -0,0 +1,138 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.apache.manifoldcf.crawler.connectors.confluence.util.DiskLruStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * <p>
+ * ContentStore class
+ * </p>
+ * <p>
+ * Local copy of the pages and attachments fetched from Confluence, keyed by
+ * content id and version number. As a given version of a content never
+ * changes, a stored copy can be used without asking Confluence again, which
+ * makes reindexing (after resetting an output connection or changing the
+ * pipeline) depend on the local disk instead of on the Confluence server
+ * </p>
+ * <p>
+ * Bodies are stored gzip compressed and the least recently used ones are
+ * evicted when the store grows over its maximum size (see
+ * {@code DiskLruStore})
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class ContentStore {
+
+	public static final String PAGE = "page";
+	public static final String ATTACHMENT = "attachment";
+
+	private static Logger logger = LoggerFactory.getLogger(ContentStore.class);
+
+	private final DiskLruStore store;
+
+	private ContentStore(DiskLruStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * <p>Returns the content store kept in the given directory, opening it if needed</p>
+	 * @param directory the directory where the contents are stored
+	 * @param maxSize the maximum size in bytes of the stored (compressed) contents
+	 * @return the {@code ContentStore} for the directory
+	 * @throws ManifoldCFException if the directory can not be used
+	 */
+	public static ContentStore forDirectory(File directory, long maxSize)
+			throws ManifoldCFException {
+		return new ContentStore(DiskLruStore.forDirectory(directory, maxSize));
+	}
+
+	/**
+	 * <p>Opens the stored copy of the given content version</p>
+	 * @param kind the kind of content, {@code PAGE} or {@code ATTACHMENT}
+	 * @param id the content id
+	 * @param version the version number
+	 * @return the stream to read the content or null if there is no stored copy
+	 */
+	public InputStream open(String kind, String id, int version) {
+		String key = key(kind, id, version);
+		DiskLruStore.Entry entry = store.lookup(key);
+		if (entry == null) {
+			return null;
+		}
+		try {
+			return store.open(entry);
+		} catch (IOException e) {
+			logger.debug("Stored {} {} version {} not available: {}",
+					new Object[] { kind, id, version, e.getMessage() });
+			store.remove(key);
+			return null;
+		}
+	}
+
+	/**
+	 * <p>Returns the length of the stored copy of the given content version</p>
+	 * @param kind the kind of content, {@code PAGE} or {@code ATTACHMENT}
+	 * @param id the content id
+	 * @param version the version number
+	 * @return the uncompressed length or -1 if there is no stored copy
+	 */
+	public long length(String kind, String id, int version) {
+		DiskLruStore.Entry entry = store.lookup(key(kind, id, version));
+		return entry != null ? entry.getLength() : -1L;
+	}
+
+	/**
+	 * <p>Wraps the given content so it is stored while it is read. The copy is kept once the whole content has been read</p>
+	 * @param kind the kind of content, {@code PAGE} or {@code ATTACHMENT}
+	 * @param id the content id
+	 * @param version the version number
+	 * @param content the content
+	 * @return the stream to read the content from
+	 */
+	public InputStream store(String kind, String id, int version,
+			InputStream content) {
+		return store.store(key(kind, id, version),
+				Collections.<String, String> emptyMap(), content, true);
+	}
+
+	/**
+	 * <p>Stores the given content, already read from Confluence</p>
+	 * @param kind the kind of content, {@code PAGE} or {@code ATTACHMENT}
+	 * @param id the content id
+	 * @param version the version number
+	 * @param content the content
+	 */
+	public void put(String kind, String id, int version, byte[] content) {
+		InputStream stream = store(kind, id, version, new ByteArrayInputStream(
+				content));
+		try {
+			IOUtils.copy(stream, new NullOutputStream());
+		} catch (IOException e) {
+			logger.debug("Error storing {} {} version {}: {}", new Object[] {
+					kind, id, version, e.getMessage() });
+		} finally {
+			IOUtils.closeQuietly(stream);
+		}
+	}
+
+	private static String key(String kind, String id, int version) {
+		return Hashing.sha1()
+				.hashString(kind + " " + id + " " + version,
+						Charset.forName("UTF-8")).toString();
+	}
+}
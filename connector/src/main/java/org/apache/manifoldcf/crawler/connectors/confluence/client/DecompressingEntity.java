@@ -0,0 +1,167 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.entity.DeflateInputStream;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * <p>
+ * DecompressingEntity class
+ * </p>
+ * <p>
+ * Wraps a response entity decoding its gzip or deflate content encoding on the
+ * fly, so the body is never buffered to be decompressed. The bytes read before
+ * and after decoding are added to the given {@code TransferStatistics}
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+class DecompressingEntity extends HttpEntityWrapper {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final String encoding;
+	private final TransferStatistics statistics;
+	private InputStream content;
+
+	DecompressingEntity(HttpEntity wrappedEntity, String encoding,
+			TransferStatistics statistics) {
+		super(wrappedEntity);
+		this.encoding = encoding;
+		this.statistics = statistics;
+	}
+
+	/**
+	 * <p>Wraps the entity of a response if it is encoded with a supported content encoding</p>
+	 * @param entity the response entity, may be null
+	 * @param statistics the statistics to update
+	 * @return the entity to use
+	 */
+	static HttpEntity wrap(HttpEntity entity, TransferStatistics statistics) {
+		if (entity == null) {
+			return null;
+		}
+		String encoding = null;
+		Header contentEncoding = entity.getContentEncoding();
+		if (contentEncoding != null && contentEncoding.getValue() != null) {
+			encoding = contentEncoding.getValue().trim()
+					.toLowerCase(Locale.ROOT);
+			if (encoding.equals("identity")) {
+				encoding = null;
+			} else if (!encoding.equals("gzip") && !encoding.equals("x-gzip")
+					&& !encoding.equals("deflate")) {
+				/* Unknown encoding, leave the entity untouched */
+				return entity;
+			}
+		}
+		statistics.responseReceived(encoding != null);
+		return new DecompressingEntity(entity, encoding, statistics);
+	}
+
+	@Override
+	public InputStream getContent() throws IOException {
+		if (content == null || !wrappedEntity.isStreaming()) {
+			InputStream wire = new CountingStream(wrappedEntity.getContent(),
+					false);
+			InputStream decoded;
+			if (encoding == null) {
+				decoded = wire;
+			} else if (encoding.equals("deflate")) {
+				decoded = new DeflateInputStream(wire);
+			} else {
+				decoded = new GZIPInputStream(wire, BUFFER_SIZE);
+			}
+			content = new CountingStream(decoded, true);
+		}
+		return content;
+	}
+
+	@Override
+	public long getContentLength() {
+		return encoding == null ? wrappedEntity.getContentLength() : -1L;
+	}
+
+	@Override
+	public Header getContentEncoding() {
+		return encoding == null ? wrappedEntity.getContentEncoding() : null;
+	}
+
+	@Override
+	public void writeTo(OutputStream outstream) throws IOException {
+		InputStream instream = getContent();
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = instream.read(buffer)) != -1) {
+				outstream.write(buffer, 0, read);
+			}
+		} finally {
+			instream.close();
+		}
+	}
+
+	/**
+	 * <p>Stream adding the bytes read to the statistics. When the entity is not compressed
+	 * the same stream counts both the wire and the content bytes</p>
+	 */
+	private class CountingStream extends FilterInputStream {
+		private final boolean decoded;
+
+		private CountingStream(InputStream in, boolean decoded) {
+			super(in);
+			this.decoded = decoded;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				count(read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			if (skipped > 0) {
+				count(skipped);
+			}
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void count(long bytes) {
+			if (decoded) {
+				statistics.contentBytesRead(bytes);
+				if (encoding == null) {
+					statistics.wireBytesRead(bytes);
+				}
+			} else if (encoding != null) {
+				statistics.wireBytesRead(bytes);
+			}
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.client;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Page;
+
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * DocumentPrefetcher class
+ * </p>
+ * <p>
+ * Fetches the next documents of a batch on an executor while the current one
+ * is being ingested, so Confluence and the output connector work at the same
+ * time instead of waiting for each other. Documents are fetched in the order
+ * they are added, up to a number of documents ahead of the one being
+ * processed
+ * </p>
+ * <p>
+ * Fetched documents are kept in memory until they are taken, so no more
+ * fetches are started while the fetched documents not taken yet hold more
+ * bytes than the memory budget. The budget may be exceeded by the documents
+ * being fetched when it is reached
+ * </p>
+ * <p>
+ * This class is not thread safe, it is used by the thread processing the
+ * batch
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class DocumentPrefetcher {
+
+	private final ExecutorService executor;
+	private final int maxDocuments;
+	private final long maxBytes;
+
+	private final Map<String, Fetch> fetches = Maps.newLinkedHashMap();
+
+	/**
+	 * <p>Creates a new prefetcher</p>
+	 * @param executor the executor fetching the documents, null to fetch them when they are taken
+	 * @param maxDocuments the maximum number of documents fetched ahead
+	 * @param maxBytes the memory budget of the fetched documents not taken yet
+	 */
+	public DocumentPrefetcher(ExecutorService executor, int maxDocuments,
+			long maxBytes) {
+		this.executor = maxDocuments > 0 ? executor : null;
+		this.maxDocuments = maxDocuments;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * <p>Adds a document to fetch</p>
+	 * @param documentIdentifier the document identifier
+	 * @param fetch the task fetching the document
+	 */
+	public void add(String documentIdentifier, Callable<Page> fetch) {
+		fetches.put(documentIdentifier, new Fetch(fetch));
+	}
+
+	/**
+	 * <p>Takes a fetched document, waiting for it if needed, and starts fetching the next ones</p>
+	 * <p>Documents not added are fetched by the calling thread</p>
+	 * @param documentIdentifier the document identifier
+	 * @param fetch the task fetching the document if it was not added
+	 * @return the fetched document
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 * @throws Exception the exception thrown by the fetch task
+	 */
+	public Page take(String documentIdentifier, Callable<Page> fetch)
+			throws Exception {
+		Fetch prefetched = fetches.remove(documentIdentifier);
+		startFetches();
+		if (prefetched == null) {
+			return fetch.call();
+		}
+		if (prefetched.future == null) {
+			return prefetched.task.call();
+		}
+		try {
+			return prefetched.future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * <p>Cancels the fetches of the documents not taken</p>
+	 */
+	public void close() {
+		for (Fetch fetch : fetches.values()) {
+			if (fetch.future != null) {
+				fetch.future.cancel(true);
+			}
+		}
+		fetches.clear();
+	}
+
+	private void startFetches() {
+		if (executor == null) {
+			return;
+		}
+		int started = 0;
+		long fetchedBytes = 0L;
+		Iterator<Fetch> iterator = fetches.values().iterator();
+		while (iterator.hasNext() && started < maxDocuments) {
+			Fetch fetch = iterator.next();
+			if (fetch.future == null) {
+				if (fetchedBytes >= maxBytes) {
+					return;
+				}
+				fetch.future = executor.submit(fetch.task);
+			}
+			fetchedBytes += fetchedBytes(fetch.future);
+			started++;
+		}
+	}
+
+	private static long fetchedBytes(Future<Page> future) {
+		if (!future.isDone() || future.isCancelled()) {
+			return 0L;
+		}
+		try {
+			return Math.max(0L, future.get().getLength());
+		} catch (Exception e) {
+			return 0L;
+		}
+	}
+
+	private static class Fetch {
+		private final Callable<Page> task;
+		private Future<Page> future;
+
+		private Fetch(Callable<Page> task) {
+			this.task = task;
+		}
+	}
+}
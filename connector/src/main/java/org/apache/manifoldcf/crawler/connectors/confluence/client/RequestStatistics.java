@@ -0,0 +1,89 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * RequestStatistics class
+ * </p>
+ * <p>
+ * Counters of the requests sent to Confluence and the time taken until the
+ * response is received, split by the kind of authentication used, so the cost
+ * of authenticating every request can be compared with reusing the session
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class RequestStatistics {
+
+	private final AtomicLong basicRequests = new AtomicLong();
+	private final AtomicLong basicNanos = new AtomicLong();
+	private final AtomicLong sessionRequests = new AtomicLong();
+	private final AtomicLong sessionNanos = new AtomicLong();
+	private final AtomicLong reauthentications = new AtomicLong();
+
+	void requestCompleted(boolean basicAuthentication, long nanos) {
+		if (basicAuthentication) {
+			basicRequests.incrementAndGet();
+			basicNanos.addAndGet(nanos);
+		} else {
+			sessionRequests.incrementAndGet();
+			sessionNanos.addAndGet(nanos);
+		}
+	}
+
+	void sessionRejected() {
+		reauthentications.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of requests authenticated with basic authentication
+	 */
+	public long getBasicRequests() {
+		return basicRequests.get();
+	}
+
+	/**
+	 * @return the number of requests authenticated with the session cookie (or anonymous)
+	 */
+	public long getSessionRequests() {
+		return sessionRequests.get();
+	}
+
+	/**
+	 * @return the number of times the session was rejected and the request sent again with basic authentication
+	 */
+	public long getReauthentications() {
+		return reauthentications.get();
+	}
+
+	/**
+	 * @return the average time in milliseconds of the requests using basic authentication
+	 */
+	public double getBasicAverageTime() {
+		return average(basicRequests.get(), basicNanos.get());
+	}
+
+	/**
+	 * @return the average time in milliseconds of the requests using the session cookie
+	 */
+	public double getSessionAverageTime() {
+		return average(sessionRequests.get(), sessionNanos.get());
+	}
+
+	private static double average(long requests, long nanos) {
+		return requests == 0 ? 0d : (double) TimeUnit.NANOSECONDS
+				.toMicros(nanos) / requests / 1000d;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d basic auth requests (%.1f ms avg), %d session requests (%.1f ms avg), %d re-authentications",
+				getBasicRequests(), getBasicAverageTime(),
+				getSessionRequests(), getSessionAverageTime(),
+				getReauthentications());
+	}
+}
@@ -0,0 +1,111 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.client;
+
+import java.util.Calendar;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * <p>
+ * RequestThrottle class
+ * </p>
+ * <p>
+ * Applies the active {@code ThrottleSchedule} profile to the requests sent to
+ * a Confluence server. There is one instance per throttling bin, using the
+ * same bin name reported by the repository connector in
+ * <code>getBinNames</code>, and schedule, so every client talking to the same
+ * server with the same schedule shares the same request rate budget.
+ * Connections configured with different schedules get throttles of their own
+ * instead of overwriting each other's rate
+ * </p>
+ * <p>
+ * The active profile is re-evaluated at most once per minute, so profile
+ * changes take effect without reconnecting
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class RequestThrottle {
+
+	private static final long PROFILE_CHECK_INTERVAL = 60000L;
+
+	private static final Map<String, RequestThrottle> throttles = Maps
+			.newHashMap();
+
+	private static Logger logger = LoggerFactory
+			.getLogger(RequestThrottle.class);
+
+	private final String binName;
+	private final RateLimiter rateLimiter;
+
+	private final ThrottleSchedule schedule;
+	private ThrottleSchedule.Profile activeProfile;
+	private long nextProfileCheck = 0L;
+
+	private RequestThrottle(String binName, ThrottleSchedule schedule) {
+		this.binName = binName;
+		this.schedule = schedule;
+		this.rateLimiter = RateLimiter.create(Double.MAX_VALUE);
+	}
+
+	/**
+	 * <p>Returns the throttle shared by all the clients in the given bin using the given schedule</p>
+	 * @param binName the throttling bin name
+	 * @param schedule the {@code ThrottleSchedule} used to choose the active profile, null for no throttling
+	 * @return the {@code RequestThrottle} for the bin and schedule
+	 */
+	public static RequestThrottle forBin(String binName,
+			ThrottleSchedule schedule) {
+		String key = binName + "#" + String.valueOf(schedule);
+		synchronized (throttles) {
+			RequestThrottle throttle = throttles.get(key);
+			if (throttle == null) {
+				throttle = new RequestThrottle(binName, schedule);
+				throttles.put(key, throttle);
+			}
+			return throttle;
+		}
+	}
+
+	/**
+	 * <p>Returns the currently active profile, switching profiles when the schedule says so</p>
+	 * @return the active {@code Profile} or null if there is no schedule configured
+	 */
+	public synchronized ThrottleSchedule.Profile currentProfile() {
+		if (schedule == null) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		if (now >= nextProfileCheck) {
+			ThrottleSchedule.Profile profile = schedule.profileAt(Calendar
+					.getInstance());
+			if (!profile.equals(activeProfile)) {
+				logger.info("Switching throttle profile for {} to {}",
+						binName, profile);
+				activeProfile = profile;
+				if (profile.isRateLimited()) {
+					rateLimiter.setRate(profile.getRequestsPerSecond());
+				}
+			}
+			nextProfileCheck = now + PROFILE_CHECK_INTERVAL;
+		}
+		return activeProfile;
+	}
+
+	/**
+	 * <p>Blocks until the active profile allows one more request</p>
+	 * @return the profile the request was admitted with or null if there is no schedule configured
+	 */
+	public ThrottleSchedule.Profile acquire() {
+		ThrottleSchedule.Profile profile = currentProfile();
+		if (profile != null && profile.isRateLimited()) {
+			rateLimiter.acquire();
+		}
+		return profile;
+	}
+}
@@ -0,0 +1,154 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.apache.manifoldcf.crawler.connectors.confluence.util.DiskLruStore;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+/**
+ * <p>
+ * ResponseCache class
+ * </p>
+ * <p>
+ * Bounded, disk backed cache of Confluence responses used to send conditional
+ * requests. Every entry keeps the response body along with its
+ * <code>ETag</code> and <code>Last-Modified</code> validators, so the client
+ * can revalidate it and use the local copy when Confluence answers with a 304
+ * </p>
+ * <p>
+ * Entries are keyed by user and url, and the least recently used ones are
+ * evicted when the cache grows over its maximum size (see
+ * {@code DiskLruStore})
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class ResponseCache {
+
+	private static final String ETAG = "etag";
+	private static final String LAST_MODIFIED = "lastModified";
+	private static final String CONTENT_TYPE = "contentType";
+
+	private final DiskLruStore store;
+
+	private ResponseCache(DiskLruStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * <p>Returns the cache stored in the given directory, opening it if needed</p>
+	 * @param directory the directory where the entries are stored
+	 * @param maxSize the maximum size in bytes of the stored bodies
+	 * @return the {@code ResponseCache} for the directory
+	 * @throws ManifoldCFException if the directory can not be used
+	 */
+	public static ResponseCache forDirectory(File directory, long maxSize)
+			throws ManifoldCFException {
+		return new ResponseCache(DiskLruStore.forDirectory(directory, maxSize));
+	}
+
+	/**
+	 * <p>Computes the key of a request</p>
+	 * @param username the user the request is sent as, null or empty for anonymous
+	 * @param url the requested url
+	 * @return the cache key
+	 */
+	public static String key(String username, String url) {
+		return Hashing.sha1()
+				.hashString(Strings.nullToEmpty(username) + " " + url,
+						Charset.forName("UTF-8")).toString();
+	}
+
+	/**
+	 * <p>Gets the cached response for the given key</p>
+	 * @param key the cache key
+	 * @return the {@code CachedResponse} or null if there is none
+	 */
+	public CachedResponse lookup(String key) {
+		DiskLruStore.Entry entry = store.lookup(key);
+		return entry != null ? new CachedResponse(entry) : null;
+	}
+
+	/**
+	 * <p>Opens the body of a cached response</p>
+	 * @param response the cached response
+	 * @return the stream to read the body
+	 * @throws IOException if the body is no longer available
+	 */
+	public InputStream open(CachedResponse response) throws IOException {
+		return store.open(response.entry);
+	}
+
+	/**
+	 * <p>Removes the given entry, used when its body can not be read anymore</p>
+	 * @param key the cache key
+	 */
+	public void remove(String key) {
+		store.remove(key);
+	}
+
+	/**
+	 * <p>Wraps the content of a response so its body is stored in the cache while it is read</p>
+	 * <p>The entry is only stored once the whole body has been read. Bodies bigger than a quarter of
+	 * the cache size are not stored</p>
+	 * @param key the cache key
+	 * @param etag the <code>ETag</code> header value, may be null
+	 * @param lastModified the <code>Last-Modified</code> header value, may be null
+	 * @param contentType the <code>Content-Type</code> header value, may be null
+	 * @param content the response content
+	 * @return the stream to read the content from
+	 */
+	public InputStream store(String key, String etag, String lastModified,
+			String contentType, InputStream content) {
+		Map<String, String> properties = Maps.newHashMap();
+		properties.put(ETAG, etag);
+		properties.put(LAST_MODIFIED, lastModified);
+		properties.put(CONTENT_TYPE, contentType);
+		return store.store(key, properties, content, false);
+	}
+
+	/**
+	 * <p>
+	 * CachedResponse class
+	 * </p>
+	 * <p>
+	 * The validators and information of a cached response
+	 * </p>
+	 */
+	public static class CachedResponse {
+		private final DiskLruStore.Entry entry;
+
+		private CachedResponse(DiskLruStore.Entry entry) {
+			this.entry = entry;
+		}
+
+		public String getKey() {
+			return this.entry.getKey();
+		}
+
+		public String getEtag() {
+			return this.entry.getProperty(ETAG);
+		}
+
+		public String getLastModified() {
+			return this.entry.getProperty(LAST_MODIFIED);
+		}
+
+		public String getContentType() {
+			return this.entry.getProperty(CONTENT_TYPE);
+		}
+
+		public long getLength() {
+			return this.entry.getLength();
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.client;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * ThrottleSchedule class
+ * </p>
+ * <p>
+ * Maps time windows to crawl profiles (maximum concurrency and requests per
+ * second). The schedule is written one rule per line (or separated by
+ * <code>;</code>) using the format
+ * <code>&lt;days&gt; &lt;HH:mm&gt;-&lt;HH:mm&gt; &lt;maxConnections&gt; &lt;requestsPerSecond&gt;</code>,
+ * for instance <code>Mon-Fri 08:00-18:00 1 2</code>. Days can be a single day,
+ * a range, a comma separated list or <code>*</code> for every day. Windows
+ * ending before they start span midnight. The first matching rule wins and
+ * the default profile is used when no rule matches
+ * </p>
+ * <p>
+ * A requests per second value of 0 means no rate limit
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class ThrottleSchedule {
+
+	private static final String[] DAY_NAMES = new String[] { "sun", "mon",
+			"tue", "wed", "thu", "fri", "sat" };
+
+	private final Profile defaultProfile;
+	private final List<Rule> rules;
+
+	private ThrottleSchedule(Profile defaultProfile, List<Rule> rules) {
+		this.defaultProfile = defaultProfile;
+		this.rules = rules;
+	}
+
+	/**
+	 * <p>Parses the given schedule definition</p>
+	 * @param definition the schedule rules, one per line or separated by ;. Empty rules and rules starting with # are ignored
+	 * @param defaultProfile the profile used when no rule matches
+	 * @return the parsed {@code ThrottleSchedule}
+	 * @throws ManifoldCFException if the definition is not valid
+	 */
+	public static ThrottleSchedule parse(String definition,
+			Profile defaultProfile) throws ManifoldCFException {
+		List<Rule> rules = Lists.newArrayList();
+		if (definition != null) {
+			String[] lines = definition.split("[\\r\\n;]+");
+			for (int i = 0; i < lines.length; i++) {
+				String line = lines[i].trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				rules.add(parseRule(line, i + 1));
+			}
+		}
+		return new ThrottleSchedule(defaultProfile, rules);
+	}
+
+	/**
+	 * <p>Returns the profile that applies at the given time</p>
+	 * @param time the time to get the profile for
+	 * @return the matching {@code Profile} or the default one
+	 */
+	public Profile profileAt(Calendar time) {
+		int day = time.get(Calendar.DAY_OF_WEEK) - 1;
+		int minute = time.get(Calendar.HOUR_OF_DAY) * 60
+				+ time.get(Calendar.MINUTE);
+		for (Rule rule : rules) {
+			if (rule.matches(day, minute)) {
+				return rule.profile;
+			}
+		}
+		return defaultProfile;
+	}
+
+	/**
+	 * <p>Gets a canonical description of the schedule, equal for schedules applying the same profiles at the same times</p>
+	 */
+	@Override
+	public String toString() {
+		StringBuilder description = new StringBuilder();
+		description.append(defaultProfile);
+		for (Rule rule : rules) {
+			description.append("; ").append(rule);
+		}
+		return description.toString();
+	}
+
+	private static Rule parseRule(String line, int lineNumber)
+			throws ManifoldCFException {
+		String[] tokens = line.split("\\s+");
+		if (tokens.length != 4) {
+			throw new ManifoldCFException("Bad schedule rule at line "
+					+ lineNumber + ": expected '<days> <HH:mm>-<HH:mm> <maxConnections> <requestsPerSecond>'");
+		}
+
+		boolean[] days = parseDays(tokens[0], lineNumber);
+
+		String[] window = tokens[1].split("-");
+		if (window.length != 2) {
+			throw new ManifoldCFException("Bad time window at line "
+					+ lineNumber + ": " + tokens[1]);
+		}
+		int start = parseTime(window[0], lineNumber);
+		int end = parseTime(window[1], lineNumber);
+
+		int maxConnections;
+		double requestsPerSecond;
+		try {
+			maxConnections = Integer.parseInt(tokens[2]);
+			requestsPerSecond = Double.parseDouble(tokens[3]);
+		} catch (NumberFormatException e) {
+			throw new ManifoldCFException("Bad number at line " + lineNumber
+					+ ": " + e.getMessage(), e);
+		}
+
+		return new Rule(days, start, end, new Profile(maxConnections,
+				requestsPerSecond));
+	}
+
+	private static boolean[] parseDays(String token, int lineNumber)
+			throws ManifoldCFException {
+		boolean[] days = new boolean[7];
+		if (token.equals("*")) {
+			for (int i = 0; i < days.length; i++) {
+				days[i] = true;
+			}
+			return days;
+		}
+		for (String part : token.split(",")) {
+			String[] range = part.split("-");
+			int from = dayIndex(range[0], lineNumber);
+			int to = range.length > 1 ? dayIndex(range[1], lineNumber) : from;
+			int i = from;
+			while (true) {
+				days[i] = true;
+				if (i == to) {
+					break;
+				}
+				i = (i + 1) % 7;
+			}
+		}
+		return days;
+	}
+
+	private static int dayIndex(String day, int lineNumber)
+			throws ManifoldCFException {
+		String prefix = day.length() >= 3 ? day.substring(0, 3).toLowerCase(
+				Locale.ROOT) : day;
+		for (int i = 0; i < DAY_NAMES.length; i++) {
+			if (DAY_NAMES[i].equals(prefix)) {
+				return i;
+			}
+		}
+		throw new ManifoldCFException("Bad day at line " + lineNumber + ": "
+				+ day);
+	}
+
+	private static int parseTime(String time, int lineNumber)
+			throws ManifoldCFException {
+		String[] parts = time.split(":");
+		try {
+			int hours = Integer.parseInt(parts[0]);
+			int minutes = parts.length > 1 ? Integer.parseInt(parts[1]) : 0;
+			if (hours < 0 || hours > 24 || minutes < 0 || minutes > 59) {
+				throw new ManifoldCFException("Bad time at line "
+						+ lineNumber + ": " + time);
+			}
+			return hours * 60 + minutes;
+		} catch (NumberFormatException e) {
+			throw new ManifoldCFException("Bad time at line " + lineNumber
+					+ ": " + time, e);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Profile class
+	 * </p>
+	 * <p>
+	 * The limits applied to Confluence requests while it is active
+	 * </p>
+	 */
+	public static class Profile {
+		private final int maxConnections;
+		private final double requestsPerSecond;
+
+		public Profile(int maxConnections, double requestsPerSecond) {
+			this.maxConnections = Math.max(1, maxConnections);
+			this.requestsPerSecond = Math.max(0d, requestsPerSecond);
+		}
+
+		public int getMaxConnections() {
+			return this.maxConnections;
+		}
+
+		public double getRequestsPerSecond() {
+			return this.requestsPerSecond;
+		}
+
+		public boolean isRateLimited() {
+			return this.requestsPerSecond > 0d;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Profile)) {
+				return false;
+			}
+			Profile other = (Profile) o;
+			return other.maxConnections == maxConnections
+					&& Double.compare(other.requestsPerSecond,
+							requestsPerSecond) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return maxConnections * 31
+					+ Double.valueOf(requestsPerSecond).hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return maxConnections + " connection(s), "
+					+ (isRateLimited() ? requestsPerSecond + " request(s)/s"
+							: "no rate limit");
+		}
+	}
+
+	private static class Rule {
+		private final boolean[] days;
+		private final int start;
+		private final int end;
+		private final Profile profile;
+
+		private Rule(boolean[] days, int start, int end, Profile profile) {
+			this.days = days;
+			this.start = start;
+			this.end = end;
+			this.profile = profile;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder description = new StringBuilder();
+			for (int i = 0; i < days.length; i++) {
+				if (days[i]) {
+					description.append(DAY_NAMES[i]).append(',');
+				}
+			}
+			return description.append(' ').append(start).append('-')
+					.append(end).append(' ').append(profile).toString();
+		}
+
+		private boolean matches(int day, int minute) {
+			if (start <= end) {
+				return days[day] && minute >= start && minute < end;
+			}
+			/* Window spanning midnight: the early part belongs to the previous day */
+			if (minute >= start) {
+				return days[day];
+			}
+			return minute < end && days[(day + 6) % 7];
+		}
+	}
+}
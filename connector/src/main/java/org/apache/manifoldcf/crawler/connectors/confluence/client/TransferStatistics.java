@@ -0,0 +1,89 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * TransferStatistics class
+ * </p>
+ * <p>
+ * Counters of the bytes received from Confluence, both as they come over the
+ * wire and once decompressed, to know how much compression is saving
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class TransferStatistics {
+
+	private final AtomicLong responses = new AtomicLong();
+	private final AtomicLong compressedResponses = new AtomicLong();
+	private final AtomicLong wireBytes = new AtomicLong();
+	private final AtomicLong contentBytes = new AtomicLong();
+	private final AtomicLong revalidatedResponses = new AtomicLong();
+
+	void responseReceived(boolean compressed) {
+		responses.incrementAndGet();
+		if (compressed) {
+			compressedResponses.incrementAndGet();
+		}
+	}
+
+	void responseRevalidated() {
+		revalidatedResponses.incrementAndGet();
+	}
+
+	void wireBytesRead(long count) {
+		wireBytes.addAndGet(count);
+	}
+
+	void contentBytesRead(long count) {
+		contentBytes.addAndGet(count);
+	}
+
+	/**
+	 * @return the number of responses received
+	 */
+	public long getResponses() {
+		return responses.get();
+	}
+
+	/**
+	 * @return the number of responses received compressed
+	 */
+	public long getCompressedResponses() {
+		return compressedResponses.get();
+	}
+
+	/**
+	 * @return the number of responses served from the local cache after a 304
+	 */
+	public long getRevalidatedResponses() {
+		return revalidatedResponses.get();
+	}
+
+	/**
+	 * @return the number of bytes read from the wire
+	 */
+	public long getWireBytes() {
+		return wireBytes.get();
+	}
+
+	/**
+	 * @return the number of bytes read once decompressed
+	 */
+	public long getContentBytes() {
+		return contentBytes.get();
+	}
+
+	@Override
+	public String toString() {
+		long wire = getWireBytes();
+		long content = getContentBytes();
+		return String.format(
+				"%d responses (%d compressed, %d not modified), %d bytes received, %d bytes decompressed (%.1f%% saved)",
+				getResponses(), getCompressedResponses(),
+				getRevalidatedResponses(), wire, content,
+				content == 0 ? 0d : 100d * (content - wire) / content);
+	}
+}
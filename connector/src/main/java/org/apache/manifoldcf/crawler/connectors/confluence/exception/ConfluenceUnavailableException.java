@@ -0,0 +1,32 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.exception;
+
+/**
+ * <p>
+ * Thrown when requests to Confluence are rejected without being sent because
+ * the server has been failing repeatedly
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class ConfluenceUnavailableException extends ConfluenceException {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = -2914567730960553301L;
+
+	private final long retryTime;
+
+	public ConfluenceUnavailableException(String message, long retryTime) {
+		super(message);
+		this.retryTime = retryTime;
+	}
+
+	/**
+	 * @return the time in milliseconds from which requests will be allowed again
+	 */
+	public long getRetryTime() {
+		return retryTime;
+	}
+}
@@ -11,4 +11,12 @@ public class PageNotFoundException extends Exception {
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
+
+	public PageNotFoundException() {
+		super();
+	}
+
+	public PageNotFoundException(String message) {
+		super(message);
+	}
 }
\ No newline at end of file
@@ -21,7 +21,9 @@ public class Attachment extends Page {
 
 	protected static final String KEY_DOWNLOAD = "download";
 	protected static final String KEY_EXTENSIONS = "extensions";
+	protected static final String KEY_CONTAINER = "container";
 	protected String downloadUrl;
+	protected String containerId = "";
 	protected InputStream contentStream;
 
 	public static ConfluenceResourceBuilder<Attachment> builder() {
@@ -37,6 +39,14 @@ public class Attachment extends Page {
 		return (this.length > 0 && this.hasContentStream()) || (this.downloadUrl != null && !this.downloadUrl.isEmpty());
 	}
 
+	/**
+	 * <p>Gets the id of the page the attachment belongs to, empty if the
+	 * container was not expanded</p>
+	 */
+	public String getContainerId() {
+		return this.containerId;
+	}
+
 	public Boolean hasContentStream() {
 		return this.contentStream != null;
 	}
@@ -78,6 +88,14 @@ public class Attachment extends Page {
 		public Attachment fromJson(JSONObject jsonPage, Attachment attachment) {
 			((ConfluenceResourceBuilder<Page>) Page.builder()).fromJson(jsonPage, attachment);
 
+			/*
+			 * Container, only present when expanded
+			 */
+			JSONObject container = jsonPage.optJSONObject(KEY_CONTAINER);
+			if (container != null) {
+				attachment.containerId = container.optString(Page.KEY_ID, "");
+			}
+
 			try {
 				/*
 				 * Download URL
@@ -0,0 +1,40 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.model;
+
+/**
+ * <p>BodyRepresentation class</p>
+ * <p>Represents the formats Confluence can return the body of a page in.
+ * {@code VIEW} and {@code EXPORT_VIEW} are rendered by the server, running
+ * every macro of the page. {@code STORAGE} is the page as it is saved, which
+ * the connector converts to HTML itself (see {@code StorageFormatConverter})</p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public enum BodyRepresentation {
+
+	VIEW, EXPORT_VIEW, STORAGE;
+
+	/**
+	 * <p>Gets the name of the representation in the Confluence REST API</p>
+	 */
+	public String getName() {
+		return name().toLowerCase();
+	}
+
+	/**
+	 * <p>Gets the expansion requesting the body in this representation</p>
+	 */
+	public String getExpand() {
+		return "body." + getName();
+	}
+
+	public static BodyRepresentation fromName(String name) {
+		for (BodyRepresentation representation : values()) {
+			if (representation.getName().equalsIgnoreCase(name)) {
+				return representation;
+			}
+		}
+
+		return BodyRepresentation.VIEW;
+	}
+}
@@ -14,6 +14,7 @@ public class ConfluenceResponse<T extends ConfluenceResource> {
 	private int start;
 	private int limit;
 	private Boolean isLast;
+	private int totalSize = -1;
 	
 	public ConfluenceResponse(List<T> results, int start, int limit, Boolean isLast) {
 		this.results = results;
@@ -22,6 +23,13 @@ public class ConfluenceResponse<T extends ConfluenceResource> {
 		this.isLast = isLast;
 	}
 	
+	/**
+	 * <p>Gets the total number of results, only known for searches and -1 otherwise</p>
+	 */
+	public int getTotalSize() {
+		return this.totalSize;
+	}
+	
 	public List<T> getResults() {
 		return this.results;
 	}
@@ -56,7 +64,9 @@ public class ConfluenceResponse<T extends ConfluenceResource> {
 				isLast = links.optString("next", "undefined").equalsIgnoreCase("undefined");
 			}
 			
-			return new ConfluenceResponse<T>(resources, start, limit, isLast);
+			ConfluenceResponse<T> confluenceResponse = new ConfluenceResponse<T>(resources, start, limit, isLast);
+			confluenceResponse.totalSize = response.optInt("totalSize", -1);
+			return confluenceResponse;
 			
 		} catch (JSONException e) {
 			// TODO Auto-generated catch block
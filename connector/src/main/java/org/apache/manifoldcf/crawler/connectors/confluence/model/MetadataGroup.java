@@ -0,0 +1,105 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.model;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * <p>MetadataGroup class</p>
+ * <p>Represents the optional groups of metadata a job can index. Each group
+ * names the metadata fields it fills, so the content can be requested with
+ * only the expansions the job needs</p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public enum MetadataGroup {
+
+	/* Creator and creation date, from the expanded history */
+	HISTORY("createdDate", "creator", "creatorUsername"),
+	/* Last modifier and last modification, from the version which is always expanded */
+	VERSION("lastModified", "version", "lastModifier", "lastModifierUsername"),
+	/* Labels, requested apart because they change without a new version */
+	LABELS("label");
+
+	public static final Set<MetadataGroup> ALL = Sets.immutableEnumSet(EnumSet
+			.allOf(MetadataGroup.class));
+
+	private final List<String> fields;
+
+	private MetadataGroup(String... fields) {
+		this.fields = ImmutableList.copyOf(fields);
+	}
+
+	/**
+	 * <p>Gets the metadata fields filled by this group</p>
+	 */
+	public List<String> getFields() {
+		return this.fields;
+	}
+
+	public String getName() {
+		return name().toLowerCase();
+	}
+
+	public static MetadataGroup fromName(String name) {
+		for (MetadataGroup group : values()) {
+			if (group.getName().equalsIgnoreCase(name.trim())) {
+				return group;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * <p>Parses a comma separated list of group names, ignoring unknown names</p>
+	 * @param names the group names, null meaning all the groups
+	 * @return the groups
+	 */
+	public static Set<MetadataGroup> fromNames(String names) {
+		if (names == null) {
+			return ALL;
+		}
+		Set<MetadataGroup> groups = EnumSet.noneOf(MetadataGroup.class);
+		for (String name : StringUtils.split(names, ',')) {
+			MetadataGroup group = fromName(name);
+			if (group != null) {
+				groups.add(group);
+			}
+		}
+		return groups;
+	}
+
+	/**
+	 * <p>Gets the comma separated list of the names of the given groups</p>
+	 */
+	public static String toNames(Set<MetadataGroup> groups) {
+		List<String> names = Lists.newArrayList();
+		for (MetadataGroup group : groups) {
+			names.add(group.getName());
+		}
+		return StringUtils.join(names, ",");
+	}
+
+	/**
+	 * <p>Removes from a metadata map the fields of the groups not selected</p>
+	 * @param metadata the metadata map
+	 * @param groups the selected groups
+	 */
+	public static void retain(Map<String, Object> metadata,
+			Set<MetadataGroup> groups) {
+		for (MetadataGroup group : values()) {
+			if (!groups.contains(group)) {
+				metadata.keySet().removeAll(group.getFields());
+			}
+		}
+	}
+}
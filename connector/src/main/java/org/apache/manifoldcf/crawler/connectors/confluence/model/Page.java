@@ -9,6 +9,7 @@ import java.util.Map;
 
 import org.apache.manifoldcf.core.common.DateParser;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.builder.ConfluenceResourceBuilder;
+import org.apache.manifoldcf.crawler.connectors.confluence.util.StorageFormatConverter;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -50,6 +51,7 @@ public class Page extends ConfluenceResource{
 	protected static final String KEY_USER_NAME = "username";
 	protected static final String KEY_VERSION = "version";
 	protected static final String KEY_WHEN = "when";
+	protected static final String KEY_NUMBER = "number";
 	protected static final String KEY_MEDIATYPE = "mediaType";
 
 	private static final String PAGE_ID = "confluenceId";
@@ -185,10 +187,15 @@ public class Page extends ConfluenceResource{
 		pageMetadata.put(KEY_SPACE, this.space);
 		pageMetadata.put(PAGE_URL, this.url);
 		pageMetadata.put(PAGE_WEBURL, this.webUrl);
-		pageMetadata.put(KEY_CREATED_DATE,
-				DateParser.formatISO8601Date(this.createdDate));
-		pageMetadata.put(PAGE_LAST_MODIFIED,
-				DateParser.formatISO8601Date(this.lastModified));
+		/* Dates are missing when the history or the version were not expanded */
+		if (this.createdDate != null) {
+			pageMetadata.put(KEY_CREATED_DATE,
+					DateParser.formatISO8601Date(this.createdDate));
+		}
+		if (this.lastModified != null) {
+			pageMetadata.put(PAGE_LAST_MODIFIED,
+					DateParser.formatISO8601Date(this.lastModified));
+		}
 		pageMetadata.put(KEY_MEDIATYPE, this.mediaType);
 		pageMetadata.put(KEY_VERSION, String.valueOf(this.version));
 		pageMetadata.put(PAGE_CREATOR, this.creator);
@@ -313,6 +320,7 @@ public class Page extends ConfluenceResource{
 
 					page.lastModified = DateParser.parseISO8601Date(version
 							.optString(KEY_WHEN, ""));
+					page.version = version.optInt(KEY_NUMBER, 0);
 				}
 
 				/*
@@ -320,10 +328,20 @@ public class Page extends ConfluenceResource{
 				 */
 				JSONObject body = (JSONObject) jsonPage.optJSONObject(KEY_BODY);
 				if (body != null) {
-					JSONObject view = (JSONObject) body.optJSONObject(KEY_VIEW);
-					if (view != null) {
-						page.content = view.optString(KEY_VALUE, null);
-						page.length = page.content.getBytes().length;
+					for (BodyRepresentation representation : BodyRepresentation
+							.values()) {
+						JSONObject view = (JSONObject) body
+								.optJSONObject(representation.getName());
+						if (view != null) {
+							page.content = view.optString(KEY_VALUE, null);
+							/* The storage format is converted here instead of being rendered by the server */
+							if (representation == BodyRepresentation.STORAGE) {
+								page.content = StorageFormatConverter
+										.toHtml(page.content);
+							}
+							page.length = page.content.getBytes().length;
+							break;
+						}
 					}
 				}
 
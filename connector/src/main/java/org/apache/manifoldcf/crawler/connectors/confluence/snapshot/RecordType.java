@@ -0,0 +1,30 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.snapshot;
+
+/**
+ * <p>RecordType class</p>
+ * <p>Represents the kind of records kept in a crawl snapshot</p>
+ * 
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public enum RecordType {
+
+	/* Page JSON data, owned by its space */
+	PAGE,
+	/* Labels of a page, owned by the page */
+	LABELS,
+	/* Attachment JSON data, owned by its container page */
+	ATTACHMENT,
+	/* Attachment bytes */
+	ATTACHMENT_CONTENT;
+
+	public static RecordType fromName(String type) {
+		for (RecordType recordType : values()) {
+			if (recordType.name().equalsIgnoreCase(type)) {
+				return recordType;
+			}
+		}
+
+		return null;
+	}
+}
@@ -0,0 +1,272 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.snapshot;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * SnapshotReader class
+ * </p>
+ * <p>
+ * Reads the records of a crawl snapshot written by {@code SnapshotWriter}.
+ * The index is loaded in memory and the segment files are memory mapped, so
+ * records are served at disk speed without copying whole segments to the heap
+ * </p>
+ * <p>
+ * There is one reader per directory. It is reloaded when the index has grown
+ * since it was loaded, so a snapshot still being recorded can be replayed
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class SnapshotReader {
+
+	private static final Map<File, SnapshotReader> readers = Maps.newHashMap();
+
+	private static Logger logger = LoggerFactory.getLogger(SnapshotReader.class);
+
+	private final File directory;
+	private final long indexLength;
+	/* Last location of every record, keyed by type and id */
+	private final Map<String, Location> locations = Maps.newHashMap();
+	/* Ids of the records of every type, keyed by type and owner, in recording order */
+	private final Map<String, Set<String>> owned = Maps.newHashMap();
+	private final Map<String, String> owners = Maps.newHashMap();
+	private final Set<String> pageIds = new LinkedHashSet<String>();
+	private final Map<Integer, MappedByteBuffer> segments = Maps.newHashMap();
+
+	private SnapshotReader(File directory, long indexLength) {
+		this.directory = directory;
+		this.indexLength = indexLength;
+	}
+
+	/**
+	 * <p>Returns the reader of the snapshot kept in the given directory, loading it if needed</p>
+	 * @param directory the snapshot directory
+	 * @return the {@code SnapshotReader} for the directory
+	 * @throws ManifoldCFException if there is no readable snapshot in the directory
+	 */
+	public static SnapshotReader forDirectory(File directory)
+			throws ManifoldCFException {
+		File canonicalDirectory = SnapshotWriter.canonicalDirectory(directory);
+		File indexFile = new File(canonicalDirectory, SnapshotWriter.INDEX_FILE);
+		if (!indexFile.isFile()) {
+			throw new ManifoldCFException("No snapshot found in "
+					+ canonicalDirectory);
+		}
+		synchronized (readers) {
+			SnapshotReader reader = readers.get(canonicalDirectory);
+			if (reader == null || reader.indexLength != indexFile.length()) {
+				reader = new SnapshotReader(canonicalDirectory, indexFile.length());
+				try {
+					reader.load(indexFile);
+				} catch (IOException e) {
+					throw new ManifoldCFException("Snapshot in "
+							+ canonicalDirectory + " can not be read: "
+							+ e.getMessage(), e);
+				}
+				readers.put(canonicalDirectory, reader);
+			}
+			return reader;
+		}
+	}
+
+	/**
+	 * <p>Gets the ids of the recorded pages</p>
+	 * @param space the space key to get the pages from, absent for all the spaces
+	 * @return the page ids in recording order
+	 */
+	public List<String> getPageIds(Optional<String> space) {
+		if (!space.isPresent()) {
+			return Lists.newArrayList(pageIds);
+		}
+		return getOwned(RecordType.PAGE, space.get());
+	}
+
+	/**
+	 * <p>Gets the ids of the recorded attachments of a page</p>
+	 * @param pageId the container page id
+	 * @return the attachment ids in recording order
+	 */
+	public List<String> getAttachmentIds(String pageId) {
+		return getOwned(RecordType.ATTACHMENT, pageId);
+	}
+
+	/**
+	 * @param pageId the page id
+	 * @return the recorded page JSON data or null if the page is not in the snapshot
+	 */
+	public String getPage(String pageId) {
+		return readString(RecordType.PAGE, pageId);
+	}
+
+	/**
+	 * @param pageId the page id
+	 * @return the recorded labels JSON data or null if they are not in the snapshot
+	 */
+	public String getLabels(String pageId) {
+		return readString(RecordType.LABELS, pageId);
+	}
+
+	/**
+	 * @param attachmentId the attachment id
+	 * @return the recorded attachment JSON data or null if the attachment is not in the snapshot
+	 */
+	public String getAttachment(String attachmentId) {
+		return readString(RecordType.ATTACHMENT, attachmentId);
+	}
+
+	/**
+	 * @param attachmentId the attachment id
+	 * @return a read only buffer with the recorded attachment bytes or null if they are not in the snapshot
+	 */
+	public ByteBuffer getAttachmentContent(String attachmentId) {
+		return read(RecordType.ATTACHMENT_CONTENT, attachmentId);
+	}
+
+	/**
+	 * @param type the record type
+	 * @param id the record id
+	 * @return whether the snapshot has a record of the given type and id
+	 */
+	public boolean contains(RecordType type, String id) {
+		return locations.containsKey(type.name() + "\t" + id);
+	}
+
+	/**
+	 * @return whether the snapshot has no pages
+	 */
+	public boolean isEmpty() {
+		return pageIds.isEmpty();
+	}
+
+	private List<String> getOwned(RecordType type, String owner) {
+		Set<String> ids = owned.get(type.name() + "\t" + owner);
+		return ids != null ? Lists.newArrayList(ids) : Collections
+				.<String> emptyList();
+	}
+
+	private String readString(RecordType type, String id) {
+		ByteBuffer buffer = read(type, id);
+		if (buffer == null) {
+			return null;
+		}
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return new String(bytes, SnapshotWriter.UTF_8);
+	}
+
+	private ByteBuffer read(RecordType type, String id) {
+		Location location = locations.get(type.name() + "\t" + id);
+		if (location == null) {
+			return null;
+		}
+		try {
+			ByteBuffer buffer = segment(location.segment).duplicate();
+			buffer.position((int) location.offset);
+			buffer.limit((int) (location.offset + location.length));
+			return buffer.slice().asReadOnlyBuffer();
+		} catch (IOException e) {
+			logger.warn("Snapshot record {} {} can not be read: {}",
+					new Object[] { type, id, e.getMessage() });
+			return null;
+		}
+	}
+
+	private synchronized MappedByteBuffer segment(int number)
+			throws IOException {
+		MappedByteBuffer segment = segments.get(number);
+		if (segment == null) {
+			RandomAccessFile file = new RandomAccessFile(
+					SnapshotWriter.segmentFile(directory, number), "r");
+			try {
+				/* The mapping stays valid once the file is closed */
+				segment = file.getChannel().map(FileChannel.MapMode.READ_ONLY,
+						0, file.length());
+			} finally {
+				file.close();
+			}
+			segments.put(number, segment);
+		}
+		return segment;
+	}
+
+	private void load(File indexFile) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(indexFile), SnapshotWriter.UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				RecordType type = fields.length == 6 ? RecordType
+						.fromName(fields[0]) : null;
+				if (type == null) {
+					/* Partially written line of an interrupted recording */
+					logger.debug("Ignoring snapshot index line {}", line);
+					continue;
+				}
+				try {
+					Location location = new Location(
+							Integer.parseInt(fields[3]),
+							Long.parseLong(fields[4]),
+							Integer.parseInt(fields[5]));
+					locations.put(type.name() + "\t" + fields[1], location);
+				} catch (NumberFormatException e) {
+					logger.debug("Ignoring snapshot index line {}", line);
+					continue;
+				}
+				/* A page moved to another space is only listed in the last one */
+				String previousOwner = owners.put(type.name() + "\t" + fields[1], fields[2]);
+				if (previousOwner != null && !previousOwner.equals(fields[2])) {
+					owned.get(type.name() + "\t" + previousOwner).remove(fields[1]);
+				}
+				String key = type.name() + "\t" + fields[2];
+				Set<String> ids = owned.get(key);
+				if (ids == null) {
+					ids = new LinkedHashSet<String>();
+					owned.put(key, ids);
+				}
+				ids.add(fields[1]);
+				if (type == RecordType.PAGE) {
+					pageIds.add(fields[1]);
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	private static class Location {
+		private final int segment;
+		private final long offset;
+		private final int length;
+
+		private Location(int segment, long offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
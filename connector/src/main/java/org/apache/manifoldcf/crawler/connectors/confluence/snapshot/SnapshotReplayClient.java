@@ -0,0 +1,244 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.snapshot;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluenceClient;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Attachment;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.BodyRepresentation;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceResponse;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceUser;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Label;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.MetadataGroup;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.MutableAttachment;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.MutablePage;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Page;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.builder.ConfluenceResourceBuilder;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * SnapshotReplayClient class
+ * </p>
+ * <p>
+ * {@code ConfluenceClient} serving pages, labels and attachments from a crawl
+ * snapshot instead of a Confluence server. It is used to load test output
+ * pipelines or rebuild indexes at disk speed without touching the production
+ * wiki. No request is sent to Confluence
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class SnapshotReplayClient extends ConfluenceClient {
+
+	private static Logger logger = LoggerFactory
+			.getLogger(SnapshotReplayClient.class);
+
+	private final SnapshotReader reader;
+
+	/**
+	 * <p>Creates a new client replaying the given snapshot</p>
+	 * @param reader the {@code SnapshotReader} of the snapshot to replay
+	 */
+	public SnapshotReplayClient(SnapshotReader reader) {
+		super();
+		this.reader = reader;
+	}
+
+	@Override
+	public boolean check() throws Exception {
+		return !reader.isEmpty();
+	}
+
+	@Override
+	public boolean checkAuth() throws Exception {
+		return true;
+	}
+
+	@Override
+	public ConfluenceResponse<Page> getPages(int start, int limit,
+			Optional<String> space) throws Exception {
+		List<String> pageIds = reader.getPageIds(space);
+		List<Page> pages = Lists.newArrayList();
+		for (String pageId : page(pageIds, start, limit)) {
+			String json = reader.getPage(pageId);
+			if (json != null) {
+				pages.add(Page.builder().fromJson(new JSONObject(json)));
+			}
+		}
+		return new ConfluenceResponse<Page>(pages, start, limit,
+				start + limit >= pageIds.size());
+	}
+
+	@Override
+	public ConfluenceResponse<Attachment> getPageAttachments(String pageId,
+			int start, int limit) throws Exception {
+		List<String> attachmentIds = reader.getAttachmentIds(pageId);
+		List<Attachment> attachments = Lists.newArrayList();
+		for (String attachmentId : page(attachmentIds, start, limit)) {
+			String json = reader.getAttachment(attachmentId);
+			if (json != null) {
+				attachments.add(Attachment.builder().fromJson(
+						new JSONObject(json)));
+			}
+		}
+		return new ConfluenceResponse<Attachment>(attachments, start, limit,
+				start + limit >= attachmentIds.size());
+	}
+
+	/* A snapshot has no history, seedings replaying it list every page */
+
+	@Override
+	public ConfluenceResponse<Page> getModifiedPages(int start, int limit,
+			List<String> spaces, long minutes) throws Exception {
+		throw new Exception("Searches are not available when replaying a snapshot");
+	}
+
+	@Override
+	public ConfluenceResponse<Attachment> getModifiedAttachments(int start,
+			int limit, List<String> spaces, long minutes) throws Exception {
+		throw new Exception("Searches are not available when replaying a snapshot");
+	}
+
+	@Override
+	public ConfluenceResponse<Page> getLastModifiedContent(
+			Optional<String> space) throws Exception {
+		throw new Exception("Searches are not available when replaying a snapshot");
+	}
+
+	@Override
+	public ConfluenceResponse<Page> getTrashedPages(int start, int limit,
+			String space) throws Exception {
+		throw new Exception("Trash is not available when replaying a snapshot");
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Page getPage(String pageId, Set<MetadataGroup> metadata,
+			BodyRepresentation representation) {
+		String json = reader.getPage(pageId);
+		if (json == null) {
+			logger.debug("[Replay] Page {} not found in the snapshot", pageId);
+			return new Page();
+		}
+		try {
+			MutablePage page = ((ConfluenceResourceBuilder<MutablePage>) MutablePage
+					.builder()).fromJson(new JSONObject(json), new MutablePage());
+			if (metadata.contains(MetadataGroup.LABELS)) {
+				page.setLabels(getLabels(pageId));
+			}
+			return page;
+		} catch (JSONException e) {
+			logger.error("[Replay] Bad snapshot data for page {}: {}", pageId,
+					e.getMessage());
+			return new Page();
+		}
+	}
+
+	@Override
+	public Attachment getAttachment(String attachmentId,
+			Set<MetadataGroup> metadata) {
+		String json = reader.getAttachment(attachmentId);
+		ByteBuffer content = reader.getAttachmentContent(attachmentId);
+		if (json == null || content == null) {
+			logger.debug("[Replay] Attachment {} not found in the snapshot",
+					attachmentId);
+			return new Attachment();
+		}
+		try {
+			MutableAttachment attachment = (MutableAttachment) Attachment
+					.builder().fromJson(new JSONObject(json),
+							new MutableAttachment());
+			attachment.setLength(content.remaining());
+			attachment.setContentStream(new ByteBufferInputStream(content));
+			return attachment;
+		} catch (JSONException e) {
+			logger.error("[Replay] Bad snapshot data for attachment {}: {}",
+					attachmentId, e.getMessage());
+			return new Attachment();
+		}
+	}
+
+	@Override
+	public List<Label> getLabels(String pageId) {
+		String json = reader.getLabels(pageId);
+		if (json == null) {
+			return Lists.newArrayList();
+		}
+		try {
+			List<Label> labels = Lists.newArrayList();
+			JSONArray results = new JSONObject(json).getJSONArray("results");
+			for (int i = 0, size = results.length(); i < size; i++) {
+				labels.add(Label.builder().fromJson(results.getJSONObject(i)));
+			}
+			return labels;
+		} catch (JSONException e) {
+			logger.error("[Replay] Bad snapshot data for labels of page {}: {}",
+					pageId, e.getMessage());
+			return Lists.newArrayList();
+		}
+	}
+
+	@Override
+	public ConfluenceUser getUserAuthorities(String username) throws Exception {
+		throw new Exception("User authorities are not available when replaying a snapshot");
+	}
+
+	private static <T> List<T> page(List<T> list, int start, int limit) {
+		if (start >= list.size()) {
+			return Lists.newArrayList();
+		}
+		return list.subList(start, Math.min(list.size(), start + limit));
+	}
+
+	/**
+	 * <p>Streams the bytes of a (memory mapped) buffer without copying them</p>
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int read = Math.min(len, buffer.remaining());
+			buffer.get(b, off, read);
+			return read;
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.max(0L, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.snapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Label;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * SnapshotWriter class
+ * </p>
+ * <p>
+ * Records everything fetched from Confluence (page data, labels, attachment
+ * data and bytes) into a local crawl snapshot, so it can be replayed later
+ * without touching the Confluence server (see {@code SnapshotReplayClient})
+ * </p>
+ * <p>
+ * A snapshot is a directory with append-only segment files holding the record
+ * payloads one after the other, and an index file with one line per record:
+ * type, id, owner, segment, offset and length. A record written again (a new
+ * version of a page) just appends a new payload, the last index line wins.
+ * There is one writer per directory and records are appended as they come, so
+ * a crawl interrupted in the middle leaves a usable snapshot
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class SnapshotWriter {
+
+	static final String INDEX_FILE = "snapshot.idx";
+	static final String SEGMENT_PREFIX = "segment-";
+	static final String SEGMENT_EXTENSION = ".dat";
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/* Segments must stay under 2GB to be memory mapped */
+	private static final long MAX_SEGMENT_SIZE = 256L * 1024L * 1024L;
+
+	private static final Map<File, SnapshotWriter> writers = Maps.newHashMap();
+
+	private static Logger logger = LoggerFactory.getLogger(SnapshotWriter.class);
+
+	private final File directory;
+	private Writer index;
+	private FileOutputStream segment;
+	private int segmentNumber = 0;
+	private long segmentSize = 0L;
+
+	private SnapshotWriter(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * <p>Returns the writer of the snapshot kept in the given directory, opening it if needed</p>
+	 * <p>New records are appended to the ones already in the snapshot</p>
+	 * @param directory the snapshot directory
+	 * @return the {@code SnapshotWriter} for the directory
+	 * @throws ManifoldCFException if the snapshot can not be written
+	 */
+	public static SnapshotWriter forDirectory(File directory)
+			throws ManifoldCFException {
+		File canonicalDirectory = canonicalDirectory(directory);
+		synchronized (writers) {
+			SnapshotWriter writer = writers.get(canonicalDirectory);
+			if (writer == null) {
+				if (!canonicalDirectory.isDirectory()
+						&& !canonicalDirectory.mkdirs()) {
+					throw new ManifoldCFException(
+							"Directory can not be created: "
+									+ canonicalDirectory);
+				}
+				writer = new SnapshotWriter(canonicalDirectory);
+				try {
+					writer.open();
+				} catch (IOException e) {
+					throw new ManifoldCFException("Snapshot can not be written in "
+							+ canonicalDirectory + ": " + e.getMessage(), e);
+				}
+				writers.put(canonicalDirectory, writer);
+			}
+			return writer;
+		}
+	}
+
+	static File canonicalDirectory(File directory) throws ManifoldCFException {
+		try {
+			return directory.getCanonicalFile();
+		} catch (IOException e) {
+			throw new ManifoldCFException("Bad directory " + directory + ": "
+					+ e.getMessage(), e);
+		}
+	}
+
+	static File segmentFile(File directory, int number) {
+		return new File(directory, String.format("%s%05d%s", SEGMENT_PREFIX,
+				number, SEGMENT_EXTENSION));
+	}
+
+	/**
+	 * <p>Records the JSON data of a page, owned by its space</p>
+	 * @param pageId the page id
+	 * @param json the page JSON data as returned by Confluence
+	 */
+	public void recordPage(String pageId, String json) {
+		append(RecordType.PAGE, pageId, owner(json, "space", "key"),
+				json.getBytes(UTF_8));
+	}
+
+	/**
+	 * <p>Records the labels of a page</p>
+	 * @param pageId the page id
+	 * @param labels the page labels
+	 */
+	public void recordLabels(String pageId, List<Label> labels) {
+		JSONArray results = new JSONArray();
+		try {
+			for (Label label : labels) {
+				results.put(new JSONObject().put("id", label.getId())
+						.put("prefix", label.getPrefix())
+						.put("name", label.getName()));
+			}
+			append(RecordType.LABELS, pageId, pageId,
+					new JSONObject().put("results", results).toString()
+							.getBytes(UTF_8));
+		} catch (JSONException e) {
+			logger.debug("Labels of page {} can not be recorded: {}", pageId,
+					e.getMessage());
+		}
+	}
+
+	/**
+	 * <p>Records the JSON data of an attachment, owned by its container page</p>
+	 * @param attachmentId the attachment id
+	 * @param json the attachment JSON data as returned by Confluence, including the container
+	 */
+	public void recordAttachment(String attachmentId, String json) {
+		append(RecordType.ATTACHMENT, attachmentId,
+				owner(json, "container", "id"), json.getBytes(UTF_8));
+	}
+
+	/**
+	 * <p>Records the bytes of an attachment</p>
+	 * @param attachmentId the attachment id
+	 * @param content the attachment bytes
+	 */
+	public void recordAttachmentContent(String attachmentId, byte[] content) {
+		append(RecordType.ATTACHMENT_CONTENT, attachmentId, attachmentId,
+				content);
+	}
+
+	/**
+	 * <p>Records the bytes of an attachment, copying them from the given stream</p>
+	 * @param attachmentId the attachment id
+	 * @param content the stream to read the attachment bytes from
+	 * @param length the expected length, used to decide whether a new segment must be started
+	 */
+	public void recordAttachmentContent(String attachmentId,
+			InputStream content, long length) {
+		append(RecordType.ATTACHMENT_CONTENT, attachmentId, attachmentId,
+				content, length);
+	}
+
+	private static String owner(String json, String object, String key) {
+		try {
+			JSONObject owner = new JSONObject(json).optJSONObject(object);
+			return owner != null ? owner.optString(key, "") : "";
+		} catch (JSONException e) {
+			return "";
+		}
+	}
+
+	private void append(RecordType type, String id, String owner,
+			byte[] payload) {
+		append(type, id, owner, new ByteArrayInputStream(payload),
+				payload.length);
+	}
+
+	private synchronized void append(RecordType type, String id,
+			String owner, InputStream payload, long length) {
+		if (segment == null) {
+			return;
+		}
+		try {
+			if (segmentSize > 0 && segmentSize + length > MAX_SEGMENT_SIZE) {
+				segment.close();
+				segmentNumber++;
+				segmentSize = 0L;
+				segment = new FileOutputStream(segmentFile(directory,
+						segmentNumber), true);
+			}
+			long offset = segmentSize;
+			long written;
+			try {
+				written = IOUtils.copyLarge(payload, segment);
+			} finally {
+				/* Bytes of a failed copy stay in the segment, but no index line points to them */
+				segmentSize = segment.getChannel().size();
+			}
+			/* The index line is only written once the payload is in the segment */
+			index.write(String.format("%s\t%s\t%s\t%d\t%d\t%d\n", type.name(),
+					id, Strings.nullToEmpty(owner), segmentNumber, offset,
+					written));
+			index.flush();
+		} catch (IOException e) {
+			logger.warn("Snapshot record {} {} can not be written: {}",
+					new Object[] { type, id, e.getMessage() });
+		}
+	}
+
+	private void open() throws IOException {
+		File[] segments = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile()
+						&& file.getName().startsWith(SEGMENT_PREFIX)
+						&& file.getName().endsWith(SEGMENT_EXTENSION);
+			}
+		});
+		if (segments != null) {
+			for (File file : segments) {
+				String name = file.getName();
+				try {
+					segmentNumber = Math.max(segmentNumber, Integer
+							.parseInt(name.substring(SEGMENT_PREFIX.length(),
+									name.length() - SEGMENT_EXTENSION.length())));
+				} catch (NumberFormatException e) {
+					logger.debug("Ignoring unexpected snapshot file {}", name);
+				}
+			}
+		}
+		File segmentFile = segmentFile(directory, segmentNumber);
+		segmentSize = segmentFile.length();
+		segment = new FileOutputStream(segmentFile, true);
+		index = new OutputStreamWriter(new FileOutputStream(new File(
+				directory, INDEX_FILE), true), UTF_8);
+	}
+}
@@ -0,0 +1,428 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.BodyRepresentation;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * SpaceExportImporter class
+ * </p>
+ * <p>
+ * Imports a Confluence XML space export archive into a crawl snapshot, so the
+ * initial crawl of a big space reads its pages and attachments from the
+ * archive instead of fetching them one by one from Confluence
+ * </p>
+ * <p>
+ * The <code>entities.xml</code> entry is parsed as a stream (StAX) and the
+ * archive is read through a {@code ZipFile}, so neither of them is held in
+ * memory. The entities are read twice: the first pass keeps the (small)
+ * metadata of the current pages, attachments, spaces and users, the second
+ * one joins every page body with its page and records it. Attachment bytes
+ * are copied from their archive entry straight into the snapshot
+ * </p>
+ * <p>
+ * Only current versions are imported. Page bodies are recorded in the storage
+ * format found in the export, as there is no rendered (view) format in it,
+ * so they are converted to HTML when read, like the pages fetched in the
+ * storage representation
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class SpaceExportImporter {
+
+	private static final String ENTITIES_ENTRY = "entities.xml";
+	private static final String ATTACHMENTS_PREFIX = "attachments/";
+	private static final String COMPLETE_MARKER = "bootstrap.complete";
+
+	private static final String OBJECT = "object";
+	private static final String PROPERTY = "property";
+	private static final String ID = "id";
+	private static final String NAME = "name";
+	private static final String CLASS = "class";
+
+	private static final String PAGE = "Page";
+	private static final String ATTACHMENT = "Attachment";
+	private static final String SPACE = "Space";
+	private static final String USER = "ConfluenceUserImpl";
+	private static final String BODY_CONTENT = "BodyContent";
+
+	private static final Set<String> METADATA_CLASSES = ImmutableSet.of(PAGE,
+			ATTACHMENT, SPACE, USER);
+	private static final Set<String> BODY_CLASSES = ImmutableSet
+			.of(BODY_CONTENT);
+
+	private static final String EXPORT_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+	private static final String ISO8601_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+
+	private static Logger logger = LoggerFactory
+			.getLogger(SpaceExportImporter.class);
+
+	private final ZipFile archive;
+	private final SnapshotWriter writer;
+	private final String baseUrl;
+
+	private final Map<String, String> spaceKeys = Maps.newHashMap();
+	private final Map<String, String> userNames = Maps.newHashMap();
+	private final Map<String, Map<String, String>> pages = Maps.newHashMap();
+	private final Map<String, Map<String, String>> attachments = Maps
+			.newHashMap();
+
+	private SpaceExportImporter(ZipFile archive, SnapshotWriter writer,
+			String baseUrl) {
+		this.archive = archive;
+		this.writer = writer;
+		this.baseUrl = baseUrl;
+	}
+
+	/**
+	 * <p>Returns the snapshot with the contents of the given space export archive, importing it if needed</p>
+	 * <p>The snapshot is kept in a directory next to the archive, and the archive is only imported once</p>
+	 * @param archiveFile the space export archive (zip file)
+	 * @param baseUrl the base url of the Confluence instance, used to build the page and download links
+	 * @return the {@code SnapshotReader} of the imported snapshot
+	 * @throws ManifoldCFException if the archive can not be imported
+	 */
+	public static SnapshotReader bootstrap(File archiveFile, String baseUrl)
+			throws ManifoldCFException {
+		File directory = snapshotDirectory(archiveFile);
+		File marker = new File(directory, COMPLETE_MARKER);
+		synchronized (SpaceExportImporter.class) {
+			if (!marker.isFile()) {
+				logger.info("Importing Confluence space export {}", archiveFile);
+				ZipFile archive;
+				try {
+					archive = new ZipFile(archiveFile);
+				} catch (IOException e) {
+					throw new ManifoldCFException("Space export "
+							+ archiveFile + " can not be opened: "
+							+ e.getMessage(), e);
+				}
+				try {
+					new SpaceExportImporter(archive,
+							SnapshotWriter.forDirectory(directory), baseUrl)
+							.importArchive();
+					if (!marker.createNewFile()) {
+						logger.debug("Bootstrap marker {} already exists", marker);
+					}
+				} catch (IOException e) {
+					throw new ManifoldCFException("Space export "
+							+ archiveFile + " can not be imported: "
+							+ e.getMessage(), e);
+				} catch (XMLStreamException e) {
+					throw new ManifoldCFException("Space export "
+							+ archiveFile + " can not be parsed: "
+							+ e.getMessage(), e);
+				} finally {
+					IOUtils.closeQuietly(archive);
+				}
+			}
+		}
+		return SnapshotReader.forDirectory(directory);
+	}
+
+	/**
+	 * <p>Returns the snapshot of the given space export archive if it has already been imported</p>
+	 * @param archiveFile the space export archive (zip file)
+	 * @return the {@code SnapshotReader} of the imported snapshot or null if the archive has not been imported
+	 * @throws ManifoldCFException if the snapshot can not be read
+	 */
+	public static SnapshotReader imported(File archiveFile)
+			throws ManifoldCFException {
+		File directory = snapshotDirectory(archiveFile);
+		synchronized (SpaceExportImporter.class) {
+			if (!new File(directory, COMPLETE_MARKER).isFile()) {
+				return null;
+			}
+		}
+		return SnapshotReader.forDirectory(directory);
+	}
+
+	private static File snapshotDirectory(File archiveFile) {
+		return new File(archiveFile.getAbsoluteFile().getParentFile(),
+				archiveFile.getName() + ".snapshot");
+	}
+
+	private void importArchive() throws IOException, XMLStreamException {
+		parseEntities(METADATA_CLASSES);
+		logger.debug("Space export metadata read: {} pages, {} attachments",
+				pages.size(), attachments.size());
+
+		/* Bodies are joined with the metadata read in the first pass */
+		parseEntities(BODY_CLASSES);
+
+		int imported = 0;
+		for (Map.Entry<String, Map<String, String>> attachment : attachments
+				.entrySet()) {
+			if (importAttachment(attachment.getKey(), attachment.getValue())) {
+				imported++;
+			}
+		}
+		logger.info("Space export imported: {} pages, {} attachments",
+				pages.size(), imported);
+	}
+
+	private void parseEntities(Set<String> classes) throws IOException,
+			XMLStreamException {
+		ZipEntry entry = archive.getEntry(ENTITIES_ENTRY);
+		if (entry == null) {
+			throw new IOException("No " + ENTITIES_ENTRY
+					+ " found, not a Confluence space export");
+		}
+		InputStream in = archive.getInputStream(entry);
+		try {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+					false);
+			XMLStreamReader reader = factory.createXMLStreamReader(in, "UTF-8");
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() == XMLStreamConstants.START_ELEMENT
+							&& OBJECT.equals(reader.getLocalName())) {
+						String objectClass = reader.getAttributeValue(null, CLASS);
+						if (classes.contains(objectClass)) {
+							handleObject(objectClass, readObject(reader));
+						} else {
+							skipElement(reader);
+						}
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * <p>Reads the id and the properties of the current object. References to other objects are read as the referenced id</p>
+	 */
+	private static Map<String, String> readObject(XMLStreamReader reader)
+			throws XMLStreamException {
+		Map<String, String> object = Maps.newHashMap();
+		int depth = 1;
+		String property = null;
+		StringBuilder text = new StringBuilder();
+		while (depth > 0 && reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+				String element = reader.getLocalName();
+				if (depth == 2 && PROPERTY.equals(element)) {
+					property = reader.getAttributeValue(null, NAME);
+					text.setLength(0);
+				} else if (depth == 2 && ID.equals(element)) {
+					property = ID;
+					text.setLength(0);
+				} else if (depth == 2) {
+					/* Collections are not needed */
+					skipElement(reader);
+					depth--;
+				}
+			} else if (event == XMLStreamConstants.CHARACTERS
+					|| event == XMLStreamConstants.CDATA) {
+				if (property != null) {
+					text.append(reader.getText());
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+				if (depth == 1 && property != null) {
+					object.put(property, text.toString().trim());
+					property = null;
+				}
+			}
+		}
+		return object;
+	}
+
+	private static void skipElement(XMLStreamReader reader)
+			throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0 && reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private void handleObject(String objectClass, Map<String, String> object) {
+		String id = object.get(ID);
+		if (id == null) {
+			return;
+		}
+		if (SPACE.equals(objectClass)) {
+			spaceKeys.put(id, object.get("key"));
+		} else if (USER.equals(objectClass)) {
+			userNames.put(id, object.get("name"));
+		} else if (PAGE.equals(objectClass)) {
+			if (isCurrent(object)) {
+				pages.put(id, object);
+			}
+		} else if (ATTACHMENT.equals(objectClass)) {
+			if (isCurrent(object)) {
+				attachments.put(id, object);
+			}
+		} else if (BODY_CONTENT.equals(objectClass)) {
+			Map<String, String> page = pages.get(object.get("content"));
+			if (page != null) {
+				importPage(page, object.get("body"));
+			}
+		}
+	}
+
+	/**
+	 * <p>Historical versions point to their current version and drafts or trashed contents have another status</p>
+	 */
+	private static boolean isCurrent(Map<String, String> object) {
+		String status = object.get("contentStatus");
+		return Strings.isNullOrEmpty(object.get("originalVersion"))
+				&& (status == null || "current".equals(status));
+	}
+
+	private void importPage(Map<String, String> page, String body) {
+		String id = page.get(ID);
+		try {
+			JSONObject json = content(page, "page");
+			json.put("body", new JSONObject().put(BodyRepresentation.STORAGE.getName(),
+					new JSONObject().put("value", Strings.nullToEmpty(body))));
+			json.put("_links", links(id).put("webui",
+					"/pages/viewpage.action?pageId=" + id));
+			writer.recordPage(id, json.toString());
+		} catch (JSONException e) {
+			logger.debug("Page {} can not be imported: {}", id, e.getMessage());
+		}
+	}
+
+	private boolean importAttachment(String id, Map<String, String> attachment)
+			throws IOException {
+		String pageId = attachment.get("containerContent") != null ? attachment
+				.get("containerContent") : attachment.get("content");
+		if (pageId == null || !pages.containsKey(pageId)) {
+			return false;
+		}
+		ZipEntry entry = archive.getEntry(ATTACHMENTS_PREFIX + pageId + "/"
+				+ id + "/" + Strings.nullToEmpty(attachment.get("version")));
+		if (entry == null) {
+			entry = archive.getEntry(ATTACHMENTS_PREFIX + pageId + "/" + id);
+		}
+		if (entry == null || entry.isDirectory()) {
+			logger.debug("No data found for attachment {} of page {}", id,
+					pageId);
+			return false;
+		}
+		try {
+			String title = Strings.nullToEmpty(attachment.get("title"));
+			JSONObject json = content(attachment, "attachment");
+			json.put("container", new JSONObject().put(ID, pageId));
+			json.put("extensions", new JSONObject().put("mediaType",
+					contentType(attachment)));
+			json.put("_links", links(id).put("download",
+					"/download/attachments/" + pageId + "/" + title));
+			writer.recordAttachment(id, json.toString());
+		} catch (JSONException e) {
+			logger.debug("Attachment {} can not be imported: {}", id,
+					e.getMessage());
+			return false;
+		}
+		InputStream content = archive.getInputStream(entry);
+		try {
+			writer.recordAttachmentContent(id, content, entry.getSize());
+		} finally {
+			IOUtils.closeQuietly(content);
+		}
+		return true;
+	}
+
+	private static String contentType(Map<String, String> attachment) {
+		String contentType = attachment.get("contentType");
+		return Strings.isNullOrEmpty(contentType) ? "application/octet-stream"
+				: contentType;
+	}
+
+	/**
+	 * <p>Builds the fields shared by pages and attachments, as returned by the Confluence REST API</p>
+	 */
+	private JSONObject content(Map<String, String> object, String type)
+			throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put(ID, object.get(ID));
+		json.put("type", type);
+		json.put("title", Strings.nullToEmpty(object.get("title")));
+		json.put("space", new JSONObject().put("key",
+				Strings.nullToEmpty(spaceKeys.get(object.get("space")))));
+		json.put("history", new JSONObject().put("createdDate",
+				isoDate(object.get("creationDate"))).put("createdBy",
+				user(object.get("creator"))));
+		int version = 0;
+		try {
+			version = Integer.parseInt(Strings.nullToEmpty(object.get("version")));
+		} catch (NumberFormatException e) {
+			logger.debug("No version for {} {}", type, object.get(ID));
+		}
+		json.put("version", new JSONObject().put("number", version)
+				.put("when", isoDate(object.get("lastModificationDate")))
+				.put("by", user(object.get("lastModifier"))));
+		return json;
+	}
+
+	private JSONObject links(String id) throws JSONException {
+		return new JSONObject().put("base", baseUrl).put("context", "")
+				.put("self", baseUrl + "/rest/api/content/" + id);
+	}
+
+	private JSONObject user(String key) throws JSONException {
+		String name = Strings.nullToEmpty(userNames.get(key));
+		return new JSONObject().put("displayName", name).put("username", name);
+	}
+
+	/**
+	 * <p>Export dates are written in the time zone of the Confluence server, which is assumed to be the local one</p>
+	 */
+	private static String isoDate(String exportDate) {
+		if (Strings.isNullOrEmpty(exportDate)) {
+			return "";
+		}
+		try {
+			Date date = new SimpleDateFormat(EXPORT_DATE_FORMAT)
+					.parse(exportDate);
+			SimpleDateFormat iso = new SimpleDateFormat(ISO8601_DATE_FORMAT);
+			iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+			return iso.format(date);
+		} catch (ParseException e) {
+			logger.debug("Bad export date {}", exportDate);
+			return "";
+		}
+	}
+}
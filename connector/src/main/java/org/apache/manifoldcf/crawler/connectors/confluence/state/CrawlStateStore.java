@@ -0,0 +1,433 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.state;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.apache.manifoldcf.crawler.connectors.confluence.util.ConfluenceUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * <p>
+ * CrawlStateStore class
+ * </p>
+ * <p>
+ * Keeps the {@code SpaceState} of every space crawled by a job in a local
+ * directory, one file per space (or one for all the spaces when the job
+ * crawls all of them), so the state built by a seeding is used while
+ * processing the documents and compared with by the next seeding. Every job
+ * has a directory of its own, as what changed for a job is what it has not
+ * processed yet
+ * </p>
+ * <p>
+ * Files are replaced atomically and the loaded states are cached until their
+ * file changes
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class CrawlStateStore {
+
+	private static final String SPACE_FILE_PREFIX = "space-";
+	private static final String ALL_SPACES_FILE = "all-spaces";
+	private static final String STATE_EXTENSION = ".state";
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+
+	private static final Map<File, CrawlStateStore> stores = Maps.newHashMap();
+
+	private static Logger logger = LoggerFactory.getLogger(CrawlStateStore.class);
+
+	private final File directory;
+	private final Map<File, CachedState> cache = Maps.newHashMap();
+
+	private CrawlStateStore(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * <p>Returns the store kept in the given directory, creating it if needed</p>
+	 * @param directory the directory where the states are stored
+	 * @return the {@code CrawlStateStore} for the directory
+	 * @throws ManifoldCFException if the directory can not be used
+	 */
+	public static CrawlStateStore forDirectory(File directory)
+			throws ManifoldCFException {
+		File canonicalDirectory;
+		try {
+			canonicalDirectory = directory.getCanonicalFile();
+		} catch (IOException e) {
+			throw new ManifoldCFException("Bad directory " + directory + ": "
+					+ e.getMessage(), e);
+		}
+
+		synchronized (stores) {
+			CrawlStateStore store = stores.get(canonicalDirectory);
+			if (store == null) {
+				if (!canonicalDirectory.isDirectory()
+						&& !canonicalDirectory.mkdirs()) {
+					throw new ManifoldCFException(
+							"Directory can not be created: "
+									+ canonicalDirectory);
+				}
+				store = new CrawlStateStore(canonicalDirectory);
+				stores.put(canonicalDirectory, store);
+			}
+			return store;
+		}
+	}
+
+	/**
+	 * <p>Gets the state of the last seeding of a space</p>
+	 * <p>The returned state must not be modified</p>
+	 * @param space the space key, absent for all the spaces
+	 * @return the {@code SpaceState} or null if the space has not been seeded yet
+	 */
+	public synchronized SpaceState load(Optional<String> space) {
+		File file = stateFile(space);
+		CachedState cached = cache.get(file);
+		if (cached != null && cached.lastModified == file.lastModified()
+				&& cached.length == file.length()) {
+			return cached.state;
+		}
+
+		SpaceState state = read(file);
+		if (state != null) {
+			cache.put(file, new CachedState(file, state));
+		} else {
+			cache.remove(file);
+		}
+		return state;
+	}
+
+	/**
+	 * <p>Stores the state of a space, replacing the previous one</p>
+	 * @param space the space key, absent for all the spaces
+	 * @param state the state built by the seeding
+	 * @throws ManifoldCFException if the state can not be stored
+	 */
+	public synchronized void save(Optional<String> space, SpaceState state)
+			throws ManifoldCFException {
+		File file = stateFile(space);
+		File temporaryFile = new File(directory, file.getName()
+				+ TEMPORARY_EXTENSION);
+		try {
+			FileOutputStream fileOut = new FileOutputStream(temporaryFile);
+			try {
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(fileOut));
+				state.writeTo(out);
+				out.flush();
+				fileOut.getFD().sync();
+			} finally {
+				fileOut.close();
+			}
+			if (file.exists()) {
+				FileUtils.forceDelete(file);
+			}
+			if (!temporaryFile.renameTo(file)) {
+				throw new IOException("State file can not be moved to " + file);
+			}
+		} catch (IOException e) {
+			throw new ManifoldCFException("State of space "
+					+ space.or("(all)") + " can not be stored: "
+					+ e.getMessage(), e);
+		}
+		cache.put(file, new CachedState(file, state));
+	}
+
+	/**
+	 * <p>Marks the given documents as changed in the states of the given spaces</p>
+	 * <p>Used for the documents seeded without listing the spaces, so they are fetched
+	 * again when processed</p>
+	 * @param spaces the space keys, empty for all the spaces
+	 * @param documentIdentifiers the identifiers of the changed documents
+	 * @throws ManifoldCFException if the states can not be stored
+	 */
+	public synchronized void markChanged(List<String> spaces,
+			Collection<String> documentIdentifiers) throws ManifoldCFException {
+		for (Optional<String> space : scopes(spaces)) {
+			/* A fresh copy is changed, cached states are shared */
+			SpaceState state = read(stateFile(space));
+			if (state == null) {
+				continue;
+			}
+			for (String documentIdentifier : documentIdentifiers) {
+				if (ConfluenceUtil.isAttachment(documentIdentifier)) {
+					String[] ids = ConfluenceUtil
+							.getAttachmentAndPageId(documentIdentifier);
+					state.markChanged(ids[0]);
+				} else {
+					state.markChanged(documentIdentifier);
+				}
+			}
+			save(space, state);
+		}
+	}
+
+	/**
+	 * <p>Marks the given documents as processed in the states of a view, so they are not fetched again
+	 * unless they change again</p>
+	 * <p>States replaced by a newer seeding since the view was taken are left as they are</p>
+	 * @param view the view the documents were processed with
+	 * @param documentIdentifiers the identifiers of the documents ingested or retained
+	 * @throws ManifoldCFException if the states can not be stored
+	 */
+	public synchronized void markProcessed(View view,
+			Collection<String> documentIdentifiers) throws ManifoldCFException {
+		for (int i = 0; i < view.scopes.size(); i++) {
+			Optional<String> space = view.scopes.get(i);
+			/* A fresh copy is changed, cached states are shared */
+			SpaceState state = read(stateFile(space));
+			if (state == null
+					|| state.getSeedTime() != view.states.get(i).getSeedTime()) {
+				continue;
+			}
+			boolean modified = false;
+			for (String documentIdentifier : documentIdentifiers) {
+				if (ConfluenceUtil.isAttachment(documentIdentifier)) {
+					String[] ids = ConfluenceUtil
+							.getAttachmentAndPageId(documentIdentifier);
+					modified |= state.markProcessed(ids[0]);
+				} else {
+					modified |= state.markProcessed(documentIdentifier);
+				}
+			}
+			if (modified) {
+				save(space, state);
+			}
+		}
+	}
+
+	/**
+	 * <p>Marks the given pages as gone in the states of the given spaces</p>
+	 * <p>Used for the pages found in the trash between full seedings, so they
+	 * and their attachments are deleted without fetching them</p>
+	 * @param spaces the space keys, empty for all the spaces
+	 * @param pageIds the identifiers of the pages gone
+	 * @return the identifiers of the pages which were live, or all of them if
+	 *         any of the spaces has not been seeded yet
+	 * @throws ManifoldCFException if the states can not be stored
+	 */
+	public synchronized Set<String> markRemoved(List<String> spaces,
+			Collection<String> pageIds) throws ManifoldCFException {
+		Set<String> removed = Sets.newLinkedHashSet();
+		for (Optional<String> space : scopes(spaces)) {
+			/* A fresh copy is changed, cached states are shared */
+			SpaceState state = read(stateFile(space));
+			if (state == null) {
+				removed.addAll(pageIds);
+				continue;
+			}
+			boolean modified = false;
+			for (String pageId : pageIds) {
+				if (state.markRemoved(pageId)) {
+					removed.add(pageId);
+					modified = true;
+				}
+			}
+			if (modified) {
+				save(space, state);
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * <p>Gets a view of the states of the given spaces</p>
+	 * @param spaces the space keys, empty for all the spaces
+	 * @return the {@code View}, or null if any of the spaces has not been seeded yet
+	 */
+	public View view(List<String> spaces) {
+		List<Optional<String>> scopes = scopes(spaces);
+		List<SpaceState> states = Lists.newArrayList();
+		for (Optional<String> space : scopes) {
+			SpaceState state = load(space);
+			if (state == null) {
+				return null;
+			}
+			states.add(state);
+		}
+		return new View(scopes, states);
+	}
+
+	private static List<Optional<String>> scopes(List<String> spaces) {
+		if (spaces.isEmpty()) {
+			return ImmutableList.of(Optional.<String> absent());
+		}
+		List<Optional<String>> scopes = Lists.newArrayList();
+		for (String space : spaces) {
+			scopes.add(Optional.of(space));
+		}
+		return scopes;
+	}
+
+	private File stateFile(Optional<String> space) {
+		if (!space.isPresent()) {
+			return new File(directory, ALL_SPACES_FILE + STATE_EXTENSION);
+		}
+		try {
+			return new File(directory, SPACE_FILE_PREFIX
+					+ URLEncoder.encode(space.get(), "UTF-8") + STATE_EXTENSION);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static SpaceState read(File file) {
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				return SpaceState.readFrom(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			/* The space is seeded from scratch */
+			logger.warn("Space state {} can not be read: {}", file,
+					e.getMessage());
+			return null;
+		}
+	}
+
+	private static class CachedState {
+		private final long lastModified;
+		private final long length;
+		private final SpaceState state;
+
+		private CachedState(File file, SpaceState state) {
+			this.lastModified = file.lastModified();
+			this.length = file.length();
+			this.state = state;
+		}
+	}
+
+	/**
+	 * <p>
+	 * View class
+	 * </p>
+	 * <p>
+	 * Tells what has to be done with a document according to the states of
+	 * the spaces crawled by a job
+	 * </p>
+	 */
+	public static class View {
+
+		public static enum Decision {
+			/* The document has to be fetched to find out */
+			FETCH,
+			/* The document has not changed since the previous seeding */
+			UNCHANGED,
+			/* The document is gone */
+			REMOVED
+		}
+
+		private final List<Optional<String>> scopes;
+		private final List<SpaceState> states;
+
+		private View(List<Optional<String>> scopes, List<SpaceState> states) {
+			this.scopes = scopes;
+			this.states = states;
+		}
+
+		/**
+		 * <p>Decides what to do with a document</p>
+		 * @param documentIdentifier the page id or the attachment document identifier
+		 * @return the {@code Decision}
+		 */
+		public Decision decide(String documentIdentifier) {
+			if (!ConfluenceUtil.isAttachment(documentIdentifier)) {
+				return decidePage(SpaceState.numericId(documentIdentifier));
+			}
+
+			String[] ids = ConfluenceUtil.getAttachmentAndPageId(documentIdentifier);
+			if (ids.length != 2) {
+				return Decision.FETCH;
+			}
+			if (decidePage(SpaceState.numericId(ids[1])) == Decision.REMOVED) {
+				return Decision.REMOVED;
+			}
+
+			long attachmentId = SpaceState.numericId(ids[0]);
+			if (attachmentId < 0) {
+				return Decision.FETCH;
+			}
+			boolean live = false;
+			boolean removed = false;
+			for (SpaceState state : states) {
+				if (state.isLiveAttachment(attachmentId)) {
+					if (state.isChangedAttachment(attachmentId)) {
+						return Decision.FETCH;
+					}
+					live = true;
+				} else if (state.isRemovedAttachment(attachmentId)) {
+					removed = true;
+				}
+			}
+			return live ? Decision.UNCHANGED : removed ? Decision.REMOVED
+					: Decision.FETCH;
+		}
+
+		/**
+		 * <p>Gets the version of a changed page when its space was listed</p>
+		 * @param documentIdentifier the page id or the attachment document identifier
+		 * @return the version number, 0 if it is unknown or the document is not a changed page
+		 */
+		public int getListedVersion(String documentIdentifier) {
+			if (ConfluenceUtil.isAttachment(documentIdentifier)) {
+				return 0;
+			}
+			long pageId = SpaceState.numericId(documentIdentifier);
+			for (SpaceState state : states) {
+				if (state.isChangedPage(pageId)) {
+					return state.getListedVersion(pageId);
+				}
+			}
+			return 0;
+		}
+
+		private Decision decidePage(long pageId) {
+			if (pageId < 0) {
+				return Decision.FETCH;
+			}
+			boolean live = false;
+			boolean removed = false;
+			for (SpaceState state : states) {
+				if (state.isLivePage(pageId)) {
+					if (state.isChangedPage(pageId)) {
+						return Decision.FETCH;
+					}
+					live = true;
+				} else if (state.isRemovedPage(pageId)) {
+					removed = true;
+				}
+			}
+			return live ? Decision.UNCHANGED : removed ? Decision.REMOVED
+					: Decision.FETCH;
+		}
+	}
+}
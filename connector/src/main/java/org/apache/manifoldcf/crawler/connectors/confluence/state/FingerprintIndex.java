@@ -0,0 +1,275 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.state;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+
+/**
+ * <p>
+ * FingerprintIndex class
+ * </p>
+ * <p>
+ * Keeps, in a local directory, the content fingerprint of every indexed
+ * attachment, so identical attachments are sent to the output once. The
+ * first copy of a content ingested with its body is the canonical one, and
+ * the next copies are indexed as references to it
+ * </p>
+ * <p>
+ * When the canonical copy changes or is removed, its references are
+ * released: they have to be processed again, the first one becoming the new
+ * canonical copy. The index is kept in memory and written, replacing the
+ * file atomically, when it is flushed
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class FingerprintIndex {
+
+	private static final String INDEX_FILE = "attachments.fingerprints";
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+	private static final int FORMAT_VERSION = 1;
+
+	private static final Map<File, FingerprintIndex> indexes = Maps.newHashMap();
+
+	private static Logger logger = LoggerFactory.getLogger(FingerprintIndex.class);
+
+	private final File file;
+	/* Fingerprint of every indexed document */
+	private final Map<String, String> fingerprints = Maps.newHashMap();
+	/* Canonical document of every fingerprint */
+	private final Map<String, String> canonicals = Maps.newHashMap();
+	/* Canonical document of every reference */
+	private final Map<String, String> referenced = Maps.newHashMap();
+	/* References of every canonical document */
+	private final SetMultimap<String, String> references = HashMultimap.create();
+	private boolean modified = false;
+
+	private FingerprintIndex(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * <p>Returns the index kept in the given directory, loading it if needed</p>
+	 * @param directory the directory where the index is stored
+	 * @return the {@code FingerprintIndex} for the directory
+	 * @throws ManifoldCFException if the directory can not be used
+	 */
+	public static FingerprintIndex forDirectory(File directory)
+			throws ManifoldCFException {
+		File canonicalDirectory;
+		try {
+			canonicalDirectory = directory.getCanonicalFile();
+		} catch (IOException e) {
+			throw new ManifoldCFException("Bad directory " + directory + ": "
+					+ e.getMessage(), e);
+		}
+
+		synchronized (indexes) {
+			FingerprintIndex index = indexes.get(canonicalDirectory);
+			if (index == null) {
+				if (!canonicalDirectory.isDirectory()
+						&& !canonicalDirectory.mkdirs()) {
+					throw new ManifoldCFException(
+							"Directory can not be created: "
+									+ canonicalDirectory);
+				}
+				index = new FingerprintIndex(new File(canonicalDirectory,
+						INDEX_FILE));
+				index.read();
+				indexes.put(canonicalDirectory, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * <p>Gets the canonical document of a fingerprint</p>
+	 * @param fingerprint the content fingerprint
+	 * @return the identifier of the canonical document or null if no
+	 *         document with the fingerprint was ingested with its body
+	 */
+	public synchronized String getCanonical(String fingerprint) {
+		return this.canonicals.get(fingerprint);
+	}
+
+	/**
+	 * <p>Records an ingested document</p>
+	 * @param documentIdentifier the document identifier
+	 * @param fingerprint the fingerprint of its content
+	 * @param canonical the canonical document it references, or the document
+	 *            itself if it was ingested with its body
+	 * @return the references released because the document was the canonical
+	 *         copy of another content
+	 */
+	public synchronized Set<String> record(String documentIdentifier,
+			String fingerprint, String canonical) {
+		Set<String> released = Collections.emptySet();
+		String previous = this.fingerprints.get(documentIdentifier);
+		if (fingerprint.equals(previous)
+				&& (canonical.equals(documentIdentifier) ? !this.referenced
+						.containsKey(documentIdentifier)
+						&& this.canonicals.containsKey(fingerprint) : canonical
+						.equals(this.referenced.get(documentIdentifier)))) {
+			/* Already recorded */
+			return released;
+		}
+		if (previous != null && !previous.equals(fingerprint)) {
+			released = remove(documentIdentifier);
+		}
+
+		String previousCanonical = this.referenced.remove(documentIdentifier);
+		if (previousCanonical != null) {
+			this.references.remove(previousCanonical, documentIdentifier);
+		}
+
+		this.fingerprints.put(documentIdentifier, fingerprint);
+		if (canonical.equals(documentIdentifier)) {
+			if (!this.canonicals.containsKey(fingerprint)) {
+				this.canonicals.put(fingerprint, documentIdentifier);
+			}
+		} else {
+			this.referenced.put(documentIdentifier, canonical);
+			this.references.put(canonical, documentIdentifier);
+		}
+		this.modified = true;
+		return released;
+	}
+
+	/**
+	 * <p>Removes a document which is no longer indexed, or no longer
+	 * indexed with the recorded content</p>
+	 * @param documentIdentifier the document identifier
+	 * @return the references released because the document was their
+	 *         canonical copy
+	 */
+	public synchronized Set<String> remove(String documentIdentifier) {
+		String fingerprint = this.fingerprints.remove(documentIdentifier);
+		if (fingerprint == null) {
+			return Collections.emptySet();
+		}
+		this.modified = true;
+
+		String canonical = this.referenced.remove(documentIdentifier);
+		if (canonical != null) {
+			this.references.remove(canonical, documentIdentifier);
+		}
+		if (!documentIdentifier.equals(this.canonicals.get(fingerprint))) {
+			return Collections.emptySet();
+		}
+		this.canonicals.remove(fingerprint);
+		Set<String> released = Sets.newHashSet(this.references
+				.removeAll(documentIdentifier));
+		for (String reference : released) {
+			this.referenced.remove(reference);
+		}
+		return released;
+	}
+
+	/**
+	 * <p>Writes the index if it was modified since it was loaded or last
+	 * written</p>
+	 * @throws ManifoldCFException if the index can not be written
+	 */
+	public synchronized void flush() throws ManifoldCFException {
+		if (!this.modified) {
+			return;
+		}
+		File temporaryFile = new File(file.getParentFile(), file.getName()
+				+ TEMPORARY_EXTENSION);
+		try {
+			FileOutputStream fileOut = new FileOutputStream(temporaryFile);
+			try {
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(fileOut));
+				write(out);
+				out.flush();
+				fileOut.getFD().sync();
+			} finally {
+				fileOut.close();
+			}
+			if (file.exists()) {
+				FileUtils.forceDelete(file);
+			}
+			if (!temporaryFile.renameTo(file)) {
+				throw new IOException("Index file can not be moved to " + file);
+			}
+		} catch (IOException e) {
+			throw new ManifoldCFException("Attachment fingerprints can not be stored: "
+					+ e.getMessage(), e);
+		}
+		this.modified = false;
+	}
+
+	/*
+	 * Every document is written with its fingerprint and its canonical
+	 * document. Canonical documents go first, so they are canonical again
+	 * when read
+	 */
+	private void write(DataOutputStream out) throws IOException {
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(this.fingerprints.size());
+		for (Entry<String, String> canonical : this.canonicals.entrySet()) {
+			out.writeUTF(canonical.getValue());
+			out.writeUTF(canonical.getKey());
+			out.writeUTF(canonical.getValue());
+		}
+		for (Entry<String, String> document : this.fingerprints.entrySet()) {
+			if (document.getKey().equals(this.canonicals.get(document.getValue()))) {
+				continue;
+			}
+			String canonical = this.referenced.get(document.getKey());
+			out.writeUTF(document.getKey());
+			out.writeUTF(document.getValue());
+			out.writeUTF(canonical != null ? canonical : document.getKey());
+		}
+	}
+
+	private void read() {
+		if (!file.exists()) {
+			return;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+			try {
+				if (in.readInt() != FORMAT_VERSION) {
+					throw new IOException("Unknown format");
+				}
+				for (int i = in.readInt(); i > 0; i--) {
+					record(in.readUTF(), in.readUTF(), in.readUTF());
+				}
+			} finally {
+				in.close();
+			}
+			this.modified = false;
+		} catch (IOException e) {
+			/* Attachments are indexed again with their body */
+			logger.warn("Attachment fingerprints {} can not be read: {}", file,
+					e.getMessage());
+			this.fingerprints.clear();
+			this.canonicals.clear();
+			this.referenced.clear();
+			this.references.clear();
+		}
+	}
+}
@@ -0,0 +1,395 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.state;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.util.ConfluenceUtil;
+import org.apache.manifoldcf.crawler.connectors.confluence.util.LongBitmap;
+
+/**
+ * <p>
+ * SpaceState class
+ * </p>
+ * <p>
+ * The content of a space as seen by the last seeding: the ids of the live
+ * pages and attachments, the ones which changed and have not been processed
+ * since, and the ones which are gone. Ids are kept in {@code LongBitmap}s, so the
+ * state of a big space stays small enough to be kept in memory while the
+ * documents are processed
+ * </p>
+ * <p>
+ * The version of every changed page, as listed, is kept too, so it can be
+ * looked up in the content store without asking Confluence for it. Versions
+ * are packed with their page id in a sorted array of <code>long</code>s,
+ * and pages whose id or version do not fit are not kept
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class SpaceState {
+
+	private static final int FORMAT_VERSION = 2;
+	private static final int FORMAT_VERSION_WITHOUT_VERSIONS = 1;
+
+	/* Listed versions take the low bits, so packed versions are sorted by page id */
+	private static final int VERSION_BITS = 20;
+	private static final long MAX_VERSION = (1L << VERSION_BITS) - 1L;
+	private static final long MAX_VERSIONED_PAGE_ID = Long.MAX_VALUE >>> VERSION_BITS;
+
+	/*
+	 * Contents modified shortly before the previous seeding are considered
+	 * changed too, as the clocks of Confluence and ManifoldCF may differ
+	 */
+	private static final long CLOCK_SKEW_MARGIN = 60L * 60L * 1000L;
+
+	private static final String ATTACHMENT_ID_PREFIX = "att";
+
+	private long seedTime;
+	private LongBitmap livePages = new LongBitmap();
+	private LongBitmap changedPages = new LongBitmap();
+	private LongBitmap removedPages = new LongBitmap();
+	private LongBitmap liveAttachments = new LongBitmap();
+	private LongBitmap changedAttachments = new LongBitmap();
+	private LongBitmap removedAttachments = new LongBitmap();
+	private long[] listedVersions = new long[0];
+
+	private SpaceState(long seedTime) {
+		this.seedTime = seedTime;
+	}
+
+	/**
+	 * <p>Gets the numeric id of a page or attachment</p>
+	 * @param id the page id or the attachment id, prefixed by <code>att</code>
+	 * @return the numeric id or -1 if the id is not numeric
+	 */
+	public static long numericId(String id) {
+		String number = ConfluenceUtil.isAttachment(id) ? id
+				.substring(ATTACHMENT_ID_PREFIX.length()) : id;
+		try {
+			return Long.parseLong(number);
+		} catch (NumberFormatException e) {
+			return -1L;
+		}
+	}
+
+	public long getSeedTime() {
+		return this.seedTime;
+	}
+
+	public boolean isLivePage(long pageId) {
+		return this.livePages.contains(pageId);
+	}
+
+	public boolean isChangedPage(long pageId) {
+		return this.changedPages.contains(pageId);
+	}
+
+	public boolean isRemovedPage(long pageId) {
+		return this.removedPages.contains(pageId);
+	}
+
+	public boolean isLiveAttachment(long attachmentId) {
+		return this.liveAttachments.contains(attachmentId);
+	}
+
+	public boolean isChangedAttachment(long attachmentId) {
+		return this.changedAttachments.contains(attachmentId);
+	}
+
+	public boolean isRemovedAttachment(long attachmentId) {
+		return this.removedAttachments.contains(attachmentId);
+	}
+
+	/**
+	 * <p>Gets the version of a changed page when it was listed</p>
+	 * @param pageId the page id
+	 * @return the version number, 0 if it is unknown
+	 */
+	public int getListedVersion(long pageId) {
+		int index = listedVersionIndex(pageId);
+		return index >= 0 ? (int) (listedVersions[index] & MAX_VERSION) : 0;
+	}
+
+	private int listedVersionIndex(long pageId) {
+		if (pageId < 0 || pageId > MAX_VERSIONED_PAGE_ID) {
+			return -1;
+		}
+		int index = Arrays.binarySearch(listedVersions, pageId << VERSION_BITS);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return index < listedVersions.length
+				&& listedVersions[index] >>> VERSION_BITS == pageId ? index : -1;
+	}
+
+	/**
+	 * <p>Gets the ids of the pages gone since the previous seeding</p>
+	 */
+	public long[] getRemovedPages() {
+		return this.removedPages.toArray();
+	}
+
+	/**
+	 * <p>Marks a page or attachment as changed, so it is fetched again when processed</p>
+	 * @param id the page id or the attachment id
+	 */
+	public void markChanged(String id) {
+		long numericId = numericId(id);
+		if (numericId < 0) {
+			return;
+		}
+		if (ConfluenceUtil.isAttachment(id)) {
+			this.changedAttachments.add(numericId);
+		} else {
+			this.changedPages.add(numericId);
+			/* Changed since it was listed */
+			int index = listedVersionIndex(numericId);
+			if (index >= 0) {
+				long[] versions = new long[listedVersions.length - 1];
+				System.arraycopy(listedVersions, 0, versions, 0, index);
+				System.arraycopy(listedVersions, index + 1, versions, index,
+						versions.length - index);
+				listedVersions = versions;
+			}
+		}
+	}
+
+	/**
+	 * <p>Marks a page or attachment as processed, so it is no longer fetched unless it changes again</p>
+	 * @param id the page id or the attachment id
+	 * @return true if the page or attachment was changed
+	 */
+	public boolean markProcessed(String id) {
+		long numericId = numericId(id);
+		if (numericId < 0) {
+			return false;
+		}
+		if (ConfluenceUtil.isAttachment(id)) {
+			return this.changedAttachments.remove(numericId);
+		}
+		return this.changedPages.remove(numericId);
+	}
+
+	/**
+	 * <p>Marks a live page or attachment as gone, so it is deleted without fetching it</p>
+	 * @param id the page id or the attachment id
+	 * @return true if the page or attachment was live
+	 */
+	public boolean markRemoved(String id) {
+		long numericId = numericId(id);
+		if (numericId < 0) {
+			return false;
+		}
+		if (ConfluenceUtil.isAttachment(id)) {
+			this.changedAttachments.remove(numericId);
+			return this.liveAttachments.remove(numericId)
+					&& this.removedAttachments.add(numericId);
+		}
+		this.changedPages.remove(numericId);
+		return this.livePages.remove(numericId)
+				&& this.removedPages.add(numericId);
+	}
+
+	/**
+	 * <p>Gets the state of a new seeding which found nothing changed since this one</p>
+	 * @param seedTime the time of the new seeding
+	 * @return a new {@code SpaceState} with the same live contents and the changes not processed yet
+	 */
+	public SpaceState unchanged(long seedTime) {
+		SpaceState state = new SpaceState(seedTime);
+		state.livePages.addAll(this.livePages);
+		state.changedPages.addAll(this.changedPages);
+		state.liveAttachments.addAll(this.liveAttachments);
+		state.changedAttachments.addAll(this.changedAttachments);
+		state.listedVersions = this.listedVersions;
+		return state;
+	}
+
+	void writeTo(DataOutput out) throws IOException {
+		out.writeInt(FORMAT_VERSION);
+		out.writeLong(seedTime);
+		livePages.writeTo(out);
+		changedPages.writeTo(out);
+		removedPages.writeTo(out);
+		liveAttachments.writeTo(out);
+		changedAttachments.writeTo(out);
+		removedAttachments.writeTo(out);
+		out.writeInt(listedVersions.length);
+		for (long version : listedVersions) {
+			out.writeLong(version);
+		}
+	}
+
+	static SpaceState readFrom(DataInput in) throws IOException {
+		int format = in.readInt();
+		if (format != FORMAT_VERSION && format != FORMAT_VERSION_WITHOUT_VERSIONS) {
+			throw new IOException("Unknown space state format");
+		}
+		SpaceState state = new SpaceState(in.readLong());
+		state.livePages = LongBitmap.readFrom(in);
+		state.changedPages = LongBitmap.readFrom(in);
+		state.removedPages = LongBitmap.readFrom(in);
+		state.liveAttachments = LongBitmap.readFrom(in);
+		state.changedAttachments = LongBitmap.readFrom(in);
+		state.removedAttachments = LongBitmap.readFrom(in);
+		if (format == FORMAT_VERSION) {
+			state.listedVersions = new long[in.readInt()];
+			for (int i = 0; i < state.listedVersions.length; i++) {
+				state.listedVersions[i] = in.readLong();
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * <p>
+	 * Builder class
+	 * </p>
+	 * <p>
+	 * Builds the state of a space from the contents listed while seeding,
+	 * comparing them with the state of the previous seeding. Contents changed
+	 * before and not processed yet are still changed
+	 * </p>
+	 */
+	public static class Builder {
+		private final SpaceState previous;
+		private final SpaceState state;
+		private long[] listedVersions = new long[16];
+		private int listedVersionCount = 0;
+
+		/**
+		 * @param previous the state of the previous seeding, null if there is none
+		 * @param seedTime the time of this seeding
+		 */
+		public Builder(SpaceState previous, long seedTime) {
+			this.previous = previous;
+			this.state = new SpaceState(seedTime);
+		}
+
+		/**
+		 * <p>Adds a listed page</p>
+		 * @param pageId the page id
+		 * @param lastModified the date of the last modification, null if unknown
+		 */
+		public void addPage(String pageId, Date lastModified) {
+			addPage(pageId, lastModified, 0);
+		}
+
+		/**
+		 * <p>Adds a listed page</p>
+		 * @param pageId the page id
+		 * @param lastModified the date of the last modification, null if unknown
+		 * @param version the listed version number, 0 if unknown
+		 */
+		public void addPage(String pageId, Date lastModified, int version) {
+			long id = numericId(pageId);
+			if (id < 0) {
+				return;
+			}
+			state.livePages.add(id);
+			if (previous == null || !previous.livePages.contains(id)
+					|| previous.changedPages.contains(id)
+					|| isModified(lastModified)) {
+				state.changedPages.add(id);
+				if (version > 0 && version <= MAX_VERSION
+						&& id <= MAX_VERSIONED_PAGE_ID) {
+					addListedVersion(id << VERSION_BITS | version);
+				}
+			}
+		}
+
+		private void addListedVersion(long packedVersion) {
+			if (listedVersionCount == listedVersions.length) {
+				listedVersions = Arrays.copyOf(listedVersions,
+						listedVersionCount * 2);
+			}
+			listedVersions[listedVersionCount++] = packedVersion;
+		}
+
+		/**
+		 * <p>Adds a listed attachment</p>
+		 * @param attachmentId the attachment id
+		 * @param lastModified the date of the last modification, null if unknown
+		 */
+		public void addAttachment(String attachmentId, Date lastModified) {
+			long id = numericId(attachmentId);
+			if (id < 0) {
+				return;
+			}
+			state.liveAttachments.add(id);
+			if (previous == null || !previous.liveAttachments.contains(id)
+					|| previous.changedAttachments.contains(id)
+					|| isModified(lastModified)) {
+				state.changedAttachments.add(id);
+			}
+		}
+
+		private boolean isModified(Date lastModified) {
+			return lastModified == null
+					|| lastModified.getTime() >= previous.seedTime
+							- CLOCK_SKEW_MARGIN;
+		}
+
+		/**
+		 * <p>Gets the state, with the contents gone since the previous seeding</p>
+		 */
+		public SpaceState build() {
+			return build(true);
+		}
+
+		/**
+		 * <p>Gets the state, with the contents gone since the previous seeding if the listing was complete</p>
+		 * <p>A truncated listing tells nothing about the contents it did not reach: they are kept live, with
+		 * their changes, and nothing is considered gone</p>
+		 * @param complete whether every content of the space was listed
+		 */
+		public SpaceState build(boolean complete) {
+			if (previous != null && !complete) {
+				/* The pages not listed keep the version they were listed with */
+				for (long packedVersion : previous.listedVersions) {
+					long id = packedVersion >>> VERSION_BITS;
+					if (!state.livePages.contains(id)
+							&& previous.changedPages.contains(id)) {
+						addListedVersion(packedVersion);
+					}
+				}
+			}
+			state.listedVersions = sortListedVersions();
+			if (previous == null) {
+				return state;
+			}
+			if (complete) {
+				state.removedPages = previous.livePages.andNot(state.livePages);
+				state.removedAttachments = previous.liveAttachments
+						.andNot(state.liveAttachments);
+			} else {
+				state.changedPages.addAll(previous.changedPages
+						.andNot(state.livePages));
+				state.livePages.addAll(previous.livePages);
+				state.changedAttachments.addAll(previous.changedAttachments
+						.andNot(state.liveAttachments));
+				state.liveAttachments.addAll(previous.liveAttachments);
+			}
+			return state;
+		}
+
+		/* A page listed twice keeps its highest version */
+		private long[] sortListedVersions() {
+			long[] versions = Arrays.copyOf(listedVersions, listedVersionCount);
+			Arrays.sort(versions);
+			int count = 0;
+			for (int i = 0; i < versions.length; i++) {
+				if (count > 0
+						&& versions[count - 1] >>> VERSION_BITS == versions[i] >>> VERSION_BITS) {
+					count--;
+				}
+				versions[count++] = versions[i];
+			}
+			return Arrays.copyOf(versions, count);
+		}
+	}
+}
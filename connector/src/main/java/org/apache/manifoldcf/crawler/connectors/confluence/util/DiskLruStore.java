@@ -0,0 +1,459 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * DiskLruStore class
+ * </p>
+ * <p>
+ * Bounded key/value store on disk. Every entry keeps a body file and a small
+ * set of properties, and the least recently used entries are evicted when the
+ * size of the stored bodies grows over the maximum size. Bodies can be stored
+ * gzip compressed
+ * </p>
+ * <p>
+ * Bodies are written while the original stream is consumed, so they are never
+ * buffered in memory, and an entry is only added once the whole stream has
+ * been read. There is one instance per directory, and the index is rebuilt
+ * from the directory contents when the store is opened again
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class DiskLruStore {
+
+	private static final String BODY_EXTENSION = ".body";
+	private static final String META_EXTENSION = ".properties";
+	private static final String TEMP_EXTENSION = ".tmp";
+
+	/* Reserved properties */
+	private static final String LENGTH = "_length";
+	private static final String COMPRESSED = "_compressed";
+
+	private static final Map<File, DiskLruStore> stores = Maps.newHashMap();
+
+	private static Logger logger = LoggerFactory.getLogger(DiskLruStore.class);
+
+	private final File directory;
+	private long maxSize;
+	private long size = 0L;
+	private long tempCounter = 0L;
+
+	/* Access ordered, the first entries are the least recently used */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+
+	private DiskLruStore(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * <p>Returns the store kept in the given directory, opening it if needed</p>
+	 * @param directory the directory where the entries are stored
+	 * @param maxSize the maximum size in bytes of the stored bodies
+	 * @return the {@code DiskLruStore} for the directory
+	 * @throws ManifoldCFException if the directory can not be used
+	 */
+	public static DiskLruStore forDirectory(File directory, long maxSize)
+			throws ManifoldCFException {
+		File canonicalDirectory;
+		try {
+			canonicalDirectory = directory.getCanonicalFile();
+		} catch (IOException e) {
+			throw new ManifoldCFException("Bad directory " + directory + ": "
+					+ e.getMessage(), e);
+		}
+		synchronized (stores) {
+			DiskLruStore store = stores.get(canonicalDirectory);
+			if (store == null) {
+				if (!canonicalDirectory.isDirectory()
+						&& !canonicalDirectory.mkdirs()) {
+					throw new ManifoldCFException(
+							"Directory can not be created: "
+									+ canonicalDirectory);
+				}
+				store = new DiskLruStore(canonicalDirectory, maxSize);
+				store.load();
+				stores.put(canonicalDirectory, store);
+			} else {
+				store.setMaxSize(maxSize);
+			}
+			return store;
+		}
+	}
+
+	/**
+	 * <p>Sets the maximum size of the store, evicting entries if needed</p>
+	 * @param maxSize the maximum size in bytes
+	 */
+	public synchronized void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		evict();
+	}
+
+	/**
+	 * <p>Gets the entry for the given key, marking it as recently used</p>
+	 * @param key the entry key
+	 * @return the {@code Entry} or null if there is none
+	 */
+	public synchronized Entry lookup(String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * <p>Opens the body of an entry</p>
+	 * @param entry the entry
+	 * @return the stream to read the (uncompressed) body
+	 * @throws IOException if the body is no longer available
+	 */
+	public InputStream open(Entry entry) throws IOException {
+		InputStream in = new FileInputStream(bodyFile(entry.key));
+		if (entry.compressed) {
+			try {
+				return new GZIPInputStream(in);
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+		}
+		return in;
+	}
+
+	/**
+	 * <p>Removes the given entry</p>
+	 * @param key the entry key
+	 */
+	public synchronized void remove(String key) {
+		Entry removed = entries.remove(key);
+		if (removed != null) {
+			size -= removed.storedLength;
+		}
+		deleteFiles(key);
+	}
+
+	/**
+	 * <p>Wraps the given stream so its content is stored while it is read</p>
+	 * <p>The entry is only stored once the whole stream has been read. Bodies bigger than a quarter of
+	 * the store size are not stored</p>
+	 * @param key the entry key, it must be usable as file name
+	 * @param properties the properties to keep along with the body
+	 * @param content the content to store
+	 * @param compress whether the body must be gzip compressed on disk
+	 * @return the stream to read the content from
+	 */
+	public InputStream store(String key, Map<String, String> properties,
+			InputStream content, boolean compress) {
+		File tempFile;
+		synchronized (this) {
+			tempFile = new File(directory, key + "." + (tempCounter++)
+					+ TEMP_EXTENSION);
+		}
+		OutputStream out;
+		try {
+			out = new FileOutputStream(tempFile);
+			if (compress) {
+				out = new GZIPOutputStream(out);
+			}
+		} catch (IOException e) {
+			logger.debug("Content can not be stored: {}", e.getMessage());
+			tempFile.delete();
+			return content;
+		}
+		return new StoringInputStream(content, out, tempFile, new Entry(key,
+				properties, 0L, 0L, compress));
+	}
+
+	private synchronized void commit(Entry entry, File tempFile) {
+		File bodyFile = bodyFile(entry.key);
+		Entry previous = entries.remove(entry.key);
+		if (previous != null) {
+			size -= previous.storedLength;
+		}
+		bodyFile.delete();
+		entry.storedLength = tempFile.length();
+		if (!tempFile.renameTo(bodyFile)) {
+			tempFile.delete();
+			deleteFiles(entry.key);
+			return;
+		}
+		Properties properties = new Properties();
+		for (Map.Entry<String, String> property : entry.properties.entrySet()) {
+			if (property.getValue() != null) {
+				properties.setProperty(property.getKey(), property.getValue());
+			}
+		}
+		properties.setProperty(LENGTH, String.valueOf(entry.length));
+		properties.setProperty(COMPRESSED, String.valueOf(entry.compressed));
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(metaFile(entry.key));
+			properties.store(out, null);
+		} catch (IOException e) {
+			logger.debug("Entry can not be stored: {}", e.getMessage());
+			deleteFiles(entry.key);
+			return;
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+		entries.put(entry.key, entry);
+		size += entry.storedLength;
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			iterator.remove();
+			size -= eldest.storedLength;
+			deleteFiles(eldest.key);
+		}
+	}
+
+	/**
+	 * <p>Rebuilds the index from the entries found in the directory, oldest first</p>
+	 */
+	private synchronized void load() {
+		File[] tempFiles = directory.listFiles(new ExtensionFilter(
+				TEMP_EXTENSION));
+		if (tempFiles != null) {
+			for (File tempFile : tempFiles) {
+				tempFile.delete();
+			}
+		}
+		File[] metaFiles = directory.listFiles(new ExtensionFilter(
+				META_EXTENSION));
+		if (metaFiles == null) {
+			return;
+		}
+		Arrays.sort(metaFiles, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.valueOf(f1.lastModified()).compareTo(
+						f2.lastModified());
+			}
+		});
+		for (File metaFile : metaFiles) {
+			String name = metaFile.getName();
+			String key = name.substring(0,
+					name.length() - META_EXTENSION.length());
+			Properties properties = new Properties();
+			InputStream in = null;
+			try {
+				in = new FileInputStream(metaFile);
+				properties.load(in);
+				File bodyFile = bodyFile(key);
+				if (!bodyFile.isFile()) {
+					throw new IOException("Missing body");
+				}
+				long length = Long.parseLong(properties.getProperty(LENGTH));
+				boolean compressed = Boolean.parseBoolean(properties
+						.getProperty(COMPRESSED));
+				properties.remove(LENGTH);
+				properties.remove(COMPRESSED);
+				Map<String, String> entryProperties = Maps.newHashMap();
+				for (String property : properties.stringPropertyNames()) {
+					entryProperties.put(property,
+							properties.getProperty(property));
+				}
+				Entry entry = new Entry(key, entryProperties, length,
+						bodyFile.length(), compressed);
+				entries.put(key, entry);
+				size += entry.storedLength;
+			} catch (Exception e) {
+				logger.debug("Discarding entry {}: {}", key, e.getMessage());
+				deleteFiles(key);
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+		}
+		logger.info("Opened local store {} with {} entries ({} bytes)",
+				directory, entries.size(), size);
+		evict();
+	}
+
+	private File bodyFile(String key) {
+		return new File(directory, key + BODY_EXTENSION);
+	}
+
+	private File metaFile(String key) {
+		return new File(directory, key + META_EXTENSION);
+	}
+
+	private void deleteFiles(String key) {
+		bodyFile(key).delete();
+		metaFile(key).delete();
+	}
+
+	/**
+	 * <p>
+	 * Entry class
+	 * </p>
+	 * <p>
+	 * A stored body along with its properties
+	 * </p>
+	 */
+	public static class Entry {
+		private final String key;
+		private final Map<String, String> properties;
+		private final boolean compressed;
+		private long length;
+		private long storedLength;
+
+		private Entry(String key, Map<String, String> properties, long length,
+				long storedLength, boolean compressed) {
+			this.key = key;
+			this.properties = Collections.unmodifiableMap(Maps
+					.newHashMap(properties));
+			this.length = length;
+			this.storedLength = storedLength;
+			this.compressed = compressed;
+		}
+
+		public String getKey() {
+			return this.key;
+		}
+
+		public String getProperty(String name) {
+			return this.properties.get(name);
+		}
+
+		/**
+		 * @return the length of the uncompressed body
+		 */
+		public long getLength() {
+			return this.length;
+		}
+	}
+
+	/**
+	 * <p>Copies the bytes read to the temporary file, committing the entry at the end of the stream</p>
+	 */
+	private class StoringInputStream extends FilterInputStream {
+		private final File tempFile;
+		private final Entry entry;
+		private OutputStream out;
+
+		private StoringInputStream(InputStream in, OutputStream out,
+				File tempFile, Entry entry) {
+			super(in);
+			this.out = out;
+			this.tempFile = tempFile;
+			this.entry = entry;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b == -1) {
+				finish(true);
+			} else {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read == -1) {
+				finish(true);
+			} else if (read > 0) {
+				write(b, off, read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			/* Skipped bytes would be missing from the stored copy */
+			finish(false);
+			return super.skip(n);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			finish(false);
+			super.close();
+		}
+
+		private void write(byte[] b, int off, int len) {
+			if (out == null) {
+				return;
+			}
+			entry.length += len;
+			if (entry.length > maxSize / 4) {
+				finish(false);
+				return;
+			}
+			try {
+				out.write(b, off, len);
+			} catch (IOException e) {
+				logger.debug("Content can not be stored: {}", e.getMessage());
+				finish(false);
+			}
+		}
+
+		private void finish(boolean complete) {
+			if (out == null) {
+				return;
+			}
+			boolean closed = true;
+			try {
+				out.close();
+			} catch (IOException e) {
+				closed = false;
+			}
+			out = null;
+			if (complete && closed) {
+				commit(entry, tempFile);
+			} else {
+				tempFile.delete();
+			}
+		}
+	}
+
+	private static class ExtensionFilter implements FileFilter {
+		private final String extension;
+
+		private ExtensionFilter(String extension) {
+			this.extension = extension;
+		}
+
+		@Override
+		public boolean accept(File file) {
+			return file.isFile() && file.getName().endsWith(extension);
+		}
+	}
+}
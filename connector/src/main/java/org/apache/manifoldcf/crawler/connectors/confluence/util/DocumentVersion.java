@@ -0,0 +1,179 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * <p>
+ * DocumentVersion class
+ * </p>
+ * <p>
+ * Version string of a document indexed comparing content hashes. Besides the
+ * last modification date, it keeps the SHA-256 hash of the body sent to the
+ * output and a fingerprint of the fields sent along it, encoded as
+ * <code>sha256:content:fields:modified</code>
+ * </p>
+ * <p>
+ * Two versions with the same hashes describe the same indexed document, even
+ * if Confluence bumped the version of the page in between. Version strings
+ * not written this way, such as plain dates, are not parsed
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class DocumentVersion {
+
+	private static final String PREFIX = "sha256:";
+	private static final String ALGORITHM = "SHA-256";
+	private static final char SEPARATOR = ':';
+	private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+	private final String contentHash;
+	private final String fieldsHash;
+	private final String modified;
+
+	public DocumentVersion(String contentHash, String fieldsHash,
+			String modified) {
+		this.contentHash = contentHash;
+		this.fieldsHash = fieldsHash;
+		this.modified = modified;
+	}
+
+	/**
+	 * <p>Parses a document version string</p>
+	 * @param version the version string, may be null or empty
+	 * @return the {@code DocumentVersion} or null if the version string was
+	 *         not written comparing content hashes
+	 */
+	public static DocumentVersion parse(String version) {
+		if (version == null || !version.startsWith(PREFIX)) {
+			return null;
+		}
+		String[] parts = version.substring(PREFIX.length()).split(
+				String.valueOf(SEPARATOR), 3);
+		if (parts.length != 3 || parts[0].isEmpty() || parts[1].isEmpty()) {
+			return null;
+		}
+		return new DocumentVersion(parts[0], parts[1], parts[2]);
+	}
+
+	public String getContentHash() {
+		return this.contentHash;
+	}
+
+	public String getFieldsHash() {
+		return this.fieldsHash;
+	}
+
+	public String getModified() {
+		return this.modified;
+	}
+
+	/**
+	 * <p>Tells whether the given version describes the same body and fields,
+	 * whatever its modification date</p>
+	 * @param other the other version, may be null
+	 */
+	public boolean isSameDocument(DocumentVersion other) {
+		return other != null
+				&& Objects.equal(this.contentHash, other.contentHash)
+				&& Objects.equal(this.fieldsHash, other.fieldsHash);
+	}
+
+	/**
+	 * <p>Reads a stream to its end, hashing its bytes as they are read</p>
+	 * @param content the stream, closed once read
+	 * @param digest the digest updated with the bytes read
+	 * @return the bytes read
+	 * @throws IOException
+	 */
+	public static byte[] read(InputStream content, MessageDigest digest)
+			throws IOException {
+		DigestInputStream in = new DigestInputStream(content, digest);
+		try {
+			return IOUtils.toByteArray(in);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * <p>Gets the hash of the bytes a digest was updated with</p>
+	 */
+	public static String hash(MessageDigest digest) {
+		return HEX.encode(digest.digest());
+	}
+
+	/**
+	 * <p>Gets the hash of some bytes</p>
+	 */
+	public static String hash(byte[] content) {
+		MessageDigest digest = newDigest();
+		digest.update(content);
+		return hash(digest);
+	}
+
+	/**
+	 * <p>Gets a fingerprint of the fields of a document, which does not
+	 * depend on their order</p>
+	 * @param fields the fields, whose values are strings or arrays of strings
+	 * @return the fingerprint
+	 */
+	public static String fingerprint(Map<String, ?> fields) {
+		MessageDigest digest = newDigest();
+		Map<String, Object> sorted = Maps.newTreeMap();
+		sorted.putAll(fields);
+		for (Entry<String, Object> field : sorted.entrySet()) {
+			update(digest, field.getKey());
+			Object value = field.getValue();
+			if (value instanceof String[]) {
+				for (String element : (String[]) value) {
+					update(digest, element);
+				}
+			} else {
+				update(digest, String.valueOf(value));
+			}
+			digest.update((byte) 0);
+		}
+		return hash(digest);
+	}
+
+	/**
+	 * <p>Creates a SHA-256 digest</p>
+	 */
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/* Every string is followed by a separator, so that concatenations can not collide */
+	private static void update(MessageDigest digest, String value) {
+		digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 1);
+	}
+
+	/**
+	 * <p>Gets the document version string</p>
+	 */
+	@Override
+	public String toString() {
+		return PREFIX + this.contentHash + SEPARATOR + this.fieldsHash
+				+ SEPARATOR + this.modified;
+	}
+}
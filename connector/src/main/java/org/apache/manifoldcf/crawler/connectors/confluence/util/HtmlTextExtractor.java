@@ -0,0 +1,227 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.util.MarkupScanner.Token;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * HtmlTextExtractor class
+ * </p>
+ * <p>
+ * Extracts the plain text of an HTML document as it is read, through a
+ * {@code MarkupScanner}, without building a DOM. Blocks are written on their
+ * own lines, whitespace is collapsed except in preformatted blocks, and the
+ * content of scripts and styles is dropped. The title and the headings are
+ * collected along the way, to be indexed as fields of their own
+ * </p>
+ * <p>
+ * An extractor is used for a single document
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class HtmlTextExtractor {
+
+	private static final Set<String> SKIPPED = ImmutableSet.of("script",
+			"style", "noscript", "template");
+	private static final Set<String> HEADINGS = ImmutableSet.of("h1", "h2",
+			"h3", "h4", "h5", "h6");
+	private static final Set<String> BLOCKS = ImmutableSet.of("address",
+			"article", "aside", "blockquote", "br", "caption", "dd", "div",
+			"dl", "dt", "fieldset", "figcaption", "figure", "footer", "form",
+			"h1", "h2", "h3", "h4", "h5", "h6", "header", "hr", "li", "main",
+			"nav", "ol", "p", "pre", "section", "table", "tbody", "tfoot",
+			"thead", "tr", "ul");
+	private static final Set<String> CELLS = ImmutableSet.of("td", "th");
+	private static final String TITLE = "title";
+	private static final String PRE = "pre";
+
+	private String title;
+	private final List<String> headings = Lists.newArrayList();
+
+	private Writer text;
+	private boolean lineHasText = false;
+	private boolean pendingSpace = false;
+	private boolean pendingNewline = false;
+	private int preDepth = 0;
+	private StringBuilder heading;
+	private StringBuilder titleText;
+
+	/**
+	 * <p>Writes the plain text of an HTML document as it is read</p>
+	 * @param html the reader of the HTML document
+	 * @param text the writer of the plain text
+	 * @throws IOException
+	 */
+	public void extract(Reader html, Writer text) throws IOException {
+		this.text = text;
+		MarkupScanner scanner = new MarkupScanner(html);
+		String skipped = null;
+		int skippedDepth = 0;
+
+		Token token;
+		while ((token = scanner.next()) != Token.END) {
+			String name = scanner.getName();
+			if (skipped != null) {
+				if (skipped.equals(name)) {
+					if (token == Token.START_TAG && !scanner.isSelfClosing()) {
+						skippedDepth++;
+					} else if (token == Token.END_TAG && --skippedDepth == 0) {
+						skipped = null;
+					}
+				}
+				continue;
+			}
+
+			switch (token) {
+			case TEXT:
+				write(MarkupScanner.decodeEntities(scanner.getText()));
+				break;
+			case CDATA:
+				write(scanner.getText());
+				break;
+			case START_TAG:
+				if (SKIPPED.contains(name) && !scanner.isSelfClosing()) {
+					skipped = name;
+					skippedDepth = 1;
+				} else if (name.equals(TITLE) && !scanner.isSelfClosing()) {
+					titleText = new StringBuilder();
+				} else {
+					if (BLOCKS.contains(name)) {
+						breakLine();
+					} else if (CELLS.contains(name)) {
+						pendingSpace = true;
+					}
+					if (name.equals(PRE) && !scanner.isSelfClosing()) {
+						preDepth++;
+					} else if (HEADINGS.contains(name)) {
+						heading = new StringBuilder();
+					}
+				}
+				break;
+			case END_TAG:
+				if (name.equals(TITLE)) {
+					if (titleText != null && title == null) {
+						title = normalize(titleText);
+					}
+					titleText = null;
+				} else {
+					if (name.equals(PRE) && preDepth > 0) {
+						preDepth--;
+					} else if (HEADINGS.contains(name) && heading != null) {
+						String headingText = normalize(heading);
+						if (!headingText.isEmpty()) {
+							headings.add(headingText);
+						}
+						heading = null;
+					}
+					if (BLOCKS.contains(name)) {
+						breakLine();
+					} else if (CELLS.contains(name)) {
+						pendingSpace = true;
+					}
+				}
+				break;
+			default:
+				break;
+			}
+		}
+		text.flush();
+	}
+
+	/**
+	 * <p>Gets the title of the document, or its first heading if it has no
+	 * title</p>
+	 * @return the title, null if there is none
+	 */
+	public String getTitle() {
+		if (title == null || title.isEmpty()) {
+			return headings.isEmpty() ? null : headings.get(0);
+		}
+		return title;
+	}
+
+	/**
+	 * <p>Gets the text of the headings of the document, in order</p>
+	 */
+	public List<String> getHeadings() {
+		return headings;
+	}
+
+	private void write(String value) throws IOException {
+		if (titleText != null) {
+			titleText.append(value);
+			return;
+		}
+		if (heading != null) {
+			heading.append(value);
+		}
+		if (preDepth > 0) {
+			if (!value.isEmpty()) {
+				flushPending();
+				text.write(value);
+				lineHasText = true;
+			}
+			return;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (isSpace(c)) {
+				pendingSpace = true;
+			} else {
+				flushPending();
+				text.write(c);
+				lineHasText = true;
+			}
+		}
+	}
+
+	private void flushPending() throws IOException {
+		if (pendingNewline) {
+			text.write('\n');
+			pendingNewline = false;
+		} else if (pendingSpace && lineHasText) {
+			text.write(' ');
+		}
+		pendingSpace = false;
+	}
+
+	private void breakLine() {
+		if (lineHasText) {
+			pendingNewline = true;
+			lineHasText = false;
+		}
+		pendingSpace = false;
+	}
+
+	private static boolean isSpace(char c) {
+		return Character.isWhitespace(c) || c == '\u00a0';
+	}
+
+	private static String normalize(CharSequence value) {
+		StringBuilder sb = new StringBuilder(value.length());
+		boolean space = false;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (isSpace(c)) {
+				space = sb.length() > 0;
+			} else {
+				if (space) {
+					sb.append(' ');
+					space = false;
+				}
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,323 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * LongBitmap class
+ * </p>
+ * <p>
+ * Compressed set of <code>long</code> values, used to keep the ids of the
+ * live content of a space. Values are split in chunks by their 48 high bits
+ * and the 16 low bits of each chunk are stored either in a sorted array, when
+ * the chunk is sparse, or in a bitmap of 65536 bits when it is dense, the
+ * same way Roaring bitmaps do. Confluence ids are mostly consecutive, so a
+ * space with thousands of pages takes a few kilobytes
+ * </p>
+ * <p>
+ * This class is not thread safe
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class LongBitmap {
+
+	private static final int SERIAL_COOKIE = 0x4c424d31;
+
+	/* Chunks with more values than this are stored as bitmaps */
+	private static final int ARRAY_MAX_SIZE = 4096;
+	private static final int BITMAP_WORDS = 1024;
+
+	private long[] keys = new long[4];
+	private Chunk[] chunks = new Chunk[4];
+	private int size = 0;
+
+	/**
+	 * <p>Adds a value</p>
+	 * @param value the value to add
+	 * @return true if the value was not in the set
+	 */
+	public boolean add(long value) {
+		long key = value >>> 16;
+		char low = (char) value;
+		int index = Arrays.binarySearch(keys, 0, size, key);
+		if (index < 0) {
+			index = -index - 1;
+			insertChunk(index, key, new Chunk());
+		}
+		return chunks[index].add(low);
+	}
+
+	/**
+	 * <p>Removes a value</p>
+	 * @param value the value to remove
+	 * @return true if the value was in the set
+	 */
+	public boolean remove(long value) {
+		int index = Arrays.binarySearch(keys, 0, size, value >>> 16);
+		if (index < 0 || !chunks[index].remove((char) value)) {
+			return false;
+		}
+		if (chunks[index].cardinality == 0) {
+			System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+			System.arraycopy(chunks, index + 1, chunks, index, size - index - 1);
+			chunks[--size] = null;
+		}
+		return true;
+	}
+
+	/**
+	 * <p>Checks whether the given value is in the set</p>
+	 */
+	public boolean contains(long value) {
+		int index = Arrays.binarySearch(keys, 0, size, value >>> 16);
+		return index >= 0 && chunks[index].contains((char) value);
+	}
+
+	/**
+	 * <p>Gets the number of values in the set</p>
+	 */
+	public long cardinality() {
+		long cardinality = 0L;
+		for (int i = 0; i < size; i++) {
+			cardinality += chunks[i].cardinality;
+		}
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * <p>Gets the values in this set which are not in the given one</p>
+	 * @param other the values to remove
+	 * @return a new {@code LongBitmap} with the difference
+	 */
+	public LongBitmap andNot(LongBitmap other) {
+		LongBitmap result = new LongBitmap();
+		char[] values = new char[65536];
+		for (int i = 0; i < size; i++) {
+			int otherIndex = Arrays.binarySearch(other.keys, 0, other.size, keys[i]);
+			Chunk otherChunk = otherIndex >= 0 ? other.chunks[otherIndex] : null;
+			Chunk chunk = new Chunk();
+			int count = chunks[i].values(values);
+			for (int j = 0; j < count; j++) {
+				if (otherChunk == null || !otherChunk.contains(values[j])) {
+					chunk.add(values[j]);
+				}
+			}
+			if (chunk.cardinality > 0) {
+				result.insertChunk(result.size, keys[i], chunk);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * <p>Adds all the values of the given set to this one</p>
+	 * @param other the values to add
+	 */
+	public void addAll(LongBitmap other) {
+		char[] values = new char[65536];
+		for (int i = 0; i < other.size; i++) {
+			int count = other.chunks[i].values(values);
+			for (int j = 0; j < count; j++) {
+				add((other.keys[i] << 16) | values[j]);
+			}
+		}
+	}
+
+	/**
+	 * <p>Gets the values of the set in ascending order</p>
+	 */
+	public long[] toArray() {
+		long[] result = new long[(int) cardinality()];
+		char[] values = new char[65536];
+		int position = 0;
+		for (int i = 0; i < size; i++) {
+			int count = chunks[i].values(values);
+			for (int j = 0; j < count; j++) {
+				result[position++] = (keys[i] << 16) | values[j];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * <p>Writes the set in its compressed form</p>
+	 * @param out the output to write to
+	 * @throws IOException if the set can not be written
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(SERIAL_COOKIE);
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			Chunk chunk = chunks[i];
+			out.writeLong(keys[i]);
+			out.writeInt(chunk.cardinality);
+			if (chunk.bitmap != null) {
+				for (long word : chunk.bitmap) {
+					out.writeLong(word);
+				}
+			} else {
+				for (int j = 0; j < chunk.cardinality; j++) {
+					out.writeChar(chunk.array[j]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>Reads a set written by {@link #writeTo(DataOutput)}</p>
+	 * @param in the input to read from
+	 * @return the {@code LongBitmap}
+	 * @throws IOException if the set can not be read
+	 */
+	public static LongBitmap readFrom(DataInput in) throws IOException {
+		if (in.readInt() != SERIAL_COOKIE) {
+			throw new IOException("Not a bitmap");
+		}
+		LongBitmap bitmap = new LongBitmap();
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			long key = in.readLong();
+			Chunk chunk = new Chunk();
+			chunk.cardinality = in.readInt();
+			if (chunk.cardinality > ARRAY_MAX_SIZE) {
+				chunk.array = null;
+				chunk.bitmap = new long[BITMAP_WORDS];
+				for (int j = 0; j < BITMAP_WORDS; j++) {
+					chunk.bitmap[j] = in.readLong();
+				}
+			} else {
+				chunk.array = new char[Math.max(4, chunk.cardinality)];
+				for (int j = 0; j < chunk.cardinality; j++) {
+					chunk.array[j] = in.readChar();
+				}
+			}
+			bitmap.insertChunk(bitmap.size, key, chunk);
+		}
+		return bitmap;
+	}
+
+	private void insertChunk(int index, long key, Chunk chunk) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			chunks = Arrays.copyOf(chunks, size * 2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(chunks, index, chunks, index + 1, size - index);
+		keys[index] = key;
+		chunks[index] = chunk;
+		size++;
+	}
+
+	/**
+	 * <p>
+	 * The low 16 bits of the values sharing the same high bits, as a sorted
+	 * array or as a bitmap
+	 * </p>
+	 */
+	private static class Chunk {
+		private char[] array = new char[4];
+		private long[] bitmap = null;
+		private int cardinality = 0;
+
+		private boolean add(char value) {
+			if (bitmap != null) {
+				long bit = 1L << value;
+				if ((bitmap[value >>> 6] & bit) != 0) {
+					return false;
+				}
+				bitmap[value >>> 6] |= bit;
+				cardinality++;
+				return true;
+			}
+
+			int index = Arrays.binarySearch(array, 0, cardinality, value);
+			if (index >= 0) {
+				return false;
+			}
+			if (cardinality == ARRAY_MAX_SIZE) {
+				toBitmap();
+				return add(value);
+			}
+			index = -index - 1;
+			if (cardinality == array.length) {
+				array = Arrays.copyOf(array, Math.min(ARRAY_MAX_SIZE,
+						cardinality * 2));
+			}
+			System.arraycopy(array, index, array, index + 1, cardinality - index);
+			array[index] = value;
+			cardinality++;
+			return true;
+		}
+
+		private boolean remove(char value) {
+			if (bitmap != null) {
+				long bit = 1L << value;
+				if ((bitmap[value >>> 6] & bit) == 0) {
+					return false;
+				}
+				bitmap[value >>> 6] &= ~bit;
+				cardinality--;
+				/* Only chunks with more values than arrays can hold are bitmaps */
+				if (cardinality == ARRAY_MAX_SIZE) {
+					toArray();
+				}
+				return true;
+			}
+
+			int index = Arrays.binarySearch(array, 0, cardinality, value);
+			if (index < 0) {
+				return false;
+			}
+			System.arraycopy(array, index + 1, array, index, cardinality - index - 1);
+			cardinality--;
+			return true;
+		}
+
+		private boolean contains(char value) {
+			if (bitmap != null) {
+				return (bitmap[value >>> 6] & (1L << value)) != 0;
+			}
+			return Arrays.binarySearch(array, 0, cardinality, value) >= 0;
+		}
+
+		/* Copies the values in ascending order, returning how many there are */
+		private int values(char[] values) {
+			if (bitmap == null) {
+				System.arraycopy(array, 0, values, 0, cardinality);
+				return cardinality;
+			}
+			int count = 0;
+			for (int i = 0; i < BITMAP_WORDS; i++) {
+				long word = bitmap[i];
+				while (word != 0) {
+					values[count++] = (char) (i * 64 + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return count;
+		}
+
+		private void toBitmap() {
+			bitmap = new long[BITMAP_WORDS];
+			for (int i = 0; i < cardinality; i++) {
+				bitmap[array[i] >>> 6] |= 1L << array[i];
+			}
+			array = null;
+		}
+
+		private void toArray() {
+			array = new char[ARRAY_MAX_SIZE];
+			values(array);
+			bitmap = null;
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * MarkupScanner class
+ * </p>
+ * <p>
+ * Streaming tokenizer of HTML and XHTML markup. It reads the markup a token
+ * at a time (text, tags, CDATA sections and comments) without building a
+ * tree, so large pages are processed in constant memory besides the current
+ * token. It does not validate anything, malformed markup is returned as text
+ * </p>
+ * <p>
+ * Text and attribute values are returned as they are written, entities can be
+ * decoded with {@link #decodeEntities(String)}
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class MarkupScanner {
+
+	public static enum Token {
+		TEXT, START_TAG, END_TAG, CDATA, COMMENT, END
+	}
+
+	private static final Pattern ATTRIBUTE = Pattern
+			.compile("([^\\s=/>]+)(?:\\s*=\\s*(\"[^\"]*\"|'[^']*'|[^\\s>]+))?");
+	private static final Pattern ENTITY = Pattern
+			.compile("&(#[0-9]+|#[xX][0-9a-fA-F]+|[a-zA-Z][a-zA-Z0-9]*);");
+	private static final Map<String, String> ENTITIES = Maps.newHashMap();
+	static {
+		ENTITIES.put("amp", "&");
+		ENTITIES.put("lt", "<");
+		ENTITIES.put("gt", ">");
+		ENTITIES.put("quot", "\"");
+		ENTITIES.put("apos", "'");
+		ENTITIES.put("nbsp", "\u00a0");
+		ENTITIES.put("ndash", "\u2013");
+		ENTITIES.put("mdash", "\u2014");
+		ENTITIES.put("lsquo", "\u2018");
+		ENTITIES.put("rsquo", "\u2019");
+		ENTITIES.put("ldquo", "\u201c");
+		ENTITIES.put("rdquo", "\u201d");
+		ENTITIES.put("hellip", "\u2026");
+		ENTITIES.put("copy", "\u00a9");
+		ENTITIES.put("reg", "\u00ae");
+		ENTITIES.put("trade", "\u2122");
+		ENTITIES.put("euro", "\u20ac");
+	}
+
+	private final Reader reader;
+	private int peeked = -2;
+
+	private final StringBuilder buffer = new StringBuilder();
+	private Token token;
+	private String name;
+	private boolean selfClosing;
+	private Map<String, String> attributes;
+
+	/**
+	 * <p>Creates a new scanner reading the given markup</p>
+	 * @param reader the reader of the markup
+	 */
+	public MarkupScanner(Reader reader) {
+		this.reader = reader instanceof BufferedReader ? reader
+				: new BufferedReader(reader);
+	}
+
+	/**
+	 * <p>Reads the next token</p>
+	 * @return the type of the token, {@code Token.END} at the end of the markup
+	 * @throws IOException
+	 */
+	public Token next() throws IOException {
+		buffer.setLength(0);
+		name = null;
+		selfClosing = false;
+		attributes = null;
+
+		int c = read();
+		if (c == -1) {
+			token = Token.END;
+		} else if (c != '<') {
+			buffer.append((char) c);
+			token = readText();
+		} else {
+			int n = peek();
+			if (n == '/') {
+				read();
+				token = readTag(Token.END_TAG);
+			} else if (n == '!') {
+				read();
+				token = readDeclaration();
+			} else if (n == '?') {
+				/* Processing instructions are ignored like comments */
+				readUntil("?>");
+				token = Token.COMMENT;
+			} else if (Character.isLetter(n)) {
+				token = readTag(Token.START_TAG);
+			} else {
+				buffer.append('<');
+				token = readText();
+			}
+		}
+		return token;
+	}
+
+	/**
+	 * <p>Gets the text of the current text, CDATA or comment token</p>
+	 */
+	public String getText() {
+		return buffer.toString();
+	}
+
+	/**
+	 * <p>Gets the name, lower cased, of the current tag</p>
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * <p>Tells whether the current start tag closes itself</p>
+	 */
+	public boolean isSelfClosing() {
+		return selfClosing;
+	}
+
+	/**
+	 * <p>Gets the current tag as it was written</p>
+	 */
+	public String getTag() {
+		return (token == Token.END_TAG ? "</" : "<") + buffer + ">";
+	}
+
+	/**
+	 * <p>Gets the value of an attribute of the current start tag, with its
+	 * entities decoded</p>
+	 * @param attributeName the lower cased name of the attribute
+	 * @return the value, null if the tag does not have the attribute
+	 */
+	public String getAttribute(String attributeName) {
+		if (attributes == null) {
+			attributes = Maps.newHashMap();
+			if (token == Token.START_TAG) {
+				Matcher matcher = ATTRIBUTE.matcher(buffer);
+				/* The first match is the tag name */
+				matcher.find();
+				while (matcher.find()) {
+					String value = matcher.group(2);
+					if (value == null) {
+						value = "";
+					} else if (value.startsWith("\"") || value.startsWith("'")) {
+						value = value.substring(1, value.length() - 1);
+					}
+					attributes.put(matcher.group(1).toLowerCase(Locale.ENGLISH),
+							decodeEntities(value));
+				}
+			}
+		}
+		return attributes.get(attributeName);
+	}
+
+	/**
+	 * <p>Decodes the character references and the common named entities of a
+	 * text, leaving the unknown ones as they are</p>
+	 * @param text the text
+	 * @return the decoded text
+	 */
+	public static String decodeEntities(String text) {
+		if (text.indexOf('&') < 0) {
+			return text;
+		}
+		StringBuffer sb = new StringBuffer(text.length());
+		Matcher matcher = ENTITY.matcher(text);
+		while (matcher.find()) {
+			String entity = matcher.group(1);
+			String replacement = null;
+			try {
+				if (entity.startsWith("#x") || entity.startsWith("#X")) {
+					replacement = new String(Character.toChars(Integer
+							.parseInt(entity.substring(2), 16)));
+				} else if (entity.startsWith("#")) {
+					replacement = new String(Character.toChars(Integer
+							.parseInt(entity.substring(1))));
+				} else {
+					replacement = ENTITIES.get(entity);
+				}
+			} catch (IllegalArgumentException e) {
+				replacement = null;
+			}
+			matcher.appendReplacement(sb, Matcher
+					.quoteReplacement(replacement != null ? replacement
+							: matcher.group()));
+		}
+		matcher.appendTail(sb);
+		return sb.toString();
+	}
+
+	private Token readText() throws IOException {
+		int c;
+		while ((c = peek()) != -1 && c != '<') {
+			buffer.append((char) read());
+		}
+		return Token.TEXT;
+	}
+
+	/* Reads up to the closing '>', which is not taken into account inside quoted values */
+	private Token readTag(Token type) throws IOException {
+		char quote = 0;
+		int c;
+		while ((c = read()) != -1) {
+			if (quote != 0) {
+				if (c == quote) {
+					quote = 0;
+				}
+			} else if (c == '"' || c == '\'') {
+				quote = (char) c;
+			} else if (c == '>') {
+				break;
+			}
+			buffer.append((char) c);
+		}
+
+		int end = 0;
+		while (end < buffer.length()
+				&& !Character.isWhitespace(buffer.charAt(end))
+				&& buffer.charAt(end) != '/' && buffer.charAt(end) != '>') {
+			end++;
+		}
+		name = buffer.substring(0, end).toLowerCase(Locale.ENGLISH);
+		selfClosing = type == Token.START_TAG && buffer.length() > 0
+				&& buffer.charAt(buffer.length() - 1) == '/';
+		return type;
+	}
+
+	private Token readDeclaration() throws IOException {
+		if (peek() == '-') {
+			read();
+			if (peek() == '-') {
+				read();
+				readUntil("-->");
+				return Token.COMMENT;
+			}
+		} else if (peek() == '[') {
+			String cdata = "[CDATA[";
+			int matched = 0;
+			while (matched < cdata.length() && peek() == cdata.charAt(matched)) {
+				read();
+				matched++;
+			}
+			if (matched == cdata.length()) {
+				readUntil("]]>");
+				return Token.CDATA;
+			}
+		}
+		/* Doctypes and other declarations */
+		readUntil(">");
+		return Token.COMMENT;
+	}
+
+	private void readUntil(String terminator) throws IOException {
+		int c;
+		while ((c = read()) != -1) {
+			buffer.append((char) c);
+			int start = buffer.length() - terminator.length();
+			if (start >= 0 && buffer.indexOf(terminator, start) == start) {
+				buffer.setLength(start);
+				return;
+			}
+		}
+	}
+
+	private int read() throws IOException {
+		if (peeked != -2) {
+			int c = peeked;
+			peeked = -2;
+			return c;
+		}
+		return reader.read();
+	}
+
+	private int peek() throws IOException {
+		if (peeked == -2) {
+			peeked = reader.read();
+		}
+		return peeked;
+	}
+}
@@ -0,0 +1,61 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.util;
+
+import java.util.Date;
+
+/**
+ * <p>
+ * RevisitSchedule class
+ * </p>
+ * <p>
+ * Computes when a page should be checked again in a continuous crawl, from
+ * its own change history: the number of versions it went through since it
+ * was created gives its usual time between edits, and the time since its
+ * last edit tells whether it is still being edited
+ * </p>
+ * <p>
+ * A page is revisited after half of the time it is expected to stay
+ * unchanged, so pages being actively edited are checked every few minutes
+ * and pages nobody touches anymore back off up to a week. Every fetch
+ * without changes makes the page look older, so its interval keeps growing
+ * until it is edited again
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class RevisitSchedule {
+
+	public static final long MIN_INTERVAL = 5L * 60L * 1000L;
+	public static final long MAX_INTERVAL = 7L * 24L * 60L * 60L * 1000L;
+
+	private RevisitSchedule() {
+	}
+
+	/**
+	 * <p>Gets the time to wait before checking a page again</p>
+	 * @param version the current version number of the page, 0 if unknown
+	 * @param created the creation date of the page, may be null
+	 * @param lastModified the date of the last edit of the page, may be null
+	 * @param currentTime the current time in milliseconds
+	 * @return the interval in milliseconds, between {@link #MIN_INTERVAL} and {@link #MAX_INTERVAL}
+	 */
+	public static long revisitInterval(int version, Date created,
+			Date lastModified, long currentTime) {
+		if (lastModified == null) {
+			return MAX_INTERVAL;
+		}
+
+		/* Time the page has been left unchanged so far */
+		long expectedUnchanged = Math.max(0L,
+				currentTime - lastModified.getTime());
+
+		if (version > 1 && created != null) {
+			long editInterval = (lastModified.getTime() - created.getTime())
+					/ (version - 1);
+			expectedUnchanged = Math.max(expectedUnchanged, editInterval);
+		}
+
+		return Math.min(MAX_INTERVAL,
+				Math.max(MIN_INTERVAL, expectedUnchanged / 2));
+	}
+}
@@ -0,0 +1,134 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.util;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * SeedState class
+ * </p>
+ * <p>
+ * State kept by the connector between seedings, stored by ManifoldCF as the
+ * seeding version string. It is a set of named values encoded as
+ * <code>name=value</code> pairs separated by <code>&amp;</code>
+ * </p>
+ * <p>
+ * Unknown or malformed pairs are ignored, so a seeding version written by a
+ * previous version of the connector just yields an empty state
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class SeedState {
+
+	/* Time of the last seeding of every document, in milliseconds */
+	public static final String RECONCILED = "reconciled";
+	/* Time of the last seeding, full or not, in milliseconds */
+	public static final String SEEDED = "seeded";
+	/* Prefix of the last change of every listed space, followed by the space key */
+	private static final String LAST_CHANGE_PREFIX = "lastchange.";
+	private static final String ALL_SPACES = "*";
+
+	private static final String UTF_8 = "UTF-8";
+
+	private final Map<String, String> values = Maps.newTreeMap();
+
+	private SeedState() {
+	}
+
+	/**
+	 * <p>Parses a seeding version string</p>
+	 * @param seedVersion the seeding version string, may be null or empty
+	 * @return the {@code SeedState}
+	 */
+	public static SeedState parse(String seedVersion) {
+		SeedState state = new SeedState();
+		for (String pair : Strings.nullToEmpty(seedVersion).split("&")) {
+			int separator = pair.indexOf('=');
+			if (separator <= 0) {
+				continue;
+			}
+			try {
+				state.values.put(URLDecoder.decode(pair.substring(0, separator), UTF_8),
+						URLDecoder.decode(pair.substring(separator + 1), UTF_8));
+			} catch (IllegalArgumentException e) {
+				/* Malformed pair, ignored */
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return state;
+	}
+
+	public String get(String name) {
+		return this.values.get(name);
+	}
+
+	/**
+	 * <p>Gets a numeric value</p>
+	 * @param name the value name
+	 * @param defaultValue the value returned if there is no valid value
+	 * @return the value
+	 */
+	public long getLong(String name, long defaultValue) {
+		String value = this.values.get(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	public SeedState put(String name, String value) {
+		if (value == null) {
+			this.values.remove(name);
+		} else {
+			this.values.put(name, value);
+		}
+		return this;
+	}
+
+	public SeedState putLong(String name, long value) {
+		return put(name, Long.toString(value));
+	}
+
+	/**
+	 * <p>Gets the name of the value keeping the last change of a space</p>
+	 * @param space the space key, absent for all the spaces
+	 */
+	public static String lastChange(Optional<String> space) {
+		return LAST_CHANGE_PREFIX + space.or(ALL_SPACES);
+	}
+
+	/**
+	 * <p>Gets the seeding version string holding this state</p>
+	 */
+	@Override
+	public String toString() {
+		StringBuilder seedVersion = new StringBuilder();
+		try {
+			for (Entry<String, String> value : this.values.entrySet()) {
+				if (seedVersion.length() > 0) {
+					seedVersion.append('&');
+				}
+				seedVersion.append(URLEncoder.encode(value.getKey(), UTF_8))
+						.append('=')
+						.append(URLEncoder.encode(value.getValue(), UTF_8));
+			}
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		return seedVersion.toString();
+	}
+}
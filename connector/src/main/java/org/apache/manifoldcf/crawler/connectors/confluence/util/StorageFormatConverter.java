@@ -0,0 +1,189 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.util.MarkupScanner.Token;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * <p>
+ * StorageFormatConverter class
+ * </p>
+ * <p>
+ * Converts the Confluence storage format (the XHTML a page is saved as) to
+ * plain HTML, so pages can be indexed without having the server render them.
+ * The HTML elements are kept as they are, while the Confluence elements
+ * ({@code ac:} and {@code ri:}) are replaced by what they show: the bodies of
+ * the macros, the text of the links and the content of the code blocks.
+ * Macro parameters and the macros generating their content on the server
+ * (Jira issues, children, table of contents...) produce nothing
+ * </p>
+ * <p>
+ * The conversion streams through a {@code MarkupScanner}, keeping only the
+ * state of the current link and skipped element
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class StorageFormatConverter {
+
+	private static final String LINK = "ac:link";
+	private static final String PLAIN_TEXT_BODY = "ac:plain-text-body";
+	/* The content of these elements is never shown */
+	private static final Set<String> SKIPPED = ImmutableSet.of("ac:parameter",
+			"ac:default-parameter", "ac:placeholder", "ac:task-id",
+			"ac:task-status");
+	private static final Set<String> LINK_BODIES = ImmutableSet.of(
+			"ac:link-body", "ac:plain-text-link-body");
+	/* Resource attributes used as the text of the links without a body, by preference */
+	private static final String[] RESOURCE_TITLES = { "ri:content-title",
+			"ri:filename", "ri:username", "ri:space-key", "ri:value" };
+	private static final Map<String, String> RENAMED = ImmutableMap.of(
+			"ac:task-list", "ul", "ac:task", "li");
+
+	private StorageFormatConverter() {
+	}
+
+	/**
+	 * <p>Converts a storage format body to HTML</p>
+	 * @param storage the storage format body
+	 * @return the HTML
+	 */
+	public static String toHtml(String storage) {
+		StringWriter html = new StringWriter(storage.length());
+		try {
+			convert(new StringReader(storage), html);
+		} catch (IOException e) {
+			/* Strings are neither read nor written with I/O errors */
+			throw new IllegalStateException(e);
+		}
+		return html.toString();
+	}
+
+	/**
+	 * <p>Converts a storage format body to HTML as it is read</p>
+	 * @param storage the reader of the storage format body
+	 * @param html the writer of the HTML
+	 * @throws IOException
+	 */
+	public static void convert(Reader storage, Writer html) throws IOException {
+		MarkupScanner scanner = new MarkupScanner(storage);
+		String skipped = null;
+		int skippedDepth = 0;
+		boolean inLink = false;
+		boolean linkHasBody = false;
+		String linkTitle = null;
+
+		Token token;
+		while ((token = scanner.next()) != Token.END) {
+			if (skipped != null) {
+				if (skipped.equals(scanner.getName())) {
+					if (token == Token.START_TAG && !scanner.isSelfClosing()) {
+						skippedDepth++;
+					} else if (token == Token.END_TAG && --skippedDepth == 0) {
+						skipped = null;
+					}
+				}
+				continue;
+			}
+
+			switch (token) {
+			case TEXT:
+				html.write(scanner.getText());
+				break;
+			case CDATA:
+				html.write(escape(scanner.getText()));
+				break;
+			case START_TAG:
+				String name = scanner.getName();
+				if (!isConfluenceElement(name)) {
+					html.write(scanner.getTag());
+				} else if (scanner.isSelfClosing()) {
+					if (inLink && linkTitle == null && name.startsWith("ri:")) {
+						linkTitle = resourceTitle(scanner);
+					}
+				} else if (SKIPPED.contains(name)) {
+					skipped = name;
+					skippedDepth = 1;
+				} else if (name.equals(LINK)) {
+					inLink = true;
+					linkHasBody = false;
+					linkTitle = null;
+				} else if (LINK_BODIES.contains(name)) {
+					linkHasBody = true;
+				} else if (name.equals(PLAIN_TEXT_BODY)) {
+					html.write("<pre>");
+				} else if (RENAMED.containsKey(name)) {
+					html.write("<" + RENAMED.get(name) + ">");
+				} else if (inLink && linkTitle == null && name.startsWith("ri:")) {
+					linkTitle = resourceTitle(scanner);
+				}
+				break;
+			case END_TAG:
+				String endName = scanner.getName();
+				if (!isConfluenceElement(endName)) {
+					html.write(scanner.getTag());
+				} else if (endName.equals(LINK)) {
+					/* Links to pages or attachments without a body show their title */
+					if (!linkHasBody && linkTitle != null) {
+						html.write(escape(linkTitle));
+					}
+					inLink = false;
+				} else if (endName.equals(PLAIN_TEXT_BODY)) {
+					html.write("</pre>");
+				} else if (RENAMED.containsKey(endName)) {
+					html.write("</" + RENAMED.get(endName) + ">");
+				}
+				break;
+			default:
+				/* Comments are dropped */
+				break;
+			}
+		}
+		html.flush();
+	}
+
+	private static boolean isConfluenceElement(String name) {
+		return name.startsWith("ac:") || name.startsWith("ri:");
+	}
+
+	private static String resourceTitle(MarkupScanner scanner) {
+		for (String attribute : RESOURCE_TITLES) {
+			String title = scanner.getAttribute(attribute);
+			if (title != null && !title.isEmpty()) {
+				return title;
+			}
+		}
+		return null;
+	}
+
+	private static String escape(String text) {
+		StringBuilder sb = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '&':
+				sb.append("&amp;");
+				break;
+			case '<':
+				sb.append("&lt;");
+				break;
+			case '>':
+				sb.append("&gt;");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
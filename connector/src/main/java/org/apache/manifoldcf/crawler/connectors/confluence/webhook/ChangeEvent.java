@@ -0,0 +1,221 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.webhook;
+
+import java.util.List;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.util.ConfluenceUtil;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Objects;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * ChangeEvent class
+ * </p>
+ * <p>
+ * A page or attachment changed in Confluence, as notified by a webhook event.
+ * It only keeps what is needed to seed the affected document: creations,
+ * updates and removals are handled alike, the processing of the seeded
+ * document finds out whether it has to be indexed again or deleted
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class ChangeEvent {
+
+	public static final String PAGE = "page";
+	public static final String ATTACHMENT = "attachment";
+
+	private static final String PAGE_EVENT_PREFIX = "page_";
+	private static final String ATTACHMENT_EVENT_PREFIX = "attachment_";
+	private static final String ATTACHMENT_ID_PREFIX = "att";
+	private static final String BLOG_POST_TYPE = "blogpost";
+	private static final CharMatcher DIGITS = CharMatcher.inRange('0', '9');
+	/* Changes are stored as tab separated lines */
+	private static final CharMatcher SEPARATORS = CharMatcher.anyOf("\t\r\n");
+
+	private final String kind;
+	private final String id;
+	private final String pageId;
+	private final String spaceKey;
+
+	public ChangeEvent(String kind, String id, String pageId, String spaceKey) {
+		this.kind = kind;
+		this.id = id;
+		this.pageId = Strings.nullToEmpty(pageId);
+		this.spaceKey = Strings.nullToEmpty(spaceKey);
+	}
+
+	/**
+	 * <p>Gets the changes notified by a Confluence webhook event</p>
+	 * <p>Page events notify the change of the page, attachment events the change of every
+	 * attachment they carry. Any other event is ignored, blog post events and attachments of
+	 * blog posts included since blog posts are not crawled, as well as the contents without a
+	 * numeric id or with a space key which can not be stored</p>
+	 * @param event the webhook event payload
+	 * @return the list of changes, empty if the event is not about pages or attachments
+	 */
+	public static List<ChangeEvent> fromWebhook(JSONObject event) {
+		List<ChangeEvent> changes = Lists.newArrayList();
+		String name = event.optString("event", event.optString("webhookEvent", ""));
+
+		if (name.startsWith(PAGE_EVENT_PREFIX)) {
+			JSONObject page = event.optJSONObject(PAGE);
+			if (page != null
+					&& isValid(PAGE, page.optString("id"), "", spaceKey(page))) {
+				changes.add(new ChangeEvent(PAGE, page.optString("id"), null,
+						spaceKey(page)));
+			}
+		} else if (name.startsWith(ATTACHMENT_EVENT_PREFIX)) {
+			JSONObject container = event.optJSONObject("attachedTo");
+			List<JSONObject> attachments = Lists.newArrayList();
+			if (event.optJSONObject(ATTACHMENT) != null) {
+				attachments.add(event.optJSONObject(ATTACHMENT));
+			}
+			JSONArray array = event.optJSONArray("attachments");
+			for (int i = 0; array != null && i < array.length(); i++) {
+				if (array.optJSONObject(i) != null) {
+					attachments.add(array.optJSONObject(i));
+				}
+			}
+
+			for (JSONObject attachment : attachments) {
+				JSONObject attachmentContainer = attachment
+						.optJSONObject("container");
+				if (attachmentContainer == null) {
+					attachmentContainer = container;
+				}
+				if (attachmentContainer == null || isBlogPost(attachmentContainer)) {
+					continue;
+				}
+				String spaceKey = spaceKey(attachment);
+				if (spaceKey.isEmpty()) {
+					spaceKey = spaceKey(attachmentContainer);
+				}
+				String id = attachmentId(attachment.optString("id"));
+				if (isValid(ATTACHMENT, id, attachmentContainer.optString("id"),
+						spaceKey)) {
+					changes.add(new ChangeEvent(ATTACHMENT, id,
+							attachmentContainer.optString("id"), spaceKey));
+				}
+			}
+		}
+
+		return changes;
+	}
+
+	/**
+	 * <p>Webhooks send the numeric attachment id, the REST API prefixes it</p>
+	 */
+	private static String attachmentId(String id) {
+		return ConfluenceUtil.isAttachment(id) ? id : ATTACHMENT_ID_PREFIX + id;
+	}
+
+	private static boolean isBlogPost(JSONObject content) {
+		return BLOG_POST_TYPE.equals(content.optString("type"))
+				|| BLOG_POST_TYPE.equals(content.optString("contentType"));
+	}
+
+	/**
+	 * <p>Checks the ids are numeric, as the ones of Confluence, and the change can be stored in a line</p>
+	 */
+	private static boolean isValid(String kind, String id, String pageId,
+			String spaceKey) {
+		if (SEPARATORS.matchesAnyOf(spaceKey)) {
+			return false;
+		}
+		if (ATTACHMENT.equals(kind)) {
+			return id.startsWith(ATTACHMENT_ID_PREFIX)
+					&& isNumeric(id.substring(ATTACHMENT_ID_PREFIX.length()))
+					&& isNumeric(pageId);
+		}
+		return PAGE.equals(kind) && isNumeric(id)
+				&& (pageId.isEmpty() || isNumeric(pageId));
+	}
+
+	private static boolean isNumeric(String id) {
+		return !id.isEmpty() && DIGITS.matchesAllOf(id);
+	}
+
+	private static String spaceKey(JSONObject content) {
+		String spaceKey = content.optString("spaceKey", "");
+		if (spaceKey.isEmpty() && content.optJSONObject("space") != null) {
+			spaceKey = content.optJSONObject("space").optString("key", "");
+		}
+		return spaceKey;
+	}
+
+	/**
+	 * <p>Parses a change stored in a queue file</p>
+	 * @param line the stored line
+	 * @return the {@code ChangeEvent} or null if the line is not a valid change
+	 */
+	public static ChangeEvent fromLine(String line) {
+		String[] fields = line.split("\t", -1);
+		if (fields.length != 4
+				|| !isValid(fields[0], fields[1], fields[2], fields[3])) {
+			return null;
+		}
+		return new ChangeEvent(fields[0], fields[1], fields[2], fields[3]);
+	}
+
+	/**
+	 * <p>Gets the line used to store the change in a queue file</p>
+	 */
+	public String toLine() {
+		return kind + "\t" + id + "\t" + pageId + "\t" + spaceKey;
+	}
+
+	public String getKind() {
+		return this.kind;
+	}
+
+	public String getId() {
+		return this.id;
+	}
+
+	public String getPageId() {
+		return this.pageId;
+	}
+
+	public String getSpaceKey() {
+		return this.spaceKey;
+	}
+
+	public boolean isAttachment() {
+		return ATTACHMENT.equals(this.kind);
+	}
+
+	/**
+	 * <p>Gets the identifier of the changed document, as seeded by the connector</p>
+	 */
+	public String getDocumentIdentifier() {
+		return isAttachment() ? ConfluenceUtil
+				.generateRepositoryDocumentIdentifier(this.id, this.pageId)
+				: this.id;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ChangeEvent)) {
+			return false;
+		}
+		ChangeEvent other = (ChangeEvent) obj;
+		return this.kind.equals(other.kind) && this.id.equals(other.id)
+				&& this.pageId.equals(other.pageId);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(this.kind, this.id, this.pageId);
+	}
+
+	@Override
+	public String toString() {
+		return toLine();
+	}
+}
@@ -0,0 +1,292 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.webhook;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * <p>
+ * ChangeQueue class
+ * </p>
+ * <p>
+ * Durable queue of the changes notified by Confluence webhooks, waiting to be
+ * seeded. Changes are appended to a file and synced to disk before the
+ * webhook request is answered, so no notified change is lost if the agent
+ * stops
+ * </p>
+ * <p>
+ * Every job seeding from the queue is a consumer with its own cursor: the
+ * position in the queue file up to which it has seeded the changes. Seeding
+ * drains the changes after the cursor of the job in a batch, and the cursor
+ * is only moved once the batch has been committed after seeding. A batch
+ * which is not committed is drained again along with the changes queued in
+ * the meantime
+ * </p>
+ * <p>
+ * Once every consumer has seeded the whole queue, the queue file is emptied.
+ * Consumers which have not drained the queue for {@value #CURSOR_RETENTION}
+ * milliseconds no longer keep it from being emptied, and rely on the next
+ * reconciliation for the changes they missed
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class ChangeQueue {
+
+	static final String QUEUE_FILE = "changes.queue";
+	static final String CURSOR_EXTENSION = ".cursor";
+	static final long CURSOR_RETENTION = 30L * 24L * 60L * 60L * 1000L;
+
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final Map<File, ChangeQueue> queues = Maps.newHashMap();
+
+	private final File directory;
+	private final File queueFile;
+
+	private ChangeQueue(File directory) {
+		this.directory = directory;
+		this.queueFile = new File(directory, QUEUE_FILE);
+	}
+
+	/**
+	 * <p>Returns the queue kept in the given directory, creating it if needed</p>
+	 * @param directory the directory where the queued changes are stored
+	 * @return the {@code ChangeQueue} for the directory
+	 * @throws ManifoldCFException if the directory can not be used
+	 */
+	public static ChangeQueue forDirectory(File directory)
+			throws ManifoldCFException {
+		File canonicalDirectory;
+		try {
+			canonicalDirectory = directory.getCanonicalFile();
+		} catch (IOException e) {
+			throw new ManifoldCFException("Bad directory " + directory + ": "
+					+ e.getMessage(), e);
+		}
+
+		synchronized (queues) {
+			ChangeQueue queue = queues.get(canonicalDirectory);
+			if (queue == null) {
+				if (!canonicalDirectory.isDirectory()
+						&& !canonicalDirectory.mkdirs()) {
+					throw new ManifoldCFException(
+							"Directory can not be created: "
+									+ canonicalDirectory);
+				}
+				queue = new ChangeQueue(canonicalDirectory);
+				queues.put(canonicalDirectory, queue);
+			}
+			return queue;
+		}
+	}
+
+	/**
+	 * <p>Appends the given changes to the queue, returning once they are on disk</p>
+	 * @param changes the changes to queue
+	 * @throws IOException if the changes can not be stored
+	 */
+	public synchronized void append(Collection<ChangeEvent> changes)
+			throws IOException {
+		if (changes.isEmpty()) {
+			return;
+		}
+
+		StringBuilder lines = new StringBuilder();
+		for (ChangeEvent change : changes) {
+			lines.append(change.toLine()).append('\n');
+		}
+
+		FileOutputStream out = new FileOutputStream(queueFile, true);
+		try {
+			out.write(lines.toString().getBytes(UTF_8));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * <p>Takes the changes a consumer has not seeded yet, including the ones of a previous batch not committed</p>
+	 * <p>Duplicated changes are only returned once</p>
+	 * @param consumer the name of the consumer, such as the key of a job
+	 * @return the {@code Batch} of changes to seed
+	 * @throws IOException if the queue can not be read
+	 */
+	public synchronized Batch drain(String consumer) throws IOException {
+		File cursorFile = cursorFile(consumer);
+		long start = readCursor(cursorFile);
+		if (start > queueFile.length()) {
+			/* Emptied while the cursor was not kept */
+			start = 0L;
+		}
+		/* The consumer keeps the queue until it commits */
+		writeCursor(cursorFile, start);
+
+		Set<ChangeEvent> changes = Sets.newLinkedHashSet();
+		long end = start;
+		if (queueFile.exists()) {
+			RandomAccessFile in = new RandomAccessFile(queueFile, "r");
+			try {
+				byte[] pending = new byte[(int) (in.length() - start)];
+				in.seek(start);
+				in.readFully(pending);
+				/* Only whole lines, a change being appended is taken by the next batch */
+				int length = pending.length;
+				while (length > 0 && pending[length - 1] != '\n') {
+					length--;
+				}
+				end = start + length;
+				for (String line : new String(pending, 0, length, UTF_8)
+						.split("\n")) {
+					ChangeEvent change = ChangeEvent.fromLine(line);
+					if (change != null) {
+						changes.add(change);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return new Batch(cursorFile, start, end, ImmutableList.copyOf(changes));
+	}
+
+	/**
+	 * <p>Gets whether there are changes waiting to be seeded by any consumer</p>
+	 */
+	public synchronized boolean isEmpty() {
+		return queueFile.length() == 0L;
+	}
+
+	private synchronized void commit(Batch batch) throws IOException {
+		if (readCursor(batch.cursorFile) != batch.start) {
+			/* Already committed */
+			return;
+		}
+		writeCursor(batch.cursorFile, batch.end);
+		compact();
+	}
+
+	/**
+	 * <p>Empties the queue once every consumer kept has seeded it whole</p>
+	 */
+	private void compact() throws IOException {
+		long length = queueFile.length();
+		if (length == 0L) {
+			return;
+		}
+		File[] cursorFiles = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.getName().endsWith(CURSOR_EXTENSION);
+			}
+		});
+		if (cursorFiles == null) {
+			throw new IOException("Queue directory can not be listed: "
+					+ directory);
+		}
+		long oldest = System.currentTimeMillis() - CURSOR_RETENTION;
+		for (File cursorFile : cursorFiles) {
+			if (readCursor(cursorFile) < length
+					&& cursorFile.lastModified() >= oldest) {
+				return;
+			}
+		}
+
+		/* Missing cursors start at the beginning of the queue */
+		FileUtils.forceDelete(queueFile);
+		for (File cursorFile : cursorFiles) {
+			FileUtils.forceDelete(cursorFile);
+		}
+	}
+
+	private File cursorFile(String consumer) {
+		return new File(directory, consumer + CURSOR_EXTENSION);
+	}
+
+	private static long readCursor(File cursorFile) throws IOException {
+		if (!cursorFile.exists()) {
+			return 0L;
+		}
+		try {
+			return Long.parseLong(FileUtils.readFileToString(cursorFile, "UTF-8")
+					.trim());
+		} catch (NumberFormatException e) {
+			/* The changes are seeded again */
+			return 0L;
+		}
+	}
+
+	/* The cursor is replaced atomically, and touched even if it did not move */
+	private static void writeCursor(File cursorFile, long position)
+			throws IOException {
+		File temporaryFile = new File(cursorFile.getParentFile(),
+				cursorFile.getName() + TEMPORARY_EXTENSION);
+		FileOutputStream out = new FileOutputStream(temporaryFile);
+		try {
+			out.write(String.valueOf(position).getBytes(UTF_8));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (cursorFile.exists()) {
+			FileUtils.forceDelete(cursorFile);
+		}
+		if (!temporaryFile.renameTo(cursorFile)) {
+			throw new IOException("Cursor file can not be moved to "
+					+ cursorFile);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Batch class
+	 * </p>
+	 * <p>
+	 * Changes drained from the queue by a consumer. They are drained again
+	 * until the batch is committed
+	 * </p>
+	 */
+	public class Batch {
+		private final File cursorFile;
+		private final long start;
+		private final long end;
+		private final List<ChangeEvent> changes;
+
+		private Batch(File cursorFile, long start, long end,
+				List<ChangeEvent> changes) {
+			this.cursorFile = cursorFile;
+			this.start = start;
+			this.end = end;
+			this.changes = changes;
+		}
+
+		public List<ChangeEvent> getChanges() {
+			return this.changes;
+		}
+
+		/**
+		 * <p>Moves the cursor of the consumer past the batch once its changes have been seeded</p>
+		 * @throws IOException if the cursor can not be stored
+		 */
+		public void commit() throws IOException {
+			ChangeQueue.this.commit(this);
+		}
+	}
+}
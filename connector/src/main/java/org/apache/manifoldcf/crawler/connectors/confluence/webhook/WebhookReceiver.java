@@ -0,0 +1,286 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.webhook;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>
+ * WebhookReceiver class
+ * </p>
+ * <p>
+ * Embedded HTTP endpoint receiving the webhook events sent by Confluence.
+ * The pages and attachments affected by every event are appended to a
+ * {@code ChangeQueue}, so the next seeding only has to seed them instead of
+ * listing every space
+ * </p>
+ * <p>
+ * Events are accepted as <code>POST</code> requests to {@value #PATH}. A
+ * secret is required, requests must either be signed with it (
+ * <code>X-Hub-Signature</code> header, as sent by Confluence) or carry it in
+ * the <code>secret</code> query parameter
+ * </p>
+ * <p>
+ * There is one receiver per port, shared by all the connector instances in
+ * the agent and kept running while the agent runs. A port can only be used
+ * with one address, one queue and one secret, so the changes queued for some
+ * connections can not go to the queue of another one
+ * </p>
+ *
+ * @author Antonio David Perez Morales <adperezmorales@gmail.com>
+ *
+ */
+public class WebhookReceiver {
+
+	public static final String PATH = "/confluence/webhook";
+
+	private static final String SIGNATURE_HEADER = "X-Hub-Signature";
+	private static final String SIGNATURE_PREFIX = "sha256=";
+	private static final String SECRET_PARAMETER = "secret=";
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/* Webhook payloads are small, bigger requests are rejected */
+	private static final int MAX_EVENT_SIZE = 1024 * 1024;
+
+	private static final Map<Integer, WebhookReceiver> receivers = Maps.newHashMap();
+
+	private static Logger logger = LoggerFactory.getLogger(WebhookReceiver.class);
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final String address;
+	private final ChangeQueue queue;
+	private final String secret;
+
+	private WebhookReceiver(HttpServer server, ExecutorService executor,
+			String address, ChangeQueue queue, String secret) {
+		this.server = server;
+		this.executor = executor;
+		this.address = address;
+		this.queue = queue;
+		this.secret = secret;
+	}
+
+	/**
+	 * <p>Starts the receiver listening on the given port, or gets the one already running with the same address,
+	 * queue and secret</p>
+	 * @param address the local address to listen on, null or empty to listen on every interface
+	 * @param port the port to listen on, 0 to use any free port
+	 * @param secret the secret webhook requests must carry
+	 * @param queue the queue where the notified changes are stored
+	 * @return the running {@code WebhookReceiver}
+	 * @throws ManifoldCFException if there is no secret, the receiver can not be
+	 *             started, or the port is already used with another address,
+	 *             queue or secret
+	 */
+	public static WebhookReceiver start(String address, int port,
+			String secret, ChangeQueue queue) throws ManifoldCFException {
+		if (StringUtils.isEmpty(secret)) {
+			throw new ManifoldCFException(
+					"A secret is required to receive webhook events");
+		}
+		address = StringUtils.defaultString(address).trim();
+		synchronized (receivers) {
+			WebhookReceiver receiver = port != 0 ? receivers.get(port) : null;
+			if (receiver != null) {
+				if (receiver.queue != queue || !receiver.address.equals(address)
+						|| !receiver.secret.equals(secret)) {
+					throw new ManifoldCFException("Webhook port " + port
+							+ " is already used with another address, queue directory or secret,"
+							+ " the agent has to be restarted to change them");
+				}
+				return receiver;
+			}
+
+			InetSocketAddress socketAddress = address.isEmpty() ? new InetSocketAddress(
+					port) : new InetSocketAddress(address, port);
+			if (socketAddress.isUnresolved()) {
+				throw new ManifoldCFException("Webhook address " + address
+						+ " can not be resolved");
+			}
+			HttpServer server;
+			try {
+				server = HttpServer.create(socketAddress, 0);
+			} catch (IOException e) {
+				throw new ManifoldCFException("Webhook receiver can not listen on port "
+						+ port + ": " + e.getMessage(), e);
+			}
+			ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "confluence-webhook");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			receiver = new WebhookReceiver(server, executor, address, queue,
+					secret);
+			server.createContext(PATH, receiver.new EventHandler());
+			server.setExecutor(executor);
+			server.start();
+			receivers.put(receiver.getPort(), receiver);
+			logger.info("Listening to Confluence webhook events on port {}",
+					receiver.getPort());
+			return receiver;
+		}
+	}
+
+	/**
+	 * <p>Gets the port the receiver is listening on</p>
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * <p>Stops the receiver</p>
+	 */
+	public void stop() {
+		synchronized (receivers) {
+			receivers.remove(getPort());
+		}
+		server.stop(0);
+		executor.shutdown();
+	}
+
+	/**
+	 * <p>Checks the request is sent by the configured Confluence instance</p>
+	 */
+	private boolean isAuthorized(HttpExchange exchange, byte[] body) {
+		String expectedSecret = this.secret;
+		String signature = exchange.getRequestHeaders().getFirst(SIGNATURE_HEADER);
+		if (signature != null) {
+			try {
+				Mac mac = Mac.getInstance("HmacSHA256");
+				mac.init(new SecretKeySpec(expectedSecret.getBytes(UTF_8),
+						"HmacSHA256"));
+				String expected = SIGNATURE_PREFIX
+						+ BaseEncoding.base16().lowerCase().encode(mac.doFinal(body));
+				return MessageDigest.isEqual(expected.getBytes(UTF_8),
+						signature.trim().toLowerCase(Locale.ROOT).getBytes(UTF_8));
+			} catch (GeneralSecurityException e) {
+				logger.warn("Webhook signature can not be checked: {}", e.getMessage());
+				return false;
+			}
+		}
+
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query != null) {
+			for (String parameter : query.split("&")) {
+				if (parameter.startsWith(SECRET_PARAMETER)) {
+					String value = parameter.substring(SECRET_PARAMETER.length());
+					try {
+						value = URLDecoder.decode(value, "UTF-8");
+					} catch (IllegalArgumentException e) {
+						return false;
+					} catch (UnsupportedEncodingException e) {
+						return false;
+					}
+					return MessageDigest.isEqual(expectedSecret.getBytes(UTF_8),
+							value.getBytes(UTF_8));
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * <p>
+	 * EventHandler class
+	 * </p>
+	 * <p>
+	 * Queues the changes of every received event, answering once they are
+	 * stored. Events which can not be queued are answered with an error
+	 * status, their changes are picked up by the next reconciliation
+	 * </p>
+	 */
+	private class EventHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", "POST");
+					respond(exchange, 405);
+					return;
+				}
+
+				InputStream in = exchange.getRequestBody();
+				byte[] body;
+				try {
+					body = IOUtils.toByteArray(ByteStreams.limit(in,
+							MAX_EVENT_SIZE + 1));
+				} finally {
+					in.close();
+				}
+				if (body.length > MAX_EVENT_SIZE) {
+					respond(exchange, 413);
+					return;
+				}
+
+				if (!isAuthorized(exchange, body)) {
+					respond(exchange, 401);
+					return;
+				}
+
+				List<ChangeEvent> changes;
+				try {
+					changes = ChangeEvent.fromWebhook(new JSONObject(new String(
+							body, UTF_8)));
+				} catch (JSONException e) {
+					respond(exchange, 400);
+					return;
+				}
+
+				try {
+					queue.append(changes);
+				} catch (IOException e) {
+					logger.error("Webhook event changes can not be queued", e);
+					respond(exchange, 503);
+					return;
+				}
+
+				if (logger.isDebugEnabled()) {
+					logger.debug("Queued changes {}", changes);
+				}
+				respond(exchange, 204);
+			} finally {
+				exchange.close();
+			}
+		}
+
+		private void respond(HttpExchange exchange, int status)
+				throws IOException {
+			exchange.sendResponseHeaders(status, -1);
+		}
+	}
+}
@@ -24,6 +24,34 @@ function checkConfig()
     return false;
   }
 
+  if (editconnection.confluence_maxconnections.value != "" && !isInteger(editconnection.confluence_maxconnections.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceAuthorityConnector.MaxConnectionsMustBeAnInteger'))");
+    editconnection.confluence_maxconnections.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_connecttimeout.value != "" && !isInteger(editconnection.confluence_connecttimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceAuthorityConnector.TimeoutsMustBeIntegers'))");
+    editconnection.confluence_connecttimeout.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_pooltimeout.value != "" && !isInteger(editconnection.confluence_pooltimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceAuthorityConnector.TimeoutsMustBeIntegers'))");
+    editconnection.confluence_pooltimeout.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_metadatatimeout.value != "" && !isInteger(editconnection.confluence_metadatatimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceAuthorityConnector.TimeoutsMustBeIntegers'))");
+    editconnection.confluence_metadatatimeout.focus();
+    return false;
+  }
+
   return true;
 }
  
@@ -69,6 +97,38 @@ function checkConfigForSave()
     editconnection.confluence_path.focus();
     return false;
   }
+
+  if (editconnection.confluence_maxconnections.value != "" && !isInteger(editconnection.confluence_maxconnections.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceAuthorityConnector.MaxConnectionsMustBeAnInteger'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceAuthorityConnector.Performance'))");
+    editconnection.confluence_maxconnections.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_connecttimeout.value != "" && !isInteger(editconnection.confluence_connecttimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceAuthorityConnector.TimeoutsMustBeIntegers'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceAuthorityConnector.Performance'))");
+    editconnection.confluence_connecttimeout.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_pooltimeout.value != "" && !isInteger(editconnection.confluence_pooltimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceAuthorityConnector.TimeoutsMustBeIntegers'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceAuthorityConnector.Performance'))");
+    editconnection.confluence_pooltimeout.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_metadatatimeout.value != "" && !isInteger(editconnection.confluence_metadatatimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceAuthorityConnector.TimeoutsMustBeIntegers'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceAuthorityConnector.Performance'))");
+    editconnection.confluence_metadatatimeout.focus();
+    return false;
+  }
   
   return true;
 }
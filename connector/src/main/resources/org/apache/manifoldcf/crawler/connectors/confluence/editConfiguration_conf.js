@@ -17,6 +17,125 @@ function checkConfig()
     return false;
   }
 
+  if (editconnection.confluence_maxconnections.value != "" && !isInteger(editconnection.confluence_maxconnections.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.MaxConnectionsMustBeAnInteger'))");
+    editconnection.confluence_maxconnections.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_connecttimeout.value != "" && !isInteger(editconnection.confluence_connecttimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.TimeoutsMustBeIntegers'))");
+    editconnection.confluence_connecttimeout.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_pooltimeout.value != "" && !isInteger(editconnection.confluence_pooltimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.TimeoutsMustBeIntegers'))");
+    editconnection.confluence_pooltimeout.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_metadatatimeout.value != "" && !isInteger(editconnection.confluence_metadatatimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.TimeoutsMustBeIntegers'))");
+    editconnection.confluence_metadatatimeout.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_contenttimeout.value != "" && !isInteger(editconnection.confluence_contenttimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.TimeoutsMustBeIntegers'))");
+    editconnection.confluence_contenttimeout.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_failureratethreshold.value != "" && !isInteger(editconnection.confluence_failureratethreshold.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.CircuitBreakerValuesMustBeIntegers'))");
+    editconnection.confluence_failureratethreshold.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_minimumrequests.value != "" && !isInteger(editconnection.confluence_minimumrequests.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.CircuitBreakerValuesMustBeIntegers'))");
+    editconnection.confluence_minimumrequests.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_opentime.value != "" && !isInteger(editconnection.confluence_opentime.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.CircuitBreakerValuesMustBeIntegers'))");
+    editconnection.confluence_opentime.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_prefetchdocuments.value != "" && !isInteger(editconnection.confluence_prefetchdocuments.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.PrefetchValuesMustBeIntegers'))");
+    editconnection.confluence_prefetchdocuments.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_prefetchmemory.value != "" && !isInteger(editconnection.confluence_prefetchmemory.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.PrefetchValuesMustBeIntegers'))");
+    editconnection.confluence_prefetchmemory.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_cachesize.value != "" && !isInteger(editconnection.confluence_cachesize.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.CacheSizeMustBeAnInteger'))");
+    editconnection.confluence_cachesize.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_contentsize.value != "" && !isInteger(editconnection.confluence_contentsize.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.ContentSizeMustBeAnInteger'))");
+    editconnection.confluence_contentsize.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_snapshotmode.value != "none" && editconnection.confluence_snapshotdirectory.value == "")
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.SnapshotDirectoryMustNotBeNull'))");
+    editconnection.confluence_snapshotdirectory.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_webhookport.value != "" && !isInteger(editconnection.confluence_webhookport.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.WebhookPortMustBeAnInteger'))");
+    editconnection.confluence_webhookport.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_webhookport.value != "" && editconnection.confluence_queuedirectory.value == "")
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.QueueDirectoryMustNotBeNull'))");
+    editconnection.confluence_queuedirectory.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_webhookport.value != "" && editconnection.confluence_webhooksecret.value == "")
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.WebhookSecretMustNotBeNull'))");
+    editconnection.confluence_webhooksecret.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_reconcileinterval.value != "" && !isInteger(editconnection.confluence_reconcileinterval.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.ReconcileIntervalMustBeAnInteger'))");
+    editconnection.confluence_reconcileinterval.focus();
+    return false;
+  }
+
 //  if (editconnection.confluence_path.value != "" && !(editconnection.confluence_path.value.indexOf("/") == 0))
 //  {
 //    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.PathMustBeginWithASlash'))");
@@ -54,6 +173,142 @@ function checkConfigForSave()
     return false;
   }
 
+  if (editconnection.confluence_maxconnections.value != "" && !isInteger(editconnection.confluence_maxconnections.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.MaxConnectionsMustBeAnInteger'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Performance'))");
+    editconnection.confluence_maxconnections.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_connecttimeout.value != "" && !isInteger(editconnection.confluence_connecttimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.TimeoutsMustBeIntegers'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Performance'))");
+    editconnection.confluence_connecttimeout.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_pooltimeout.value != "" && !isInteger(editconnection.confluence_pooltimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.TimeoutsMustBeIntegers'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Performance'))");
+    editconnection.confluence_pooltimeout.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_metadatatimeout.value != "" && !isInteger(editconnection.confluence_metadatatimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.TimeoutsMustBeIntegers'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Performance'))");
+    editconnection.confluence_metadatatimeout.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_contenttimeout.value != "" && !isInteger(editconnection.confluence_contenttimeout.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.TimeoutsMustBeIntegers'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Performance'))");
+    editconnection.confluence_contenttimeout.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_failureratethreshold.value != "" && !isInteger(editconnection.confluence_failureratethreshold.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.CircuitBreakerValuesMustBeIntegers'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Performance'))");
+    editconnection.confluence_failureratethreshold.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_minimumrequests.value != "" && !isInteger(editconnection.confluence_minimumrequests.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.CircuitBreakerValuesMustBeIntegers'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Performance'))");
+    editconnection.confluence_minimumrequests.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_opentime.value != "" && !isInteger(editconnection.confluence_opentime.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.CircuitBreakerValuesMustBeIntegers'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Performance'))");
+    editconnection.confluence_opentime.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_prefetchdocuments.value != "" && !isInteger(editconnection.confluence_prefetchdocuments.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.PrefetchValuesMustBeIntegers'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Performance'))");
+    editconnection.confluence_prefetchdocuments.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_prefetchmemory.value != "" && !isInteger(editconnection.confluence_prefetchmemory.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.PrefetchValuesMustBeIntegers'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Performance'))");
+    editconnection.confluence_prefetchmemory.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_cachesize.value != "" && !isInteger(editconnection.confluence_cachesize.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.CacheSizeMustBeAnInteger'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Storage'))");
+    editconnection.confluence_cachesize.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_contentsize.value != "" && !isInteger(editconnection.confluence_contentsize.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.ContentSizeMustBeAnInteger'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Storage'))");
+    editconnection.confluence_contentsize.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_snapshotmode.value != "none" && editconnection.confluence_snapshotdirectory.value == "")
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.SnapshotDirectoryMustNotBeNull'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Storage'))");
+    editconnection.confluence_snapshotdirectory.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_webhookport.value != "" && !isInteger(editconnection.confluence_webhookport.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.WebhookPortMustBeAnInteger'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Notifications'))");
+    editconnection.confluence_webhookport.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_webhookport.value != "" && editconnection.confluence_queuedirectory.value == "")
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.QueueDirectoryMustNotBeNull'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Notifications'))");
+    editconnection.confluence_queuedirectory.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_webhookport.value != "" && editconnection.confluence_webhooksecret.value == "")
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.WebhookSecretMustNotBeNull'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Notifications'))");
+    editconnection.confluence_webhooksecret.focus();
+    return false;
+  }
+
+  if (editconnection.confluence_reconcileinterval.value != "" && !isInteger(editconnection.confluence_reconcileinterval.value))
+  {
+    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.ReconcileIntervalMustBeAnInteger'))");
+    SelectTab("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.Notifications'))");
+    editconnection.confluence_reconcileinterval.focus();
+    return false;
+  }
+
 //  if (editconnection.confluence_path.value == "")
 //  {
 //    alert("$Encoder.bodyJavascriptEscape($ResourceBundle.getString('ConfluenceRepositoryConnector.PathMustNotBeNull'))");
@@ -0,0 +1,89 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.client.AsyncConfluenceClient;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluenceClient;
+import org.apache.manifoldcf.crawler.connectors.confluence.exception.ConfluenceUnavailableException;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Attachment;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceResponse;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.MutableAttachment;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Page;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class AsyncConfluenceClientTest {
+
+	@Test
+	public void collectsAllThePagesOfAttachments() throws Exception {
+		ConfluenceClient client = new ConfluenceClient() {
+			@Override
+			public ConfluenceResponse<Attachment> getPageAttachments(
+					String pageId, int start, int limit) {
+				List<Attachment> attachments = Lists.newArrayList();
+				for (int i = start; i < Math.min(start + limit, 5); i++) {
+					MutableAttachment attachment = new MutableAttachment();
+					attachment.setId(pageId + "-" + i);
+					attachments.add(attachment);
+				}
+				return new ConfluenceResponse<Attachment>(attachments, start,
+						limit, start + limit >= 5);
+			}
+		};
+
+		List<Attachment> attachments = AsyncConfluenceClient
+				.await(new AsyncConfluenceClient(client)
+						.getAllPageAttachments("1", 2));
+		Assert.assertEquals(5, attachments.size());
+		Assert.assertEquals("1-0", attachments.get(0).getId());
+		Assert.assertEquals("1-4", attachments.get(4).getId());
+	}
+
+	@Test
+	public void failedRequestsThrowTheirException() throws Exception {
+		ConfluenceClient client = new ConfluenceClient() {
+			@Override
+			public Page getPage(String pageId)
+					throws ConfluenceUnavailableException {
+				throw new ConfluenceUnavailableException("Circuit open", 0L);
+			}
+		};
+
+		try {
+			AsyncConfluenceClient.await(new AsyncConfluenceClient(client)
+					.getPage("1"));
+			Assert.fail("The exception of the request must be thrown");
+		} catch (ConfluenceUnavailableException e) {
+			Assert.assertEquals("Circuit open", e.getMessage());
+		}
+	}
+
+	@Test
+	public void cancellingInterruptsTheRequest() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		ConfluenceClient client = new ConfluenceClient() {
+			@Override
+			public Page getPage(String pageId) {
+				started.countDown();
+				try {
+					Thread.sleep(60000L);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+				}
+				return new Page();
+			}
+		};
+
+		ListenableFuture<Page> page = new AsyncConfluenceClient(client)
+				.getPage("1");
+		Assert.assertTrue(started.await(5L, TimeUnit.SECONDS));
+		Assert.assertTrue(page.cancel(true));
+		Assert.assertTrue(interrupted.await(5L, TimeUnit.SECONDS));
+	}
+}
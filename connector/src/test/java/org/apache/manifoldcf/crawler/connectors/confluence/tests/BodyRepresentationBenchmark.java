@@ -0,0 +1,79 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluenceClient;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.RequestStatistics;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.TransferStatistics;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.BodyRepresentation;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.MetadataGroup;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Page;
+
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * Fetches a sample of pages in every body representation and reports, for
+ * each one, the time Confluence took to answer and the bytes received and
+ * indexed. It is run by hand against a test instance, not by the build:
+ * </p>
+ * <pre>
+ * java BodyRepresentationBenchmark protocol host port path username password page-ids-file
+ * </pre>
+ * <p>
+ * The file has a page id per line. No metadata group is requested, so each
+ * page is a single request
+ * </p>
+ */
+public class BodyRepresentationBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 7) {
+			System.err.println("Usage: BodyRepresentationBenchmark protocol host port path username password page-ids-file");
+			System.exit(1);
+		}
+		List<String> pageIds = Lists.newArrayList();
+		for (String line : Files.readAllLines(new File(args[6]).toPath(),
+				Charset.forName("UTF-8"))) {
+			if (!line.trim().isEmpty()) {
+				pageIds.add(line.trim());
+			}
+		}
+
+		System.out.println(String.format("%-12s %8s %12s %12s %14s %14s %14s",
+				"body", "pages", "total ms", "server ms", "wire bytes",
+				"json bytes", "body bytes"));
+		for (BodyRepresentation representation : BodyRepresentation.values()) {
+			ConfluenceClient client = new ConfluenceClient(args[0], args[1],
+					Integer.valueOf(args[2]), args[3], args[4], args[5]);
+			try {
+				long bodyBytes = 0L;
+				long start = System.nanoTime();
+				for (String pageId : pageIds) {
+					Page page = client.getPage(pageId,
+							EnumSet.noneOf(MetadataGroup.class), representation);
+					bodyBytes += page.getLength();
+				}
+				long totalMillis = (System.nanoTime() - start) / 1000000L;
+
+				RequestStatistics requests = client.getRequestStatistics();
+				TransferStatistics transfer = client.getTransferStatistics();
+				double serverMillis = requests.getBasicRequests()
+						* requests.getBasicAverageTime()
+						+ requests.getSessionRequests()
+						* requests.getSessionAverageTime();
+				System.out.println(String.format(
+						"%-12s %8d %12d %12.0f %14d %14d %14d",
+						representation.getName(), pageIds.size(), totalMillis,
+						serverMillis, transfer.getWireBytes(),
+						transfer.getContentBytes(), bodyBytes));
+			} finally {
+				client.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.client.CircuitBreaker;
+import org.apache.manifoldcf.crawler.connectors.confluence.exception.ConfluenceUnavailableException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	@Test
+	public void opensWhenFailureRateIsReached() throws Exception {
+		CircuitBreaker breaker = CircuitBreaker.forBin("opens.example.com",
+				50, 4, 60000L);
+
+		breaker.recordSuccess(CircuitBreaker.NO_TRIAL);
+		breaker.recordFailure(CircuitBreaker.NO_TRIAL);
+		breaker.recordSuccess(CircuitBreaker.NO_TRIAL);
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		breaker.recordFailure(CircuitBreaker.NO_TRIAL);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		try {
+			breaker.acquirePermission();
+			Assert.fail("Requests must be rejected while the circuit is open");
+		} catch (ConfluenceUnavailableException e) {
+			Assert.assertTrue(e.getRetryTime() > System.currentTimeMillis());
+		}
+	}
+
+	@Test
+	public void halfOpenTrialClosesCircuit() throws Exception {
+		CircuitBreaker breaker = CircuitBreaker.forBin("halfopen.example.com",
+				100, 1, 0L);
+
+		breaker.recordFailure(CircuitBreaker.NO_TRIAL);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		Thread.sleep(CircuitBreaker.MINIMUM_OPEN_TIME + 100L);
+		long permit = breaker.acquirePermission();
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.recordSuccess(permit);
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void onlyTheTrialOutcomeCounts() throws Exception {
+		CircuitBreaker breaker = CircuitBreaker.forBin("trial.example.com",
+				100, 1, 0L);
+
+		breaker.recordFailure(CircuitBreaker.NO_TRIAL);
+		try {
+			breaker.acquirePermission();
+			Assert.fail("The circuit must stay open a minimum time");
+		} catch (ConfluenceUnavailableException e) {
+			Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		}
+
+		Thread.sleep(CircuitBreaker.MINIMUM_OPEN_TIME + 100L);
+		long permit = breaker.acquirePermission();
+		/* A request sent before the circuit opened reports back */
+		breaker.recordSuccess(CircuitBreaker.NO_TRIAL);
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		try {
+			breaker.acquirePermission();
+			Assert.fail("Only one trial request is allowed at a time");
+		} catch (ConfluenceUnavailableException e) {
+			Assert.assertEquals(CircuitBreaker.State.HALF_OPEN,
+					breaker.getState());
+		}
+
+		breaker.recordFailure(permit);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void releasedTrialAllowsAnotherOne() throws Exception {
+		CircuitBreaker breaker = CircuitBreaker.forBin("released.example.com",
+				100, 1, 0L);
+
+		breaker.recordFailure(CircuitBreaker.NO_TRIAL);
+		Thread.sleep(CircuitBreaker.MINIMUM_OPEN_TIME + 100L);
+		long permit = breaker.acquirePermission();
+		/* The trial request could not get a connection, it was never sent */
+		breaker.release(permit);
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+		long next = breaker.acquirePermission();
+		breaker.recordFailure(permit);
+		Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.recordSuccess(next);
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void disabledCircuitNeverRejects() throws Exception {
+		CircuitBreaker breaker = CircuitBreaker.forBin("disabled.example.com",
+				0, 1, 60000L);
+
+		breaker.recordFailure(CircuitBreaker.NO_TRIAL);
+		breaker.recordFailure(CircuitBreaker.NO_TRIAL);
+		breaker.acquirePermission();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void configurationsDoNotShareTheCircuit() throws Exception {
+		CircuitBreaker breaker = CircuitBreaker.forBin("shared.example.com",
+				100, 1, 60000L);
+		Assert.assertSame(breaker, CircuitBreaker.forBin("shared.example.com",
+				100, 1, 60000L));
+
+		CircuitBreaker other = CircuitBreaker.forBin("shared.example.com", 0,
+				1, 60000L);
+		breaker.recordFailure(CircuitBreaker.NO_TRIAL);
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, other.getState());
+		other.acquirePermission();
+	}
+}
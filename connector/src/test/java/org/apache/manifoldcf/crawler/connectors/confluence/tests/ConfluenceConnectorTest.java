@@ -6,6 +6,7 @@ import static org.mockito.Matchers.anyObject;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -20,10 +21,14 @@ import java.util.List;
 import java.util.Map;
 
 import org.apache.manifoldcf.agents.interfaces.RepositoryDocument;
+import org.apache.manifoldcf.agents.interfaces.ServiceInterruption;
 import org.apache.manifoldcf.core.interfaces.Specification;
 import org.apache.manifoldcf.crawler.connectors.BaseRepositoryConnector;
 import org.apache.manifoldcf.crawler.connectors.confluence.ConfluenceRepositoryConnector;
 import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluenceClient;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluencePaginator;
+import org.apache.manifoldcf.crawler.connectors.confluence.exception.ConfluenceException;
+import org.apache.manifoldcf.crawler.connectors.confluence.exception.ConfluenceUnavailableException;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceResponse;
 import org.apache.manifoldcf.crawler.connectors.confluence.model.Page;
 import org.apache.manifoldcf.crawler.interfaces.IExistingVersions;
@@ -36,7 +41,9 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 import com.google.common.base.Optional;
 
@@ -55,6 +62,20 @@ public class ConfluenceConnectorTest {
 		connector.setConfluenceClient(client);
 		when(client.getPages(anyInt(), anyInt(), Mockito.any(Optional.class))).
 			thenReturn(new ConfluenceResponse<Page>(Collections.<Page>emptyList(), 0, 0, true));
+		/* Listings are walked over the mocked requests */
+		when(client.paginatePages(Mockito.any(Optional.class), anyInt(), Mockito.anyBoolean())).
+			thenAnswer(new Answer<ConfluencePaginator<Page>>() {
+				@Override
+				public ConfluencePaginator<Page> answer(InvocationOnMock invocation) {
+					final Optional<String> space = (Optional<String>) invocation.getArguments()[0];
+					return new ConfluencePaginator<Page>(new ConfluencePaginator.Request<Page>() {
+						@Override
+						public ConfluenceResponse<Page> get(int start, int limit) throws Exception {
+							return client.getPages(start, limit, space);
+						}
+					}, (Integer) invocation.getArguments()[1], false);
+				}
+			});
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -67,7 +88,9 @@ public class ConfluenceConnectorTest {
 
 		connector.addSeedDocuments(activities, spec, "", seedTime, BaseRepositoryConnector.JOBMODE_ONCEONLY);
 		// Verify it starts always at 0. Pagination configurable so anyInt(). Only one call because isLast must be false
+		verify(client, times(1)).paginatePages(eq(Optional.<String> absent()), anyInt(), Mockito.anyBoolean());
 		verify(client, times(1)).getPages(eq(0), anyInt(), Mockito.any(Optional.class));
+		verify(client, times(1)).getPages(anyInt(), anyInt(), Mockito.any(Optional.class));
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -86,6 +109,7 @@ public class ConfluenceConnectorTest {
 			thenReturn(new ConfluenceResponse<Page>(Collections.<Page>emptyList(), 0, 0, true));
 		connector.addSeedDocuments(activities, spec, "", seedTime, BaseRepositoryConnector.JOBMODE_ONCEONLY);
 		verify(activities, times(1)).addSeedDocument(Mockito.anyString());
+		verify(client, times(1)).paginatePages(eq(Optional.<String> absent()), anyInt(), Mockito.anyBoolean());
 		verify(client, times(1)).getPages(eq(0), anyInt(), Mockito.any(Optional.class));
 		verify(client, times(1)).getPages(eq(1), anyInt(), Mockito.any(Optional.class));
 	}
@@ -191,5 +215,26 @@ public class ConfluenceConnectorTest {
 		verify(activities, times(1)).deleteDocument(id);
 				
 	}
+
+	@Test
+	public void mockFailedFetchIsRetried() throws Exception{
+		String id = "A";
+		when(client.getPage(Mockito.anyString())).
+			thenThrow(new ConfluenceUnavailableException("Confluence error. 503 Service Unavailable", 0L),
+					new ConfluenceException("Confluence error. 403 Forbidden"));
+
+		IExistingVersions statuses = mock(IExistingVersions.class);
+		IProcessActivity activities = mock(IProcessActivity.class);
+		for (int i = 0; i < 2; i++) {
+			try {
+				connector.processDocuments(new String[]{id}, statuses, new Specification(), activities, 0, true);
+				Assert.fail("The document must be retried");
+			} catch (ServiceInterruption e) {
+				Assert.assertFalse(e.isAbortOnFail());
+			}
+		}
+		verify(client, times(2)).getPage(id);
+		verify(activities, never()).deleteDocument(id);
+	}
 		
 }
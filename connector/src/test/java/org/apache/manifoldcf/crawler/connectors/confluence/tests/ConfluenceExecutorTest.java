@@ -0,0 +1,90 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluenceExecutor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class ConfluenceExecutorTest {
+
+	@Test
+	public void runsTasksConcurrentlyKeepingTheirOrder() throws Exception {
+		final CountDownLatch started = new CountDownLatch(8);
+		List<Callable<Integer>> tasks = Lists.newArrayList();
+		for (int i = 0; i < 8; i++) {
+			final int number = i;
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					started.countDown();
+					/* Every task waits for the others, so they must run at the same time */
+					Assert.assertTrue(started.await(5L, TimeUnit.SECONDS));
+					return number;
+				}
+			});
+		}
+
+		Assert.assertEquals(Lists.newArrayList(0, 1, 2, 3, 4, 5, 6, 7),
+				ConfluenceExecutor.invokeAll(tasks));
+	}
+
+	@Test
+	public void nestedFanOutsComplete() throws Exception {
+		List<Callable<Integer>> tasks = Lists.newArrayList();
+		for (int i = 0; i < 64; i++) {
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					List<Callable<Integer>> nested = Lists.newArrayList();
+					for (int j = 0; j < 4; j++) {
+						nested.add(new Callable<Integer>() {
+							@Override
+							public Integer call() {
+								return 1;
+							}
+						});
+					}
+					int sum = 0;
+					for (Integer result : ConfluenceExecutor.invokeAll(nested)) {
+						sum += result;
+					}
+					return sum;
+				}
+			});
+		}
+
+		for (Integer result : ConfluenceExecutor.invokeAll(tasks)) {
+			Assert.assertEquals(4, result.intValue());
+		}
+	}
+
+	@Test
+	public void rethrowsTheFailureOfATask() throws Exception {
+		List<Callable<String>> tasks = Lists.newArrayList();
+		tasks.add(new Callable<String>() {
+			@Override
+			public String call() {
+				return "ok";
+			}
+		});
+		tasks.add(new Callable<String>() {
+			@Override
+			public String call() {
+				throw new IllegalArgumentException("Bad space");
+			}
+		});
+
+		try {
+			ConfluenceExecutor.invokeAll(tasks);
+			Assert.fail("The failure of a task must be thrown");
+		} catch (IllegalArgumentException e) {
+			Assert.assertEquals("Bad space", e.getMessage());
+		}
+	}
+}
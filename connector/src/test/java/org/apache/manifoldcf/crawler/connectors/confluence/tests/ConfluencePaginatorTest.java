@@ -0,0 +1,108 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluencePaginator;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Attachment;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceResponse;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.MutableAttachment;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class ConfluencePaginatorTest {
+
+	@Test
+	public void walksAllThePagesLazily() throws Exception {
+		AtomicInteger requests = new AtomicInteger();
+		ConfluencePaginator<Attachment> paginator = new ConfluencePaginator<Attachment>(
+				listing(7, requests, -1), 3, false);
+
+		Assert.assertEquals(0, requests.get());
+		Assert.assertTrue(paginator.hasNext());
+		Assert.assertEquals("0", paginator.next().getId());
+		Assert.assertEquals(1, requests.get());
+
+		List<String> results = Lists.newArrayList();
+		while (paginator.hasNext()) {
+			results.add(paginator.next().getId());
+		}
+		Assert.assertEquals(Lists.newArrayList("1", "2", "3", "4", "5", "6"), results);
+		Assert.assertEquals(3, requests.get());
+	}
+
+	@Test
+	public void prefetchesTheNextPage() throws Exception {
+		AtomicInteger requests = new AtomicInteger();
+		ConfluencePaginator<Attachment> paginator = new ConfluencePaginator<Attachment>(
+				listing(7, requests, -1), 3, true);
+
+		Assert.assertEquals(Lists.newArrayList("0", "1", "2"),
+				ids(paginator.nextResults()));
+		Assert.assertEquals(Lists.newArrayList("3", "4", "5"),
+				ids(paginator.nextResults()));
+		Assert.assertEquals(Lists.newArrayList("6"), ids(paginator.nextResults()));
+		Assert.assertTrue(paginator.nextResults().isEmpty());
+		Assert.assertEquals(3, requests.get());
+		paginator.close();
+	}
+
+	@Test
+	public void nextResultsReturnsWhatIsLeftOfThePage() throws Exception {
+		ConfluencePaginator<Attachment> paginator = new ConfluencePaginator<Attachment>(
+				listing(5, new AtomicInteger(), -1), 3, false);
+
+		Assert.assertEquals("0", paginator.next().getId());
+		Assert.assertEquals(Lists.newArrayList("1", "2"), ids(paginator.nextResults()));
+		Assert.assertEquals(Lists.newArrayList("3", "4"), ids(paginator.nextResults()));
+		Assert.assertFalse(paginator.hasNext());
+	}
+
+	@Test
+	public void failuresOfPrefetchedPagesAreThrownWhenReached() throws Exception {
+		ConfluencePaginator<Attachment> paginator = new ConfluencePaginator<Attachment>(
+				listing(9, new AtomicInteger(), 3), 3, true);
+
+		Assert.assertEquals(Lists.newArrayList("0", "1", "2"),
+				ids(paginator.nextResults()));
+		try {
+			paginator.nextResults();
+			Assert.fail("The failure of the second page must be thrown");
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("Listing failed at 3", e.getMessage());
+		} finally {
+			paginator.close();
+		}
+	}
+
+	private static List<String> ids(List<Attachment> attachments) {
+		List<String> ids = Lists.newArrayList();
+		for (Attachment attachment : attachments) {
+			ids.add(attachment.getId());
+		}
+		return ids;
+	}
+
+	private static ConfluencePaginator.Request<Attachment> listing(
+			final int size, final AtomicInteger requests, final int failingStart) {
+		return new ConfluencePaginator.Request<Attachment>() {
+			@Override
+			public ConfluenceResponse<Attachment> get(int start, int limit) {
+				requests.incrementAndGet();
+				if (start == failingStart) {
+					throw new IllegalStateException("Listing failed at " + start);
+				}
+				List<Attachment> results = Lists.newArrayList();
+				for (int i = start; i < Math.min(start + limit, size); i++) {
+					MutableAttachment attachment = new MutableAttachment();
+					attachment.setId(String.valueOf(i));
+					results.add(attachment);
+				}
+				return new ConfluenceResponse<Attachment>(results, start, limit,
+						start + limit >= size);
+			}
+		};
+	}
+}
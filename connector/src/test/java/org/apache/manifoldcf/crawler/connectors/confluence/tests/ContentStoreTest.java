@@ -0,0 +1,39 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ContentStore;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContentStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void storedVersionIsReturnedUncompressed() throws Exception {
+		ContentStore store = ContentStore.forDirectory(folder.newFolder("content"), 1024L * 1024L);
+		byte[] content = "<p>Some page content</p>".getBytes("UTF-8");
+
+		store.put(ContentStore.PAGE, "1234", 3, content);
+
+		Assert.assertEquals(content.length, store.length(ContentStore.PAGE, "1234", 3));
+		InputStream stored = store.open(ContentStore.PAGE, "1234", 3);
+		Assert.assertArrayEquals(content, IOUtils.toByteArray(stored));
+		stored.close();
+	}
+
+	@Test
+	public void otherVersionsAndKindsAreNotReturned() throws Exception {
+		ContentStore store = ContentStore.forDirectory(folder.newFolder("versions"), 1024L * 1024L);
+		store.put(ContentStore.PAGE, "1234", 3, "page".getBytes("UTF-8"));
+
+		Assert.assertNull(store.open(ContentStore.PAGE, "1234", 4));
+		Assert.assertNull(store.open(ContentStore.ATTACHMENT, "1234", 3));
+		Assert.assertEquals(-1L, store.length(ContentStore.PAGE, "1234", 4));
+	}
+}
@@ -0,0 +1,236 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.util.Collections;
+import java.util.Date;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.state.CrawlStateStore;
+import org.apache.manifoldcf.crawler.connectors.confluence.state.CrawlStateStore.View.Decision;
+import org.apache.manifoldcf.crawler.connectors.confluence.state.SpaceState;
+import org.apache.manifoldcf.crawler.connectors.confluence.util.LongBitmap;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class CrawlStateStoreTest {
+
+	private static final long DAY = 24L * 60L * 60L * 1000L;
+	private static final long FIRST_SEEDING = 100L * DAY;
+	private static final long SECOND_SEEDING = 101L * DAY;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void bitmapKeepsSparseAndDenseIds() {
+		LongBitmap bitmap = new LongBitmap();
+		for (long id = 65000L; id < 75000L; id++) {
+			bitmap.add(id);
+		}
+		bitmap.add(3000000000L);
+
+		Assert.assertEquals(10001L, bitmap.cardinality());
+		Assert.assertTrue(bitmap.contains(70000L));
+		Assert.assertTrue(bitmap.contains(3000000000L));
+		Assert.assertFalse(bitmap.contains(75000L));
+
+		LongBitmap other = new LongBitmap();
+		other.add(3000000000L);
+		Assert.assertEquals(10000L, bitmap.andNot(other).cardinality());
+	}
+
+	@Test
+	public void decidesFromTheLastTwoSeedings() throws Exception {
+		CrawlStateStore store = CrawlStateStore.forDirectory(folder.newFolder("state"));
+		Optional<String> space = Optional.of("DS");
+
+		SpaceState.Builder first = new SpaceState.Builder(null, FIRST_SEEDING);
+		first.addPage("1", new Date(FIRST_SEEDING - 10 * DAY));
+		first.addPage("2", new Date(FIRST_SEEDING - 10 * DAY));
+		first.addPage("3", new Date(FIRST_SEEDING - 10 * DAY));
+		first.addAttachment("att10", new Date(FIRST_SEEDING - 10 * DAY));
+		first.addAttachment("att11", new Date(FIRST_SEEDING - 10 * DAY));
+		store.save(space, first.build());
+		store.markProcessed(store.view(ImmutableList.of("DS")), ImmutableList
+				.of("1", "2", "3", "att10-1", "att11-1"));
+
+		SpaceState.Builder second = new SpaceState.Builder(store.load(space), SECOND_SEEDING);
+		second.addPage("1", new Date(FIRST_SEEDING - 10 * DAY));
+		second.addPage("2", new Date(SECOND_SEEDING - DAY / 2));
+		second.addPage("4", new Date(SECOND_SEEDING - DAY / 2));
+		second.addAttachment("att10", new Date(FIRST_SEEDING - 10 * DAY));
+		SpaceState state = second.build();
+		Assert.assertArrayEquals(new long[] { 3L }, state.getRemovedPages());
+		store.save(space, state);
+
+		CrawlStateStore.View view = store.view(ImmutableList.of("DS"));
+		Assert.assertEquals(Decision.UNCHANGED, view.decide("1"));
+		Assert.assertEquals(Decision.FETCH, view.decide("2"));
+		Assert.assertEquals(Decision.REMOVED, view.decide("3"));
+		Assert.assertEquals(Decision.FETCH, view.decide("4"));
+		Assert.assertEquals(Decision.FETCH, view.decide("5"));
+		Assert.assertEquals(Decision.UNCHANGED, view.decide("att10-1"));
+		Assert.assertEquals(Decision.REMOVED, view.decide("att11-1"));
+		Assert.assertEquals(Decision.REMOVED, view.decide("att12-3"));
+
+		store.markChanged(ImmutableList.of("DS"), ImmutableList.of("1", "att10-1"));
+		view = store.view(ImmutableList.of("DS"));
+		Assert.assertEquals(Decision.FETCH, view.decide("1"));
+		Assert.assertEquals(Decision.FETCH, view.decide("att10-1"));
+	}
+
+	@Test
+	public void unchangedSpaceKeepsItsContents() throws Exception {
+		CrawlStateStore store = CrawlStateStore.forDirectory(folder.newFolder("unchanged"));
+		Optional<String> space = Optional.of("DS");
+
+		SpaceState.Builder first = new SpaceState.Builder(null, FIRST_SEEDING);
+		first.addPage("1", new Date(FIRST_SEEDING - DAY));
+		first.addAttachment("att10", new Date(FIRST_SEEDING - DAY));
+		store.save(space, first.build());
+		Assert.assertEquals(Decision.FETCH, store.view(ImmutableList.of("DS")).decide("1"));
+		store.markProcessed(store.view(ImmutableList.of("DS")),
+				ImmutableList.of("1", "att10-1"));
+
+		store.save(space, store.load(space).unchanged(SECOND_SEEDING));
+		CrawlStateStore.View view = store.view(ImmutableList.of("DS"));
+		Assert.assertEquals(SECOND_SEEDING, store.load(space).getSeedTime());
+		Assert.assertEquals(Decision.UNCHANGED, view.decide("1"));
+		Assert.assertEquals(Decision.UNCHANGED, view.decide("att10-1"));
+	}
+
+	@Test
+	public void changesAreKeptUntilProcessed() throws Exception {
+		CrawlStateStore store = CrawlStateStore.forDirectory(folder.newFolder("pending"));
+		Optional<String> space = Optional.of("DS");
+
+		SpaceState.Builder first = new SpaceState.Builder(null, FIRST_SEEDING);
+		first.addPage("1", new Date(FIRST_SEEDING - 10 * DAY));
+		first.addPage("2", new Date(FIRST_SEEDING - 10 * DAY));
+		store.save(space, first.build());
+		CrawlStateStore.View firstView = store.view(ImmutableList.of("DS"));
+		store.markProcessed(firstView, ImmutableList.of("1"));
+
+		/* Page 2 was not processed before the next seeding */
+		SpaceState.Builder second = new SpaceState.Builder(store.load(space), SECOND_SEEDING);
+		second.addPage("1", new Date(FIRST_SEEDING - 10 * DAY));
+		second.addPage("2", new Date(FIRST_SEEDING - 10 * DAY));
+		store.save(space, second.build());
+		CrawlStateStore.View view = store.view(ImmutableList.of("DS"));
+		Assert.assertEquals(Decision.UNCHANGED, view.decide("1"));
+		Assert.assertEquals(Decision.FETCH, view.decide("2"));
+
+		/* Processed with the state of an older seeding */
+		store.markProcessed(firstView, ImmutableList.of("2"));
+		Assert.assertEquals(Decision.FETCH, store.view(ImmutableList.of("DS")).decide("2"));
+		store.markProcessed(view, ImmutableList.of("2"));
+		Assert.assertEquals(Decision.UNCHANGED, store.view(ImmutableList.of("DS")).decide("2"));
+	}
+
+	@Test
+	public void incompleteListingRemovesNothing() throws Exception {
+		CrawlStateStore store = CrawlStateStore.forDirectory(folder.newFolder("incomplete"));
+		Optional<String> space = Optional.of("DS");
+
+		SpaceState.Builder first = new SpaceState.Builder(null, FIRST_SEEDING);
+		first.addPage("1", new Date(FIRST_SEEDING - 10 * DAY));
+		first.addPage("2", new Date(FIRST_SEEDING - 10 * DAY));
+		first.addPage("3", new Date(FIRST_SEEDING - 10 * DAY));
+		first.addAttachment("att10", new Date(FIRST_SEEDING - 10 * DAY));
+		store.save(space, first.build());
+		store.markProcessed(store.view(ImmutableList.of("DS")),
+				ImmutableList.of("1", "2"));
+
+		/* The listing stopped after the first page */
+		SpaceState.Builder second = new SpaceState.Builder(store.load(space), SECOND_SEEDING);
+		second.addPage("1", new Date(FIRST_SEEDING - 10 * DAY));
+		SpaceState state = second.build(false);
+		Assert.assertEquals(0, state.getRemovedPages().length);
+		store.save(space, state);
+
+		CrawlStateStore.View view = store.view(ImmutableList.of("DS"));
+		Assert.assertEquals(Decision.UNCHANGED, view.decide("1"));
+		Assert.assertEquals(Decision.UNCHANGED, view.decide("2"));
+		Assert.assertEquals(Decision.FETCH, view.decide("3"));
+		Assert.assertEquals(Decision.FETCH, view.decide("att10-3"));
+	}
+
+	@Test
+	public void changedPagesKeepTheirListedVersion() throws Exception {
+		CrawlStateStore store = CrawlStateStore.forDirectory(folder.newFolder("versions"));
+		Optional<String> space = Optional.of("DS");
+
+		SpaceState.Builder first = new SpaceState.Builder(null, FIRST_SEEDING);
+		first.addPage("1", new Date(FIRST_SEEDING - 10 * DAY), 3);
+		first.addPage("2", new Date(FIRST_SEEDING - 10 * DAY), 7);
+		first.addPage("3000000000", new Date(FIRST_SEEDING - 10 * DAY), 2);
+		first.addPage("2", new Date(FIRST_SEEDING - 10 * DAY), 8);
+		store.save(space, first.build());
+		store.markProcessed(store.view(ImmutableList.of("DS")), ImmutableList.of("1"));
+
+		CrawlStateStore.View view = store.view(ImmutableList.of("DS"));
+		/* Processed, its version is not needed */
+		Assert.assertEquals(0, view.getListedVersion("1"));
+		Assert.assertEquals(8, view.getListedVersion("2"));
+		Assert.assertEquals(2, view.getListedVersion("3000000000"));
+		Assert.assertEquals(0, view.getListedVersion("att10-2"));
+
+		/* Notified as changed after the listing */
+		store.markChanged(ImmutableList.of("DS"), ImmutableList.of("2"));
+		view = store.view(ImmutableList.of("DS"));
+		Assert.assertEquals(0, view.getListedVersion("2"));
+		Assert.assertEquals(2, view.getListedVersion("3000000000"));
+	}
+
+	@Test
+	public void trashedPagesAreRemovedOnce() throws Exception {
+		CrawlStateStore store = CrawlStateStore.forDirectory(folder.newFolder("trash"));
+		SpaceState.Builder builder = new SpaceState.Builder(null, FIRST_SEEDING);
+		builder.addPage("1", new Date(FIRST_SEEDING - DAY));
+		builder.addPage("2", new Date(FIRST_SEEDING - DAY));
+		store.save(Optional.of("DS"), builder.build());
+
+		Assert.assertEquals(ImmutableSet.of("1"), store.markRemoved(
+				ImmutableList.of("DS"), ImmutableList.of("1", "7")));
+		Assert.assertTrue(store.markRemoved(ImmutableList.of("DS"),
+				ImmutableList.of("1")).isEmpty());
+
+		CrawlStateStore.View view = store.view(ImmutableList.of("DS"));
+		Assert.assertEquals(Decision.REMOVED, view.decide("1"));
+		Assert.assertEquals(Decision.REMOVED, view.decide("att10-1"));
+		/* New in the first seeding */
+		Assert.assertEquals(Decision.FETCH, view.decide("2"));
+
+		/* Unseeded spaces can not tell, every page is reported */
+		Assert.assertEquals(ImmutableSet.of("1", "7"), store.markRemoved(
+				ImmutableList.of("OTHER"), ImmutableList.of("1", "7")));
+	}
+
+	@Test
+	public void bitmapRemovesFromDenseChunks() {
+		LongBitmap bitmap = new LongBitmap();
+		for (long id = 0L; id < 5000L; id++) {
+			bitmap.add(id);
+		}
+		for (long id = 0L; id < 4000L; id++) {
+			Assert.assertTrue(bitmap.remove(id));
+		}
+		Assert.assertFalse(bitmap.remove(0L));
+		Assert.assertEquals(1000L, bitmap.cardinality());
+		Assert.assertTrue(bitmap.contains(4500L));
+	}
+
+	@Test
+	public void noViewUntilEverySpaceIsSeeded() throws Exception {
+		CrawlStateStore store = CrawlStateStore.forDirectory(folder.newFolder("unseeded"));
+		store.save(Optional.of("DS"), new SpaceState.Builder(null, FIRST_SEEDING).build());
+
+		Assert.assertNotNull(store.view(ImmutableList.of("DS")));
+		Assert.assertNull(store.view(ImmutableList.of("DS", "OTHER")));
+		Assert.assertNull(store.view(Collections.<String> emptyList()));
+	}
+}
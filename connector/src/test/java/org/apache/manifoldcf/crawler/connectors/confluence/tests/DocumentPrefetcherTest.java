@@ -0,0 +1,128 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.client.DocumentPrefetcher;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.MutableAttachment;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Page;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DocumentPrefetcherTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void fetchesNextDocumentsWhileTakingOne() throws Exception {
+		DocumentPrefetcher prefetcher = new DocumentPrefetcher(executor, 2,
+				Long.MAX_VALUE);
+		CountDownLatch fetched = new CountDownLatch(3);
+		AtomicInteger fetches = new AtomicInteger();
+		for (String id : new String[] { "1", "2", "3", "4" }) {
+			prefetcher.add(id, fetch(id, 10L, fetches, fetched));
+		}
+
+		Assert.assertEquals("1", prefetcher.take("1", null).getId());
+		/* Documents 2 and 3 are fetched ahead, 4 waits */
+		Assert.assertTrue(fetched.await(5L, TimeUnit.SECONDS));
+		Thread.sleep(100L);
+		Assert.assertEquals(3, fetches.get());
+
+		Assert.assertEquals("2", prefetcher.take("2", null).getId());
+		Assert.assertEquals("3", prefetcher.take("3", null).getId());
+		Assert.assertEquals("4", prefetcher.take("4", null).getId());
+		Assert.assertEquals(4, fetches.get());
+		prefetcher.close();
+	}
+
+	@Test
+	public void stopsFetchingWhenMemoryBudgetIsReached() throws Exception {
+		DocumentPrefetcher prefetcher = new DocumentPrefetcher(executor, 3,
+				100L);
+		CountDownLatch fetched = new CountDownLatch(4);
+		AtomicInteger fetches = new AtomicInteger();
+		for (String id : new String[] { "1", "2", "3", "4", "5" }) {
+			prefetcher.add(id, fetch(id, 100L, fetches, fetched));
+		}
+
+		prefetcher.take("1", null);
+		Assert.assertTrue(fetched.await(5L, TimeUnit.SECONDS));
+
+		/* Documents 3 and 4 are held in memory, 5 waits */
+		Assert.assertEquals("2", prefetcher.take("2", null).getId());
+		Thread.sleep(100L);
+		Assert.assertEquals(4, fetches.get());
+		Assert.assertEquals("3", prefetcher.take("3", null).getId());
+		Thread.sleep(100L);
+		Assert.assertEquals(4, fetches.get());
+
+		Assert.assertEquals("4", prefetcher.take("4", null).getId());
+		Assert.assertEquals("5", prefetcher.take("5", null).getId());
+		Assert.assertEquals(5, fetches.get());
+		prefetcher.close();
+	}
+
+	@Test
+	public void fetchesNotAddedDocumentsWhenTaken() throws Exception {
+		DocumentPrefetcher prefetcher = new DocumentPrefetcher(null, 2,
+				Long.MAX_VALUE);
+		AtomicInteger fetches = new AtomicInteger();
+		Assert.assertEquals("5",
+				prefetcher.take("5", fetch("5", 0L, fetches, null)).getId());
+		Assert.assertEquals(1, fetches.get());
+		prefetcher.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rethrowsFetchFailures() throws Exception {
+		DocumentPrefetcher prefetcher = new DocumentPrefetcher(executor, 2,
+				Long.MAX_VALUE);
+		try {
+			prefetcher.add("1", fetch("1", 0L, new AtomicInteger(), null));
+			prefetcher.add("2", new Callable<Page>() {
+				@Override
+				public Page call() throws Exception {
+					throw new IllegalStateException("Unavailable");
+				}
+			});
+			prefetcher.take("1", null);
+			prefetcher.take("2", null);
+		} finally {
+			prefetcher.close();
+		}
+	}
+
+	private static Callable<Page> fetch(final String id, final long length,
+			final AtomicInteger fetches, final CountDownLatch fetched) {
+		return new Callable<Page>() {
+			@Override
+			public Page call() throws Exception {
+				fetches.incrementAndGet();
+				MutableAttachment attachment = new MutableAttachment();
+				attachment.setId(id);
+				attachment.setLength(length);
+				if (fetched != null) {
+					fetched.countDown();
+				}
+				return attachment;
+			}
+		};
+	}
+}
@@ -0,0 +1,68 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.util.DocumentVersion;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+public class DocumentVersionTest {
+
+	@Test
+	public void versionStringsAreParsedBack() {
+		DocumentVersion version = new DocumentVersion("aa", "bb",
+				"Oct 18, 2026 10:15:00 AM");
+		DocumentVersion parsed = DocumentVersion.parse(version.toString());
+		Assert.assertEquals("aa", parsed.getContentHash());
+		Assert.assertEquals("bb", parsed.getFieldsHash());
+		Assert.assertEquals("Oct 18, 2026 10:15:00 AM", parsed.getModified());
+
+		Assert.assertNull(DocumentVersion.parse(null));
+		Assert.assertNull(DocumentVersion.parse("Oct 18, 2026 10:15:00 AM"));
+		Assert.assertNull(DocumentVersion.parse("sha256:aa"));
+	}
+
+	@Test
+	public void sameHashesAreTheSameDocument() {
+		DocumentVersion version = new DocumentVersion("aa", "bb", "today");
+		Assert.assertTrue(version.isSameDocument(new DocumentVersion("aa",
+				"bb", "yesterday")));
+		Assert.assertFalse(version.isSameDocument(new DocumentVersion("aa",
+				"cc", "today")));
+		Assert.assertFalse(version.isSameDocument(null));
+	}
+
+	@Test
+	public void contentIsHashedWhileRead() throws Exception {
+		byte[] content = "abc".getBytes(StandardCharsets.UTF_8);
+		MessageDigest digest = DocumentVersion.newDigest();
+		Assert.assertArrayEquals(content, DocumentVersion.read(
+				new ByteArrayInputStream(content), digest));
+		String hash = DocumentVersion.hash(digest);
+		Assert.assertEquals(
+				"ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+				hash);
+		Assert.assertEquals(hash, DocumentVersion.hash(content));
+	}
+
+	@Test
+	public void fieldFingerprintsIgnoreTheirOrder() {
+		Map<String, Object> fields = Maps.newLinkedHashMap();
+		fields.put("title", "A page");
+		fields.put("label", new String[] { "a", "b" });
+		Map<String, Object> reordered = Maps.newLinkedHashMap();
+		reordered.put("label", new String[] { "a", "b" });
+		reordered.put("title", "A page");
+		Assert.assertEquals(DocumentVersion.fingerprint(fields),
+				DocumentVersion.fingerprint(reordered));
+
+		reordered.put("label", new String[] { "ab" });
+		Assert.assertFalse(DocumentVersion.fingerprint(fields).equals(
+				DocumentVersion.fingerprint(reordered)));
+	}
+}
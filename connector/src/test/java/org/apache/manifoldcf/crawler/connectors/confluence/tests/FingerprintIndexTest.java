@@ -0,0 +1,71 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.manifoldcf.crawler.connectors.confluence.state.FingerprintIndex;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.ImmutableSet;
+
+public class FingerprintIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void nextCopiesReferenceTheFirstOne() throws Exception {
+		FingerprintIndex index = FingerprintIndex.forDirectory(folder
+				.newFolder("state"));
+		Assert.assertNull(index.getCanonical("DS:aa"));
+
+		Assert.assertTrue(index.record("att1-1", "DS:aa", "att1-1").isEmpty());
+		Assert.assertTrue(index.record("att2-2", "DS:aa", "att1-1").isEmpty());
+		Assert.assertTrue(index.record("att3-3", "DS:aa", "att1-1").isEmpty());
+		Assert.assertEquals("att1-1", index.getCanonical("DS:aa"));
+
+		/* A reference gone does not release anything */
+		Assert.assertTrue(index.remove("att3-3").isEmpty());
+		Assert.assertEquals("att1-1", index.getCanonical("DS:aa"));
+	}
+
+	@Test
+	public void referencesAreReleasedWhenTheCanonicalCopyChanges()
+			throws Exception {
+		FingerprintIndex index = FingerprintIndex.forDirectory(folder
+				.newFolder("state"));
+		index.record("att1-1", "DS:aa", "att1-1");
+		index.record("att2-2", "DS:aa", "att1-1");
+		index.record("att3-3", "DS:aa", "att1-1");
+
+		Assert.assertEquals(ImmutableSet.of("att2-2", "att3-3"),
+				index.record("att1-1", "DS:bb", "att1-1"));
+		Assert.assertNull(index.getCanonical("DS:aa"));
+		Assert.assertEquals("att1-1", index.getCanonical("DS:bb"));
+
+		/* The first reference indexed again becomes the canonical copy */
+		index.record("att2-2", "DS:aa", "att2-2");
+		index.record("att3-3", "DS:aa", "att2-2");
+		Assert.assertEquals(ImmutableSet.of("att3-3"), index.remove("att2-2"));
+	}
+
+	@Test
+	public void indexIsReadBack() throws Exception {
+		File directory = folder.newFolder("state");
+		FingerprintIndex index = FingerprintIndex.forDirectory(directory);
+		index.record("att2-2", "DS:aa", "att2-2");
+		index.record("att1-1", "DS:aa", "att1-1");
+		index.record("att3-3", "DS:aa", "att2-2");
+		index.flush();
+
+		File copy = folder.newFolder("copy");
+		FileUtils.copyDirectory(directory, copy);
+		FingerprintIndex read = FingerprintIndex.forDirectory(copy);
+		Assert.assertEquals("att2-2", read.getCanonical("DS:aa"));
+		Assert.assertEquals(ImmutableSet.of("att3-3"), read.remove("att2-2"));
+		Assert.assertTrue(read.remove("att1-1").isEmpty());
+	}
+}
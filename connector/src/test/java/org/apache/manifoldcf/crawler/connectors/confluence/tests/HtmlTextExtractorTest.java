@@ -0,0 +1,55 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.util.HtmlTextExtractor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class HtmlTextExtractorTest {
+
+	@Test
+	public void blocksAreLinesAndWhitespaceIsCollapsed() throws Exception {
+		HtmlTextExtractor extractor = new HtmlTextExtractor();
+		String html = "<div class=\"wiki-content\">\n  <p>First   &amp;\n line</p>"
+				+ "<ul><li>one</li><li>two</li></ul>"
+				+ "<table><tr><td>a</td><td>b</td></tr></table>"
+				+ "<p>x&nbsp;<b>y</b></p></div>";
+		Assert.assertEquals("First & line\none\ntwo\na b\nx y",
+				extract(extractor, html));
+	}
+
+	@Test
+	public void scriptsAreDroppedAndPreformattedTextIsKept() throws Exception {
+		HtmlTextExtractor extractor = new HtmlTextExtractor();
+		String html = "<style>p { color: red }</style><script>var a = '<p>';</script>"
+				+ "<pre>a  b\n  c</pre><p>end</p>";
+		Assert.assertEquals("a  b\n  c\nend", extract(extractor, html));
+	}
+
+	@Test
+	public void titleAndHeadingsAreCollected() throws Exception {
+		HtmlTextExtractor extractor = new HtmlTextExtractor();
+		String html = "<h1>Release <em>notes</em></h1><p>text</p><h2> Fixed\n bugs </h2>";
+		Assert.assertEquals("Release notes\ntext\nFixed bugs",
+				extract(extractor, html));
+		Assert.assertEquals("Release notes", extractor.getTitle());
+		Assert.assertEquals(Lists.newArrayList("Release notes", "Fixed bugs"),
+				extractor.getHeadings());
+
+		extractor = new HtmlTextExtractor();
+		Assert.assertEquals("Body", extract(extractor,
+				"<html><head><title>Page title</title></head><body>Body</body></html>"));
+		Assert.assertEquals("Page title", extractor.getTitle());
+	}
+
+	private static String extract(HtmlTextExtractor extractor, String html)
+			throws Exception {
+		StringWriter text = new StringWriter();
+		extractor.extract(new StringReader(html), text);
+		return text.toString();
+	}
+}
@@ -0,0 +1,57 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.util.EnumSet;
+import java.util.Map;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ConfluenceClient;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.BodyRepresentation;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.MetadataGroup;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.PageType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+public class MetadataGroupTest {
+
+	@Test
+	public void missingSelectionMeansAllTheGroups() {
+		Assert.assertEquals(MetadataGroup.ALL, MetadataGroup.fromNames(null));
+		Assert.assertTrue(MetadataGroup.fromNames("").isEmpty());
+		Assert.assertEquals(EnumSet.of(MetadataGroup.LABELS),
+				MetadataGroup.fromNames("labels, unknown"));
+		Assert.assertEquals("history,labels", MetadataGroup.toNames(EnumSet.of(
+				MetadataGroup.LABELS, MetadataGroup.HISTORY)));
+	}
+
+	@Test
+	public void onlyTheNeededExpansionsAreRequested() {
+		Assert.assertEquals("expand=space,version,body.view,history",
+				ConfluenceClient.expandParameters(PageType.PAGE,
+						MetadataGroup.ALL));
+		Assert.assertEquals("expand=space,version,body.view",
+				ConfluenceClient.expandParameters(PageType.PAGE,
+						EnumSet.of(MetadataGroup.LABELS)));
+		Assert.assertEquals("expand=space,version,container",
+				ConfluenceClient.expandParameters(PageType.ATTACHMENT,
+						EnumSet.noneOf(MetadataGroup.class)));
+		Assert.assertEquals("expand=space,version,body.storage",
+				ConfluenceClient.expandParameters(PageType.PAGE,
+						EnumSet.noneOf(MetadataGroup.class),
+						BodyRepresentation.STORAGE));
+	}
+
+	@Test
+	public void fieldsOfTheGroupsNotSelectedAreRemoved() {
+		Map<String, Object> metadata = Maps.newHashMap();
+		metadata.put("title", "A page");
+		metadata.put("creator", "admin");
+		metadata.put("lastModifier", "admin");
+		metadata.put("label", "news");
+
+		MetadataGroup.retain(metadata, EnumSet.of(MetadataGroup.VERSION));
+		Assert.assertEquals(2, metadata.size());
+		Assert.assertTrue(metadata.containsKey("title"));
+		Assert.assertTrue(metadata.containsKey("lastModifier"));
+	}
+}
@@ -0,0 +1,73 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ResponseCache;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResponseCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void storesBodyOnceFullyRead() throws Exception {
+		ResponseCache cache = ResponseCache.forDirectory(folder.newFolder("store"), 1024L);
+		String key = ResponseCache.key("user", "http://localhost/rest/api/content/1");
+
+		InputStream content = cache.store(key, "\"1\"", null, "application/json",
+				new ByteArrayInputStream("page".getBytes("UTF-8")));
+		Assert.assertNull(cache.lookup(key));
+		Assert.assertEquals("page", IOUtils.toString(content, "UTF-8"));
+		content.close();
+
+		ResponseCache.CachedResponse cached = cache.lookup(key);
+		Assert.assertNotNull(cached);
+		Assert.assertEquals("\"1\"", cached.getEtag());
+		Assert.assertEquals(4L, cached.getLength());
+		Assert.assertEquals("page", IOUtils.toString(cache.open(cached), "UTF-8"));
+	}
+
+	@Test
+	public void partiallyReadBodyIsNotStored() throws Exception {
+		ResponseCache cache = ResponseCache.forDirectory(folder.newFolder("partial"), 1024L);
+		String key = ResponseCache.key(null, "http://localhost/download/attachments/1/a.pdf");
+
+		InputStream content = cache.store(key, null, "Wed, 21 Oct 2015 07:28:00 GMT", null,
+				new ByteArrayInputStream("attachment".getBytes("UTF-8")));
+		content.read(new byte[3]);
+		content.close();
+
+		Assert.assertNull(cache.lookup(key));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws Exception {
+		ResponseCache cache = ResponseCache.forDirectory(folder.newFolder("evict"), 80L);
+		String first = ResponseCache.key("user", "first");
+		String second = ResponseCache.key("user", "second");
+		String third = ResponseCache.key("user", "third");
+
+		store(cache, first, 20);
+		store(cache, second, 20);
+		cache.lookup(first);
+		store(cache, third, 20);
+		store(cache, ResponseCache.key("user", "fourth"), 20);
+		store(cache, ResponseCache.key("user", "fifth"), 20);
+
+		Assert.assertNotNull(cache.lookup(first));
+		Assert.assertNull(cache.lookup(second));
+	}
+
+	private static void store(ResponseCache cache, String key, int length) throws Exception {
+		InputStream content = cache.store(key, "\"" + key + "\"", null, null,
+				new ByteArrayInputStream(new byte[length]));
+		IOUtils.toByteArray(content);
+		content.close();
+	}
+}
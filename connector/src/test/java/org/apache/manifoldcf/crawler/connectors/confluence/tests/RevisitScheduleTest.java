@@ -0,0 +1,47 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.util.Date;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.util.RevisitSchedule;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RevisitScheduleTest {
+
+	private static final long MINUTE = 60L * 1000L;
+	private static final long DAY = 24L * 60L * MINUTE;
+	private static final long NOW = 1000L * DAY;
+
+	@Test
+	public void pageEditedOftenIsRevisitedSoon() {
+		/* 13 versions in an hour, last edit two minutes ago */
+		long interval = RevisitSchedule.revisitInterval(13,
+				new Date(NOW - 62 * MINUTE), new Date(NOW - 2 * MINUTE), NOW);
+		Assert.assertEquals(RevisitSchedule.MIN_INTERVAL, interval);
+	}
+
+	@Test
+	public void pageEditedDailyIsRevisitedTwiceADay() {
+		long interval = RevisitSchedule.revisitInterval(11,
+				new Date(NOW - 11 * DAY), new Date(NOW - DAY), NOW);
+		Assert.assertEquals(DAY / 2, interval);
+	}
+
+	@Test
+	public void dormantPageBacksOffToAWeek() {
+		long interval = RevisitSchedule.revisitInterval(40,
+				new Date(NOW - 400 * DAY), new Date(NOW - 300 * DAY), NOW);
+		Assert.assertEquals(RevisitSchedule.MAX_INTERVAL, interval);
+		Assert.assertEquals(RevisitSchedule.MAX_INTERVAL,
+				RevisitSchedule.revisitInterval(0, null, null, NOW));
+	}
+
+	@Test
+	public void intervalGrowsWhileThePageIsUnchanged() {
+		Date created = new Date(NOW - 2 * DAY);
+		Date lastModified = new Date(NOW - DAY);
+		long first = RevisitSchedule.revisitInterval(2, created, lastModified, NOW);
+		long later = RevisitSchedule.revisitInterval(2, created, lastModified, NOW + first);
+		Assert.assertTrue(later > first);
+	}
+}
@@ -0,0 +1,78 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Attachment;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.ConfluenceResponse;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Label;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Page;
+import org.apache.manifoldcf.crawler.connectors.confluence.snapshot.SnapshotReader;
+import org.apache.manifoldcf.crawler.connectors.confluence.snapshot.SnapshotReplayClient;
+import org.apache.manifoldcf.crawler.connectors.confluence.snapshot.SnapshotWriter;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+
+public class SnapshotReplayTest {
+
+	private static final String PAGE = "{\"id\":\"%s\",\"type\":\"page\",\"title\":\"%s\",\"space\":{\"key\":\"%s\"},"
+			+ "\"version\":{\"number\":%d,\"by\":{\"displayName\":\"admin\"}},"
+			+ "\"body\":{\"view\":{\"value\":\"%s\"}},\"_links\":{\"self\":\"http://localhost/rest/api/content/%s\"}}";
+
+	private static final String ATTACHMENT = "{\"id\":\"%s\",\"type\":\"attachment\",\"title\":\"a.txt\",\"space\":{\"key\":\"SP\"},"
+			+ "\"container\":{\"id\":\"%s\"},\"extensions\":{\"mediaType\":\"text/plain\"},"
+			+ "\"_links\":{\"download\":\"/download/attachments/%s/a.txt\"}}";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void replaysRecordedPagesAndAttachments() throws Exception {
+		File directory = folder.newFolder("snapshot");
+		SnapshotWriter writer = SnapshotWriter.forDirectory(directory);
+		writer.recordPage("1", String.format(PAGE, "1", "First", "SP", 1, "old", "1"));
+		writer.recordPage("2", String.format(PAGE, "2", "Second", "OTHER", 1, "other", "2"));
+		writer.recordPage("1", String.format(PAGE, "1", "First", "SP", 2, "new", "1"));
+		writer.recordLabels("1", Arrays.asList(Label.builder().fromJson(
+				new JSONObject("{\"id\":\"10\",\"prefix\":\"global\",\"name\":\"faq\"}"))));
+		writer.recordAttachment("3", String.format(ATTACHMENT, "3", "1", "1"));
+		writer.recordAttachmentContent("3", "attachment".getBytes("UTF-8"));
+
+		SnapshotReplayClient client = new SnapshotReplayClient(SnapshotReader.forDirectory(directory));
+
+		ConfluenceResponse<Page> pages = client.getPages(0, 50, Optional.of("SP"));
+		Assert.assertEquals(1, pages.getResults().size());
+		Assert.assertTrue(pages.isLast());
+		Assert.assertEquals(2, client.getPages(0, 50, Optional.<String> absent()).getResults().size());
+
+		Page page = client.getPage("1");
+		Assert.assertEquals("new", page.getContent());
+		Assert.assertEquals(2, page.getVersion());
+		Assert.assertEquals("faq", page.getLabels().get(0).getName());
+
+		ConfluenceResponse<Attachment> attachments = client.getPageAttachments("1", 0, 50);
+		Assert.assertEquals("3", attachments.getResults().get(0).getId());
+		Attachment attachment = client.getAttachment("3");
+		Assert.assertEquals(10L, attachment.getLength());
+		Assert.assertEquals("attachment", IOUtils.toString(attachment.getContentStream(), "UTF-8"));
+	}
+
+	@Test
+	public void missingDocumentsAreEmpty() throws Exception {
+		File directory = folder.newFolder("empty");
+		SnapshotWriter.forDirectory(directory).recordPage("1",
+				String.format(PAGE, "1", "First", "SP", 1, "body", "1"));
+
+		SnapshotReplayClient client = new SnapshotReplayClient(SnapshotReader.forDirectory(directory));
+
+		Assert.assertNull(client.getPage("42").getId());
+		Assert.assertNull(client.getAttachment("42").getId());
+		Assert.assertTrue(client.getPageAttachments("1", 0, 50).getResults().isEmpty());
+	}
+}
@@ -0,0 +1,100 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Attachment;
+import org.apache.manifoldcf.crawler.connectors.confluence.model.Page;
+import org.apache.manifoldcf.crawler.connectors.confluence.snapshot.SnapshotReader;
+import org.apache.manifoldcf.crawler.connectors.confluence.snapshot.SnapshotReplayClient;
+import org.apache.manifoldcf.crawler.connectors.confluence.snapshot.SpaceExportImporter;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Optional;
+
+public class SpaceExportImporterTest {
+
+	private static final String ENTITIES = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<hibernate-generic datetime=\"2015-10-21 07:28:00\">\n"
+			+ "<object class=\"BodyContent\" package=\"com.atlassian.confluence.core\">"
+			+ "<id name=\"id\">20</id><property name=\"body\"><![CDATA[<p>Current</p>]]></property>"
+			+ "<property name=\"content\" class=\"Page\" package=\"com.atlassian.confluence.pages\"><id name=\"id\">10</id></property>"
+			+ "</object>\n"
+			+ "<object class=\"BodyContent\" package=\"com.atlassian.confluence.core\">"
+			+ "<id name=\"id\">21</id><property name=\"body\"><![CDATA[<p>Old</p>]]></property>"
+			+ "<property name=\"content\" class=\"Page\" package=\"com.atlassian.confluence.pages\"><id name=\"id\">11</id></property>"
+			+ "</object>\n"
+			+ "<object class=\"Page\" package=\"com.atlassian.confluence.pages\">"
+			+ "<id name=\"id\">10</id><property name=\"title\"><![CDATA[Home]]></property>"
+			+ "<property name=\"space\" class=\"Space\" package=\"com.atlassian.confluence.spaces\"><id name=\"id\">1</id></property>"
+			+ "<property name=\"version\">2</property>"
+			+ "<property name=\"creator\" class=\"ConfluenceUserImpl\" package=\"com.atlassian.confluence.user\"><id name=\"key\"><![CDATA[abc]]></id></property>"
+			+ "<property name=\"lastModificationDate\">2015-10-21 07:28:00.000</property>"
+			+ "<property name=\"contentStatus\"><![CDATA[current]]></property>"
+			+ "<collection name=\"bodyContents\" class=\"java.util.Collection\"><element class=\"BodyContent\"><id name=\"id\">20</id></element></collection>"
+			+ "</object>\n"
+			+ "<object class=\"Page\" package=\"com.atlassian.confluence.pages\">"
+			+ "<id name=\"id\">11</id><property name=\"title\"><![CDATA[Home]]></property>"
+			+ "<property name=\"space\" class=\"Space\" package=\"com.atlassian.confluence.spaces\"><id name=\"id\">1</id></property>"
+			+ "<property name=\"version\">1</property>"
+			+ "<property name=\"originalVersion\" class=\"Page\" package=\"com.atlassian.confluence.pages\"><id name=\"id\">10</id></property>"
+			+ "<property name=\"contentStatus\"><![CDATA[current]]></property>"
+			+ "</object>\n"
+			+ "<object class=\"Attachment\" package=\"com.atlassian.confluence.pages\">"
+			+ "<id name=\"id\">30</id><property name=\"title\"><![CDATA[a.txt]]></property>"
+			+ "<property name=\"containerContent\" class=\"Page\" package=\"com.atlassian.confluence.pages\"><id name=\"id\">10</id></property>"
+			+ "<property name=\"space\" class=\"Space\" package=\"com.atlassian.confluence.spaces\"><id name=\"id\">1</id></property>"
+			+ "<property name=\"version\">1</property>"
+			+ "<property name=\"contentStatus\"><![CDATA[current]]></property>"
+			+ "</object>\n"
+			+ "<object class=\"Space\" package=\"com.atlassian.confluence.spaces\">"
+			+ "<id name=\"id\">1</id><property name=\"key\"><![CDATA[SP]]></property>"
+			+ "</object>\n"
+			+ "<object class=\"ConfluenceUserImpl\" package=\"com.atlassian.confluence.user\">"
+			+ "<id name=\"key\"><![CDATA[abc]]></id><property name=\"name\"><![CDATA[admin]]></property>"
+			+ "</object>\n"
+			+ "</hibernate-generic>\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void importsCurrentPagesAndAttachments() throws Exception {
+		File archive = new File(folder.getRoot(), "SP-export.zip");
+		ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(archive));
+		try {
+			zip.putNextEntry(new ZipEntry("entities.xml"));
+			zip.write(ENTITIES.getBytes("UTF-8"));
+			zip.closeEntry();
+			zip.putNextEntry(new ZipEntry("attachments/10/30/1"));
+			zip.write("attachment".getBytes("UTF-8"));
+			zip.closeEntry();
+		} finally {
+			zip.close();
+		}
+
+		Assert.assertNull(SpaceExportImporter.imported(archive));
+		SnapshotReader reader = SpaceExportImporter.bootstrap(archive, "http://localhost:8090/confluence");
+		Assert.assertNotNull(SpaceExportImporter.imported(archive));
+
+		Assert.assertEquals(1, reader.getPageIds(Optional.of("SP")).size());
+		Assert.assertEquals("30", reader.getAttachmentIds("10").get(0));
+
+		SnapshotReplayClient client = new SnapshotReplayClient(reader);
+		Page page = client.getPage("10");
+		Assert.assertEquals("<p>Current</p>", page.getContent());
+		Assert.assertEquals(2, page.getVersion());
+		Assert.assertEquals("SP", page.getSpace());
+		Assert.assertEquals("admin", page.getCreatorUsername());
+		Assert.assertEquals("http://localhost:8090/confluence/pages/viewpage.action?pageId=10", page.getWebUrl());
+
+		Attachment attachment = client.getAttachment("30");
+		Assert.assertEquals("attachment", IOUtils.toString(attachment.getContentStream(), "UTF-8"));
+	}
+}
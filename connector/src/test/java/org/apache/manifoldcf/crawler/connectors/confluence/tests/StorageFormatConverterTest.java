@@ -0,0 +1,72 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.io.StringReader;
+
+import org.apache.manifoldcf.crawler.connectors.confluence.util.MarkupScanner;
+import org.apache.manifoldcf.crawler.connectors.confluence.util.StorageFormatConverter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StorageFormatConverterTest {
+
+	@Test
+	public void htmlIsKeptAsItIs() {
+		String html = "<h1>Title</h1><p class=\"x\">A &amp; B<br/></p><!-- note -->";
+		Assert.assertEquals("<h1>Title</h1><p class=\"x\">A &amp; B<br/></p>",
+				StorageFormatConverter.toHtml(html));
+	}
+
+	@Test
+	public void macrosShowTheirBodiesOnly() {
+		String storage = "<ac:structured-macro ac:name=\"info\">"
+				+ "<ac:parameter ac:name=\"title\">Hidden</ac:parameter>"
+				+ "<ac:rich-text-body><p>Shown</p></ac:rich-text-body>"
+				+ "</ac:structured-macro>"
+				+ "<ac:structured-macro ac:name=\"jira\">"
+				+ "<ac:parameter ac:name=\"key\">ABC-1</ac:parameter>"
+				+ "</ac:structured-macro>"
+				+ "<ac:structured-macro ac:name=\"code\">"
+				+ "<ac:plain-text-body><![CDATA[if (a < b) {}]]></ac:plain-text-body>"
+				+ "</ac:structured-macro>";
+		Assert.assertEquals("<p>Shown</p><pre>if (a &lt; b) {}</pre>",
+				StorageFormatConverter.toHtml(storage));
+	}
+
+	@Test
+	public void linksShowTheirBodyOrTheirTitle() {
+		String storage = "<p><ac:link><ri:page ri:content-title=\"Home &amp; Away\"/></ac:link> and "
+				+ "<ac:link><ri:page ri:content-title=\"Other\"/>"
+				+ "<ac:plain-text-link-body><![CDATA[the other page]]></ac:plain-text-link-body>"
+				+ "</ac:link><ac:image><ri:attachment ri:filename=\"logo.png\"/></ac:image></p>";
+		Assert.assertEquals("<p>Home &amp; Away and the other page</p>",
+				StorageFormatConverter.toHtml(storage));
+	}
+
+	@Test
+	public void tasksBecomeLists() {
+		String storage = "<ac:task-list><ac:task><ac:task-id>1</ac:task-id>"
+				+ "<ac:task-status>complete</ac:task-status>"
+				+ "<ac:task-body>Done</ac:task-body></ac:task></ac:task-list>";
+		Assert.assertEquals("<ul><li>Done</li></ul>",
+				StorageFormatConverter.toHtml(storage));
+	}
+
+	@Test
+	public void scannerReadsTagsAndText() throws Exception {
+		MarkupScanner scanner = new MarkupScanner(new StringReader(
+				"<a href='x>y' title=\"&lt;t&gt;\">1 < 2</a>"));
+		Assert.assertEquals(MarkupScanner.Token.START_TAG, scanner.next());
+		Assert.assertEquals("a", scanner.getName());
+		Assert.assertEquals("x>y", scanner.getAttribute("href"));
+		Assert.assertEquals("<t>", scanner.getAttribute("title"));
+		Assert.assertEquals(MarkupScanner.Token.TEXT, scanner.next());
+		Assert.assertEquals("1 ", scanner.getText());
+		Assert.assertEquals(MarkupScanner.Token.TEXT, scanner.next());
+		Assert.assertEquals("< 2", scanner.getText());
+		Assert.assertEquals(MarkupScanner.Token.END_TAG, scanner.next());
+		Assert.assertEquals("</a>", scanner.getTag());
+		Assert.assertEquals(MarkupScanner.Token.END, scanner.next());
+		Assert.assertEquals("caf\u00e9 \u2014 &unknown;",
+				MarkupScanner.decodeEntities("caf&#233; &mdash; &unknown;"));
+	}
+}
@@ -0,0 +1,58 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.util.Calendar;
+
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.apache.manifoldcf.crawler.connectors.confluence.client.ThrottleSchedule;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ThrottleScheduleTest {
+
+	private static final ThrottleSchedule.Profile DEFAULT_PROFILE = new ThrottleSchedule.Profile(8, 0);
+
+	@Test
+	public void businessHoursProfile() throws Exception {
+		ThrottleSchedule schedule = ThrottleSchedule.parse(
+				"Mon-Fri 08:00-18:00 1 2", DEFAULT_PROFILE);
+
+		ThrottleSchedule.Profile profile = schedule.profileAt(time(Calendar.WEDNESDAY, 10, 30));
+		Assert.assertEquals(1, profile.getMaxConnections());
+		Assert.assertEquals(2d, profile.getRequestsPerSecond(), 0d);
+
+		Assert.assertEquals(DEFAULT_PROFILE, schedule.profileAt(time(Calendar.WEDNESDAY, 18, 0)));
+		Assert.assertEquals(DEFAULT_PROFILE, schedule.profileAt(time(Calendar.SATURDAY, 10, 30)));
+	}
+
+	@Test
+	public void windowSpanningMidnight() throws Exception {
+		ThrottleSchedule schedule = ThrottleSchedule.parse(
+				"Fri 22:00-06:00 16 0", new ThrottleSchedule.Profile(1, 1));
+
+		Assert.assertEquals(16, schedule.profileAt(time(Calendar.FRIDAY, 23, 0)).getMaxConnections());
+		Assert.assertEquals(16, schedule.profileAt(time(Calendar.SATURDAY, 5, 59)).getMaxConnections());
+		Assert.assertEquals(1, schedule.profileAt(time(Calendar.FRIDAY, 5, 0)).getMaxConnections());
+	}
+
+	@Test
+	public void firstMatchingRuleWins() throws Exception {
+		ThrottleSchedule schedule = ThrottleSchedule.parse(
+				"# weekends are free\nSat,Sun 00:00-24:00 12 0;* 08:00-18:00 2 1", DEFAULT_PROFILE);
+
+		Assert.assertEquals(12, schedule.profileAt(time(Calendar.SUNDAY, 9, 0)).getMaxConnections());
+		Assert.assertEquals(2, schedule.profileAt(time(Calendar.MONDAY, 9, 0)).getMaxConnections());
+	}
+
+	@Test(expected = ManifoldCFException.class)
+	public void invalidRule() throws Exception {
+		ThrottleSchedule.parse("Someday 08:00-18:00 1 2", DEFAULT_PROFILE);
+	}
+
+	private static Calendar time(int dayOfWeek, int hour, int minute) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.set(Calendar.DAY_OF_WEEK, dayOfWeek);
+		calendar.set(Calendar.HOUR_OF_DAY, hour);
+		calendar.set(Calendar.MINUTE, minute);
+		return calendar;
+	}
+}
@@ -0,0 +1,180 @@
+package org.apache.manifoldcf.crawler.connectors.confluence.tests;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.manifoldcf.core.interfaces.ManifoldCFException;
+import org.apache.manifoldcf.crawler.connectors.confluence.webhook.ChangeEvent;
+import org.apache.manifoldcf.crawler.connectors.confluence.webhook.ChangeQueue;
+import org.apache.manifoldcf.crawler.connectors.confluence.webhook.WebhookReceiver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WebhookReceiverTest {
+
+	private static final String SECRET = "s3cret";
+	private static final String JOB = "job";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ChangeQueue queue;
+	private WebhookReceiver receiver;
+
+	@Before
+	public void startReceiver() throws Exception {
+		queue = ChangeQueue.forDirectory(folder.newFolder("queue"));
+		receiver = WebhookReceiver.start("localhost", 0, SECRET, queue);
+	}
+
+	@After
+	public void stopReceiver() {
+		receiver.stop();
+	}
+
+	@Test
+	public void queuesNotifiedPagesAndAttachments() throws Exception {
+		Assert.assertEquals(204, send(SECRET,
+				"{\"event\":\"page_updated\",\"page\":{\"id\":1234,\"spaceKey\":\"DS\"}}"));
+		Assert.assertEquals(204, send(SECRET,
+				"{\"event\":\"attachment_created\",\"attachments\":[{\"id\":99,\"spaceKey\":\"DS\"}],"
+						+ "\"attachedTo\":{\"id\":1234}}"));
+		Assert.assertEquals(204, send(SECRET,
+				"{\"event\":\"page_removed\",\"page\":{\"id\":1234,\"spaceKey\":\"DS\"}}"));
+		Assert.assertEquals(204, send(SECRET,
+				"{\"event\":\"space_created\",\"space\":{\"key\":\"NEW\"}}"));
+		/* Blog posts are not crawled */
+		Assert.assertEquals(204, send(SECRET,
+				"{\"event\":\"blog_created\",\"blog\":{\"id\":77,\"spaceKey\":\"DS\"}}"));
+		Assert.assertEquals(204, send(SECRET,
+				"{\"event\":\"attachment_created\",\"attachments\":[{\"id\":98,\"spaceKey\":\"DS\"}],"
+						+ "\"attachedTo\":{\"id\":77,\"type\":\"blogpost\"}}"));
+
+		List<ChangeEvent> changes = queue.drain(JOB).getChanges();
+		Assert.assertEquals(2, changes.size());
+		Assert.assertEquals("1234", changes.get(0).getDocumentIdentifier());
+		Assert.assertEquals("DS", changes.get(0).getSpaceKey());
+		Assert.assertEquals("att99-1234", changes.get(1).getDocumentIdentifier());
+	}
+
+	@Test
+	public void rejectsEventsWithoutTheSecret() throws Exception {
+		Assert.assertEquals(401, send("wrong",
+				"{\"event\":\"page_created\",\"page\":{\"id\":1,\"spaceKey\":\"DS\"}}"));
+		Assert.assertEquals(400, send(SECRET, "not json"));
+		Assert.assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void batchIsDrainedAgainUntilCommitted() throws Exception {
+		send(SECRET, "{\"event\":\"page_created\",\"page\":{\"id\":1,\"spaceKey\":\"DS\"}}");
+		Assert.assertEquals(1, queue.drain(JOB).getChanges().size());
+
+		send(SECRET, "{\"event\":\"page_created\",\"page\":{\"id\":2,\"spaceKey\":\"DS\"}}");
+		ChangeQueue.Batch batch = queue.drain(JOB);
+		Assert.assertEquals(2, batch.getChanges().size());
+
+		batch.commit();
+		Assert.assertTrue(queue.isEmpty());
+		Assert.assertTrue(queue.drain(JOB).getChanges().isEmpty());
+	}
+
+	@Test
+	public void everyJobSeedsEveryChange() throws Exception {
+		Assert.assertTrue(queue.drain("other").getChanges().isEmpty());
+		queue.append(Collections.singletonList(new ChangeEvent(ChangeEvent.PAGE,
+				"1", "1", "DS")));
+		queue.drain(JOB).commit();
+
+		queue.append(Collections.singletonList(new ChangeEvent(ChangeEvent.PAGE,
+				"2", "2", "DS")));
+		ChangeQueue.Batch other = queue.drain("other");
+		Assert.assertEquals(2, other.getChanges().size());
+		Assert.assertEquals(1, queue.drain(JOB).getChanges().size());
+
+		/* Emptied once both jobs seeded the whole queue */
+		other.commit();
+		Assert.assertFalse(queue.isEmpty());
+		queue.drain(JOB).commit();
+		Assert.assertTrue(queue.isEmpty());
+		Assert.assertTrue(queue.drain("other").getChanges().isEmpty());
+	}
+
+	@Test
+	public void portIsNotSharedWithOtherSettings() throws Exception {
+		Assert.assertSame(receiver, WebhookReceiver.start("localhost",
+				receiver.getPort(), SECRET, queue));
+		try {
+			WebhookReceiver.start("localhost", receiver.getPort(), "other",
+					queue);
+			Assert.fail("Started with another secret");
+		} catch (ManifoldCFException e) {
+			/* Expected */
+		}
+		try {
+			WebhookReceiver.start("localhost", receiver.getPort(), SECRET,
+					ChangeQueue.forDirectory(folder.newFolder("other")));
+			Assert.fail("Started with another queue");
+		} catch (ManifoldCFException e) {
+			/* Expected */
+		}
+		try {
+			WebhookReceiver.start("", receiver.getPort(), SECRET, queue);
+			Assert.fail("Started on another address");
+		} catch (ManifoldCFException e) {
+			/* Expected */
+		}
+	}
+
+	@Test
+	public void secretIsRequired() throws Exception {
+		try {
+			WebhookReceiver.start("localhost", 0, "", queue);
+			Assert.fail("Started without a secret");
+		} catch (ManifoldCFException e) {
+			/* Expected */
+		}
+	}
+
+	@Test
+	public void storedChangesNeedNumericIds() throws Exception {
+		Assert.assertEquals("att99-1234", ChangeEvent.fromLine(
+				"attachment\tatt99\t1234\tDS").getDocumentIdentifier());
+		Assert.assertEquals("1234", ChangeEvent.fromLine("page\t1234\t\t")
+				.getDocumentIdentifier());
+		Assert.assertNull(ChangeEvent.fromLine("page\t12a4\t\tDS"));
+		Assert.assertNull(ChangeEvent.fromLine("page\t\t\tDS"));
+		Assert.assertNull(ChangeEvent.fromLine("attachment\t99\t1234\tDS"));
+		Assert.assertNull(ChangeEvent.fromLine("attachment\tatt99\t-1\tDS"));
+	}
+
+	/**
+	 * Stand-in for Confluence, posts the event the way its webhooks do
+	 */
+	private int send(String secret, String event) throws Exception {
+		URL url = new URL("http://localhost:" + receiver.getPort()
+				+ WebhookReceiver.PATH + "?secret=" + secret);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try {
+			connection.setRequestMethod("POST");
+			connection.setRequestProperty("Content-Type", "application/json");
+			connection.setDoOutput(true);
+			OutputStream out = connection.getOutputStream();
+			try {
+				out.write(event.getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+			return connection.getResponseCode();
+		} finally {
+			connection.disconnect();
+		}
+	}
+}